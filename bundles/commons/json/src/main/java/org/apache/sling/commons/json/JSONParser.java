@@ -0,0 +1,524 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A <code>JSONParser</code> reads a JSON text incrementally from a
+ * <code>Reader</code> and reports it as a sequence of {@link Event events}.
+ * Only the current token is kept in memory, such that texts of any size can
+ * be processed. The parser accepts the same syntax as the
+ * {@link JSONTokener}, including its non-standard forms like comments,
+ * single quoted strings and unquoted keys and values.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * JSONParser parser = new JSONParser(reader);
+ * for (Event event = parser.next(); event != null; event = parser.next()) {
+ *     switch (event) {
+ *         case KEY:   ... parser.getKey() ...
+ *         case VALUE: ... parser.getValue() ...
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Instances of this class are not thread safe.
+ */
+public class JSONParser {
+
+    /** The events reported by the parser */
+    public enum Event {
+        /** An object has been started, its keys and values follow */
+        START_OBJECT,
+        /** The current object has ended */
+        END_OBJECT,
+        /** An array has been started, its values follow */
+        START_ARRAY,
+        /** The current array has ended */
+        END_ARRAY,
+        /** The key of an object member, see {@link JSONParser#getKey()} */
+        KEY,
+        /** A simple value, see {@link JSONParser#getValue()} */
+        VALUE
+    }
+
+    /** The size of the character buffer */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Expecting the top level value */
+    private static final int STATE_DOCUMENT = 0;
+
+    /** Expecting the first value of an array or its end */
+    private static final int STATE_ARRAY_FIRST = 1;
+
+    /** Expecting a value of an array or its end after a comma */
+    private static final int STATE_ARRAY_VALUE = 2;
+
+    /** Expecting a key of an object or its end */
+    private static final int STATE_OBJECT_KEY = 3;
+
+    /** Expecting the value of an object member */
+    private static final int STATE_OBJECT_VALUE = 4;
+
+    /** Expecting a separator or the end of the enclosing object or array */
+    private static final int STATE_AFTER_VALUE = 5;
+
+    /** The top level value has been read completely */
+    private static final int STATE_END = 6;
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /** The index of the next character in the buffer */
+    private int pos;
+
+    /** The number of characters in the buffer */
+    private int limit;
+
+    /** The number of characters consumed before the buffer */
+    private long offset;
+
+    /** Whether the last call to read() hit the end of the text */
+    private boolean eof;
+
+    /** The kinds of the open objects ('{') and arrays ('[') */
+    private char[] stack = new char[16];
+
+    private int depth;
+
+    private int state = STATE_DOCUMENT;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private String key;
+
+    private Object value;
+
+    /**
+     * Construct a JSONParser reading from a reader. The reader is buffered
+     * internally and is not closed by the parser.
+     *
+     * @param reader The reader providing the JSON text.
+     */
+    public JSONParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Determine if the JSON text has not been read completely yet.
+     * @return true if {@link #next()} will return another event.
+     */
+    public boolean hasNext() {
+        return this.state != STATE_END;
+    }
+
+    /**
+     * Read the next event from the JSON text.
+     * @return The next event or <code>null</code> if the top level value
+     *  has been read completely.
+     * @throws JSONException If the text cannot be read or has a syntax
+     *  error.
+     */
+    public Event next() throws JSONException {
+        char c;
+        switch (this.state) {
+        case STATE_END:
+            return null;
+
+        case STATE_ARRAY_FIRST:
+        case STATE_ARRAY_VALUE:
+            c = nextClean();
+            if (c == ']') {
+                return end(']');
+            }
+            if (c == ',' || c == ';') {
+                // tolerate missing elements
+                back();
+                this.value = JSONObject.NULL;
+                this.state = STATE_AFTER_VALUE;
+                return Event.VALUE;
+            }
+            return startValue(c);
+
+        case STATE_OBJECT_KEY:
+            c = nextClean();
+            switch (c) {
+            case 0:
+                throw syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return end('}');
+            case '"':
+            case '\'':
+                this.key = nextString(c);
+                break;
+            case '{':
+            case '[':
+                throw syntaxError("Expected a key");
+            default:
+                this.key = JSONTokener.stringToValue(nextUnquoted(c)).toString();
+            }
+
+            /*
+             * The key is followed by ':'. We will also tolerate '=' or '=>'.
+             */
+
+            c = nextClean();
+            if (c == '=') {
+                if (read() != '>') {
+                    back();
+                }
+            } else if (c != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            this.state = STATE_OBJECT_VALUE;
+            return Event.KEY;
+
+        case STATE_AFTER_VALUE:
+            c = nextClean();
+            if (this.stack[this.depth - 1] == '{') {
+                switch (c) {
+                case ';':
+                case ',':
+                    this.state = STATE_OBJECT_KEY;
+                    return next();
+                case '}':
+                    return end('}');
+                default:
+                    throw syntaxError("Expected a ',' or '}'");
+                }
+            }
+            switch (c) {
+            case ';':
+            case ',':
+                this.state = STATE_ARRAY_VALUE;
+                return next();
+            case ']':
+                return end(']');
+            default:
+                throw syntaxError("Expected a ',' or ']'");
+            }
+
+        default:
+            return startValue(nextClean());
+        }
+    }
+
+    /**
+     * Returns the key reported by the last {@link Event#KEY} event.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Returns the value reported by the last {@link Event#VALUE} event: a
+     * Boolean, Double, Integer, Long, String or the JSONObject.NULL object.
+     */
+    public Object getValue() {
+        return this.value;
+    }
+
+    /**
+     * Returns the number of objects and arrays which have been started but
+     * not ended yet.
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Read the remainder of the object or array reported by the last
+     * {@link Event#START_OBJECT} or {@link Event#START_ARRAY} event. After
+     * this method returns the parser is positioned after its end.
+     * @return The JSONObject or JSONArray.
+     * @throws JSONException If the last event did not start an object or
+     *  array or if the text cannot be read or has a syntax error.
+     */
+    public Object readStructure() throws JSONException {
+        if (this.depth == 0
+            || (this.state != STATE_OBJECT_KEY && this.state != STATE_ARRAY_FIRST)) {
+            throw new JSONException("No object or array has just been started");
+        }
+        if (this.stack[this.depth - 1] == '{') {
+            JSONObject object = new JSONObject();
+            for (Event event = next(); event != Event.END_OBJECT; event = next()) {
+                // event is KEY
+                final String name = this.key;
+                object.put(name, readValue(next()));
+            }
+            return object;
+        }
+
+        JSONArray array = new JSONArray();
+        for (Event event = next(); event != Event.END_ARRAY; event = next()) {
+            array.put(readValue(event));
+        }
+        return array;
+    }
+
+    /**
+     * Skip the value reported by the event, which must be the last event
+     * returned by {@link #next()}. For a started object or array the
+     * parser is positioned after its end.
+     * @param event The last event.
+     * @throws JSONException If the text cannot be read or has a syntax
+     *  error.
+     */
+    public void skipValue(Event event) throws JSONException {
+        if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+            final int level = this.depth;
+            while (this.depth >= level) {
+                next();
+            }
+        }
+    }
+
+    private Object readValue(Event event) throws JSONException {
+        if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+            return readStructure();
+        }
+        return this.value;
+    }
+
+    /**
+     * Report the value starting with the character.
+     */
+    private Event startValue(char c) throws JSONException {
+        switch (c) {
+        case '"':
+        case '\'':
+            this.value = nextString(c);
+            break;
+        case '{':
+            push('{');
+            this.state = STATE_OBJECT_KEY;
+            return Event.START_OBJECT;
+        case '[':
+            push('[');
+            this.state = STATE_ARRAY_FIRST;
+            return Event.START_ARRAY;
+        default:
+            this.value = JSONTokener.stringToValue(nextUnquoted(c));
+        }
+        this.state = (this.depth == 0) ? STATE_END : STATE_AFTER_VALUE;
+        return Event.VALUE;
+    }
+
+    /**
+     * Report the end of the current object or array.
+     */
+    private Event end(char c) {
+        this.depth--;
+        this.state = (this.depth == 0) ? STATE_END : STATE_AFTER_VALUE;
+        return (c == '}') ? Event.END_OBJECT : Event.END_ARRAY;
+    }
+
+    private void push(char c) {
+        if (this.depth == this.stack.length) {
+            char[] newStack = new char[this.stack.length * 2];
+            System.arraycopy(this.stack, 0, newStack, 0, this.depth);
+            this.stack = newStack;
+        }
+        this.stack[this.depth++] = c;
+    }
+
+    /**
+     * Get the next character of the text.
+     * @return The next character, or 0 if past the end of the text.
+     */
+    private char read() throws JSONException {
+        if (this.pos == this.limit) {
+            this.offset += this.limit;
+            this.pos = 0;
+            this.limit = 0;
+            try {
+                int rd;
+                do {
+                    rd = this.reader.read(this.buffer);
+                } while (rd == 0);
+                if (rd < 0) {
+                    this.eof = true;
+                    return 0;
+                }
+                this.limit = rd;
+            } catch (IOException ioe) {
+                throw new JSONException(ioe);
+            }
+        }
+        this.eof = false;
+        return this.buffer[this.pos++];
+    }
+
+    /**
+     * Back up the last character returned by {@link #read()}.
+     */
+    private void back() {
+        if (!this.eof && this.pos > 0) {
+            this.pos--;
+        }
+    }
+
+    /**
+     * Get the next char in the text, skipping whitespace and comments
+     * (slashslash, slashstar, and hash).
+     * @return A character, or 0 if there are no more characters.
+     */
+    private char nextClean() throws JSONException {
+        for (;;) {
+            char c = read();
+            if (c == '/') {
+                switch (read()) {
+                case '/':
+                    do {
+                        c = read();
+                    } while (c != '\n' && c != '\r' && c != 0);
+                    break;
+                case '*':
+                    for (;;) {
+                        c = read();
+                        if (c == 0) {
+                            throw syntaxError("Unclosed comment.");
+                        }
+                        if (c == '*') {
+                            if (read() == '/') {
+                                break;
+                            }
+                            back();
+                        }
+                    }
+                    break;
+                default:
+                    back();
+                    return '/';
+                }
+            } else if (c == '#') {
+                do {
+                    c = read();
+                } while (c != '\n' && c != '\r' && c != 0);
+            } else if (c == 0 || c > ' ') {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Return the characters up to the next close quote character with
+     * backslash processing done, see {@link JSONTokener#nextString(char)}.
+     */
+    private String nextString(char quote) throws JSONException {
+        final StringBuilder sb = this.text;
+        sb.setLength(0);
+        for (;;) {
+            char c = read();
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                c = read();
+                switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'u':
+                    sb.append((char) nextHex(4));
+                    break;
+                case 'x':
+                    sb.append((char) nextHex(2));
+                    break;
+                case 0:
+                    throw syntaxError("Unterminated string");
+                default:
+                    sb.append(c);
+                }
+                break;
+            default:
+                if (c == quote) {
+                    return sb.toString();
+                }
+                sb.append(c);
+            }
+        }
+    }
+
+    private int nextHex(int digits) throws JSONException {
+        int result = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = JSONTokener.dehexchar(read());
+            if (digit < 0) {
+                throw syntaxError("Illegal escape.");
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+
+    /**
+     * Return the unquoted text starting with the character, trimmed.
+     */
+    private String nextUnquoted(char c) throws JSONException {
+        final StringBuilder sb = this.text;
+        sb.setLength(0);
+        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+            sb.append(c);
+            c = read();
+        }
+        back();
+
+        final String s = sb.toString().trim();
+        if (s.length() == 0) {
+            throw syntaxError("Missing value.");
+        }
+        return s;
+    }
+
+    /**
+     * Make a JSONException to signal a syntax error.
+     *
+     * @param message The error message.
+     * @return  A JSONException object, suitable for throwing
+     */
+    public JSONException syntaxError(String message) {
+        return new JSONException(message + toString());
+    }
+
+    /**
+     * Make a printable string of this JSONParser.
+     *
+     * @return " at character [index]"
+     */
+    public String toString() {
+        return " at character " + (this.offset + this.pos);
+    }
+}
@@ -332,21 +332,33 @@ public class JSONTokener {
          */
 
         StringBuffer sb = new StringBuffer();
-        char b = c;
         while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
             sb.append(c);
             c = next();
         }
         back();
 
-        /*
-         * If it is true, false, or null, return the proper value.
-         */
-
         s = sb.toString().trim();
         if (s.equals("")) {
             throw syntaxError("Missing value.");
         }
+        return stringToValue(s);
+    }
+
+
+    /**
+     * Convert unquoted text to the value it represents: the values true,
+     * false, or null, a number or else the text itself.
+     * @param s The trimmed, non-empty text.
+     * @return A Boolean, Double, Integer, Long, String or the JSONObject.NULL
+     *  object.
+     */
+    static Object stringToValue(String s) {
+
+        /*
+         * If it is true, false, or null, return the proper value.
+         */
+
         if (s.equalsIgnoreCase("true")) {
             return Boolean.TRUE;
         }
@@ -365,6 +377,7 @@ public class JSONTokener {
          * non-JSON forms as long as it accepts all correct JSON forms.
          */
 
+        char b = s.charAt(0);
         if ((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+') {
             if (b == '0') {
                 if (s.length() > 2 &&
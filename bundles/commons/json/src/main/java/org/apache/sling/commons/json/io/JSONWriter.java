@@ -56,6 +56,13 @@ SOFTWARE.
  * you. Objects and arrays can be nested up to 20 levels deep.
  * <p>
  * This can sometimes be easier than using a JSONObject to build a string.
+ * <p>
+ * Strings are escaped directly into the writer and numbers are written without
+ * creating intermediate objects where possible. For large texts a writer
+ * created with {@link #JSONWriter(Writer, boolean) buffering} enabled collects
+ * the output in a reusable character buffer, which is written to the writer
+ * when full, when {@link #flush()} is called and when the outermost array or
+ * object has been ended.
  * @author JSON.org
  * @version 2
  */
@@ -77,6 +84,43 @@ public class JSONWriter {
         }
     }
 
+    /**
+     * The size of the character buffer of buffering writers
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The escape sequences of the ASCII characters which must be escaped in
+     * JSON strings, <code>null</code> for characters written as is.
+     */
+    private static final char[][] ESCAPES = new char[128][];
+    static {
+        final char[] hex = "0123456789abcdef".toCharArray();
+        for (int c = 0; c < ' '; c++) {
+            ESCAPES[c] = new char[] { '\\', 'u', '0', '0', hex[c >> 4], hex[c & 0xf] };
+        }
+        ESCAPES['\b'] = "\\b".toCharArray();
+        ESCAPES['\t'] = "\\t".toCharArray();
+        ESCAPES['\n'] = "\\n".toCharArray();
+        ESCAPES['\f'] = "\\f".toCharArray();
+        ESCAPES['\r'] = "\\r".toCharArray();
+        ESCAPES['"'] = "\\\"".toCharArray();
+        ESCAPES['\\'] = "\\\\".toCharArray();
+    }
+
+    /**
+     * The escape sequence of a slash following a less-than sign, such that
+     * <code>&lt;/script&gt;</code> never appears in the output
+     */
+    private static final char[] ESCAPED_SLASH = "\\/".toCharArray();
+
+    /**
+     * The largest double value written like a long value if it has no
+     * fraction, as <code>Double.toString</code> uses the computerized
+     * scientific notation for larger values.
+     */
+    private static final double MAX_PLAIN_DOUBLE = 1e7;
+
     /**
      * flag indicates that output should be nicely formatted
      */
@@ -113,15 +157,43 @@ public class JSONWriter {
      */
     protected Writer writer;
 
+    /**
+     * The buffer collecting the output or <code>null</code> if the output is
+     * written to the writer directly.
+     */
+    private final char[] buffer;
+
+    /**
+     * The number of characters in the buffer.
+     */
+    private int count;
+
+    /**
+     * The scratch space to format numbers.
+     */
+    private final char[] digits = new char[20];
+
     /**
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
     public JSONWriter(Writer w) {
+        this(w, false);
+    }
+
+    /**
+     * Make a fresh JSONWriter. It can be used to build one JSON text.
+     * @param w The writer that will receive the output.
+     * @param buffered <code>true</code> to collect the output in a character
+     *  buffer, which is written to <code>w</code> when full, when
+     *  {@link #flush()} is called and when the JSON text is complete.
+     */
+    public JSONWriter(Writer w, boolean buffered) {
         this.comma = false;
         this.mode = 'i';
         this.stack = new char[maxdepth];
         this.top = 0;
         this.writer = w;
+        this.buffer = buffered ? new char[BUFFER_SIZE] : null;
     }
 
     /**
@@ -140,6 +212,19 @@ public class JSONWriter {
         this.tidy = tidy;
     }
 
+    /**
+     * Writes the characters collected in the buffer to the writer. This
+     * method has no effect if the output is not buffered.
+     * @throws JSONException If writing fails.
+     */
+    public void flush() throws JSONException {
+        try {
+            this.flushBuffer();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
     /**
      * Append a value.
      * @param s A string value.
@@ -150,26 +235,43 @@ public class JSONWriter {
         if (s == null) {
             throw new JSONException("Null pointer");
         }
-        if (this.mode == 'o' || this.mode == 'a') {
-            try {
-                if (this.comma && this.mode == 'a') {
-                    this.writer.write(',');
-                }
-                if (tidy && this.mode == 'a' && !"{".equals(s) && !"[".equals(s)) {
-                    this.writer.write('\n');
-                    this.writer.write(INDENTS[top]);
-                }
-                this.writer.write(s);
-            } catch (IOException e) {
-                throw new JSONException(e);
-            }
-            if (this.mode == 'o') {
-                this.mode = 'k';
-            }
-            this.comma = true;
-            return this;
+        try {
+            this.beginValue("{".equals(s) || "[".equals(s));
+            this.write(s);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this.endValue();
+    }
+
+    /**
+     * Writes the separator and indentation required before a value.
+     * @param structure <code>true</code> if the value is an array or object.
+     * @throws JSONException If the value is out of sequence.
+     */
+    private void beginValue(boolean structure) throws JSONException, IOException {
+        if (this.mode != 'o' && this.mode != 'a') {
+            throw new JSONException("Value out of sequence.");
+        }
+        if (this.comma && this.mode == 'a') {
+            this.write(',');
+        }
+        if (tidy && this.mode == 'a' && !structure) {
+            this.write('\n');
+            this.write(INDENTS[top]);
+        }
+    }
+
+    /**
+     * Updates the state after a value has been written.
+     * @return this
+     */
+    private JSONWriter endValue() {
+        if (this.mode == 'o') {
+            this.mode = 'k';
         }
-        throw new JSONException("Value out of sequence.");
+        this.comma = true;
+        return this;
     }
 
     /**
@@ -206,10 +308,13 @@ public class JSONWriter {
         this.pop(m);
         try {
             if (tidy) {
-                this.writer.write('\n');
-                this.writer.write(INDENTS[top]);
+                this.write('\n');
+                this.write(INDENTS[top]);
+            }
+            this.write(c);
+            if (this.mode == 'd') {
+                this.flushBuffer();
             }
-            this.writer.write(c);
         } catch (IOException e) {
             throw new JSONException(e);
         }
@@ -252,16 +357,16 @@ public class JSONWriter {
         if (this.mode == 'k') {
             try {
                 if (this.comma) {
-                    this.writer.write(',');
+                    this.write(',');
                 }
                 if (tidy) {
-                    this.writer.write('\n');
-                    this.writer.write(INDENTS[top]);
+                    this.write('\n');
+                    this.write(INDENTS[top]);
                 }
-                this.writer.write(JSONObject.quote(s));
-                this.writer.write(':');
+                this.quote(s);
+                this.write(':');
                 if (tidy) {
-                    this.writer.write(' ');
+                    this.write(' ');
                 }
                 this.comma = false;
                 this.mode = 'o';
@@ -344,7 +449,16 @@ public class JSONWriter {
      * @throws JSONException If the number is not finite.
      */
     public JSONWriter value(double d) throws JSONException {
-        return this.value(new Double(d));
+        if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException("JSON does not allow non-finite numbers");
+        }
+        try {
+            this.beginValue(false);
+            this.writeDouble(d);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this.endValue();
     }
 
     /**
@@ -354,7 +468,13 @@ public class JSONWriter {
      * @throws JSONException
      */
     public JSONWriter value(long l) throws JSONException {
-        return this.append(Long.toString(l));
+        try {
+            this.beginValue(false);
+            this.writeLong(l);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        return this.endValue();
     }
 
 
@@ -367,6 +487,164 @@ public class JSONWriter {
      * @throws JSONException If the value is out of sequence.
      */
     public JSONWriter value(Object o) throws JSONException {
+        if (o instanceof String) {
+            try {
+                this.beginValue(false);
+                this.quote((String) o);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            return this.endValue();
+        } else if (o instanceof Long || o instanceof Integer
+            || o instanceof Short || o instanceof Byte) {
+            return this.value(((Number) o).longValue());
+        } else if (o instanceof Double) {
+            return this.value(((Double) o).doubleValue());
+        } else if (o instanceof Boolean) {
+            return this.value(((Boolean) o).booleanValue());
+        }
         return this.append(JSONObject.valueToString(o));
     }
+
+    /**
+     * Writes the string as a quoted JSON string, escaping the characters as
+     * {@link JSONObject#quote(String)} does.
+     * @param s The string to quote.
+     */
+    private void quote(String s) throws IOException {
+        this.write('"');
+        final int len = s.length();
+        int start = 0;
+        char b;
+        char c = 0;
+        for (int i = 0; i < len; i++) {
+            b = c;
+            c = s.charAt(i);
+            if (c < ESCAPES.length) {
+                char[] escape = ESCAPES[c];
+                if (escape == null && c == '/' && b == '<') {
+                    escape = ESCAPED_SLASH;
+                }
+                if (escape != null) {
+                    if (i > start) {
+                        this.write(s, start, i - start);
+                    }
+                    this.write(escape, 0, escape.length);
+                    start = i + 1;
+                }
+            }
+        }
+        if (start < len) {
+            this.write(s, start, len - start);
+        }
+        this.write('"');
+    }
+
+    /**
+     * Writes the decimal representation of the long value.
+     * @param l A long.
+     */
+    private void writeLong(long l) throws IOException {
+        if (l == Long.MIN_VALUE) {
+            this.write(Long.toString(l));
+            return;
+        }
+
+        final boolean negative = l < 0;
+        if (negative) {
+            l = -l;
+        }
+        int pos = this.digits.length;
+        do {
+            this.digits[--pos] = (char) ('0' + (l % 10));
+            l /= 10;
+        } while (l != 0);
+        if (negative) {
+            this.digits[--pos] = '-';
+        }
+        this.write(this.digits, pos, this.digits.length - pos);
+    }
+
+    /**
+     * Writes the finite double value as {@link JSONObject#numberToString}
+     * does: without trailing zeros and decimal point, if possible.
+     * @param d A double.
+     */
+    private void writeDouble(double d) throws IOException {
+        // integral values are written as longs, except for -0.0
+        final long l = (long) d;
+        if (l == d && Math.abs(d) < MAX_PLAIN_DOUBLE
+            && (l != 0 || 1 / d > 0)) {
+            this.writeLong(l);
+            return;
+        }
+
+        final String s = Double.toString(d);
+        int end = s.length();
+        if (s.indexOf('.') > 0 && s.indexOf('E') < 0) {
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+        }
+        this.write(s, 0, end);
+    }
+
+    private void write(char c) throws IOException {
+        if (this.buffer == null) {
+            this.writer.write(c);
+        } else {
+            if (this.count == this.buffer.length) {
+                this.flushBuffer();
+            }
+            this.buffer[this.count++] = c;
+        }
+    }
+
+    private void write(String s) throws IOException {
+        this.write(s, 0, s.length());
+    }
+
+    private void write(String s, int off, int len) throws IOException {
+        if (this.buffer == null) {
+            this.writer.write(s, off, len);
+        } else if (len > this.buffer.length - this.count) {
+            this.flushBuffer();
+            if (len > this.buffer.length) {
+                this.writer.write(s, off, len);
+            } else {
+                s.getChars(off, off + len, this.buffer, 0);
+                this.count = len;
+            }
+        } else {
+            s.getChars(off, off + len, this.buffer, this.count);
+            this.count += len;
+        }
+    }
+
+    private void write(char[] chars, int off, int len) throws IOException {
+        if (this.buffer == null) {
+            this.writer.write(chars, off, len);
+        } else if (len > this.buffer.length - this.count) {
+            this.flushBuffer();
+            if (len > this.buffer.length) {
+                this.writer.write(chars, off, len);
+            } else {
+                System.arraycopy(chars, off, this.buffer, 0, len);
+                this.count = len;
+            }
+        } else {
+            System.arraycopy(chars, off, this.buffer, this.count, len);
+            this.count += len;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.writer.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
 }
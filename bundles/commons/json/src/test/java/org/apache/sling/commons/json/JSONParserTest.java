@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONParser.Event;
+
+public class JSONParserTest extends TestCase {
+
+    private static final String[] TEXTS = {
+        "{}",
+        "{\"a\":1,\"b\":\"two\",\"c\":true,\"d\":null,\"e\":1.5}",
+        "{ \"a\" : [ 1, 2, [3, {\"x\": []}] ], \"b\": { \"c\": { } } }",
+        "{ 'single': 'quoted', unquoted: value, 'esc': \"\\t\\u0041\\x42\\\"\" }",
+        "{ a = 1; b => 2, c: 0x10, d: 012, e: 12345678901, f: -3e2 }",
+        "// comment\n{ /* more */ a: 1, # hash comment\n b: [1,,2,], }",
+        "{\"a\":[,1]}"
+    };
+
+    public void testSameAsJSONObject() throws JSONException {
+        for (String text : TEXTS) {
+            assertEquals(text, new JSONObject(text).toString(), parse(text, false));
+            assertEquals(text, new JSONObject(text).toString(), parse(text, true));
+        }
+    }
+
+    public void testEvents() throws JSONException {
+        JSONParser parser = new JSONParser(new StringReader(
+            "{\"a\": [1, \"x\"], \"b\": {\"c\": false}}"));
+        assertEquals(Event.START_OBJECT, parser.next());
+        assertEquals(Event.KEY, parser.next());
+        assertEquals("a", parser.getKey());
+        assertEquals(Event.START_ARRAY, parser.next());
+        assertEquals(2, parser.getDepth());
+        assertEquals(Event.VALUE, parser.next());
+        assertEquals(new Integer(1), parser.getValue());
+        assertEquals(Event.VALUE, parser.next());
+        assertEquals("x", parser.getValue());
+        assertEquals(Event.END_ARRAY, parser.next());
+        assertEquals(Event.KEY, parser.next());
+        assertEquals("b", parser.getKey());
+        assertEquals(Event.START_OBJECT, parser.next());
+        assertEquals(Event.KEY, parser.next());
+        assertEquals("c", parser.getKey());
+        assertEquals(Event.VALUE, parser.next());
+        assertEquals(Boolean.FALSE, parser.getValue());
+        assertEquals(Event.END_OBJECT, parser.next());
+        assertTrue(parser.hasNext());
+        assertEquals(Event.END_OBJECT, parser.next());
+        assertFalse(parser.hasNext());
+        assertNull(parser.next());
+    }
+
+    public void testSkipValue() throws JSONException {
+        JSONParser parser = new JSONParser(new StringReader(
+            "{\"a\": {\"b\": [1, {\"c\": 2}]}, \"d\": 3}"));
+        assertEquals(Event.START_OBJECT, parser.next());
+        assertEquals(Event.KEY, parser.next());
+        parser.skipValue(parser.next());
+        assertEquals(Event.KEY, parser.next());
+        assertEquals("d", parser.getKey());
+        assertEquals(Event.VALUE, parser.next());
+        assertEquals(new Integer(3), parser.getValue());
+        assertEquals(Event.END_OBJECT, parser.next());
+    }
+
+    public void testTopLevelValue() throws JSONException {
+        JSONParser parser = new JSONParser(new StringReader(" 42 "));
+        assertEquals(Event.VALUE, parser.next());
+        assertEquals(new Integer(42), parser.getValue());
+        assertNull(parser.next());
+    }
+
+    public void testLargeText() throws JSONException {
+        final int count = 20000;
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < count; i++) {
+            text.append("\"node").append(i).append("\":{\"p\":\"value ");
+            text.append(i).append("\",\"n\":").append(i).append("},");
+        }
+        text.append('}');
+
+        JSONParser parser = new JSONParser(new StringReader(text.toString()));
+        int nodes = 0;
+        for (Event event = parser.next(); event != null; event = parser.next()) {
+            if (event == Event.START_OBJECT) {
+                nodes++;
+            }
+        }
+        assertEquals(count + 1, nodes);
+    }
+
+    public void testSyntaxErrors() {
+        final String[] errors = { "", "{", "{\"a\" 1}", "{\"a\": }", "[1 : 2]",
+            "{\"a\": \"unterminated}", "{\"a\": [1}", "{/* open" };
+        for (String text : errors) {
+            try {
+                parse(text, false);
+                fail("Expected syntax error for " + text);
+            } catch (JSONException je) {
+                // expected
+            }
+        }
+    }
+
+    private static String parse(String text, boolean slow) throws JSONException {
+        Reader reader = new StringReader(text);
+        if (slow) {
+            reader = new OneCharReader(reader);
+        }
+        JSONParser parser = new JSONParser(reader);
+        Event event = parser.next();
+        if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+            throw parser.syntaxError("Expected an object or array");
+        }
+        Object result = parser.readStructure();
+        assertFalse(parser.hasNext());
+        return result.toString();
+    }
+
+    /** Returns at most one character per read to test buffer refills */
+    private static class OneCharReader extends FilterReader {
+        OneCharReader(Reader in) {
+            super(in);
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(1, len));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.StringWriter;
+
+import org.apache.sling.commons.json.JSONException;
+
+/**
+ * Compares the time to write a large tree with the values converted to
+ * strings by <code>JSONObject</code> as before with writing the values
+ * directly, unbuffered and buffered. The tree and the reference conversion
+ * are the same as used by {@link JSONWriterTest}, which verifies the
+ * output is the same.
+ * <p>
+ * This is not a unit test, run it with
+ * <code>java -cp ... org.apache.sling.commons.json.io.JSONWriterBenchmark [nodes]</code>
+ * with the test classes and JUnit on the class path.
+ */
+public class JSONWriterBenchmark {
+
+    public static void main(String[] args) throws JSONException {
+        final int nodes = (args.length > 0)
+                ? Integer.parseInt(args[0])
+                : 100000;
+
+        // warm up all variants before measuring
+        for (int i = 0; i < 3; i++) {
+            run(0, nodes / 10);
+            run(1, nodes / 10);
+            run(2, nodes / 10);
+        }
+
+        final long referenceTime = run(0, nodes);
+        final long directTime = run(1, nodes);
+        final long bufferedTime = run(2, nodes);
+
+        System.out.println("JSONWriterBenchmark: " + nodes + " nodes, quote(): "
+            + referenceTime + "ms, direct: " + directTime + "ms, buffered: "
+            + bufferedTime + "ms");
+    }
+
+    private static long run(int variant, int nodes) throws JSONException {
+        final StringWriter out = new StringWriter(nodes * 120);
+        final JSONWriter writer;
+        if (variant == 0) {
+            writer = new JSONWriterTest.ReferenceWriter(out);
+        } else {
+            writer = new JSONWriter(out, variant == 2);
+        }
+
+        final long start = System.currentTimeMillis();
+        JSONWriterTest.dump(writer, nodes);
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.json.io;
+
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.commons.json.JSONException;
+import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.JSONString;
+
+/**
+ * Verifies that the direct escaping and number formatting of the
+ * <code>JSONWriter</code> produces the same output as
+ * {@link JSONObject#quote(String)} and {@link JSONObject#valueToString(Object)}.
+ */
+public class JSONWriterTest extends TestCase {
+
+    private static final String[] STRINGS = {
+        "", "plain", "quote\"d", "back\\slash", "</script>", "a/b", "<<//",
+        "\b\t\n\f\r", "\u0000\u0001\u001f ", "Umlaut \u00e4\u00f6\u00fc",
+        "\u007f\u0080\u2028\u1234", "trailing\n"
+    };
+
+    private static final double[] DOUBLES = {
+        0.0, -0.0, 1.0, -1.0, 1.5, 0.1, 100.25, 9999999.0, 1e7, -1e7,
+        12345678.0, 1e-5, 1.0E22, Double.MAX_VALUE, Double.MIN_VALUE
+    };
+
+    private static final long[] LONGS = {
+        0, 1, -1, 9, 10, -10, Integer.MAX_VALUE, Integer.MIN_VALUE,
+        Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1
+    };
+
+    public void testStrings() throws JSONException {
+        for (String s : STRINGS) {
+            assertEquals(JSONObject.quote(s), write(s));
+        }
+    }
+
+    public void testDoubles() throws JSONException {
+        for (double d : DOUBLES) {
+            assertEquals(JSONObject.valueToString(new Double(d)),
+                write(new Double(d)));
+        }
+    }
+
+    public void testLongs() throws JSONException {
+        for (long l : LONGS) {
+            assertEquals(JSONObject.valueToString(new Long(l)),
+                write(new Long(l)));
+            assertEquals(JSONObject.valueToString(new Integer((int) l)),
+                write(new Integer((int) l)));
+        }
+    }
+
+    public void testOtherValues() throws JSONException {
+        assertEquals("true", write(Boolean.TRUE));
+        assertEquals("null", write(null));
+        assertEquals("null", write(JSONObject.NULL));
+        assertEquals("1.5", write(new Float(1.5f)));
+        assertEquals("{\"a\":1}", write(new JSONObject().put("a", 1)));
+    }
+
+    public void testNonFiniteDouble() {
+        try {
+            new JSONStringer().array().value(Double.NaN);
+            fail("NaN must not be written");
+        } catch (JSONException je) {
+            // expected
+        }
+        try {
+            new JSONStringer().array().value(Double.POSITIVE_INFINITY);
+            fail("Infinity must not be written");
+        } catch (JSONException je) {
+            // expected
+        }
+    }
+
+    public void testTidy() throws JSONException {
+        StringWriter w = new StringWriter();
+        JSONWriter jw = new JSONWriter(w, true);
+        jw.setTidy(true);
+        jw.object().key("a").array().value(1).value("x").endArray().endObject();
+        assertEquals("{\n  \"a\": [\n    1,\n    \"x\"\n  ]\n}", w.toString());
+    }
+
+    public void testBufferedFlush() throws JSONException {
+        StringWriter w = new StringWriter();
+        JSONWriter jw = new JSONWriter(w, true);
+        jw.object().key("a").value("b");
+        assertEquals("", w.toString());
+        jw.flush();
+        assertEquals("{\"a\":\"b\"", w.toString());
+        jw.endObject();
+        assertEquals("{\"a\":\"b\"}", w.toString());
+    }
+
+    /**
+     * Writes a small tree with the buffered and unbuffered writers and with
+     * the values converted by <code>JSONObject</code> as before and compares
+     * the output.
+     */
+    public void testDumpEquivalence() throws JSONException {
+        final int nodes = 20;
+
+        StringWriter reference = new StringWriter();
+        dump(new ReferenceWriter(reference), nodes);
+
+        StringWriter direct = new StringWriter();
+        dump(new JSONWriter(direct), nodes);
+
+        StringWriter buffered = new StringWriter();
+        dump(new JSONWriter(buffered, true), nodes);
+
+        assertEquals(reference.toString(), direct.toString());
+        assertEquals(reference.toString(), buffered.toString());
+    }
+
+    static void dump(JSONWriter w, int nodes) throws JSONException {
+        w.object();
+        w.key("jcr:primaryType").value("sling:Folder");
+        w.key("children").array();
+        for (int i = 0; i < nodes; i++) {
+            w.object();
+            w.key("name").value("node-" + i);
+            w.key("title").value("Node <" + i + "/> \"quoted\"\n\ttabbed");
+            w.key("index").value(i);
+            w.key("size").value(i * 31L);
+            w.key("ratio").value(i / 7.0);
+            w.key("weight").value((double) i);
+            w.key("hidden").value(i % 2 == 0);
+            w.key("tags").array().value("a").value("b\\c").endArray();
+            w.endObject();
+        }
+        w.endArray();
+        w.endObject();
+    }
+
+    private static String write(Object value) throws JSONException {
+        StringWriter w = new StringWriter();
+        new JSONWriter(w).array().value(value).endArray();
+        String s = w.toString();
+        return s.substring(1, s.length() - 1);
+    }
+
+    /**
+     * Writes the values as the <code>JSONWriter</code> did before values were
+     * written directly: converted to strings by <code>JSONObject</code>.
+     */
+    static class ReferenceWriter extends JSONWriter {
+
+        ReferenceWriter(Writer w) {
+            super(w);
+        }
+
+        public JSONWriter value(double d) throws JSONException {
+            return this.value(new Double(d));
+        }
+
+        public JSONWriter value(long l) throws JSONException {
+            return super.value(new Literal(Long.toString(l)));
+        }
+
+        public JSONWriter value(Object o) throws JSONException {
+            return super.value(new Literal(JSONObject.valueToString(o)));
+        }
+    }
+
+    private static class Literal implements JSONString {
+
+        private final String value;
+
+        Literal(String value) {
+            this.value = value;
+        }
+
+        public String toJSONString() {
+            return value;
+        }
+    }
+}
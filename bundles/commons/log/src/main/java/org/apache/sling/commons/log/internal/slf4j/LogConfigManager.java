@@ -143,6 +143,16 @@ public class LogConfigManager implements ILoggerFactory {
      * After this methods is called, this instance should not be used again.
      */
     public void close() {
+        // shutdown the writers, including the default writer, writing any
+        // messages still queued by asynchronous writers
+        for (SlingLoggerWriter writer : writerByPid.values()) {
+            try {
+                writer.close();
+            } catch (IOException ignore) {
+                // don't care for this
+            }
+        }
+
         writerByPid.clear();
         writerByFileName.clear();
         configByPid.clear();
@@ -153,13 +163,6 @@ public class LogConfigManager implements ILoggerFactory {
             logger.clear();
         }
         loggersByCategory.clear();
-
-        // shutdown the default writer
-        try {
-            defaultWriter.close();
-        } catch (IOException ignore) {
-            // don't care for this
-        }
     }
 
     // ---------- ILoggerFactory -----------------------------------------------
@@ -213,6 +216,23 @@ public class LogConfigManager implements ILoggerFactory {
      * cannot be converted to a number, the default value
      * {@link LogManager#LOG_FILE_NUMBER_DEFAULT} is assumed. If the writer
      * writes standard output this property is ignored.</dd>
+     * <dt>{@link LogManager#LOG_FILE_ASYNC}</dt>
+     * <dd>Whether log messages are written by a background thread instead of
+     * the thread logging the message. The default is <code>false</code>.</dd>
+     * <dt>{@link LogManager#LOG_FILE_ASYNC_QUEUE_SIZE}</dt>
+     * <dd>The maximum number of messages waiting to be written by the
+     * background thread. If this property is missing or cannot be converted
+     * to a positive number, the default value
+     * {@link LogManager#LOG_FILE_ASYNC_QUEUE_SIZE_DEFAULT} is assumed. This
+     * property is ignored if the writer is not asynchronous.</dd>
+     * <dt>{@link LogManager#LOG_FILE_ASYNC_OVERFLOW}</dt>
+     * <dd>What happens to messages logged while the queue is full:
+     * {@link LogManager#LOG_FILE_ASYNC_OVERFLOW_BLOCK} has the logging thread
+     * wait for room in the queue and
+     * {@link LogManager#LOG_FILE_ASYNC_OVERFLOW_DISCARD} drops the message.
+     * The number of dropped messages is reported in the log. The default is
+     * to block. This property is ignored if the writer is not
+     * asynchronous.</dd>
      * </dl>
      * 
      * @param pid The identifier of the log writer to update or remove
@@ -280,6 +300,31 @@ public class LogConfigManager implements ILoggerFactory {
                 fileSize = LogManager.LOG_FILE_SIZE_DEFAULT;
             }
 
+            // get the asynchronous writing setup
+            Object asyncProp = configuration.get(LogManager.LOG_FILE_ASYNC);
+            boolean async = (asyncProp instanceof Boolean)
+                    ? ((Boolean) asyncProp).booleanValue()
+                    : (asyncProp != null && Boolean.valueOf(asyncProp.toString()).booleanValue());
+
+            Object queueSizeProp = configuration.get(LogManager.LOG_FILE_ASYNC_QUEUE_SIZE);
+            int queueSize = -1;
+            if (queueSizeProp instanceof Number) {
+                queueSize = ((Number) queueSizeProp).intValue();
+            } else if (queueSizeProp != null) {
+                try {
+                    queueSize = Integer.parseInt(queueSizeProp.toString());
+                } catch (NumberFormatException nfe) {
+                    // don't care
+                }
+            }
+            if (queueSize <= 0) {
+                queueSize = LogManager.LOG_FILE_ASYNC_QUEUE_SIZE_DEFAULT;
+            }
+
+            Object overflowProp = configuration.get(LogManager.LOG_FILE_ASYNC_OVERFLOW);
+            boolean blockOnOverflow = overflowProp == null
+                || !LogManager.LOG_FILE_ASYNC_OVERFLOW_DISCARD.equalsIgnoreCase(overflowProp.toString());
+
             try {
                 if (slw == null) {
                     slw = new SlingLoggerWriter(pid);
@@ -292,6 +337,7 @@ public class LogConfigManager implements ILoggerFactory {
                 } else {
                     slw.configure(logFileName, fileNum, fileSize);
                 }
+                slw.configureAsync(async, queueSize, blockOnOverflow);
             } catch (IOException ioe) {
                 internalFailure("Cannot create log file " + logFileName, ioe);
                 internalFailure("Logging to the console", null);
@@ -48,6 +48,16 @@ class SlingLogger implements LocationAwareLogger {
 
     private void log(Marker marker, String fqcn, SlingLoggerLevel level,
             String msg, Throwable t) {
+
+        // asynchronous writers format and write the message in the background
+        SlingLoggerConfig config = this.config;
+        SlingLoggerWriter logWriter = config.getLogWriter();
+        if (logWriter.isAsync()) {
+            logWriter.append(new SlingLoggerEvent(config, marker, getName(),
+                level, msg, t, fqcn));
+            return;
+        }
+
         StringWriter writer = new StringWriter();
 
         // create the formatted log line; use a local copy because the field
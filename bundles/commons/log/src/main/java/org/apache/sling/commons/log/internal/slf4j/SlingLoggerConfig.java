@@ -19,9 +19,6 @@
 package org.apache.sling.commons.log.internal.slf4j;
 
 import java.io.IOException;
-import java.text.FieldPosition;
-import java.text.MessageFormat;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -40,7 +37,7 @@ class SlingLoggerConfig {
 
     private SlingLoggerLevel level;
 
-    private MessageFormat format;
+    private SlingLoggerFormat format;
 
     private SlingLoggerWriter writer;
 
@@ -52,7 +49,7 @@ class SlingLoggerConfig {
 
     void configure(String pattern, Set<String> categories,
             SlingLoggerLevel level, SlingLoggerWriter writer) {
-        this.format = new MessageFormat(pattern);
+        this.format = new SlingLoggerFormat(pattern);
         this.categories = new HashSet<String>(categories);
         this.level = level;
         this.writer = writer;
@@ -92,14 +89,21 @@ class SlingLoggerConfig {
 
     void formatMessage(StringBuffer buffer, Marker marker, String name,
             SlingLoggerLevel level, String msg, String fqcn) {
-        // create the formatted log line; use a local copy because the field
-        // may be exchanged while we are trying to use it
-        MessageFormat myFormat = format;
-        synchronized (myFormat) {
-            myFormat.format(new Object[] { new Date(), marker,
-                Thread.currentThread().getName(), name, level.toString(), msg,
-                fqcn }, buffer, new FieldPosition(0));
-        }
+        formatMessage(buffer, System.currentTimeMillis(),
+            Thread.currentThread().getName(), marker, name, level, msg, fqcn);
+    }
+
+    /**
+     * Formats a message logged at the given <code>time</code> by the named
+     * <code>thread</code>. This is used by asynchronous log writers, which
+     * format the messages in their own background thread.
+     */
+    void formatMessage(StringBuffer buffer, long time, String thread,
+            Marker marker, String name, SlingLoggerLevel level, String msg,
+            String fqcn) {
+        // create the formatted log line; the format is immutable and may
+        // be used concurrently without synchronization
+        format.format(buffer, time, thread, marker, name, level, msg, fqcn);
     }
 
     void printMessage(String message, boolean needsEOL) {
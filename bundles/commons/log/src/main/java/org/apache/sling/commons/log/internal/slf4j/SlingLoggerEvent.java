@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.log.internal.slf4j;
+
+import org.slf4j.Marker;
+
+/**
+ * The <code>SlingLoggerEvent</code> captures a single log call to be formatted
+ * and written later by the background thread of an asynchronous
+ * {@link SlingLoggerWriter}. The time of the call and the name of the calling
+ * thread are recorded when the event is created.
+ */
+class SlingLoggerEvent {
+
+    private final SlingLoggerConfig config;
+
+    private final Marker marker;
+
+    private final String loggerName;
+
+    private final SlingLoggerLevel level;
+
+    private final String message;
+
+    private final Throwable throwable;
+
+    private final String fqcn;
+
+    private final String threadName;
+
+    private final long timestamp;
+
+    SlingLoggerEvent(SlingLoggerConfig config, Marker marker,
+            String loggerName, SlingLoggerLevel level, String message,
+            Throwable throwable, String fqcn) {
+        this.config = config;
+        this.marker = marker;
+        this.loggerName = loggerName;
+        this.level = level;
+        this.message = message;
+        this.throwable = throwable;
+        this.fqcn = fqcn;
+        this.threadName = Thread.currentThread().getName();
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * The logger configuration whose message format is applied to this
+     * event.
+     */
+    SlingLoggerConfig getConfig() {
+        return config;
+    }
+
+    Marker getMarker() {
+        return marker;
+    }
+
+    String getLoggerName() {
+        return loggerName;
+    }
+
+    SlingLoggerLevel getLevel() {
+        return level;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    Throwable getThrowable() {
+        return throwable;
+    }
+
+    String getFqcn() {
+        return fqcn;
+    }
+
+    String getThreadName() {
+        return threadName;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+}
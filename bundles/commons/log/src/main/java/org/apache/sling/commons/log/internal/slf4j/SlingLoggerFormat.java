@@ -0,0 +1,372 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.log.internal.slf4j;
+
+import java.text.DateFormat;
+import java.text.FieldPosition;
+import java.text.MessageFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Marker;
+
+/**
+ * The <code>SlingLoggerFormat</code> is the compiled form of a log message
+ * pattern. The pattern uses the <code>java.text.MessageFormat</code> syntax
+ * with the following arguments: {0} the timestamp, {1} the log marker, {2} the
+ * name of the thread, {3} the name of the logger, {4} the log level, {5} the
+ * message and {6} the fully qualified name of the logger class.
+ * <p>
+ * Instances of this class are immutable and may be used concurrently without
+ * synchronization. The pattern is parsed once into a list of parts writing
+ * directly into the caller's buffer. Dates are rendered with date formats
+ * held per thread, which also remember the last time formatted. Patterns with
+ * format elements other than date and time formats of the timestamp, such as
+ * <code>number</code> or <code>choice</code> formats, are formatted with a
+ * <code>MessageFormat</code> held per thread.
+ */
+class SlingLoggerFormat {
+
+    /** The number of the timestamp argument */
+    private static final int ARG_TIMESTAMP = 0;
+
+    /** The number of the last argument supported */
+    private static final int ARG_MAX = 6;
+
+    private final String pattern;
+
+    /** The compiled parts or <code>null</code> if the fallback is used */
+    private final Part[] parts;
+
+    /** The fallback for unsupported patterns or <code>null</code> */
+    private final ThreadLocal<MessageFormat> fallback;
+
+    /**
+     * Compiles the pattern.
+     *
+     * @throws IllegalArgumentException If the pattern is not a valid
+     *             <code>MessageFormat</code> pattern.
+     */
+    SlingLoggerFormat(final String pattern) {
+        // validate the pattern as before
+        new MessageFormat(pattern);
+
+        this.pattern = pattern;
+        this.parts = compile(pattern);
+        if (this.parts == null) {
+            this.fallback = new ThreadLocal<MessageFormat>() {
+                @Override
+                protected MessageFormat initialValue() {
+                    return new MessageFormat(pattern);
+                }
+            };
+        } else {
+            this.fallback = null;
+        }
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Appends the formatted log message to the <code>buffer</code>.
+     */
+    void format(StringBuffer buffer, long time, String thread, Marker marker,
+            String name, SlingLoggerLevel level, String msg, String fqcn) {
+        if (parts != null) {
+            for (Part part : parts) {
+                part.format(buffer, time, thread, marker, name, level, msg,
+                    fqcn);
+            }
+        } else {
+            fallback.get().format(new Object[] { new Date(time), marker,
+                thread, name, level.toString(), msg, fqcn }, buffer,
+                new FieldPosition(0));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    // ---------- pattern compilation ------------------------------------------
+
+    /**
+     * Compiles the pattern into parts or returns <code>null</code> if the
+     * pattern contains format elements which are not supported by the parts.
+     */
+    static Part[] compile(String pattern) {
+        List<Part> parts = new ArrayList<Part>();
+        StringBuilder text = new StringBuilder();
+        boolean inQuote = false;
+
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    // two single quotes are a literal single quote
+                    text.append(c);
+                    i++;
+                } else {
+                    inQuote = !inQuote;
+                }
+            } else if (inQuote || c != '{') {
+                text.append(c);
+            } else {
+                // find the end of the format element taking nested braces
+                // and quotes in the subformat pattern into account
+                int end = findElementEnd(pattern, i + 1);
+                if (end < 0) {
+                    return null;
+                }
+
+                Part part = compileElement(pattern.substring(i + 1, end));
+                if (part == null) {
+                    return null;
+                }
+
+                if (text.length() > 0) {
+                    parts.add(new TextPart(text.toString()));
+                    text.setLength(0);
+                }
+                parts.add(part);
+                i = end;
+            }
+        }
+
+        if (text.length() > 0) {
+            parts.add(new TextPart(text.toString()));
+        }
+
+        return parts.toArray(new Part[parts.size()]);
+    }
+
+    private static int findElementEnd(String pattern, int start) {
+        int depth = 0;
+        boolean inQuote = false;
+        for (int i = start; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                inQuote = !inQuote;
+            } else if (!inQuote) {
+                if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    if (depth == 0) {
+                        return i;
+                    }
+                    depth--;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compiles a single format element of the form
+     * <code>index[,type[,style]]</code> or returns <code>null</code> if the
+     * element is not supported.
+     */
+    private static Part compileElement(String element) {
+        int comma = element.indexOf(',');
+        String indexSpec = (comma < 0) ? element : element.substring(0, comma);
+
+        int index;
+        try {
+            index = Integer.parseInt(indexSpec.trim());
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+
+        // plain argument
+        if (comma < 0) {
+            if (index == ARG_TIMESTAMP) {
+                return new DatePart(DateFormat.SHORT, DateFormat.SHORT, null);
+            }
+            return new ArgumentPart(index);
+        }
+
+        // only date and time formats of the timestamp are supported
+        if (index != ARG_TIMESTAMP) {
+            return null;
+        }
+
+        int styleComma = element.indexOf(',', comma + 1);
+        String type = ((styleComma < 0)
+                ? element.substring(comma + 1)
+                : element.substring(comma + 1, styleComma)).trim().toLowerCase(Locale.ENGLISH);
+        String subPattern = (styleComma < 0)
+                ? ""
+                : element.substring(styleComma + 1);
+        String style = subPattern.trim().toLowerCase(Locale.ENGLISH);
+
+        boolean date = "date".equals(type);
+        if (!date && !"time".equals(type)) {
+            return null;
+        }
+
+        int dateStyle;
+        if (style.length() == 0) {
+            dateStyle = DateFormat.DEFAULT;
+        } else if ("short".equals(style)) {
+            dateStyle = DateFormat.SHORT;
+        } else if ("medium".equals(style)) {
+            dateStyle = DateFormat.MEDIUM;
+        } else if ("long".equals(style)) {
+            dateStyle = DateFormat.LONG;
+        } else if ("full".equals(style)) {
+            dateStyle = DateFormat.FULL;
+        } else {
+            return new DatePart(-1, -1, subPattern);
+        }
+
+        return date
+                ? new DatePart(dateStyle, -1, null)
+                : new DatePart(-1, dateStyle, null);
+    }
+
+    // ---------- parts --------------------------------------------------------
+
+    /**
+     * A part of the compiled pattern appending a literal text or an argument
+     * to the buffer.
+     */
+    static interface Part {
+        void format(StringBuffer buffer, long time, String thread,
+                Marker marker, String name, SlingLoggerLevel level,
+                String msg, String fqcn);
+    }
+
+    private static class TextPart implements Part {
+
+        private final String text;
+
+        TextPart(String text) {
+            this.text = text;
+        }
+
+        public void format(StringBuffer buffer, long time, String thread,
+                Marker marker, String name, SlingLoggerLevel level,
+                String msg, String fqcn) {
+            buffer.append(text);
+        }
+    }
+
+    private static class ArgumentPart implements Part {
+
+        private final int index;
+
+        ArgumentPart(int index) {
+            this.index = index;
+        }
+
+        public void format(StringBuffer buffer, long time, String thread,
+                Marker marker, String name, SlingLoggerLevel level,
+                String msg, String fqcn) {
+            switch (index) {
+                case 1:
+                    buffer.append(marker);
+                    break;
+                case 2:
+                    buffer.append(thread);
+                    break;
+                case 3:
+                    buffer.append(name);
+                    break;
+                case 4:
+                    buffer.append(level);
+                    break;
+                case 5:
+                    buffer.append(msg);
+                    break;
+                case ARG_MAX:
+                    buffer.append(fqcn);
+                    break;
+                default:
+                    // like MessageFormat for missing arguments
+                    buffer.append('{').append(index).append('}');
+            }
+        }
+    }
+
+    private static class DatePart implements Part {
+
+        private final ThreadLocal<CachedDateFormat> formats;
+
+        DatePart(final int dateStyle, final int timeStyle,
+                final String subPattern) {
+            this.formats = new ThreadLocal<CachedDateFormat>() {
+                @Override
+                protected CachedDateFormat initialValue() {
+                    DateFormat format;
+                    if (subPattern != null) {
+                        format = new SimpleDateFormat(subPattern);
+                    } else if (timeStyle < 0) {
+                        format = DateFormat.getDateInstance(dateStyle);
+                    } else if (dateStyle < 0) {
+                        format = DateFormat.getTimeInstance(timeStyle);
+                    } else {
+                        format = DateFormat.getDateTimeInstance(dateStyle,
+                            timeStyle);
+                    }
+                    return new CachedDateFormat(format);
+                }
+            };
+        }
+
+        public void format(StringBuffer buffer, long time, String thread,
+                Marker marker, String name, SlingLoggerLevel level,
+                String msg, String fqcn) {
+            buffer.append(formats.get().format(time));
+        }
+    }
+
+    /**
+     * A date format used by a single thread remembering the last time
+     * formatted.
+     */
+    private static class CachedDateFormat {
+
+        private final DateFormat format;
+
+        private final Date date = new Date();
+
+        private long lastTime = Long.MIN_VALUE;
+
+        private String lastFormatted;
+
+        CachedDateFormat(DateFormat format) {
+            this.format = format;
+        }
+
+        String format(long time) {
+            if (time != lastTime) {
+                date.setTime(time);
+                lastFormatted = format.format(date);
+                lastTime = time;
+            }
+            return lastFormatted;
+        }
+    }
+}
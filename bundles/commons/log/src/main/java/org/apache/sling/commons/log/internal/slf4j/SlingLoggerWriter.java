@@ -22,13 +22,29 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The <code>SlingLoggerWriter</code> abstract the output writing functionality
  * for the Sling Logging implementation. This class is able to write to log
  * files and manage log file rotation for these files. Alternatively this class
  * supports writing to the standard output if no log file name is configured.
+ * <p>
+ * If configured to be asynchronous, log calls just add a
+ * {@link SlingLoggerEvent} to a bounded queue. A background thread takes the
+ * events off the queue in batches, formats and writes them and checks for log
+ * file rotation once per batch. If the queue is full the calling thread either
+ * waits for free room or the event is discarded, depending on the configured
+ * overflow policy.
  */
 class SlingLoggerWriter extends Writer {
 
@@ -44,6 +60,18 @@ class SlingLoggerWriter extends Writer {
      */
     private static final String LINE_SEPARATOR = System.getProperty("line.separator");
 
+    /**
+     * The maximum number of events written by the asynchronous writer thread
+     * before flushing the output and checking for log file rotation.
+     */
+    private static final int MAX_BATCH_SIZE = 512;
+
+    /**
+     * The time in milliseconds the asynchronous writer thread waits for new
+     * events before checking whether it has been stopped.
+     */
+    private static final long POLL_TIMEOUT = 500;
+
     /**
      * The PID of the configuration from which this instance has been
      * configured.
@@ -86,6 +114,37 @@ class SlingLoggerWriter extends Writer {
      */
     private int maxNum;
 
+    /**
+     * The queue of events to be written by the asynchronous writer thread or
+     * <code>null</code> if this instance writes synchronously.
+     */
+    private volatile BlockingQueue<SlingLoggerEvent> queue;
+
+    /**
+     * Whether the calling thread waits for room in a full queue or the event
+     * is discarded.
+     */
+    private volatile boolean blockOnOverflow;
+
+    /** The background thread writing the queued events */
+    private Thread writerThread;
+
+    /**
+     * The object on which starting and stopping the asynchronous writer
+     * thread is serialized. This must not be the {@link #lock} because the
+     * writer thread acquires that lock to write the events.
+     */
+    private final Object asyncLock = new Object();
+
+    /** The number of events discarded because the queue was full */
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * The number of discarded events already reported in the log. Only
+     * accessed while holding the {@link #lock}.
+     */
+    private long discardedReported;
+
     /**
      * Creates a new instance of this class to be configured from the given
      * <code>configurationPID</code>. This new instance is not ready until
@@ -117,7 +176,7 @@ class SlingLoggerWriter extends Writer {
             if (logFileName == null || !logFileName.equals(path)) {
 
                 // close the current file
-                close();
+                closeDelegatee();
 
                 if (logFileName == null) {
 
@@ -171,18 +230,97 @@ class SlingLoggerWriter extends Writer {
         return maxNum;
     }
 
+    /**
+     * Switches this instance to asynchronous or synchronous writing. When
+     * switching from asynchronous to synchronous writing or changing the
+     * queue size, all queued events are written before the new setting takes
+     * effect.
+     *
+     * @param async Whether to write log messages in a background thread
+     * @param queueSize The maximum number of events waiting to be written.
+     *            This is ignored if <code>async</code> is <code>false</code>.
+     * @param blockOnOverflow Whether a thread logging to a full queue waits
+     *            for room in the queue (<code>true</code>) or the event is
+     *            discarded (<code>false</code>). This is ignored if
+     *            <code>async</code> is <code>false</code>.
+     */
+    void configureAsync(boolean async, int queueSize, boolean blockOnOverflow) {
+        queueSize = Math.max(1, queueSize);
+        synchronized (asyncLock) {
+            this.blockOnOverflow = blockOnOverflow;
+
+            BlockingQueue<SlingLoggerEvent> current = queue;
+            if (async && current != null
+                && current.remainingCapacity() + current.size() == queueSize) {
+                // no change to the queue
+                return;
+            }
+
+            stopWriterThread();
+
+            if (async) {
+                queue = new ArrayBlockingQueue<SlingLoggerEvent>(queueSize);
+                writerThread = new Thread(new AsyncWriter(queue),
+                    "Sling Log Writer " + configurationPID);
+                writerThread.setDaemon(true);
+                writerThread.start();
+            }
+        }
+    }
+
+    boolean isAsync() {
+        return queue != null;
+    }
+
+    long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Adds the event to the queue to be written by the asynchronous writer
+     * thread. If this instance is not (or not any longer) asynchronous, the
+     * event is written immediately.
+     */
+    void append(SlingLoggerEvent event) {
+        BlockingQueue<SlingLoggerEvent> myQueue = queue;
+        if (myQueue != null) {
+            boolean queued = myQueue.offer(event);
+            if (!queued && !blockOnOverflow) {
+                discarded.incrementAndGet();
+                return;
+            }
+
+            try {
+                while (!queued && myQueue == queue) {
+                    queued = myQueue.offer(event, POLL_TIMEOUT,
+                        TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException ie) {
+                // write the event ourselves
+                Thread.currentThread().interrupt();
+            }
+
+            // if the queue has been replaced concurrently, the event may
+            // have been added after the final drain of the old queue
+            if (queued && (myQueue == queue || !myQueue.remove(event))) {
+                return;
+            }
+        }
+
+        // not asynchronous (any more), write synchronously
+        writeEvents(Collections.singletonList(event), new StringWriter());
+    }
+
     // ---------- Writer Overwrite ---------------------------------------------
 
     @Override
     public void close() throws IOException {
-        synchronized (lock) {
-            if (delegatee != null) {
-                flush();
-
-                delegatee.close();
-                delegatee = null;
-            }
+        // write any queued events before closing the output
+        synchronized (asyncLock) {
+            stopWriterThread();
         }
+
+        closeDelegatee();
     }
 
     @Override
@@ -252,6 +390,92 @@ class SlingLoggerWriter extends Writer {
 
     // ---------- internal -----------------------------------------------------
 
+    private void closeDelegatee() throws IOException {
+        synchronized (lock) {
+            if (delegatee != null) {
+                flush();
+
+                delegatee.close();
+                delegatee = null;
+            }
+        }
+    }
+
+    /**
+     * Stops the asynchronous writer thread, if any, and waits for it to write
+     * the events still in the queue. Events added while stopping the thread
+     * are written synchronously by the calling thread. Must be called while
+     * the {@link #asyncLock} is held.
+     */
+    private void stopWriterThread() {
+        BlockingQueue<SlingLoggerEvent> oldQueue = queue;
+        Thread oldThread = writerThread;
+
+        queue = null;
+        writerThread = null;
+
+        if (oldThread != null) {
+            oldThread.interrupt();
+            try {
+                oldThread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (oldQueue != null && !oldQueue.isEmpty()) {
+            List<SlingLoggerEvent> remaining = new ArrayList<SlingLoggerEvent>();
+            oldQueue.drainTo(remaining);
+            writeEvents(remaining, new StringWriter());
+        }
+    }
+
+    /**
+     * Formats and writes the events, flushes the output and checks whether
+     * the log file has to be rotated.
+     */
+    private void writeEvents(List<SlingLoggerEvent> events, StringWriter buffer) {
+        StringBuffer buf = buffer.getBuffer();
+        synchronized (lock) {
+            try {
+                long discardedNow = discarded.get();
+                if (discardedNow != discardedReported) {
+                    write("*WARN* " + (discardedNow - discardedReported)
+                        + " log messages discarded because the queue of "
+                        + configurationPID + " was full");
+                    write(LINE_SEPARATOR);
+                    discardedReported = discardedNow;
+                }
+
+                for (SlingLoggerEvent event : events) {
+                    buf.setLength(0);
+                    event.getConfig().formatMessage(buf, event.getTimestamp(),
+                        event.getThreadName(), event.getMarker(),
+                        event.getLoggerName(), event.getLevel(),
+                        event.getMessage(), event.getFqcn());
+
+                    // the stack trace ends with a line terminator
+                    Throwable t = event.getThrowable();
+                    if (t != null) {
+                        buf.append(' ');
+                        PrintWriter pw = new PrintWriter(buffer);
+                        t.printStackTrace(pw);
+                        pw.flush();
+                    } else {
+                        buf.append(LINE_SEPARATOR);
+                    }
+
+                    write(buf.toString());
+                }
+
+                flush();
+            } catch (IOException ioe) {
+                LogConfigManager.internalFailure("Failed writing "
+                    + events.size() + " log messages", ioe);
+            }
+        }
+    }
+
     static long convertMaxSizeSpec(String maxSize) {
         long factor;
         int len = maxSize.length() - 1;
@@ -359,4 +583,43 @@ class SlingLoggerWriter extends Writer {
         return new OutputStreamWriter(new FileOutputStream(file, true));
     }
 
+    /**
+     * The <code>AsyncWriter</code> writes the events of a queue until the
+     * queue is replaced or removed from the writer.
+     */
+    private class AsyncWriter implements Runnable {
+
+        private final BlockingQueue<SlingLoggerEvent> myQueue;
+
+        AsyncWriter(BlockingQueue<SlingLoggerEvent> myQueue) {
+            this.myQueue = myQueue;
+        }
+
+        public void run() {
+            final List<SlingLoggerEvent> batch = new ArrayList<SlingLoggerEvent>(
+                MAX_BATCH_SIZE);
+            final StringWriter buffer = new StringWriter();
+
+            while (myQueue == queue) {
+                try {
+                    SlingLoggerEvent event = myQueue.poll(POLL_TIMEOUT,
+                        TimeUnit.MILLISECONDS);
+                    if (event != null) {
+                        batch.add(event);
+                        myQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                        writeEvents(batch, buffer);
+                        batch.clear();
+                    }
+                } catch (InterruptedException ie) {
+                    // check whether we have been stopped
+                }
+            }
+
+            // final drain of the events queued before we have been stopped
+            while (myQueue.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+                writeEvents(batch, buffer);
+                batch.clear();
+            }
+        }
+    }
 }
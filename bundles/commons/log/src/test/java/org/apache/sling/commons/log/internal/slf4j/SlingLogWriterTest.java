@@ -18,8 +18,13 @@
  */
 package org.apache.sling.commons.log.internal.slf4j;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -178,6 +183,70 @@ public class SlingLogWriterTest extends TestCase {
             SlingLoggerWriter.convertMaxSizeSpec("1gb"));
     }
 
+    public void testAsyncWriteOnClose() throws IOException {
+        final String base = getBase();
+        SlingLoggerWriter slfw = createLogWriter(base, 1, 1024 * 1024);
+        slfw.configureAsync(true, 16, true);
+        assertTrue(slfw.isAsync());
+
+        SlingLoggerConfig config = createLoggerConfig(slfw);
+        for (int i = 0; i < 100; i++) {
+            slfw.append(new SlingLoggerEvent(config, null, "test",
+                SlingLoggerLevel.INFO, "message " + i, null, null));
+        }
+
+        // closing writes all queued messages
+        slfw.close();
+        assertFalse(slfw.isAsync());
+
+        List<String> lines = readLines(new File(base));
+        assertEquals(100, lines.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("INFO message " + i, lines.get(i));
+        }
+    }
+
+    public void testAsyncSwitchToSync() throws IOException {
+        final String base = getBase();
+        SlingLoggerWriter slfw = createLogWriter(base, 1, 1024 * 1024);
+        slfw.configureAsync(true, 1024, false);
+
+        SlingLoggerConfig config = createLoggerConfig(slfw);
+        slfw.append(new SlingLoggerEvent(config, null, "test",
+            SlingLoggerLevel.WARN, "async", null, null));
+
+        // switching to synchronous writing writes the queued message
+        slfw.configureAsync(false, 0, false);
+        assertFalse(slfw.isAsync());
+        assertEquals(Collections.singletonList("WARN async"),
+            readLines(new File(base)));
+
+        slfw.append(new SlingLoggerEvent(config, null, "test",
+            SlingLoggerLevel.ERROR, "sync", null, null));
+        assertEquals(2, readLines(new File(base)).size());
+        assertEquals(0, slfw.getDiscarded());
+
+        slfw.close();
+    }
+
+    private SlingLoggerConfig createLoggerConfig(SlingLoggerWriter writer) {
+        return new SlingLoggerConfig(getClass().getName(), "{4} {5}",
+            Collections.singleton(""), SlingLoggerLevel.DEBUG, writer);
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
     private SlingLoggerWriter createLogWriter(String file, int numFiles, long size)
             throws IOException {
         SlingLoggerWriter slw = new SlingLoggerWriter(getClass().getName());
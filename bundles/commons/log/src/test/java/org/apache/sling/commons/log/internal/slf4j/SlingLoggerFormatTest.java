@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.log.internal.slf4j;
+
+import java.text.FieldPosition;
+import java.text.MessageFormat;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class SlingLoggerFormatTest extends TestCase {
+
+    private static final long TIME = 1215784562123L;
+
+    public void testCompiled() {
+        assertCompiled("{0,date,dd.MM.yyyy HH:mm:ss.SSS} *{4}* [{2}] {3} {5}");
+        assertCompiled("{0,time,HH:mm:ss} {5}");
+        assertCompiled("{0,date,dd.MM.yyyy' at 'HH:mm} {5}");
+        assertCompiled("{0,date} {0,time} {0,date,short} {0,time,full} {5}");
+        assertCompiled("{0,DATE,Short} {0}");
+        assertCompiled("It''s '{5}' {5} {1} {6}");
+        assertCompiled("{9} {3}");
+        assertCompiled("plain text");
+        assertCompiled("");
+    }
+
+    public void testFallback() {
+        assertNull(SlingLoggerFormat.compile("{5,number}"));
+        assertNull(SlingLoggerFormat.compile("{4,choice,0#a|1#b}"));
+        assertNull(SlingLoggerFormat.compile("{2,date,short}"));
+
+        assertFormat("{1,number} {0,date,HH:mm} {5}");
+    }
+
+    public void testInvalidPattern() {
+        try {
+            new SlingLoggerFormat("{5");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    public void testCachedDate() {
+        SlingLoggerFormat format = new SlingLoggerFormat(
+            "{0,date,HH:mm:ss.SSS}");
+        String first = format(format, TIME, "message");
+        assertEquals(first, format(format, TIME, "message"));
+        assertFalse(first.equals(format(format, TIME + 1, "message")));
+        assertEquals(first, format(format, TIME, "message"));
+    }
+
+    private void assertCompiled(String pattern) {
+        assertNotNull(SlingLoggerFormat.compile(pattern));
+        assertFormat(pattern);
+    }
+
+    private void assertFormat(String pattern) {
+        MessageFormat expected = new MessageFormat(pattern);
+        StringBuffer buf = new StringBuffer();
+        expected.format(new Object[] { new Date(TIME), null, "main",
+            "org.apache.sling.Test", SlingLoggerLevel.INFO.toString(), "42",
+            null }, buf, new FieldPosition(0));
+
+        assertEquals(buf.toString(), format(new SlingLoggerFormat(pattern),
+            TIME, "42"));
+    }
+
+    private String format(SlingLoggerFormat format, long time, String msg) {
+        StringBuffer buf = new StringBuffer();
+        format.format(buf, time, "main", null, "org.apache.sling.Test",
+            SlingLoggerLevel.INFO, msg, null);
+        return buf.toString();
+    }
+}
@@ -39,6 +39,24 @@ public final class ThreadPoolConfig {
         MAX
     };
 
+    /**
+     * The kind of executor used by the thread pool.
+     * <ul>
+     * <li>EXECUTOR: a classic pool with a fixed set of threads and a queue,
+     *     configured by the pool sizes, the queue size and the block policy.</li>
+     * <li>FORK_JOIN: a work-stealing pool for fan-out work. The parallelism
+     *     is the max pool size. Requires Java 7 or higher.</li>
+     * <li>VIRTUAL: a new virtual thread for each task, the pool sizes are
+     *     not used. Requires Java 21 or higher.</li>
+     * </ul>
+     * If the JVM does not support the requested kind, a classic pool is used.
+     */
+    public enum ThreadPoolType {
+        EXECUTOR,
+        FORK_JOIN,
+        VIRTUAL
+    };
+
     /** The min pool size. */
     private int minPoolSize = 5;
 
@@ -64,6 +82,9 @@ public final class ThreadPoolConfig {
 
     private  boolean isDaemon = false;
 
+    /** The thread pool type. Default is EXECUTOR. */
+    private ThreadPoolType type = ThreadPoolType.EXECUTOR;
+
     /** Can this configuration still be changed? */
     private boolean isWritable = true;
 
@@ -89,6 +110,7 @@ public final class ThreadPoolConfig {
         this.factory = copy.factory;
         this.priority = copy.priority;
         this.isDaemon = copy.isDaemon;
+        this.type = copy.type;
     }
 
     protected void checkWritable() {
@@ -199,4 +221,16 @@ public final class ThreadPoolConfig {
         this.checkWritable();
         this.isDaemon = isDaemon;
     }
-}
\ No newline at end of file
+
+    public ThreadPoolType getType() {
+        return type;
+    }
+
+    public void setType(ThreadPoolType type) {
+        this.checkWritable();
+        if ( type == null ) {
+            throw new IllegalArgumentException("Type must not be null.");
+        }
+        this.type = type;
+    }
+}
@@ -16,9 +16,12 @@
  */
 package org.apache.sling.commons.threads.impl;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
@@ -48,10 +51,13 @@ public class DefaultThreadPool
     protected final String name;
 
     /** The executor. */
-    protected ThreadPoolExecutor executor;
+    protected ExecutorService executor;
 
     protected final ThreadPoolConfig configuration;
 
+    /** The statistics. */
+    protected final ThreadPoolStatistics statistics = new ThreadPoolStatistics();
+
     /**
      * Create a new thread pool.
      * @param name - The name of the thread pool. If null {@link DefaultThreadPoolManager#DEFAULT_THREADPOOL_NAME}
@@ -98,6 +104,29 @@ public class DefaultThreadPool
             this.logger.warn("keep-alive-time-ms < 0 for pool \"" + name + "\". Set to 1000");
         }
 
+        // Alternative executor types
+        if ( this.configuration.getType() == ThreadPoolConfig.ThreadPoolType.FORK_JOIN ) {
+            int parallelism = this.configuration.getMaxPoolSize();
+            if ( parallelism == Integer.MAX_VALUE ) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            }
+            this.executor = this.createExecutor("newWorkStealingPool", new Class[] {int.class}, new Object[] {parallelism});
+        } else if ( this.configuration.getType() == ThreadPoolConfig.ThreadPoolType.VIRTUAL ) {
+            this.executor = this.createExecutor("newVirtualThreadPerTaskExecutor", new Class[0], new Object[0]);
+        }
+        if ( this.executor != null ) {
+            this.logger.info("ThreadPool [{}] uses executor {}; queue size, block policy and thread factory are not used.",
+                    name, this.configuration.getType());
+            this.configuration.makeReadOnly();
+            this.logger.info("ThreadPool [{}] initialized.", name);
+            return;
+        }
+        if ( this.configuration.getType() != ThreadPoolConfig.ThreadPoolType.EXECUTOR ) {
+            this.logger.warn("ThreadPool [{}]: executor {} is not supported by this JVM. Using a thread pool executor.",
+                    name, this.configuration.getType());
+            this.configuration.setType(ThreadPoolConfig.ThreadPoolType.EXECUTOR);
+        }
+
         // Queue
         final BlockingQueue<Runnable> queue;
         if (this.configuration.getQueueSize() != 0) {
@@ -131,11 +160,37 @@ public class DefaultThreadPool
                 TimeUnit.MILLISECONDS,
                 queue,
                 threadFactory,
-                handler);
+                new StatisticsRejectedExecutionHandler(handler, this.statistics));
         this.configuration.makeReadOnly();
         this.logger.info("ThreadPool [{}] initialized.", name);
     }
 
+    /**
+     * Create an executor with a factory method of {@link Executors} which
+     * is not available in all JVMs.
+     * @return The executor or <code>null</code> if the method is not available.
+     */
+    private ExecutorService createExecutor(final String methodName,
+                                           final Class<?>[] types,
+                                           final Object[] args) {
+        try {
+            final Method m = Executors.class.getMethod(methodName, types);
+            return (ExecutorService)m.invoke(null, args);
+        } catch (final NoSuchMethodException nsme) {
+            // not available in this JVM
+        } catch (final Exception e) {
+            this.logger.warn("Unable to create executor with " + methodName, e);
+        }
+        return null;
+    }
+
+    /**
+     * Return the live statistics of this pool.
+     */
+    public ThreadPoolStatistics getStatistics() {
+        return this.statistics;
+    }
+
     /**
      * @see org.apache.sling.commons.threads.ThreadPool#getName()
      */
@@ -160,15 +215,25 @@ public class DefaultThreadPool
         }
         if ( runnable != null ) {
             if ( this.logger.isDebugEnabled() ) {
-                this.logger.debug("Executing runnable: {}, pool={}, corePoolSize={}, maxPoolSize={}, queueSize={}",
+                this.logger.debug("Executing runnable: {}, pool={}, activeCount={}, queueSize={}",
                         new Object[] {runnable,
                                       this.name,
-                                      this.executor.getCorePoolSize(),
-                                      this.executor.getMaximumPoolSize(),
-                                      this.executor.getQueue().size()});
+                                      this.statistics.getActiveCount(),
+                                      this.statistics.getQueuedCount()});
             }
 
-        	this.executor.execute(runnable);
+            final Runnable task = this.statistics.submit(runnable);
+            if ( this.executor instanceof ThreadPoolExecutor ) {
+                // rejections are counted by the rejected execution handler
+                this.executor.execute(task);
+            } else {
+                try {
+                    this.executor.execute(task);
+                } catch (final RejectedExecutionException ree) {
+                    this.statistics.rejected();
+                    throw ree;
+                }
+            }
         }
     }
 
@@ -198,4 +263,34 @@ public class DefaultThreadPool
             this.executor = null;
         }
     }
+
+    /**
+     * Rejected execution handler counting the rejected tasks before
+     * delegating to the configured policy. A task run by the caller
+     * is not rejected.
+     */
+    private static final class StatisticsRejectedExecutionHandler implements RejectedExecutionHandler {
+
+        private final RejectedExecutionHandler delegatee;
+
+        private final ThreadPoolStatistics statistics;
+
+        public StatisticsRejectedExecutionHandler(final RejectedExecutionHandler delegatee,
+                                                  final ThreadPoolStatistics statistics) {
+            this.delegatee = delegatee;
+            this.statistics = statistics;
+        }
+
+        /**
+         * @see java.util.concurrent.RejectedExecutionHandler#rejectedExecution(java.lang.Runnable, java.util.concurrent.ThreadPoolExecutor)
+         */
+        public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+            if ( !(this.delegatee instanceof ThreadPoolExecutor.CallerRunsPolicy) || executor.isShutdown() ) {
+                // for DISCARDOLDEST the oldest task is discarded instead, which
+                // results in the same counts
+                this.statistics.rejected();
+            }
+            this.delegatee.rejectedExecution(r, executor);
+        }
+    }
 }
@@ -16,12 +16,16 @@
  */
 package org.apache.sling.commons.threads.impl;
 
+import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.Map;
 
+import org.apache.felix.webconsole.WebConsoleConstants;
 import org.apache.sling.commons.threads.ThreadPool;
 import org.apache.sling.commons.threads.ThreadPoolConfig;
 import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +47,10 @@ public class DefaultThreadPoolManager implements ThreadPoolManager {
     /** The managed thread pools */
     protected final Map<String, ThreadPool> pools = new HashMap<String, ThreadPool>();
 
+    private ThreadPoolWebConsolePlugin webConsolePlugin;
+
+    private ServiceRegistration webConsolePluginService;
+
     /**
      * Activate this component.
      */
@@ -55,6 +63,20 @@ public class DefaultThreadPoolManager implements ThreadPoolManager {
             this.pools.put(defaultPool.getName(), defaultPool);
         }
         this.logger.info("Thread pool manager startet with default pool.");
+
+        try {
+            final ThreadPoolWebConsolePlugin plugin = new ThreadPoolWebConsolePlugin(this);
+            plugin.activate(context.getBundleContext());
+
+            final Dictionary<String, String> props = new Hashtable<String, String>();
+            props.put(WebConsoleConstants.PLUGIN_LABEL, plugin.getLabel());
+
+            this.webConsolePluginService = context.getBundleContext().registerService(
+                WebConsoleConstants.SERVICE_NAME, plugin, props);
+            this.webConsolePlugin = plugin;
+        } catch (Throwable t) {
+            // don't care, we thus don't have the console plugin
+        }
     }
 
     /**
@@ -62,6 +84,14 @@ public class DefaultThreadPoolManager implements ThreadPoolManager {
      */
     protected void deactivate(ComponentContext context) throws Exception {
         this.logger.info("Stopping thread pool manager.");
+        if ( this.webConsolePluginService != null ) {
+            this.webConsolePluginService.unregister();
+            this.webConsolePluginService = null;
+        }
+        if ( this.webConsolePlugin != null ) {
+            this.webConsolePlugin.deactivate();
+            this.webConsolePlugin = null;
+        }
         this.logger.debug("Disposing all thread pools");
 
         synchronized ( this.pools ) {
@@ -130,4 +160,12 @@ public class DefaultThreadPoolManager implements ThreadPoolManager {
         }
     }
 
+    /**
+     * Return all thread pools.
+     */
+    ThreadPool[] getPools() {
+        synchronized ( this.pools ) {
+            return this.pools.values().toArray(new ThreadPool[this.pools.size()]);
+        }
+    }
 }
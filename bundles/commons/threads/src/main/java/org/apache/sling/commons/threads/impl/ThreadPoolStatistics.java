@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The live statistics of a {@link DefaultThreadPool}.
+ * The task latency is the time from submitting a task until the task
+ * has finished, so it contains the time spent in the queue.
+ *
+ * @version $Id$
+ */
+public final class ThreadPoolStatistics {
+
+    /** The upper bounds (exclusive) of the latency buckets in ms. */
+    private static final long[] LATENCY_BOUNDS = {1, 10, 100, 1000, 10000};
+
+    /** The labels of the latency buckets, the last one is open. */
+    private static final String[] LATENCY_LABELS = {"< 1ms", "< 10ms", "< 100ms", "< 1s", "< 10s", ">= 10s"};
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong started = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicLongArray latency = new AtomicLongArray(LATENCY_LABELS.length);
+
+    /**
+     * Wrap the task to keep track of its execution.
+     */
+    Runnable submit(final Runnable task) {
+        this.submitted.incrementAndGet();
+        return new StatisticsRunnable(task, System.currentTimeMillis());
+    }
+
+    /**
+     * A submitted task has been rejected or discarded.
+     */
+    void rejected() {
+        this.rejected.incrementAndGet();
+    }
+
+    public long getSubmittedCount() {
+        return this.submitted.get();
+    }
+
+    public long getCompletedCount() {
+        return this.completed.get();
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    public int getActiveCount() {
+        return this.active.get();
+    }
+
+    /**
+     * The number of tasks waiting for execution.
+     */
+    public long getQueuedCount() {
+        return Math.max(0, this.submitted.get() - this.started.get() - this.rejected.get());
+    }
+
+    /**
+     * The labels of the latency buckets.
+     */
+    public static String[] getLatencyLabels() {
+        return LATENCY_LABELS.clone();
+    }
+
+    /**
+     * The number of completed tasks per latency bucket.
+     */
+    public long[] getLatencyHistogram() {
+        final long[] result = new long[LATENCY_LABELS.length];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = this.latency.get(i);
+        }
+        return result;
+    }
+
+    private void finished(final long latencyMs) {
+        int bucket = 0;
+        while ( bucket < LATENCY_BOUNDS.length && latencyMs >= LATENCY_BOUNDS[bucket] ) {
+            bucket++;
+        }
+        this.latency.incrementAndGet(bucket);
+        this.completed.incrementAndGet();
+    }
+
+    private final class StatisticsRunnable implements Runnable {
+
+        private final Runnable task;
+
+        private final long submitTime;
+
+        public StatisticsRunnable(final Runnable task, final long submitTime) {
+            this.task = task;
+            this.submitTime = submitTime;
+        }
+
+        public void run() {
+            started.incrementAndGet();
+            active.incrementAndGet();
+            try {
+                this.task.run();
+            } finally {
+                active.decrementAndGet();
+                finished(System.currentTimeMillis() - this.submitTime);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.task.toString();
+        }
+    }
+}
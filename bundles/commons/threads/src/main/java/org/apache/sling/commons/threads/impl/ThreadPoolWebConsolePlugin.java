@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.commons.threads.impl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.webconsole.AbstractWebConsolePlugin;
+import org.apache.sling.commons.threads.ThreadPool;
+import org.apache.sling.commons.threads.ThreadPoolConfig;
+
+/**
+ * Web console plugin displaying the configuration and the live
+ * statistics of all thread pools.
+ */
+class ThreadPoolWebConsolePlugin extends AbstractWebConsolePlugin {
+
+    /** Serial Version */
+    private static final long serialVersionUID = 2954358243419734622L;
+
+    private static final String LABEL = "threadpools";
+
+    private static final String TITLE = "Thread Pools";
+
+    private final DefaultThreadPoolManager threadPoolManager;
+
+    ThreadPoolWebConsolePlugin(DefaultThreadPoolManager threadPoolManager) {
+        this.threadPoolManager = threadPoolManager;
+    }
+
+    @Override
+    public String getLabel() {
+        return LABEL;
+    }
+
+    @Override
+    public String getTitle() {
+        return TITLE;
+    }
+
+    @Override
+    protected void renderContent(HttpServletRequest req, HttpServletResponse res)
+            throws IOException {
+        final ThreadPool[] pools = threadPoolManager.getPools();
+        final String[] latencyLabels = ThreadPoolStatistics.getLatencyLabels();
+
+        PrintWriter pw = res.getWriter();
+
+        pw.println("<div id='plugin_content'>");
+        pw.println("<div class='fullwidth'>");
+        pw.println("<div class='statusline'>Statistic: " + pools.length
+            + " Thread Pools</div>");
+        pw.println("</div>");
+
+        pw.println("<div class='table'>");
+        pw.println("<table class='tablelayout'>");
+
+        pw.println("<thead>");
+        pw.println("<tr>");
+        pw.println("<th rowspan='2'>Name</th>");
+        pw.println("<th rowspan='2'>Type</th>");
+        pw.println("<th rowspan='2'>Min / Max Pool Size</th>");
+        pw.println("<th rowspan='2'>Queue Size</th>");
+        pw.println("<th rowspan='2'>Policy</th>");
+        pw.println("<th rowspan='2'>Active</th>");
+        pw.println("<th rowspan='2'>Queued</th>");
+        pw.println("<th rowspan='2'>Completed</th>");
+        pw.println("<th rowspan='2'>Rejected</th>");
+        pw.println("<th colspan='" + latencyLabels.length + "'>Task Latency</th>");
+        pw.println("</tr>");
+        pw.println("<tr>");
+        for (String label : latencyLabels) {
+            pw.println("<th>" + escape(label) + "</th>");
+        }
+        pw.println("</tr>");
+        pw.println("</thead>");
+
+        pw.println("<tbody>");
+        for (ThreadPool pool : pools) {
+            final ThreadPoolConfig config = pool.getConfiguration();
+            pw.println("<tr>");
+            pw.println("<td>" + escape(pool.getName()) + "</td>");
+            pw.println("<td>" + config.getType() + "</td>");
+            pw.println("<td>" + config.getMinPoolSize() + " / " + config.getMaxPoolSize() + "</td>");
+            pw.println("<td>" + config.getQueueSize() + "</td>");
+            pw.println("<td>" + config.getBlockPolicy() + "</td>");
+            if (pool instanceof DefaultThreadPool) {
+                final ThreadPoolStatistics stats = ((DefaultThreadPool) pool).getStatistics();
+                pw.println("<td>" + stats.getActiveCount() + "</td>");
+                pw.println("<td>" + stats.getQueuedCount() + "</td>");
+                pw.println("<td>" + stats.getCompletedCount() + "</td>");
+                pw.println("<td>" + stats.getRejectedCount() + "</td>");
+                for (long count : stats.getLatencyHistogram()) {
+                    pw.println("<td>" + count + "</td>");
+                }
+            } else {
+                // no statistics for pools added from outside
+                pw.println("<td colspan='" + (4 + latencyLabels.length) + "'>--</td>");
+            }
+            pw.println("</tr>");
+        }
+        pw.println("</tbody>");
+
+        pw.println("</table>");
+        pw.println("</div>");
+        pw.println("</div>");
+    }
+
+    private String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
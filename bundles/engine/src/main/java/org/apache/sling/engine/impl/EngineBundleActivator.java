@@ -22,6 +22,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 
 import org.apache.sling.engine.SlingSettingsService;
+import org.apache.sling.engine.impl.log.RequestLogConsolePlugin;
 import org.apache.sling.engine.impl.request.RequestHistoryConsolePlugin;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -52,6 +53,7 @@ public class EngineBundleActivator implements BundleActivator {
                                                       service,
                                                       props);
         RequestHistoryConsolePlugin.initPlugin(context);
+        RequestLogConsolePlugin.initPlugin(context);
     }
 
     /**
@@ -63,5 +65,6 @@ public class EngineBundleActivator implements BundleActivator {
             serviceRegistration = null;
         }
         RequestHistoryConsolePlugin.destroyPlugin();
+        RequestLogConsolePlugin.destroyPlugin();
     }
 }
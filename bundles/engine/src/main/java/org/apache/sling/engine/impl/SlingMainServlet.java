@@ -360,9 +360,14 @@ public class SlingMainServlet extends GenericServlet implements ErrorHandler,
             // dispose any request data
             requestData.dispose();
 
-            // logout the session we have got for this request
+            // release the session we have got for this request
             if (session != null) {
-                session.logout();
+                SlingAuthenticator authenticator = slingAuthenticator;
+                if (authenticator != null) {
+                    authenticator.releaseSession(session);
+                } else {
+                    session.logout();
+                }
             }
         }
     }
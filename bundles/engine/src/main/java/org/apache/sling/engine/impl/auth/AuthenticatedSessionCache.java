@@ -0,0 +1,507 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.auth;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.EventListenerIterator;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>AuthenticatedSessionCache</code> keeps the sessions of
+ * authenticated requests for reuse by later requests presenting the same
+ * credentials for the same workspace, saving the repository login for each
+ * request.
+ * <p>
+ * Sessions are handed out exclusively to one request at a time. When a
+ * request ends, its session is refreshed, discarding any pending changes,
+ * its remaining event listeners are unregistered and it is kept idle for the
+ * next request with the same credentials. Sessions holding lock tokens or
+ * whose namespace prefixes have been remapped since the login are logged out
+ * instead. Idle sessions are logged out after an idle timeout or if the
+ * maximum number of idle sessions is reached.
+ * <p>
+ * Only sessions logged in with <code>SimpleCredentials</code> without
+ * attributes are cached. The cache key is a SHA-256 digest of the user id,
+ * the password and the workspace name, such that no passwords are kept in
+ * the cache. If the repository is a {@link SlingRepository}, all cached
+ * sessions are dropped whenever users, groups or access control policies are
+ * modified. As these changes are only observed in the default workspace,
+ * sessions to other workspaces are not cached in this case.
+ */
+class AuthenticatedSessionCache implements EventListener {
+
+    /** The algorithm used to digest the credentials */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The root of the user and group nodes in the repository */
+    private static final String SECURITY_ROOT = "/rep:security";
+
+    /** The name of access control policy nodes in the repository */
+    private static final String POLICY_NODE = "/rep:policy";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final int maxIdle;
+
+    private final long idleTimeout;
+
+    // idle sessions by credentials key, the most recently used last
+    private final Map<String, LinkedList<IdleSession>> idleSessions = new HashMap<String, LinkedList<IdleSession>>();
+
+    // sessions currently used by requests
+    private final Map<Session, Lease> leases = new IdentityHashMap<Session, Lease>();
+
+    private final Timer timer;
+
+    private int idleCount;
+
+    // incremented when the cache is cleared, leases of older generations are
+    // not returned to the cache
+    private int generation;
+
+    // the repository and session used to observe security changes
+    private volatile Repository observedRepository;
+
+    // the lock for changing the observation; this must not be the cache
+    // itself, since removing the listener waits for onEvent to complete
+    private final Object observationLock = new Object();
+
+    private Session observationSession;
+
+    // the name of the workspace observed for security changes or null if the
+    // repository is not observed; sessions of other workspaces are not cached
+    private volatile String observedWorkspace;
+
+    /**
+     * Creates a cache keeping at most <code>maxIdle</code> idle sessions for
+     * at most <code>idleTimeout</code> milliseconds.
+     */
+    AuthenticatedSessionCache(int maxIdle, long idleTimeout) {
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+
+        long period = Math.max(1000, idleTimeout / 2);
+        this.timer = new Timer("Sling Authenticated Session Cache", true);
+        this.timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                expire();
+            }
+        }, period, period);
+    }
+
+    int getMaxIdle() {
+        return maxIdle;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the key for sessions logged in with the credentials to the
+     * workspace or <code>null</code> if such sessions cannot be cached.
+     */
+    static String getKey(Credentials credentials, String workspace) {
+        if (!(credentials instanceof SimpleCredentials)) {
+            return null;
+        }
+
+        SimpleCredentials simple = (SimpleCredentials) credentials;
+        if (simple.getUserID() == null
+            || simple.getAttributeNames().length > 0) {
+            return null;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            digest.update(simple.getUserID().getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(new String(simple.getPassword()).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            if (workspace != null) {
+                digest.update(workspace.getBytes("UTF-8"));
+            }
+
+            byte[] hash = digest.digest();
+            char[] key = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                key[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+                key[2 * i + 1] = HEX[hash[i] & 0xf];
+            }
+            return new String(key);
+
+        } catch (NoSuchAlgorithmException nsae) {
+            // cannot happen, SHA-256 is required to be supported
+        } catch (UnsupportedEncodingException uee) {
+            // cannot happen, UTF-8 is required to be supported
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns an idle session cached for the key or <code>null</code> if there
+     * is none. The session returned is leased to the caller until it is
+     * handed back with {@link #release(Session)}.
+     */
+    Session acquire(String key) {
+        for (;;) {
+            IdleSession idle;
+            synchronized (this) {
+                LinkedList<IdleSession> sessions = idleSessions.get(key);
+                if (sessions == null) {
+                    return null;
+                }
+
+                idle = sessions.removeLast();
+                if (sessions.isEmpty()) {
+                    idleSessions.remove(key);
+                }
+                idleCount--;
+
+                if (idle.session.isLive()) {
+                    leases.put(idle.session, new Lease(key, generation,
+                        idle.namespaces));
+                    return idle.session;
+                }
+            }
+
+            // session has gone away, try the next one
+            logout(idle.session);
+        }
+    }
+
+    /**
+     * Registers a session newly logged in with the credentials of the key to
+     * be returned to the cache by the {@link #release(Session)} method.
+     * Sessions to a workspace other than the one observed for security changes
+     * are not registered and are logged out when released.
+     */
+    void lease(Session session, String key) {
+        String workspace = observedWorkspace;
+        if (workspace != null
+            && !workspace.equals(session.getWorkspace().getName())) {
+            log.debug(
+                "lease: Not caching session to workspace {}, security changes are only observed in {}",
+                session.getWorkspace().getName(), workspace);
+            return;
+        }
+
+        // keep the namespace mappings of the login to detect remapping
+        Map<String, String> namespaces;
+        try {
+            namespaces = getNamespaces(session);
+        } catch (RepositoryException re) {
+            log.info("lease: Cannot read namespace mappings, not caching session: {}",
+                re.getMessage());
+            return;
+        }
+
+        synchronized (this) {
+            leases.put(session, new Lease(key, generation, namespaces));
+        }
+    }
+
+    /**
+     * Returns the session to the cache if it has been leased from this cache.
+     * Returns <code>false</code> if the session is not managed by this cache
+     * and must be logged out by the caller.
+     */
+    boolean release(Session session) {
+        Lease lease;
+        synchronized (this) {
+            lease = leases.remove(session);
+        }
+        if (lease == null) {
+            return false;
+        }
+
+        boolean cached = false;
+        try {
+            if (session.isLive() && isReusable(session, lease)) {
+                // drop any changes left over by the request
+                session.refresh(false);
+
+                synchronized (this) {
+                    if (lease.generation == generation && idleCount < maxIdle) {
+                        LinkedList<IdleSession> sessions = idleSessions.get(lease.key);
+                        if (sessions == null) {
+                            sessions = new LinkedList<IdleSession>();
+                            idleSessions.put(lease.key, sessions);
+                        }
+                        sessions.addLast(new IdleSession(session,
+                            lease.namespaces));
+                        idleCount++;
+                        cached = true;
+                    }
+                }
+            }
+        } catch (RepositoryException re) {
+            log.info("release: Cannot clean up session, logging out: {}",
+                re.getMessage());
+        }
+
+        if (!cached) {
+            logout(session);
+        }
+        return true;
+    }
+
+    /**
+     * Logs out all idle sessions and prevents the sessions currently in use
+     * from being returned to the cache.
+     */
+    void clear() {
+        List<IdleSession> removed = new ArrayList<IdleSession>();
+        synchronized (this) {
+            for (LinkedList<IdleSession> sessions : idleSessions.values()) {
+                removed.addAll(sessions);
+            }
+            idleSessions.clear();
+            idleCount = 0;
+            generation++;
+        }
+
+        for (IdleSession idle : removed) {
+            logout(idle.session);
+        }
+    }
+
+    /**
+     * Ensures that changes to users, groups and access control policies in the
+     * repository clear the cache. This method is cheap to call if the
+     * repository is already observed.
+     */
+    void observe(Repository repository) {
+        if (repository != observedRepository) {
+            setRepository(repository);
+        }
+    }
+
+    void dispose() {
+        timer.cancel();
+        setRepository(null);
+        clear();
+    }
+
+    // ---------- EventListener
+
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                if (path.startsWith(SECURITY_ROOT)
+                    || path.indexOf(POLICY_NODE) >= 0) {
+                    log.debug(
+                        "onEvent: Security related change at {}, clearing cached sessions",
+                        path);
+                    clear();
+                    return;
+                }
+            } catch (RepositoryException re) {
+                log.warn("onEvent: Cannot get event path, clearing cached sessions",
+                    re);
+                clear();
+                return;
+            }
+        }
+    }
+
+    // ---------- internal
+
+    private void setRepository(Repository repository) {
+        synchronized (observationLock) {
+            if (repository != observedRepository) {
+                // sessions of another repository must not be reused
+                if (observedRepository != null) {
+                    clear();
+                }
+
+                observedRepository = repository;
+                observeRepository(repository);
+            }
+        }
+    }
+
+    private void observeRepository(Repository repository) {
+        Session oldSession = observationSession;
+        observationSession = null;
+        observedWorkspace = null;
+        if (oldSession != null) {
+            try {
+                oldSession.getWorkspace().getObservationManager().removeEventListener(
+                    this);
+            } catch (RepositoryException re) {
+                log.error(
+                    "observeRepository: Failed unregistering as observation listener",
+                    re);
+            }
+            logout(oldSession);
+        }
+
+        if (repository instanceof SlingRepository) {
+            try {
+                Session newSession = ((SlingRepository) repository).loginAdministrative(null);
+                observationSession = newSession;
+                newSession.getWorkspace().getObservationManager().addEventListener(
+                    this, 255, "/", true, null, null, false);
+                observedWorkspace = newSession.getWorkspace().getName();
+            } catch (RepositoryException re) {
+                log.error(
+                    "observeRepository: Failed registering as observation listener",
+                    re);
+            }
+        } else if (repository != null) {
+            log.warn("observeRepository: Cannot observe security changes of repository {}; "
+                + "cached sessions are only dropped after the idle timeout",
+                repository);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the released session may be reused by
+     * another request. Event listeners left registered by the request are
+     * unregistered. Sessions holding lock tokens, which would hand the locks
+     * to the next request, or whose namespace prefixes have been remapped
+     * since the login are not reused.
+     */
+    private boolean isReusable(Session session, Lease lease)
+            throws RepositoryException {
+        String[] lockTokens = session.getLockTokens();
+        if (lockTokens != null && lockTokens.length > 0) {
+            log.debug("release: Session of {} holds lock tokens, logging out",
+                session.getUserID());
+            return false;
+        }
+
+        if (!lease.namespaces.equals(getNamespaces(session))) {
+            log.debug(
+                "release: Session of {} has remapped namespace prefixes, logging out",
+                session.getUserID());
+            return false;
+        }
+
+        ObservationManager om = session.getWorkspace().getObservationManager();
+        EventListenerIterator eli = om.getRegisteredEventListeners();
+        if (eli.hasNext()) {
+            log.debug("release: Unregistering remaining event listeners of {}",
+                session.getUserID());
+            while (eli.hasNext()) {
+                om.removeEventListener(eli.nextEventListener());
+            }
+        }
+
+        return true;
+    }
+
+    /** Returns the namespace prefix to URI mappings of the session */
+    private static Map<String, String> getNamespaces(Session session)
+            throws RepositoryException {
+        Map<String, String> namespaces = new HashMap<String, String>();
+        for (String prefix : session.getNamespacePrefixes()) {
+            namespaces.put(prefix, session.getNamespaceURI(prefix));
+        }
+        return namespaces;
+    }
+
+    /** Logs out the sessions which have been idle for too long */
+    private void expire() {
+        long limit = System.currentTimeMillis() - idleTimeout;
+        List<IdleSession> expired = new ArrayList<IdleSession>();
+        synchronized (this) {
+            for (Iterator<LinkedList<IdleSession>> si = idleSessions.values().iterator(); si.hasNext();) {
+                LinkedList<IdleSession> sessions = si.next();
+
+                // the least recently used sessions are first in the list
+                while (!sessions.isEmpty() && sessions.getFirst().since < limit) {
+                    expired.add(sessions.removeFirst());
+                    idleCount--;
+                }
+                if (sessions.isEmpty()) {
+                    si.remove();
+                }
+            }
+        }
+
+        for (IdleSession idle : expired) {
+            logout(idle.session);
+        }
+    }
+
+    private void logout(Session session) {
+        try {
+            session.logout();
+        } catch (Exception e) {
+            log.error("logout: Unexpected problem logging out", e);
+        }
+    }
+
+    private static class IdleSession {
+        final Session session;
+        final Map<String, String> namespaces;
+        final long since;
+
+        IdleSession(Session session, Map<String, String> namespaces) {
+            this.session = session;
+            this.namespaces = namespaces;
+            this.since = System.currentTimeMillis();
+        }
+    }
+
+    private static class Lease {
+        final String key;
+        final int generation;
+        final Map<String, String> namespaces;
+
+        Lease(String key, int generation, Map<String, String> namespaces) {
+            this.key = key;
+            this.generation = generation;
+            this.namespaces = namespaces;
+        }
+    }
+}
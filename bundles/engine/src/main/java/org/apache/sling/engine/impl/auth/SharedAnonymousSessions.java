@@ -0,0 +1,622 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.auth;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>SharedAnonymousSessions</code> hands out a small set of
+ * long-lived anonymous sessions shared by all anonymous requests with a safe
+ * HTTP method, instead of logging into the repository for each request.
+ * <p>
+ * The sessions are handed out round-robin wrapped in read-only proxies: all
+ * items, iterators and other JCR objects retrieved through them are wrapped
+ * as well and any method modifying the repository or the transient space
+ * throws. Logging out the proxy has no effect, the sessions are only logged
+ * out when replaced or when this instance is disposed off. Each session
+ * handed out must be returned with {@link #release(Session)} once the
+ * request has been processed.
+ * <p>
+ * Each session observes the repository. After changes have been reported,
+ * the session is refreshed before being handed out if no request is using
+ * it. Otherwise it is replaced by a fresh session, since sessions must not
+ * be refreshed while other threads read through them.
+ */
+class SharedAnonymousSessions {
+
+    /** The HTTP methods of requests which may use shared sessions */
+    private static final Set<String> SAFE_METHODS = new HashSet<String>(
+        Arrays.asList("GET", "HEAD", "OPTIONS"));
+
+    /** The events observed to refresh the shared sessions */
+    private static final int EVENT_TYPES = Event.NODE_ADDED
+        | Event.NODE_REMOVED | Event.PROPERTY_ADDED | Event.PROPERTY_REMOVED
+        | Event.PROPERTY_CHANGED;
+
+    /**
+     * The names of the methods of the JCR API modifying the repository, the
+     * transient space or the state of the session, or creating new sessions.
+     * This includes <code>refresh</code>, which would discard state other
+     * threads are reading through the session.
+     * Calling any of these methods on a shared session or an object retrieved
+     * from it throws.
+     */
+    private static final Set<String> WRITE_METHODS = new HashSet<String>(
+        Arrays.asList("addEventListener", "addLockToken", "addMixin",
+            "addNode", "addVersionLabel", "cancelMerge", "checkin",
+            "checkout", "clone", "copy", "createWorkspace", "deleteWorkspace",
+            "doneMerge", "getImportContentHandler", "impersonate",
+            "importXML", "lock", "login", "merge", "move", "orderBefore",
+            "refresh", "registerNamespace", "registerNodeType",
+            "registerNodeTypes", "remove", "removeEventListener", "removeLockToken",
+            "removeMixin", "removeShare", "removeSharedSet", "removeVersion",
+            "removeVersionLabel", "restore", "restoreByLabel", "save",
+            "setNamespacePrefix", "setPrimaryType", "setProperty",
+            "setUserData", "setValue", "storeAsNode", "unlock",
+            "unregisterNamespace", "unregisterNodeType",
+            "unregisterNodeTypes", "update"));
+
+    /**
+     * The trees written by the event and job handling, changes of which do
+     * not make the shared sessions stale.
+     */
+    private static final String[] EXCLUDED_PREFIXES = { "/var/eventing/",
+        "/sling/events/" };
+
+    /** The package of the interfaces implemented by the read-only proxies */
+    private static final String JCR_PACKAGE = "javax.jcr.";
+
+    /** The JCR interfaces implemented by classes of wrapped objects */
+    private static final Map<Class<?>, Class<?>[]> JCR_INTERFACES = new ConcurrentHashMap<Class<?>, Class<?>[]>();
+
+    private static final Class<?>[] NO_INTERFACES = new Class<?>[0];
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final SharedSession[] sessions;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile boolean disposed;
+
+    /**
+     * Creates an instance sharing at most <code>size</code> sessions.
+     */
+    SharedAnonymousSessions(int size) {
+        this.sessions = new SharedSession[Math.max(1, size)];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new SharedSession();
+        }
+    }
+
+    int getSize() {
+        return sessions.length;
+    }
+
+    /**
+     * Returns <code>true</code> if requests with the given HTTP method may use
+     * a shared read-only session.
+     */
+    static boolean isSafeMethod(String method) {
+        return SAFE_METHODS.contains(method);
+    }
+
+    /**
+     * Returns <code>true</code> if the session has been handed out by the
+     * {@link #acquire(Repository)} method of any instance of this class.
+     */
+    static boolean isShared(Session session) {
+        return Proxy.isProxyClass(session.getClass())
+            && Proxy.getInvocationHandler(session) instanceof ReadOnlyHandler;
+    }
+
+    /**
+     * Releases a session handed out by the {@link #acquire(Repository)}
+     * method of any instance of this class once the request using it has
+     * been processed. This has no effect for other sessions.
+     */
+    static void release(Session session) {
+        if (isShared(session)) {
+            SessionUse use = ((ReadOnlyHandler) Proxy.getInvocationHandler(session)).use;
+            if (use != null) {
+                use.release();
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only proxy to one of the shared anonymous sessions of the
+     * repository, logging into the repository if the session does not exist
+     * yet or is not live anymore. If this instance has been disposed off, a
+     * new anonymous session, which is not shared, is returned.
+     *
+     * @throws RepositoryException If the anonymous login fails
+     */
+    Session acquire(Repository repository) throws RepositoryException {
+        if (!disposed) {
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE)
+                % sessions.length;
+            Session session = sessions[index].get(repository);
+            if (session != null) {
+                return session;
+            }
+        }
+
+        return repository.login();
+    }
+
+    /**
+     * Logs out all current shared sessions. Requests still using a shared
+     * session may fail afterwards. Replaced sessions still in use are logged
+     * out when released.
+     */
+    void dispose() {
+        disposed = true;
+        for (SharedSession session : sessions) {
+            session.dispose();
+        }
+    }
+
+    // ---------- internal
+
+    /**
+     * Returns the JCR interfaces implemented by the class of the object or an
+     * empty array if the object does not implement any.
+     */
+    private static Class<?>[] getJcrInterfaces(Class<?> type) {
+        Class<?>[] interfaces = JCR_INTERFACES.get(type);
+        if (interfaces == null) {
+            Set<Class<?>> found = new HashSet<Class<?>>();
+            collectJcrInterfaces(type, found);
+            interfaces = found.isEmpty()
+                    ? NO_INTERFACES
+                    : found.toArray(new Class<?>[found.size()]);
+            JCR_INTERFACES.put(type, interfaces);
+        }
+        return interfaces;
+    }
+
+    private static boolean isExcluded(String path) {
+        for (String prefix : EXCLUDED_PREFIXES) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void collectJcrInterfaces(Class<?> type, Set<Class<?>> found) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Class<?> iface : current.getInterfaces()) {
+                if (iface.getName().startsWith(JCR_PACKAGE)) {
+                    found.add(iface);
+                }
+                collectJcrInterfaces(iface, found);
+            }
+        }
+    }
+
+    /**
+     * The <code>SharedSession</code> keeps the current session of one of the
+     * slots of shared sessions. A session which has become stale is
+     * refreshed if no request uses it. Otherwise, as sessions must not be
+     * refreshed while other threads are using them, the slot rotates to a
+     * fresh session and the stale session is logged out once the last
+     * request using it has been released.
+     */
+    private class SharedSession {
+
+        private volatile SessionUse current;
+
+        // the repository used to login, which may not be the repository
+        // returned by the session if the repository is a wrapper
+        private volatile Repository repository;
+
+        /**
+         * Returns the read-only proxy of the session or <code>null</code> if
+         * the shared sessions have been disposed off.
+         */
+        Session get(Repository repository) throws RepositoryException {
+            while (true) {
+                SessionUse use = current;
+                if (use == null || !use.session.isLive()
+                    || this.repository != repository || use.isStaleInUse()) {
+                    use = replace(use, repository);
+                    if (use == null) {
+                        return null;
+                    }
+                }
+
+                if (use.acquire()) {
+                    return use.proxy;
+                }
+
+                // the session has been replaced concurrently, try again
+            }
+        }
+
+        synchronized void dispose() {
+            SessionUse use = current;
+            current = null;
+            repository = null;
+            if (use != null) {
+                use.logout();
+            }
+        }
+
+        // ---------- internal
+
+        private synchronized SessionUse replace(SessionUse old,
+                Repository repository) throws RepositoryException {
+            // check again, another thread may already have logged in
+            SessionUse use = current;
+            if (use != old) {
+                return use;
+            }
+
+            if (disposed) {
+                return null;
+            }
+
+            Session session;
+            try {
+                session = repository.login();
+            } catch (RepositoryException re) {
+                // keep using a stale session rather than failing the request
+                if (old != null && old.session.isLive()
+                    && this.repository == repository) {
+                    log.info("replace: Cannot login fresh shared anonymous "
+                        + "session, using stale session: {}", re.toString());
+                    return old;
+                }
+                throw re;
+            }
+
+            use = new SessionUse(session);
+            try {
+                session.getWorkspace().getObservationManager().addEventListener(
+                    use, EVENT_TYPES, "/", true, null, null, false);
+            } catch (RepositoryException re) {
+                log.warn("replace: Cannot observe the repository, shared "
+                    + "anonymous session will not be refreshed", re);
+            }
+
+            log.debug("replace: Logged in shared anonymous session {}",
+                session.getUserID());
+
+            this.repository = repository;
+            current = use;
+            if (old != null) {
+                old.retire();
+            }
+            return use;
+        }
+    }
+
+    /**
+     * The <code>SessionUse</code> keeps one shared session together with the
+     * number of requests currently using it and marks the session stale when
+     * changes are observed.
+     */
+    private class SessionUse implements EventListener {
+
+        final Session session;
+
+        final Session proxy;
+
+        // the number of requests which acquired and not yet released the
+        // session, guarded by this
+        private int users;
+
+        // set once the session has been replaced, guarded by this
+        private boolean retired;
+
+        private volatile boolean stale;
+
+        SessionUse(Session session) {
+            this.session = session;
+            this.proxy = ReadOnlyHandler.wrapSession(session, this);
+        }
+
+        /**
+         * Registers a request using the session, refreshing the session
+         * first if it is stale and not used by any other request. Returns
+         * <code>false</code> if the session has been replaced.
+         */
+        synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+
+            // refresh only once for any number of changes reported until now
+            if (stale && users == 0) {
+                stale = false;
+                try {
+                    session.refresh(false);
+                } catch (RepositoryException re) {
+                    log.info("acquire: Cannot refresh shared anonymous session: {}",
+                        re.toString());
+                }
+            }
+
+            users++;
+            return true;
+        }
+
+        /**
+         * Unregisters a request which has acquired the session, logging out
+         * the session if it has been replaced and this was the last request
+         * using it.
+         */
+        void release() {
+            synchronized (this) {
+                if (users > 0) {
+                    users--;
+                }
+                if (!retired || users > 0) {
+                    return;
+                }
+            }
+            logout();
+        }
+
+        /**
+         * Returns <code>true</code> if changes have been observed while
+         * requests are using the session, such that it cannot be refreshed.
+         */
+        synchronized boolean isStaleInUse() {
+            return stale && users > 0;
+        }
+
+        /**
+         * Marks the session replaced, logging it out unless requests are
+         * still using it.
+         */
+        void retire() {
+            synchronized (this) {
+                retired = true;
+                if (users > 0) {
+                    return;
+                }
+            }
+            logout();
+        }
+
+        void logout() {
+            if (session.isLive()) {
+                try {
+                    session.getWorkspace().getObservationManager().removeEventListener(
+                        this);
+                } catch (RepositoryException re) {
+                    log.debug("logout: Cannot remove event listener: {}",
+                        re.toString());
+                }
+                session.logout();
+            }
+        }
+
+        // ---------- EventListener
+
+        public void onEvent(EventIterator events) {
+            while (!stale && events.hasNext()) {
+                try {
+                    if (!isExcluded(events.nextEvent().getPath())) {
+                        stale = true;
+                    }
+                } catch (RepositoryException re) {
+                    stale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The <code>ReadOnlyHandler</code> delegates all methods of a read-only
+     * proxy to the wrapped JCR object except the methods modifying the
+     * repository, which throw, and <code>Session.logout()</code>, which is
+     * ignored. JCR objects returned by the wrapped object are wrapped in turn.
+     */
+    private static class ReadOnlyHandler implements InvocationHandler {
+
+        private final Object target;
+
+        // the handler of the session proxy, null for the session itself
+        private final ReadOnlyHandler sessionHandler;
+
+        // the use of the shared session, only set for the session itself
+        private SessionUse use;
+
+        // the proxies of the objects retrieved through the session, only
+        // used for the session itself, such that the same object is always
+        // represented by the same proxy. The proxies are weakly referenced
+        // as they strongly reference their targets
+        private final Map<Object, WeakReference<Object>> proxies = new WeakHashMap<Object, WeakReference<Object>>();
+
+        private Object proxy;
+
+        private ReadOnlyHandler(Object target, ReadOnlyHandler sessionHandler) {
+            this.target = target;
+            this.sessionHandler = sessionHandler;
+        }
+
+        /**
+         * Returns the shared session wrapped in a read-only proxy.
+         */
+        static Session wrapSession(Session session, SessionUse use) {
+            Session proxy = (Session) wrap(session, null);
+            ((ReadOnlyHandler) Proxy.getInvocationHandler(proxy)).use = use;
+            return proxy;
+        }
+
+        /**
+         * Returns the object wrapped in a read-only proxy or the object itself
+         * if it does not implement any JCR interface.
+         */
+        static Object wrap(Object target, ReadOnlyHandler sessionHandler) {
+            if (sessionHandler == null) {
+                return createProxy(target, null);
+            }
+
+            synchronized (sessionHandler.proxies) {
+                WeakReference<Object> ref = sessionHandler.proxies.get(target);
+                Object proxy = (ref != null) ? ref.get() : null;
+                if (proxy == null) {
+                    proxy = createProxy(target, sessionHandler);
+                    if (proxy != target) {
+                        sessionHandler.proxies.put(target,
+                            new WeakReference<Object>(proxy));
+                    }
+                }
+                return proxy;
+            }
+        }
+
+        private static Object createProxy(Object target,
+                ReadOnlyHandler sessionHandler) {
+            Class<?>[] interfaces = getJcrInterfaces(target.getClass());
+            if (interfaces.length == 0) {
+                return target;
+            }
+
+            ReadOnlyHandler handler = new ReadOnlyHandler(target, sessionHandler);
+            handler.proxy = Proxy.newProxyInstance(
+                target.getClass().getClassLoader(), interfaces, handler);
+            return handler.proxy;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if ("equals".equals(name)) {
+                    return target.equals(unwrap(new Object[] { args[0] })[0]);
+                } else if ("hashCode".equals(name)) {
+                    return target.hashCode();
+                }
+                return "ReadOnly[" + target + "]";
+            }
+
+            if ("logout".equals(name) && target instanceof Session) {
+                return null;
+            }
+
+            if (WRITE_METHODS.contains(name)) {
+                throw readOnly(method);
+            }
+
+            Object result;
+            try {
+                result = method.invoke(target, unwrap(args));
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+
+            if (result == null || result instanceof String
+                || result instanceof Value) {
+                return result;
+            }
+
+            // objects returning their session, return the session proxy
+            ReadOnlyHandler session = (sessionHandler == null)
+                    ? this
+                    : sessionHandler;
+            if (result == session.target) {
+                return session.proxy;
+            }
+
+            if (result.getClass().isArray()) {
+                return wrapArray(result, session);
+            }
+
+            return wrap(result, session);
+        }
+
+        /**
+         * Wraps the elements of arrays of JCR objects such as the versions
+         * returned by <code>Version.getSuccessors()</code>.
+         */
+        private static Object wrapArray(Object array, ReadOnlyHandler session) {
+            Class<?> type = array.getClass().getComponentType();
+            if (!type.isInterface() || !type.getName().startsWith(JCR_PACKAGE)
+                || type == Value.class) {
+                return array;
+            }
+
+            int length = Array.getLength(array);
+            Object wrapped = Array.newInstance(type, length);
+            for (int i = 0; i < length; i++) {
+                Object element = Array.get(array, i);
+                Array.set(wrapped, i, (element == null)
+                        ? null
+                        : wrap(element, session));
+            }
+            return wrapped;
+        }
+
+        private Throwable readOnly(Method method) {
+            String message = "Shared anonymous session is read-only, "
+                + method.getName() + " is not allowed";
+            for (Class<?> exception : method.getExceptionTypes()) {
+                if (exception.isAssignableFrom(AccessDeniedException.class)) {
+                    return new AccessDeniedException(message);
+                }
+            }
+            return new UnsupportedOperationException(message);
+        }
+
+        private static Object[] unwrap(Object[] args) {
+            if (args != null) {
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i] != null && Proxy.isProxyClass(args[i].getClass())) {
+                        InvocationHandler handler = Proxy.getInvocationHandler(args[i]);
+                        if (handler instanceof ReadOnlyHandler) {
+                            args[i] = ((ReadOnlyHandler) handler).target;
+                        }
+                    }
+                }
+            }
+            return args;
+        }
+    }
+}
@@ -107,6 +107,31 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
      */
     public static final String PAR_ANONYMOUS_ALLOWED = "auth.annonymous";
 
+    /**
+     * @scr.property valueRef="DEFAULT_SESSION_CACHE" type="Boolean"
+     */
+    public static final String PAR_SESSION_CACHE = "auth.session.cache";
+
+    /**
+     * @scr.property valueRef="DEFAULT_SESSION_CACHE_SIZE" type="Integer"
+     */
+    public static final String PAR_SESSION_CACHE_SIZE = "auth.session.cache.size";
+
+    /**
+     * @scr.property valueRef="DEFAULT_SESSION_CACHE_IDLE" type="Integer"
+     */
+    public static final String PAR_SESSION_CACHE_IDLE = "auth.session.cache.idle";
+
+    /**
+     * @scr.property valueRef="DEFAULT_ANONYMOUS_SHARED" type="Boolean"
+     */
+    public static final String PAR_ANONYMOUS_SHARED = "auth.anonymous.shared";
+
+    /**
+     * @scr.property valueRef="DEFAULT_ANONYMOUS_SHARED_SIZE" type="Integer"
+     */
+    public static final String PAR_ANONYMOUS_SHARED_SIZE = "auth.anonymous.shared.size";
+
     /** The default impersonation parameter name */
     private static final String DEFAULT_IMPERSONATION_PARAMETER = "sudo";
 
@@ -116,6 +141,21 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
     /** The default value for allowing anonymous access */
     private static final boolean DEFAULT_ANONYMOUS_ALLOWED = true;
 
+    /** The default value for reusing authenticated sessions */
+    private static final boolean DEFAULT_SESSION_CACHE = false;
+
+    /** The default maximum number of idle authenticated sessions */
+    private static final int DEFAULT_SESSION_CACHE_SIZE = 100;
+
+    /** The default idle time of authenticated sessions in seconds */
+    private static final int DEFAULT_SESSION_CACHE_IDLE = 60;
+
+    /** The default value for sharing read-only anonymous sessions */
+    private static final boolean DEFAULT_ANONYMOUS_SHARED = false;
+
+    /** The default number of shared read-only anonymous sessions */
+    private static final int DEFAULT_ANONYMOUS_SHARED_SIZE = 4;
+
     private final ServiceTracker repositoryTracker;
 
     private final ServiceTracker authHandlerTracker;
@@ -136,6 +176,18 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
     /** Whether access without credentials is allowed */
     boolean anonymousAllowed;
 
+    /**
+     * The cache of authenticated sessions for reuse by later requests or
+     * <code>null</code> if sessions are not reused.
+     */
+    private volatile AuthenticatedSessionCache sessionCache;
+
+    /**
+     * The read-only anonymous sessions shared by anonymous requests with safe
+     * methods or <code>null</code> if anonymous sessions are not shared.
+     */
+    private volatile SharedAnonymousSessions sharedSessions;
+
     private ServiceRegistration registration;
 
     public SlingAuthenticator(BundleContext bundleContext) {
@@ -163,6 +215,18 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
         registration.unregister();
         authHandlerTracker.close();
         repositoryTracker.close();
+
+        AuthenticatedSessionCache cache = sessionCache;
+        sessionCache = null;
+        if (cache != null) {
+            cache.dispose();
+        }
+
+        SharedAnonymousSessions shared = sharedSessions;
+        sharedSessions = null;
+        if (shared != null) {
+            shared.dispose();
+        }
     }
 
     /**
@@ -212,11 +276,21 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
             // try to connect
             try {
                 log.debug("authenticate: credentials, trying to get a session");
-                Session session = getRepository().login(
-                    authInfo.getCredentials(), authInfo.getWorkspaceName());
+                Session session = login(authInfo);
 
-                // handle impersonation
-                session = handleImpersonation(req, res, session);
+                // handle impersonation, releasing the authenticated session
+                // if an impersonated session is used instead
+                Session impersonated;
+                try {
+                    impersonated = handleImpersonation(req, res, session);
+                } catch (RepositoryException re) {
+                    releaseSession(session);
+                    throw re;
+                }
+                if (impersonated != session) {
+                    releaseSession(session);
+                    session = impersonated;
+                }
                 setAttributes(session, authInfo.getAuthType(), req);
 
                 return true;
@@ -286,6 +360,26 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
         }
     }
 
+    /**
+     * Releases the session of a request once the request has been processed.
+     * The session is either returned to the cache of authenticated sessions
+     * for reuse by later requests or logged out. Shared anonymous sessions
+     * are returned to the shared sessions for the next requests.
+     *
+     * @param session The session to release
+     */
+    public void releaseSession(Session session) {
+        if (SharedAnonymousSessions.isShared(session)) {
+            SharedAnonymousSessions.release(session);
+            return;
+        }
+
+        AuthenticatedSessionCache cache = sessionCache;
+        if (cache == null || !cache.release(session)) {
+            session.logout();
+        }
+    }
+
     // ----------- ManagedService interface -----------------------------------
 
     @SuppressWarnings("unchecked")
@@ -322,10 +416,95 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
         } else {
             this.anonymousAllowed = DEFAULT_ANONYMOUS_ALLOWED;
         }
+
+        // setup the session cache, replacing the existing cache if changed
+        AuthenticatedSessionCache oldCache = sessionCache;
+        AuthenticatedSessionCache newCache = null;
+        if (OsgiUtil.toBoolean(properties.get(PAR_SESSION_CACHE),
+            DEFAULT_SESSION_CACHE)) {
+            int size = OsgiUtil.toInteger(
+                properties.get(PAR_SESSION_CACHE_SIZE),
+                DEFAULT_SESSION_CACHE_SIZE);
+            long idle = 1000L * OsgiUtil.toInteger(
+                properties.get(PAR_SESSION_CACHE_IDLE),
+                DEFAULT_SESSION_CACHE_IDLE);
+            if (oldCache != null && oldCache.getMaxIdle() == size
+                && oldCache.getIdleTimeout() == idle) {
+                newCache = oldCache;
+            } else if (size > 0 && idle > 0) {
+                log.info(
+                    "Caching up to {} authenticated sessions idle for at most {}ms",
+                    size, idle);
+                newCache = new AuthenticatedSessionCache(size, idle);
+            }
+        }
+        if (newCache != oldCache) {
+            sessionCache = newCache;
+            if (oldCache != null) {
+                oldCache.dispose();
+            }
+        }
+
+        // setup the shared anonymous sessions, replacing them if changed
+        SharedAnonymousSessions oldShared = sharedSessions;
+        SharedAnonymousSessions newShared = null;
+        if (OsgiUtil.toBoolean(properties.get(PAR_ANONYMOUS_SHARED),
+            DEFAULT_ANONYMOUS_SHARED)) {
+            int size = OsgiUtil.toInteger(
+                properties.get(PAR_ANONYMOUS_SHARED_SIZE),
+                DEFAULT_ANONYMOUS_SHARED_SIZE);
+            if (oldShared != null && oldShared.getSize() == size) {
+                newShared = oldShared;
+            } else if (size > 0) {
+                log.info(
+                    "Sharing {} read-only anonymous sessions for safe requests",
+                    size);
+                newShared = new SharedAnonymousSessions(size);
+            }
+        }
+        if (newShared != oldShared) {
+            sharedSessions = newShared;
+            if (oldShared != null) {
+                oldShared.dispose();
+            }
+        }
     }
 
     // ---------- internal ----------------------------------------------------
 
+    /**
+     * Returns a session for the credentials of the authentication info. If
+     * sessions are cached, an idle session for the same credentials is
+     * reused. Otherwise the repository is logged into.
+     */
+    private Session login(AuthenticationInfo authInfo)
+            throws MissingRepositoryException, RepositoryException {
+        final Repository repository = getRepository();
+        final Credentials credentials = authInfo.getCredentials();
+        final String workspace = authInfo.getWorkspaceName();
+
+        final AuthenticatedSessionCache cache = sessionCache;
+        if (cache != null) {
+            final String key = AuthenticatedSessionCache.getKey(credentials,
+                workspace);
+            if (key != null) {
+                cache.observe(repository);
+
+                Session session = cache.acquire(key);
+                if (session != null) {
+                    log.debug("login: Reusing cached session of {}",
+                        session.getUserID());
+                } else {
+                    session = repository.login(credentials, workspace);
+                    cache.lease(session, key);
+                }
+                return session;
+            }
+        }
+
+        return repository.login(credentials, workspace);
+    }
+
     private Repository getRepository() throws MissingRepositoryException {
         final Repository repo = (Repository) repositoryTracker.getService();
         if (repo == null) {
@@ -505,7 +684,15 @@ public class SlingAuthenticator implements ManagedService, Authenticator {
         // a request for the login servlet
         if (this.anonymousAllowed || isLoginPath) {
             try {
-                Session session = getRepository().login();
+                // share read-only sessions for requests not modifying content
+                final SharedAnonymousSessions shared = sharedSessions;
+                final Session session;
+                if (shared != null && !isLoginPath
+                    && SharedAnonymousSessions.isSafeMethod(req.getMethod())) {
+                    session = shared.acquire(getRepository());
+                } else {
+                    session = getRepository().login();
+                }
                 setAttributes(session, null, req);
                 return true;
             } catch (RepositoryException re) {
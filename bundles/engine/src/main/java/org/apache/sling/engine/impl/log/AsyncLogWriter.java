@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>AsyncLogWriter</code> writes log messages to a file in a
+ * background thread. Request threads just add the preformatted messages to a
+ * bounded {@link RingBuffer} while the writer thread drains the buffer in
+ * batches into a large buffered writer, which is flushed at most once per
+ * flush interval. While the buffer is empty, the writer thread is parked and
+ * only woken by the first message added.
+ * <p>
+ * If the buffer is full, messages are either dropped or the request thread
+ * waits for the writer thread to make room, depending on the overflow policy.
+ * Messages written after the writer has been closed are dropped as well.
+ * Dropped messages are counted. The log file may be rotated when it reaches
+ * a maximum size and/or after a fixed interval of time. Rotated files are
+ * renamed by appending the time of rotation to the file name.
+ */
+class AsyncLogWriter implements Runnable {
+
+    /** The overflow policy having request threads wait for free room */
+    static final String OVERFLOW_BLOCK = "block";
+
+    /** The overflow policy dropping (and counting) the messages */
+    static final String OVERFLOW_DROP = "drop";
+
+    // the size of the buffer of the writer to the file
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // the time in ns a blocked request thread waits before trying again
+    private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final File file;
+
+    private final RingBuffer<String> buffer;
+
+    private final long flushInterval;
+
+    private final boolean blockOnOverflow;
+
+    private final long rotationSize;
+
+    private final long rotationInterval;
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong rotations = new AtomicLong();
+
+    private volatile boolean running;
+
+    // set by close() to drop the messages written afterwards
+    private volatile boolean closed;
+
+    private volatile Thread thread;
+
+    // set by the writer thread before parking on an empty buffer, cleared by
+    // the first producer adding a message, which unparks the writer thread
+    private final AtomicBoolean parked = new AtomicBoolean();
+
+    // the following fields are only accessed by the writer thread
+
+    private Writer output;
+
+    private long fileSize;
+
+    private long nextRotation;
+
+    /**
+     * Creates a writer for the given file.
+     *
+     * @param file The file to write to
+     * @param queueSize The maximum number of messages waiting to be written
+     * @param flushInterval The minimum time in ms between flushes of the file
+     * @param overflow The overflow policy, {@link #OVERFLOW_BLOCK} or
+     *            {@link #OVERFLOW_DROP}
+     * @param rotationSize The approximate size in bytes at which the file is
+     *            rotated, zero to not rotate by size
+     * @param rotationInterval The time in ms after which the file is rotated,
+     *            zero to not rotate by time
+     */
+    AsyncLogWriter(File file, int queueSize, long flushInterval,
+            String overflow, long rotationSize, long rotationInterval) {
+        this.file = file;
+        this.buffer = new RingBuffer<String>(Math.max(1, queueSize));
+        this.flushInterval = Math.max(0, flushInterval);
+        this.blockOnOverflow = OVERFLOW_BLOCK.equals(overflow);
+        this.rotationSize = Math.max(0, rotationSize);
+        this.rotationInterval = Math.max(0, rotationInterval);
+    }
+
+    void start() throws IOException {
+        open();
+
+        running = true;
+        thread = new Thread(this, "Sling Request Log Writer " + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread after all messages in the buffer have been
+     * written and closes the file.
+     */
+    void close() {
+        closed = true;
+        running = false;
+
+        Thread writerThread = thread;
+        thread = null;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join(5000);
+            } catch (InterruptedException ie) {
+                // don't care
+            }
+
+            // count messages added while closing, which are never written
+            if (!writerThread.isAlive()) {
+                while (buffer.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the message to the buffer to be written by the writer thread. If
+     * the writer has been closed, the message is dropped.
+     */
+    void write(String message) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if (offer(message)) {
+            return;
+        }
+
+        if (blockOnOverflow) {
+            while (running) {
+                LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+                if (offer(message)) {
+                    return;
+                }
+            }
+        }
+
+        dropped.incrementAndGet();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    String getOverflowPolicy() {
+        return blockOnOverflow ? OVERFLOW_BLOCK : OVERFLOW_DROP;
+    }
+
+    int getQueueSize() {
+        return buffer.size();
+    }
+
+    int getQueueCapacity() {
+        return buffer.capacity();
+    }
+
+    long getWritten() {
+        return written.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getRotations() {
+        return rotations.get();
+    }
+
+    // ---------- Runnable interface
+
+    public void run() {
+        long lastFlush = System.currentTimeMillis();
+        boolean dirty = false;
+
+        while (running) {
+            int count = drain();
+            dirty |= count > 0;
+
+            long now = System.currentTimeMillis();
+            if (dirty && now - lastFlush >= flushInterval) {
+                flush();
+                dirty = false;
+                lastFlush = now;
+            }
+
+            if (count == 0) {
+                // wait for the next message, but not beyond the next flush
+                parked.set(true);
+                if (running && buffer.size() == 0) {
+                    if (dirty) {
+                        long wait = flushInterval - (now - lastFlush);
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(
+                            1, wait)));
+                    } else {
+                        LockSupport.park();
+                    }
+                }
+                parked.set(false);
+            }
+        }
+
+        // write the remaining messages and close the file
+        drain();
+        closeOutput();
+    }
+
+    // ---------- internal
+
+    // adds the message and wakes the writer thread if it waits for messages
+    private boolean offer(String message) {
+        if (!buffer.offer(message)) {
+            return false;
+        }
+
+        if (parked.compareAndSet(true, false)) {
+            Thread writerThread = thread;
+            if (writerThread != null) {
+                LockSupport.unpark(writerThread);
+            }
+        }
+        return true;
+    }
+
+    // writes all messages currently in the buffer and returns their number
+    private int drain() {
+        int count = 0;
+        for (String message = buffer.poll(); message != null; message = buffer.poll()) {
+            if (output != null) {
+                try {
+                    rotateIfNeeded();
+                    output.write(message);
+                    output.write(LINE_SEPARATOR);
+                    fileSize += message.length() + LINE_SEPARATOR.length();
+                    written.incrementAndGet();
+                } catch (IOException ioe) {
+                    log.error("drain: Failed writing to " + file, ioe);
+                    dropped.incrementAndGet();
+                }
+            } else {
+                dropped.incrementAndGet();
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void flush() {
+        if (output != null) {
+            try {
+                output.flush();
+            } catch (IOException ioe) {
+                log.error("flush: Failed flushing " + file, ioe);
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        // ensure location of the log file
+        file.getParentFile().mkdirs();
+
+        output = new BufferedWriter(new FileWriter(file, true),
+            WRITE_BUFFER_SIZE);
+        fileSize = file.length();
+        if (rotationInterval > 0) {
+            nextRotation = System.currentTimeMillis() + rotationInterval;
+        }
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException ioe) {
+                log.error("closeOutput: Failed closing " + file, ioe);
+            }
+            output = null;
+        }
+    }
+
+    private void rotateIfNeeded() throws IOException {
+        boolean sizeExceeded = rotationSize > 0 && fileSize >= rotationSize;
+        boolean timeElapsed = rotationInterval > 0
+            && System.currentTimeMillis() >= nextRotation;
+        if (sizeExceeded || timeElapsed) {
+            rotate();
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeOutput();
+
+        String suffix = new SimpleDateFormat("yyyy-MM-dd-HHmmss").format(new Date());
+        File rotated = new File(file.getParentFile(), file.getName() + "."
+            + suffix);
+        for (int i = 1; rotated.exists(); i++) {
+            rotated = new File(file.getParentFile(), file.getName() + "."
+                + suffix + "." + i);
+        }
+
+        boolean renamed = file.renameTo(rotated);
+        open();
+
+        if (renamed) {
+            rotations.incrementAndGet();
+        } else {
+            // continue appending until the next size or time limit
+            log.warn("rotate: Cannot rename {} to {}, continuing to append",
+                file, rotated);
+            fileSize = 0;
+        }
+    }
+}
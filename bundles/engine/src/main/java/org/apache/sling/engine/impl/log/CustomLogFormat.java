@@ -19,12 +19,9 @@
 package org.apache.sling.engine.impl.log;
 
 import java.text.CharacterIterator;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.text.StringCharacterIterator;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Locale;
@@ -38,9 +35,29 @@ import org.apache.sling.engine.impl.SlingHttpServletResponseImpl;
 /**
  * The <code>CustomLogFormat</code> class implements the support for log format
  * strings similar to the Apache httpd CustomLog configuration.
+ * <p>
+ * The format pattern is parsed once into a flat array of parameters, each of
+ * which appends its value directly to a string builder reused by the calling
+ * thread for all log lines.
  */
 class CustomLogFormat {
 
+    /** The initial size of the per-thread buffer for the log lines */
+    private static final int BUFFER_SIZE = 256;
+
+    /**
+     * The maximum size of the per-thread buffer kept between log lines. Larger
+     * buffers created for exceptionally long lines are discarded.
+     */
+    private static final int MAX_BUFFER_SIZE = 8192;
+
+    /** The buffers used by the threads to build the log lines */
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        protected StringBuilder initialValue() {
+            return new StringBuilder(BUFFER_SIZE);
+        }
+    };
+
     /**
      * The parsed list of log format parts whose <code>print</code> method
      * is called when building the log message line.
@@ -75,11 +92,16 @@ class CustomLogFormat {
      */
     String format(SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
         if (this.logParameters != null) {
-            StringBuffer buf = new StringBuffer();
+            StringBuilder buf = buffers.get();
+            buf.setLength(0);
             for (int i=0; i < this.logParameters.length; i++) {
                 this.logParameters[i].print(buf, request, response);
             }
-            return buf.toString();
+            String line = buf.toString();
+            if (buf.capacity() > MAX_BUFFER_SIZE) {
+                buffers.remove();
+            }
+            return line;
         }
 
         return null;
@@ -342,17 +364,19 @@ class CustomLogFormat {
     //---------- Parameter support --------------------------------------------
 
     static interface Parameter {
-        void print(StringBuffer dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response);
+        void print(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response);
     }
 
     static class PlainTextParameter implements Parameter {
-        private String value;
+        private final String value;
+        private final char[] chars;
         PlainTextParameter(String value) {
             this.value = value;
+            this.chars = value.toCharArray();
         }
-        public void print(StringBuffer dest, SlingHttpServletRequest request,
+        public void print(StringBuilder dest, SlingHttpServletRequest request,
                 SlingHttpServletResponseImpl response) {
-            dest.append(this.value);
+            dest.append(this.chars);
         }
         public String toString() {
             return this.value;
@@ -392,13 +416,25 @@ class CustomLogFormat {
         protected abstract String getValue(SlingHttpServletRequest request);
         protected abstract String getValue(SlingHttpServletResponseImpl response);
 
-        public final void print(StringBuffer dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+        public final void print(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
             if (this.printOk(response.getStatus())) {
-                String value = this.isRequest ? this.getValue(request) : this.getValue(response);
-                dest.append((value == null) ? "-" : value);
+                this.append(dest, request, response);
             }
         }
 
+        /**
+         * Appends the value of this parameter to the <code>dest</code>
+         * builder. This default implementation appends the value returned by
+         * the respective <code>getValue</code> method or a dash if that value
+         * is <code>null</code>. Parameters whose values are numbers or are
+         * composed of multiple parts overwrite this method to append their
+         * value without creating intermediate strings.
+         */
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            String value = this.isRequest ? this.getValue(request) : this.getValue(response);
+            dest.append((value == null) ? "-" : value);
+        }
+
         protected boolean printOk(int status) {
             if (this.statusLimits == null) {
                 return true;
@@ -417,6 +453,10 @@ class CustomLogFormat {
             return this.parName;
         }
 
+        protected boolean isRequest() {
+            return this.isRequest;
+        }
+
         public String toString() {
             StringBuffer result = new StringBuffer("%");
 
@@ -442,6 +482,8 @@ class CustomLogFormat {
         }
         //--------- helper ----------------------------------------------------
 
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
         private static boolean isPrint(char c) {
             return c >= 0x20 && c < 0x7f && c != '\\' && c != '"';
         }
@@ -453,19 +495,27 @@ class CustomLogFormat {
             }
 
             // find the first non-printable
-            int i=0;
-            while (i < value.length() && isPrint(value.charAt(i))) {
-                i++;
-            }
+            int i = firstNonPrint(value);
 
             // if none has been found, just return the value
             if (i >= value.length()) {
                 return value;
             }
 
-            // otherwise copy the printable first part in a string buffer
-            // and start encoding
-            StringBuffer buf = new StringBuffer(value.substring(0, i));
+            // otherwise encode into a new string
+            StringBuilder buf = new StringBuilder(value.length() + 16);
+            escape(buf, value);
+            return buf.toString();
+        }
+
+        /**
+         * Appends the <code>value</code> to the <code>buf</code> escaping
+         * any non-printable characters. If the value does not contain any
+         * such characters, it is appended as is.
+         */
+        static void escape(StringBuilder buf, String value) {
+            int i = firstNonPrint(value);
+            buf.append(value, 0, i);
             while (i < value.length()) {
                 char c = value.charAt(i);
                 if (isPrint(c)) {
@@ -486,22 +536,35 @@ class CustomLogFormat {
                     buf.append("\\\\");
                 } else {                // encode
                     buf.append("\\u");
-                    if (c < 0x10) {
-                        buf.append('0');   // leading zero
-                    }
-                    if (c < 0x100) {
-                        buf.append('0');  // leading zero
-                    }
-                    if (c < 0x1000) {
-                        buf.append('0'); // leading zero
-                    }
-                    buf.append(Integer.toHexString(c));
+                    buf.append(HEX[(c >> 12) & 0xf]);
+                    buf.append(HEX[(c >> 8) & 0xf]);
+                    buf.append(HEX[(c >> 4) & 0xf]);
+                    buf.append(HEX[c & 0xf]);
                 }
                 i++;
             }
+        }
 
-            // return the encoded string value
-            return buf.toString();
+        private static int firstNonPrint(String value) {
+            int i = 0;
+            while (i < value.length() && isPrint(value.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * Appends the integer <code>value</code> to the <code>dest</code>
+         * builder left padded with zeros to the given number of
+         * <code>digits</code>.
+         */
+        static void appendPadded(StringBuilder dest, int value, int digits) {
+            for (int limit = 10; digits > 1; digits--, limit *= 10) {
+                if (value < limit) {
+                    dest.append('0');
+                }
+            }
+            dest.append(value);
         }
 
     }
@@ -547,6 +610,10 @@ class CustomLogFormat {
         protected String getValue(SlingHttpServletResponseImpl response) {
             return String.valueOf(response.getRequestId());
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            dest.append(response.getRequestId());
+        }
     }
 
     static class ByteCountParameter extends BaseParameter {
@@ -566,29 +633,24 @@ class CustomLogFormat {
 
             return String.valueOf(count);
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            int count = response.getCount();
+            if (count == 0) {
+                dest.append((this.getParName() == 'b') ? '-' : '0');
+            } else {
+                dest.append(count);
+            }
+        }
     }
 
     static class TimeParameter extends BaseParameter {
 
-        /** date format - see access logging in service() */
-        private static final SimpleDateFormat accessLogFmt = new SimpleDateFormat(
-            "dd/MMM/yyyy:HH:mm:ss ", Locale.US);
-
-        /** time format for GMT offset - see access logging in service() */
-        private static final DecimalFormat dfmt = new DecimalFormat("+0000;-0000");
-
-        /** the timezone for the timezone offset calculation */
-        private static final Calendar calendar = Calendar.getInstance();
-
-        /** last zone offset (cached by hours) */
-        private static String lastZoneOffset = "";
-
-        private static long lastZoneOffsetHour = -1;
+        private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr",
+            "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
 
         /** last formatted time (cached in seconds) */
-        private static String lastTimeFormatted = "";
-
-        private static long lastTimeFormattedSeconds = -1;
+        private static volatile FormattedTime lastTime = new FormattedTime(-1, "");
 
         private final boolean requestStart;
 
@@ -609,25 +671,55 @@ class CustomLogFormat {
 
         // ---------- internal -----------------------------------------------------
 
+        /**
+         * Returns the time formatted as <code>dd/MMM/yyyy:HH:mm:ss Z</code>.
+         * The last formatted time is cached such that the time is only
+         * formatted once per second.
+         */
         static String timeFormatted(long time) {
-            if (time / 1000 != lastTimeFormattedSeconds) {
-                lastTimeFormattedSeconds = time / 1000;
-                Date date = new Date(time);
-                StringBuffer buf = new StringBuffer(accessLogFmt.format(date));
-                if (time / 3600000 != lastZoneOffsetHour) {
-                    lastZoneOffsetHour = time / 3600000;
-                    calendar.setTime(date);
-                    int tzOffset = calendar.get(Calendar.ZONE_OFFSET)
-                        + calendar.get(Calendar.DST_OFFSET);
-                    tzOffset /= (60 * 1000);
-                    tzOffset = ((tzOffset / 60) * 100) + (tzOffset % 60);
-
-                    lastZoneOffset = dfmt.format(tzOffset);
-                }
-                buf.append(lastZoneOffset);
-                lastTimeFormatted = buf.toString();
+            long seconds = time / 1000;
+            FormattedTime formatted = lastTime;
+            if (formatted.seconds != seconds) {
+                formatted = new FormattedTime(seconds, format(time));
+                lastTime = formatted;
+            }
+            return formatted.value;
+        }
+
+        private static String format(long time) {
+            Calendar calendar = Calendar.getInstance(Locale.US);
+            calendar.setTimeInMillis(time);
+
+            StringBuilder buf = new StringBuilder(26);
+            appendPadded(buf, calendar.get(Calendar.DAY_OF_MONTH), 2);
+            buf.append('/').append(MONTHS[calendar.get(Calendar.MONTH)]);
+            buf.append('/');
+            appendPadded(buf, calendar.get(Calendar.YEAR), 4);
+            buf.append(':');
+            appendPadded(buf, calendar.get(Calendar.HOUR_OF_DAY), 2);
+            buf.append(':');
+            appendPadded(buf, calendar.get(Calendar.MINUTE), 2);
+            buf.append(':');
+            appendPadded(buf, calendar.get(Calendar.SECOND), 2);
+
+            int tzOffset = calendar.get(Calendar.ZONE_OFFSET)
+                + calendar.get(Calendar.DST_OFFSET);
+            tzOffset /= (60 * 1000);
+            buf.append((tzOffset < 0) ? " -" : " +");
+            tzOffset = Math.abs(tzOffset);
+            appendPadded(buf, ((tzOffset / 60) * 100) + (tzOffset % 60), 4);
+
+            return buf.toString();
+        }
+
+        /** The formatted time of a second, replaced as a whole */
+        private static class FormattedTime {
+            final long seconds;
+            final String value;
+            FormattedTime(long seconds, String value) {
+                this.seconds = seconds;
+                this.value = value;
             }
-            return lastTimeFormatted;
         }
     }
 
@@ -649,6 +741,11 @@ class CustomLogFormat {
             }
             return String.valueOf(time);
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            long time = response.getRequestDuration();
+            dest.append(this.seconds ? time / 1000 : time);
+        }
     }
 
     static class RemoteIPParameter extends BaseParameter {
@@ -705,6 +802,10 @@ class CustomLogFormat {
         protected String getValue(SlingHttpServletResponseImpl response) {
             return null;
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            dest.append(request.getServerPort());
+        }
     }
 
     static class ServerNameParameter extends BaseParameter {
@@ -752,6 +853,16 @@ class CustomLogFormat {
         protected String getValue(SlingHttpServletResponseImpl response) {
             return null;
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            dest.append(request.getMethod()).append(' ');
+            dest.append(request.getRequestURI());
+            String query = request.getQueryString();
+            if (query != null && query.length() > 0) {
+                dest.append('?').append(query);
+            }
+            dest.append(' ').append(request.getProtocol());
+        }
     }
 
     static class ProtocolParameter extends BaseParameter {
@@ -809,6 +920,13 @@ class CustomLogFormat {
         protected String getValue(SlingHttpServletResponseImpl response) {
             return null;
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            String query = request.getQueryString();
+            if (query != null && query.length() > 0) {
+                dest.append('?').append(query);
+            }
+        }
     }
 
     static class UserParameter extends BaseParameter {
@@ -837,6 +955,10 @@ class CustomLogFormat {
         protected String getValue(SlingHttpServletResponseImpl response) {
             return String.valueOf(response.getStatus());
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            dest.append(response.getStatus());
+        }
     }
 
     static class CookieParameter extends BaseParameter {
@@ -856,6 +978,17 @@ class CustomLogFormat {
             return (cookie == null) ? null : escape(cookie.toString());
         }
 
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            Cookie cookie = this.isRequest()
+                    ? request.getCookie(this.cookieName)
+                    : response.getCookie(this.cookieName);
+            if (cookie == null) {
+                dest.append('-');
+            } else {
+                escape(dest, cookie.toString());
+            }
+        }
+
     }
 
     static class HeaderParameter extends BaseParameter {
@@ -881,5 +1014,28 @@ class CustomLogFormat {
         protected String getValue(SlingHttpServletResponseImpl response) {
             return escape(response.getHeaders(this.headerName));
         }
+
+        protected void append(StringBuilder dest, SlingHttpServletRequest request, SlingHttpServletResponseImpl response) {
+            if (this.isRequest()) {
+                Enumeration<?> values = request.getHeaders(this.headerName);
+                if (values == null || !values.hasMoreElements()) {
+                    dest.append('-');
+                    return;
+                }
+
+                escape(dest, String.valueOf(values.nextElement()));
+                while (values.hasMoreElements()) {
+                    dest.append(',');
+                    escape(dest, String.valueOf(values.nextElement()));
+                }
+            } else {
+                String value = response.getHeaders(this.headerName);
+                if (value == null) {
+                    dest.append('-');
+                } else {
+                    escape(dest, value);
+                }
+            }
+        }
     }
 }
@@ -23,7 +23,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.sling.engine.RequestLog;
@@ -52,10 +54,11 @@ import org.apache.sling.engine.RequestLog;
  * last user has closed the log, (3) optimize the first strategy by keeping the
  * files open for some time.
  * <p>
- * Note: Currently, the <code>PrintWriter</code> used to log the message is
- * flushed after each log message written. Future development should probably
- * implement better buffering in conjunction with the temporary open/close
- * cycles of the files.
+ * Note: Unless asynchronous logging is enabled, the <code>PrintWriter</code>
+ * used to log the message is flushed after each log message written. In
+ * asynchronous mode the messages are handed over to an {@link AsyncLogWriter}
+ * per file, which writes and flushes the messages in batches in a background
+ * thread and optionally rotates the file.
  */
 class FileRequestLog implements RequestLog {
 
@@ -65,26 +68,56 @@ class FileRequestLog implements RequestLog {
     // The map of shared open files (actually PrintWriter instances)
     private static Map<String, PrintWriter> logFiles = new HashMap<String, PrintWriter>();
 
+    // The map of shared asynchronously written files
+    private static Map<String, AsyncLogWriter> asyncLogFiles = new HashMap<String, AsyncLogWriter>();
+
+    // The configuration of asynchronous logging, null if disabled
+    private static AsyncConfig asyncConfig;
+
     // Initialize class with the root directory for relative log file paths
     static void init(String relPathRoot) {
+        init(relPathRoot, null);
+    }
+
+    // Initialize class with the root directory for relative log file paths
+    // and the configuration of asynchronous logging (null to disable)
+    static void init(String relPathRoot, AsyncConfig asyncConfig) {
         FileRequestLog.relPathRoot = new File(relPathRoot).getAbsoluteFile();
+        FileRequestLog.asyncConfig = asyncConfig;
     }
 
     // Dispose class by closing all open PrintWeiter instances
     static void dispose() {
-        for (final Writer w : logFiles.values()) {
-            try {
+        synchronized (logFiles) {
+            for (final Writer w : logFiles.values()) {
+                try {
+                    w.close();
+                } catch (IOException ioe) {
+                    // don't care
+                }
+            }
+            logFiles.clear();
+
+            for (final AsyncLogWriter w : asyncLogFiles.values()) {
                 w.close();
-            } catch (IOException ioe) {
-                // don't care
             }
+            asyncLogFiles.clear();
+        }
+    }
+
+    // Returns the writers of the asynchronously written files
+    static List<AsyncLogWriter> getAsyncLogWriters() {
+        synchronized (logFiles) {
+            return new ArrayList<AsyncLogWriter>(asyncLogFiles.values());
         }
-        logFiles.clear();
     }
 
     // The PrintWriter used by this instance to write the messages
     private PrintWriter output;
 
+    // The AsyncLogWriter used by this instance in asynchronous mode
+    private AsyncLogWriter asyncOutput;
+
     FileRequestLog(String fileName) throws IOException {
         // ensure the path is absolute
         File file = new File(fileName);
@@ -96,6 +129,21 @@ class FileRequestLog implements RequestLog {
         fileName = file.getAbsolutePath();
 
         synchronized (logFiles) {
+            final AsyncConfig config = asyncConfig;
+            if (config != null) {
+                this.asyncOutput = asyncLogFiles.get(fileName);
+                if (this.asyncOutput == null) {
+                    AsyncLogWriter writer = new AsyncLogWriter(file,
+                        config.queueSize, config.flushInterval,
+                        config.overflow, config.rotationSize,
+                        config.rotationInterval);
+                    writer.start();
+                    this.asyncOutput = writer;
+                    asyncLogFiles.put(fileName, writer);
+                }
+                return;
+            }
+
             this.output = logFiles.get(fileName);
             if (this.output == null) {
 
@@ -113,6 +161,12 @@ class FileRequestLog implements RequestLog {
      * @see org.apache.sling.engine.RequestLog#write(java.lang.String)
      */
     public void write(String message) {
+        AsyncLogWriter asyncWriter = this.asyncOutput;
+        if (asyncWriter != null) {
+            asyncWriter.write(message);
+            return;
+        }
+
         // use a local copy of the reference to not encounter NPE when this
         // log happens to be closed asynchronously while at the same time not
         // requiring synchronization
@@ -128,5 +182,32 @@ class FileRequestLog implements RequestLog {
     public void close() {
         // just drop the reference to the output
         this.output = null;
+        this.asyncOutput = null;
+    }
+
+    /**
+     * The <code>AsyncConfig</code> class holds the configuration of the
+     * {@link AsyncLogWriter}s used in asynchronous mode.
+     */
+    static class AsyncConfig {
+
+        final int queueSize;
+
+        final long flushInterval;
+
+        final String overflow;
+
+        final long rotationSize;
+
+        final long rotationInterval;
+
+        AsyncConfig(int queueSize, long flushInterval, String overflow,
+                long rotationSize, long rotationInterval) {
+            this.queueSize = queueSize;
+            this.flushInterval = flushInterval;
+            this.overflow = overflow;
+            this.rotationSize = rotationSize;
+            this.rotationInterval = rotationInterval;
+        }
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.webconsole.AbstractWebConsolePlugin;
+import org.apache.felix.webconsole.WebConsoleConstants;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Felix OSGi console plugin displaying the state of the request log files
+ * written asynchronously: the number of queued, written and dropped messages
+ * and the number of rotations of each file.
+ */
+@SuppressWarnings("serial")
+public class RequestLogConsolePlugin extends AbstractWebConsolePlugin {
+
+    public static final String LABEL = "requestlogs";
+
+    private static RequestLogConsolePlugin instance;
+
+    private ServiceRegistration serviceRegistration;
+
+    private RequestLogConsolePlugin() {
+    }
+
+    public static void initPlugin(BundleContext context) {
+        if (instance == null) {
+            RequestLogConsolePlugin tmp = new RequestLogConsolePlugin();
+            tmp.activate(context);
+            instance = tmp;
+        }
+    }
+
+    public static void destroyPlugin() {
+        if (instance != null) {
+            try {
+                instance.deactivate();
+            } finally {
+                instance = null;
+            }
+        }
+    }
+
+    public void activate(BundleContext context) {
+        super.activate(context);
+
+        Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Web Console Plugin to display the state of the Sling request log files");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(Constants.SERVICE_PID, getClass().getName());
+        props.put(WebConsoleConstants.PLUGIN_LABEL, LABEL);
+
+        serviceRegistration = context.registerService(
+            WebConsoleConstants.SERVICE_NAME, this, props);
+    }
+
+    public void deactivate() {
+        if (serviceRegistration != null) {
+            serviceRegistration.unregister();
+            serviceRegistration = null;
+        }
+        super.deactivate();
+    }
+
+    @Override
+    public String getLabel() {
+        return LABEL;
+    }
+
+    @Override
+    public String getTitle() {
+        return "Request Logs";
+    }
+
+    @Override
+    protected void renderContent(HttpServletRequest req,
+            HttpServletResponse res) throws ServletException, IOException {
+        final PrintWriter pw = res.getWriter();
+
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+        pw.println("<tr class='content'>");
+        pw.println("<th colspan='6' class='content container'>Asynchronous Request Log Files</th>");
+        pw.println("</tr>");
+
+        final List<AsyncLogWriter> writers = FileRequestLog.getAsyncLogWriters();
+        if (writers.isEmpty()) {
+            pw.println("<tr class='content'>");
+            pw.println("<td colspan='6' class='content'>Asynchronous file logging is not enabled or no log file is in use</td>");
+            pw.println("</tr>");
+        } else {
+            pw.println("<tr class='content'>");
+            pw.println("<th class='content'>File</th>");
+            pw.println("<th class='content'>Queued</th>");
+            pw.println("<th class='content'>Written</th>");
+            pw.println("<th class='content'>Dropped</th>");
+            pw.println("<th class='content'>Rotations</th>");
+            pw.println("<th class='content'>Overflow</th>");
+            pw.println("</tr>");
+
+            for (AsyncLogWriter writer : writers) {
+                pw.println("<tr class='content'>");
+                pw.println("<td class='content'>"
+                    + writer.getFile().getAbsolutePath() + "</td>");
+                pw.println("<td class='content'>" + writer.getQueueSize()
+                    + " / " + writer.getQueueCapacity() + "</td>");
+                pw.println("<td class='content'>" + writer.getWritten()
+                    + "</td>");
+                pw.println("<td class='content'>" + writer.getDropped()
+                    + "</td>");
+                pw.println("<td class='content'>" + writer.getRotations()
+                    + "</td>");
+                pw.println("<td class='content'>"
+                    + writer.getOverflowPolicy() + "</td>");
+                pw.println("</tr>");
+            }
+        }
+
+        pw.println("</table>");
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Hashtable;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.engine.impl.SlingHttpServletResponseImpl;
 import org.osgi.framework.BundleContext;
 
@@ -76,6 +77,54 @@ public class RequestLogger {
      */
     public static final String PROP_ACCESS_LOG_ENABLED = "access.log.enabled";
 
+    /**
+     * Whether log files are written asynchronously by a background thread
+     * instead of being written and flushed by the request threads.
+     *
+     * @scr.property value="false" type="Boolean"
+     */
+    public static final String PROP_ASYNC = "request.log.async";
+
+    /**
+     * The maximum number of messages waiting to be written to a log file in
+     * asynchronous mode.
+     *
+     * @scr.property value="8192" type="Integer"
+     */
+    public static final String PROP_ASYNC_QUEUE_SIZE = "request.log.async.queue.size";
+
+    /**
+     * The minimum time in milliseconds between flushes of a log file in
+     * asynchronous mode.
+     *
+     * @scr.property value="1000" type="Integer"
+     */
+    public static final String PROP_ASYNC_FLUSH_INTERVAL = "request.log.async.flush.interval";
+
+    /**
+     * What to do with a message if the queue is full in asynchronous mode.
+     *
+     * @scr.property value="block" options block="Wait for the Writer"
+     *               drop="Drop and Count the Message"
+     */
+    public static final String PROP_ASYNC_OVERFLOW = "request.log.async.overflow";
+
+    /**
+     * The size in kilobytes at which a log file is rotated in asynchronous
+     * mode, zero to not rotate by size.
+     *
+     * @scr.property value="0" type="Integer"
+     */
+    public static final String PROP_ASYNC_ROTATION_SIZE = "request.log.async.rotation.size";
+
+    /**
+     * The time in minutes after which a log file is rotated in asynchronous
+     * mode, zero to not rotate by time.
+     *
+     * @scr.property value="0" type="Integer"
+     */
+    public static final String PROP_ASYNC_ROTATION_INTERVAL = "request.log.async.rotation.interval";
+
     /**
      * The log format string for the request log entry message (value is "%t
      * [%R] -> %m %U%q %H").
@@ -178,8 +227,19 @@ public class RequestLogger {
         Dictionary props = osgiContext.getProperties();
 
         // initialize the FileRequestLog with sling.home as the root for
-        // relative log file paths
-        FileRequestLog.init(bundleContext.getProperty("sling.home"));
+        // relative log file paths and the asynchronous mode if enabled
+        FileRequestLog.AsyncConfig asyncConfig = null;
+        if (OsgiUtil.toBoolean(props.get(PROP_ASYNC), false)) {
+            asyncConfig = new FileRequestLog.AsyncConfig(
+                OsgiUtil.toInteger(props.get(PROP_ASYNC_QUEUE_SIZE), 8192),
+                OsgiUtil.toLong(props.get(PROP_ASYNC_FLUSH_INTERVAL), 1000),
+                OsgiUtil.toString(props.get(PROP_ASYNC_OVERFLOW),
+                    AsyncLogWriter.OVERFLOW_BLOCK),
+                OsgiUtil.toLong(props.get(PROP_ASYNC_ROTATION_SIZE), 0) * 1024L,
+                OsgiUtil.toLong(props.get(PROP_ASYNC_ROTATION_INTERVAL), 0) * 60L * 1000L);
+        }
+        FileRequestLog.init(bundleContext.getProperty("sling.home"),
+            asyncConfig);
 
         // prepare the request loggers if a name is configured and the
         // request loggers are enabled
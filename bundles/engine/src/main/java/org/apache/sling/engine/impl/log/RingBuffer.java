@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The <code>RingBuffer</code> is a bounded lock-free queue for any number of
+ * producer threads and a single consumer thread. Each slot of the buffer
+ * carries a sequence number telling producers and the consumer whether the
+ * slot is free to be written or ready to be read, such that producers only
+ * contend on the position of the next slot to write.
+ * <p>
+ * The capacity of the buffer is rounded up to the next power of two.
+ */
+class RingBuffer<E> {
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    private final AtomicLongArray sequences;
+
+    // the position of the next slot to be written by the producers
+    private final AtomicLong tail = new AtomicLong();
+
+    // the position of the next slot to be read by the single consumer
+    private final AtomicLong head = new AtomicLong();
+
+    RingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the element to the buffer and returns <code>true</code>. If the
+     * buffer is full, <code>false</code> is returned and the element is not
+     * added. This method may be called by any number of threads.
+     */
+    boolean offer(E element) {
+        long pos = tail.get();
+        for (;;) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.set(index, element);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the slot has not been consumed yet, the buffer is full
+                return false;
+            } else {
+                // another producer claimed the slot
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest element of the buffer or returns
+     * <code>null</code> if the buffer is empty. This method must only be
+     * called by a single consumer thread.
+     */
+    E poll() {
+        long pos = head.get();
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+
+        E element = elements.get(index);
+        elements.set(index, null);
+        sequences.set(index, pos + mask + 1);
+        head.set(pos + 1);
+        return element;
+    }
+
+    /** Returns the approximate number of elements in the buffer */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    /** Returns the number of elements the buffer can hold */
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.engine.impl.auth;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Credentials;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Workspace;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.EventListenerIterator;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.sling.jcr.api.SlingRepository;
+
+import junit.framework.TestCase;
+
+public class AuthenticatedSessionCacheTest extends TestCase {
+
+    private AuthenticatedSessionCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new AuthenticatedSessionCache(2, 60000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.dispose();
+        super.tearDown();
+    }
+
+    public void testKey() {
+        String key = AuthenticatedSessionCache.getKey(credentials("admin",
+            "admin"), null);
+        assertNotNull(key);
+        assertEquals(64, key.length());
+        assertEquals(key, AuthenticatedSessionCache.getKey(credentials(
+            "admin", "admin"), null));
+
+        // the password must not be part of the key
+        assertTrue(key.indexOf("admin") < 0);
+
+        assertFalse(key.equals(AuthenticatedSessionCache.getKey(credentials(
+            "admin", "other"), null)));
+        assertFalse(key.equals(AuthenticatedSessionCache.getKey(credentials(
+            "other", "admin"), null)));
+        assertFalse(key.equals(AuthenticatedSessionCache.getKey(credentials(
+            "admin", "admin"), "other")));
+    }
+
+    public void testKeyNotCacheable() {
+        SimpleCredentials withAttribute = credentials("admin", "admin");
+        withAttribute.setAttribute("name", "value");
+        assertNull(AuthenticatedSessionCache.getKey(withAttribute, null));
+
+        assertNull(AuthenticatedSessionCache.getKey(new Credentials() {
+        }, null));
+    }
+
+    public void testReuse() {
+        String key = "key";
+        assertNull(cache.acquire(key));
+
+        TestSession session = new TestSession();
+        cache.lease(session.session, key);
+        assertTrue(cache.release(session.session));
+        assertEquals(1, session.refreshed);
+        assertEquals(0, session.loggedOut);
+
+        assertSame(session.session, cache.acquire(key));
+        assertNull(cache.acquire(key));
+        assertNull(cache.acquire("other"));
+
+        assertTrue(cache.release(session.session));
+        assertFalse(cache.release(session.session));
+    }
+
+    public void testMaxIdle() {
+        TestSession[] sessions = new TestSession[3];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = new TestSession();
+            cache.lease(sessions[i].session, "key");
+        }
+        for (int i = 0; i < sessions.length; i++) {
+            assertTrue(cache.release(sessions[i].session));
+        }
+
+        assertEquals(0, sessions[0].loggedOut);
+        assertEquals(0, sessions[1].loggedOut);
+        assertEquals(1, sessions[2].loggedOut);
+    }
+
+    public void testClear() {
+        TestSession idle = new TestSession();
+        TestSession used = new TestSession();
+        cache.lease(idle.session, "key");
+        cache.lease(used.session, "key");
+        cache.release(idle.session);
+
+        cache.clear();
+        assertEquals(1, idle.loggedOut);
+        assertNull(cache.acquire("key"));
+
+        // sessions in use when clearing are not reused
+        assertTrue(cache.release(used.session));
+        assertEquals(1, used.loggedOut);
+        assertNull(cache.acquire("key"));
+    }
+
+    public void testDeadSession() {
+        TestSession session = new TestSession();
+        cache.lease(session.session, "key");
+        cache.release(session.session);
+
+        session.live = false;
+        assertNull(cache.acquire("key"));
+        assertEquals(1, session.loggedOut);
+    }
+
+    public void testLockTokensNotCached() {
+        TestSession session = new TestSession();
+        cache.lease(session.session, "key");
+        session.lockTokens = new String[] { "token" };
+
+        assertTrue(cache.release(session.session));
+        assertEquals(1, session.loggedOut);
+        assertNull(cache.acquire("key"));
+    }
+
+    public void testRemappedNamespacesNotCached() {
+        TestSession session = new TestSession();
+        cache.lease(session.session, "key");
+        session.namespaces.remove("sling");
+        session.namespaces.put("s", "http://sling.apache.org/jcr/sling/1.0");
+
+        assertTrue(cache.release(session.session));
+        assertEquals(1, session.loggedOut);
+        assertNull(cache.acquire("key"));
+    }
+
+    public void testEventListenersRemoved() {
+        TestSession session = new TestSession();
+        cache.lease(session.session, "key");
+        session.listeners.add(new EventListener() {
+            public void onEvent(javax.jcr.observation.EventIterator events) {
+            }
+        });
+
+        assertTrue(cache.release(session.session));
+        assertEquals(0, session.loggedOut);
+        assertTrue(session.listeners.isEmpty());
+        assertSame(session.session, cache.acquire("key"));
+    }
+
+    public void testOtherWorkspaceNotCached() {
+        final TestSession observation = new TestSession();
+        cache.observe((SlingRepository) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] { SlingRepository.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("loginAdministrative".equals(method.getName())) {
+                        return observation.session;
+                    }
+                    return null;
+                }
+            }));
+        assertEquals(1, observation.listeners.size());
+
+        TestSession other = new TestSession();
+        other.workspaceName = "other";
+        cache.lease(other.session, "other");
+        assertFalse(cache.release(other.session));
+
+        TestSession session = new TestSession();
+        cache.lease(session.session, "key");
+        assertTrue(cache.release(session.session));
+        assertSame(session.session, cache.acquire("key"));
+    }
+
+    private SimpleCredentials credentials(String user, String password) {
+        return new SimpleCredentials(user, password.toCharArray());
+    }
+
+    private static class TestSession implements InvocationHandler {
+
+        final Session session = (Session) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Session.class }, this);
+
+        final Workspace workspace = (Workspace) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Workspace.class,
+                ObservationManager.class }, this);
+
+        final Map<String, String> namespaces = new HashMap<String, String>();
+
+        final List<EventListener> listeners = new ArrayList<EventListener>();
+
+        String workspaceName = "default";
+
+        String[] lockTokens = new String[0];
+
+        boolean live = true;
+
+        int refreshed;
+
+        int loggedOut;
+
+        TestSession() {
+            namespaces.put("jcr", "http://www.jcp.org/jcr/1.0");
+            namespaces.put("sling", "http://sling.apache.org/jcr/sling/1.0");
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("isLive".equals(name)) {
+                return live;
+            } else if ("getLockTokens".equals(name)) {
+                return lockTokens;
+            } else if ("getNamespacePrefixes".equals(name)) {
+                return namespaces.keySet().toArray(new String[namespaces.size()]);
+            } else if ("getNamespaceURI".equals(name)) {
+                return namespaces.get(args[0]);
+            } else if ("getWorkspace".equals(name)
+                || "getObservationManager".equals(name)) {
+                return workspace;
+            } else if ("getName".equals(name)) {
+                return workspaceName;
+            } else if ("addEventListener".equals(name)) {
+                listeners.add((EventListener) args[0]);
+            } else if ("removeEventListener".equals(name)) {
+                listeners.remove(args[0]);
+            } else if ("getRegisteredEventListeners".equals(name)) {
+                return listeners(new ArrayList<EventListener>(listeners));
+            } else if ("refresh".equals(name)) {
+                refreshed++;
+            } else if ("logout".equals(name)) {
+                loggedOut++;
+                live = false;
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            return null;
+        }
+
+        private EventListenerIterator listeners(List<EventListener> list) {
+            final Iterator<EventListener> li = list.iterator();
+            return (EventListenerIterator) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { EventListenerIterator.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if ("hasNext".equals(method.getName())) {
+                            return li.hasNext();
+                        }
+                        return li.next();
+                    }
+                });
+        }
+    }
+}
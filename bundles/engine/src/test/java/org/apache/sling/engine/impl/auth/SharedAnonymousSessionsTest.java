@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.engine.impl.auth;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import junit.framework.TestCase;
+
+public class SharedAnonymousSessionsTest extends TestCase {
+
+    private final List<TestSession> logins = new ArrayList<TestSession>();
+
+    private final Repository repository = (Repository) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] { Repository.class },
+        new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("login".equals(method.getName())) {
+                    TestSession session = new TestSession();
+                    logins.add(session);
+                    return session.session;
+                }
+                return null;
+            }
+        });
+
+    private SharedAnonymousSessions shared;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        shared = new SharedAnonymousSessions(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        shared.dispose();
+        super.tearDown();
+    }
+
+    public void testSafeMethods() {
+        assertTrue(SharedAnonymousSessions.isSafeMethod("GET"));
+        assertTrue(SharedAnonymousSessions.isSafeMethod("HEAD"));
+        assertTrue(SharedAnonymousSessions.isSafeMethod("OPTIONS"));
+        assertFalse(SharedAnonymousSessions.isSafeMethod("POST"));
+        assertFalse(SharedAnonymousSessions.isSafeMethod("PUT"));
+        assertFalse(SharedAnonymousSessions.isSafeMethod("DELETE"));
+    }
+
+    public void testRoundRobin() throws RepositoryException {
+        Session first = shared.acquire(repository);
+        Session second = shared.acquire(repository);
+        assertNotSame(first, second);
+        assertSame(first, shared.acquire(repository));
+        assertSame(second, shared.acquire(repository));
+        assertEquals(2, logins.size());
+
+        assertTrue(SharedAnonymousSessions.isShared(first));
+        assertFalse(SharedAnonymousSessions.isShared(logins.get(0).session));
+        assertNotNull(logins.get(0).listener);
+    }
+
+    public void testLogoutIgnored() throws RepositoryException {
+        Session session = shared.acquire(repository);
+        session.logout();
+        assertEquals(0, logins.get(0).loggedOut);
+        assertTrue(session.isLive());
+
+        shared.dispose();
+        assertEquals(1, logins.get(0).loggedOut);
+
+        // not shared anymore after dispose
+        Session other = shared.acquire(repository);
+        assertFalse(SharedAnonymousSessions.isShared(other));
+    }
+
+    public void testReplaceDeadSession() throws RepositoryException {
+        shared = new SharedAnonymousSessions(1);
+        Session session = shared.acquire(repository);
+        logins.get(0).live = false;
+
+        Session replaced = shared.acquire(repository);
+        assertNotSame(session, replaced);
+        assertEquals(2, logins.size());
+    }
+
+    public void testWritesDenied() throws RepositoryException {
+        Session session = shared.acquire(repository);
+        try {
+            session.save();
+            fail("save must not be allowed");
+        } catch (AccessDeniedException ade) {
+            // expected
+        }
+
+        Node root = session.getRootNode();
+        assertTrue(Proxy.isProxyClass(root.getClass()));
+        assertEquals("/", root.getPath());
+        assertSame(session, root.getSession());
+        try {
+            root.setProperty("name", "value");
+            fail("setProperty must not be allowed");
+        } catch (AccessDeniedException ade) {
+            // expected
+        }
+        try {
+            root.addNode("child");
+            fail("addNode must not be allowed");
+        } catch (AccessDeniedException ade) {
+            // expected
+        }
+        try {
+            session.addLockToken("token");
+            fail("addLockToken must not be allowed");
+        } catch (UnsupportedOperationException uoe) {
+            // expected
+        }
+
+        assertTrue(session.isSame(session));
+        assertEquals(0, logins.get(0).writes);
+    }
+
+    public void testRefreshDenied() throws RepositoryException {
+        Session session = shared.acquire(repository);
+        try {
+            session.refresh(false);
+            fail("refresh must not be allowed");
+        } catch (AccessDeniedException ade) {
+            // expected
+        }
+        try {
+            session.getRootNode().refresh(true);
+            fail("Item.refresh must not be allowed");
+        } catch (AccessDeniedException ade) {
+            // expected
+        }
+        assertEquals(0, logins.get(0).refreshed);
+    }
+
+    public void testSameProxy() throws RepositoryException {
+        Session session = shared.acquire(repository);
+        Node root = session.getRootNode();
+        assertSame(root, session.getRootNode());
+        assertEquals(root, root.getSession().getRootNode());
+        assertEquals(root.hashCode(), logins.get(0).root.hashCode());
+    }
+
+    public void testEventTreesIgnored() throws RepositoryException {
+        shared = new SharedAnonymousSessions(1);
+        Session first = shared.acquire(repository);
+        TestSession session = logins.get(0);
+
+        session.listener.onEvent(events("/var/eventing/jobs/a",
+            "/sling/events/b"));
+        assertSame(first, shared.acquire(repository));
+        assertEquals(1, logins.size());
+
+        session.listener.onEvent(events("/var/eventing/jobs/a", "/content"));
+        assertNotSame(first, shared.acquire(repository));
+        assertEquals(2, logins.size());
+    }
+
+    public void testRefreshOnEvent() throws RepositoryException {
+        shared = new SharedAnonymousSessions(1);
+        SharedAnonymousSessions.release(shared.acquire(repository));
+        TestSession session = logins.get(0);
+        assertEquals(0, session.refreshed);
+
+        session.listener.onEvent(events("/content/page"));
+        session.listener.onEvent(events("/content/page"));
+        SharedAnonymousSessions.release(shared.acquire(repository));
+        assertEquals(1, session.refreshed);
+
+        SharedAnonymousSessions.release(shared.acquire(repository));
+        assertEquals(1, session.refreshed);
+        assertEquals(1, logins.size());
+    }
+
+    public void testReplaceStaleSessionInUse() throws RepositoryException {
+        shared = new SharedAnonymousSessions(1);
+        Session first = shared.acquire(repository);
+        TestSession session = logins.get(0);
+
+        // the session is not refreshed while a request uses it
+        session.listener.onEvent(events("/content/page"));
+        Session second = shared.acquire(repository);
+        assertNotSame(first, second);
+        assertEquals(0, session.refreshed);
+        assertEquals(2, logins.size());
+        assertEquals(0, session.loggedOut);
+
+        // the stale session is logged out with its last request
+        SharedAnonymousSessions.release(first);
+        assertEquals(1, session.loggedOut);
+
+        SharedAnonymousSessions.release(second);
+        assertSame(second, shared.acquire(repository));
+        assertEquals(0, logins.get(1).loggedOut);
+    }
+
+    private static EventIterator events(final String... paths) {
+        final Iterator<String> pi = Arrays.asList(paths).iterator();
+        return (EventIterator) Proxy.newProxyInstance(
+            SharedAnonymousSessionsTest.class.getClassLoader(),
+            new Class<?>[] { EventIterator.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("hasNext".equals(method.getName())) {
+                        return pi.hasNext();
+                    }
+                    final String path = pi.next();
+                    return Proxy.newProxyInstance(
+                        SharedAnonymousSessionsTest.class.getClassLoader(),
+                        new Class<?>[] { Event.class }, new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method,
+                                    Object[] args) {
+                                return "getPath".equals(method.getName())
+                                        ? path
+                                        : null;
+                            }
+                        });
+                }
+            });
+    }
+
+    private static class TestSession implements InvocationHandler {
+
+        final Session session = (Session) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Session.class }, this);
+
+        final Node root = (Node) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Node.class }, this);
+
+        final Workspace workspace = (Workspace) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Workspace.class,
+                ObservationManager.class }, this);
+
+        boolean live = true;
+
+        int refreshed;
+
+        int loggedOut;
+
+        int writes;
+
+        EventListener listener;
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("isLive".equals(name)) {
+                return live;
+            } else if ("refresh".equals(name)) {
+                refreshed++;
+            } else if ("logout".equals(name)) {
+                loggedOut++;
+                live = false;
+            } else if ("getRootNode".equals(name)) {
+                return root;
+            } else if ("getPath".equals(name)) {
+                return "/";
+            } else if ("getSession".equals(name)) {
+                return session;
+            } else if ("isSame".equals(name)) {
+                return proxy == args[0];
+            } else if ("getWorkspace".equals(name)
+                || "getObservationManager".equals(name)) {
+                return workspace;
+            } else if ("addEventListener".equals(name)) {
+                listener = (EventListener) args[0];
+            } else if ("save".equals(name) || "setProperty".equals(name)
+                || "addNode".equals(name) || "addLockToken".equals(name)) {
+                writes++;
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * The <code>AsyncLogWriterTest</code> class tests the
+ * <code>AsyncLogWriter</code> class.
+ */
+public class AsyncLogWriterTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = new File(System.getProperty("java.io.tmpdir"), "asynclog"
+            + System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        super.tearDown();
+    }
+
+    public void testWriteAndClose() throws Exception {
+        File file = new File(dir, "access.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, 1000,
+            AsyncLogWriter.OVERFLOW_BLOCK, 0, 0);
+        writer.start();
+        for (int i = 0; i < 100; i++) {
+            writer.write("line " + i);
+        }
+        writer.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(100, lines.size());
+        assertEquals("line 0", lines.get(0));
+        assertEquals("line 99", lines.get(99));
+        assertEquals(100, writer.getWritten());
+        assertEquals(0, writer.getDropped());
+    }
+
+    public void testDropOnOverflow() throws Exception {
+        File file = new File(dir, "access.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 2, 1000,
+            AsyncLogWriter.OVERFLOW_DROP, 0, 0);
+
+        // not started, so the queue is not drained
+        writer.write("a");
+        writer.write("b");
+        writer.write("c");
+        assertEquals(2, writer.getQueueSize());
+        assertEquals(1, writer.getDropped());
+    }
+
+    public void testWriteAfterClose() throws Exception {
+        File file = new File(dir, "access.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, 1000,
+            AsyncLogWriter.OVERFLOW_BLOCK, 0, 0);
+        writer.start();
+        writer.write("before");
+        writer.close();
+
+        writer.write("after");
+        assertEquals(0, writer.getQueueSize());
+        assertEquals(1, writer.getWritten());
+        assertEquals(1, writer.getDropped());
+        assertEquals(1, readLines(file).size());
+    }
+
+    public void testIdleWriterWokenByWrite() throws Exception {
+        File file = new File(dir, "access.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, 0,
+            AsyncLogWriter.OVERFLOW_DROP, 0, 0);
+        writer.start();
+        try {
+            // let the writer thread park on the empty buffer
+            Thread.sleep(100);
+
+            writer.write("line");
+            long end = System.currentTimeMillis() + 5000;
+            while (writer.getWritten() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, writer.getWritten());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testRotationBySize() throws Exception {
+        File file = new File(dir, "access.log");
+        AsyncLogWriter writer = new AsyncLogWriter(file, 16, 0,
+            AsyncLogWriter.OVERFLOW_BLOCK, 100, 0);
+        writer.start();
+        for (int i = 0; i < 30; i++) {
+            writer.write("0123456789");
+        }
+        writer.close();
+
+        assertTrue(writer.getRotations() > 0);
+        assertEquals(writer.getRotations() + 1, dir.listFiles().length);
+
+        int total = 0;
+        for (File log : dir.listFiles()) {
+            total += readLines(log).size();
+        }
+        assertEquals(30, total);
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
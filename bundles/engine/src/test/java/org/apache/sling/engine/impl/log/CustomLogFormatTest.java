@@ -16,6 +16,10 @@
  */
 package org.apache.sling.engine.impl.log;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
 import org.apache.sling.engine.impl.log.CustomLogFormat;
 
 import junit.framework.TestCase;
@@ -67,4 +71,46 @@ public class CustomLogFormatTest extends TestCase {
         assertEquals("This is a special character \\u1234", CustomLogFormat.HeaderParameter.escape("This is a special character \u1234"));
     }
 
+    public void testEscapeAppend() {
+        StringBuilder buf = new StringBuilder("x=");
+        CustomLogFormat.HeaderParameter.escape(buf, "plain");
+        assertEquals("x=plain", buf.toString());
+
+        buf.setLength(0);
+        CustomLogFormat.HeaderParameter.escape(buf, "a\tb\u00e4\u1234\\");
+        assertEquals("a\\tb\\u00e4\\u1234\\\\", buf.toString());
+    }
+
+    public void testAppendPadded() {
+        StringBuilder buf = new StringBuilder();
+        CustomLogFormat.BaseParameter.appendPadded(buf, 5, 2);
+        buf.append(' ');
+        CustomLogFormat.BaseParameter.appendPadded(buf, 12, 2);
+        buf.append(' ');
+        CustomLogFormat.BaseParameter.appendPadded(buf, 130, 4);
+        buf.append(' ');
+        CustomLogFormat.BaseParameter.appendPadded(buf, 2008, 4);
+        assertEquals("05 12 0130 2008", buf.toString());
+    }
+
+    public void testTimeFormatted() {
+        SimpleDateFormat fmt = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z",
+            Locale.US);
+
+        long time = 1214985600000L; // 2008-07-02 08:00:00 UTC
+        for (int i = 0; i < 400; i++) {
+            time += 86400000L + 3661001L;
+            assertEquals(fmt.format(new Date(time)),
+                CustomLogFormat.TimeParameter.timeFormatted(time));
+        }
+    }
+
+    public void testTimeFormattedCached() {
+        long time = System.currentTimeMillis() / 1000 * 1000;
+        String formatted = CustomLogFormat.TimeParameter.timeFormatted(time);
+        assertSame(formatted,
+            CustomLogFormat.TimeParameter.timeFormatted(time + 999));
+        assertNotSame(formatted,
+            CustomLogFormat.TimeParameter.timeFormatted(time + 1000));
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.engine.impl.log;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * The <code>RingBufferTest</code> class tests the <code>RingBuffer</code>
+ * class.
+ */
+public class RingBufferTest extends TestCase {
+
+    public void testCapacity() {
+        assertEquals(1, new RingBuffer<String>(1).capacity());
+        assertEquals(8, new RingBuffer<String>(5).capacity());
+        assertEquals(8, new RingBuffer<String>(8).capacity());
+    }
+
+    public void testOfferPoll() {
+        RingBuffer<String> buffer = new RingBuffer<String>(4);
+        assertNull(buffer.poll());
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(buffer.offer("m" + i));
+            }
+            assertFalse(buffer.offer("overflow"));
+            assertEquals(4, buffer.size());
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals("m" + i, buffer.poll());
+            }
+            assertNull(buffer.poll());
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    public void testConcurrentProducers() throws Exception {
+        final RingBuffer<String> buffer = new RingBuffer<String>(64);
+        final int producers = 4;
+        final int messages = 10000;
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < messages; i++) {
+                        while (!buffer.offer(id + ":" + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        Set<String> received = new HashSet<String>();
+        while (received.size() < producers * messages) {
+            String message = buffer.poll();
+            if (message != null) {
+                assertTrue("Duplicate " + message, received.add(message));
+            } else {
+                Thread.yield();
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+    }
+}
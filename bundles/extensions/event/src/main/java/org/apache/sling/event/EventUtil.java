@@ -89,7 +89,9 @@ public abstract class EventUtil {
     /** The property to set to put the jobs into a separate job queue. This property
      * spcifies the name of the job queue. If the job queue does not exists yet
      * a new queue is created.
-     * If a job queue is used, the jobs are never executed in parallel from this queue!
+     * If a job queue is used, the jobs are not executed in parallel from this queue
+     * unless the number of parallel jobs is configured for the queue name or the
+     * job topic in the job event handler.
      */
     public static final String PROPERTY_JOB_QUEUE_NAME = "event.job.queuename";
 
@@ -19,12 +19,19 @@
 package org.apache.sling.event.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Dictionary;
+import java.util.List;
+import java.util.TimeZone;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jcr.ItemExistsException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.observation.EventListener;
@@ -62,6 +69,27 @@ public abstract class AbstractRepositoryEventHandler
     /** Default path for the {@link #CONFIG_PROPERTY_REPO_PATH} */
     private static final String DEFAULT_PROPERTY_REPO_PATH = "/sling/events";
 
+    /** Default maximum number of events written with a single save. */
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 50;
+
+    /** @scr.property valueRef="DEFAULT_WRITE_BATCH_SIZE" type="Integer" */
+    protected static final String CONFIG_PROPERTY_WRITE_BATCH_SIZE = "write.batch.size";
+
+    /** Default maximum time in ms to wait for more events of a batch. */
+    private static final long DEFAULT_WRITE_BATCH_LATENCY = 10;
+
+    /** @scr.property valueRef="DEFAULT_WRITE_BATCH_LATENCY" type="Long" */
+    protected static final String CONFIG_PROPERTY_WRITE_BATCH_LATENCY = "write.batch.latency";
+
+    /** Default maximum number of nodes removed with a single save during the cleanup. */
+    private static final int DEFAULT_CLEANUP_BATCH_SIZE = 500;
+
+    /** @scr.property valueRef="DEFAULT_CLEANUP_BATCH_SIZE" type="Integer" */
+    protected static final String CONFIG_PROPERTY_CLEANUP_BATCH_SIZE = "cleanup.batch.size";
+
+    /** The time zone of the time buckets. */
+    private static final TimeZone BUCKET_TIME_ZONE = TimeZone.getTimeZone("UTC");
+
     /** @scr.reference */
     protected SlingRepository repository;
 
@@ -86,6 +114,42 @@ public abstract class AbstractRepositoryEventHandler
     /** A local queue for writing received events into the repository. */
     protected final BlockingQueue<Event> writeQueue = new LinkedBlockingQueue<Event>();
 
+    /** The maximum number of events written with a single save. */
+    protected int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+
+    /** The maximum time in ms to wait for more events of a batch. */
+    protected long writeBatchLatency = DEFAULT_WRITE_BATCH_LATENCY;
+
+    /** The maximum number of nodes removed with a single save during the cleanup. */
+    protected int cleanupBatchSize = DEFAULT_CLEANUP_BATCH_SIZE;
+
+    /** Counter for the names of new event nodes. */
+    private final AtomicLong eventNodeCounter = new AtomicLong();
+
+    /** The number of events written into the repository. */
+    private final AtomicLong writtenEventCount = new AtomicLong();
+
+    /** The number of saves for the events written into the repository. */
+    private final AtomicLong writeBatchCount = new AtomicLong();
+
+    /** The number of batches which had to be written event by event. */
+    private final AtomicLong writeBatchFailureCount = new AtomicLong();
+
+    /** The time in ms spent writing events into the repository. */
+    private final AtomicLong writeTime = new AtomicLong();
+
+    /** The number of nodes removed by the cleanup. */
+    private final AtomicLong cleanupRemovedCount = new AtomicLong();
+
+    /** The number of saves of the cleanup. */
+    private final AtomicLong cleanupSaveCount = new AtomicLong();
+
+    /** The time in ms spent by the cleanup. */
+    private final AtomicLong cleanupTime = new AtomicLong();
+
+    /** The number of nodes removed by the current or the last cleanup run. */
+    private final AtomicLong lastCleanupRemovedCount = new AtomicLong();
+
     /**
      * Our thread pool.
      * @scr.reference */
@@ -121,6 +185,12 @@ public abstract class AbstractRepositoryEventHandler
         APPLICATION_ID = this.applicationId;
         this.repositoryPath = OsgiUtil.toString(context.getProperties().get(
             CONFIG_PROPERTY_REPO_PATH), DEFAULT_PROPERTY_REPO_PATH);
+        this.writeBatchSize = Math.max(1, OsgiUtil.toInteger(context.getProperties().get(
+            CONFIG_PROPERTY_WRITE_BATCH_SIZE), DEFAULT_WRITE_BATCH_SIZE));
+        this.writeBatchLatency = Math.max(0, OsgiUtil.toLong(context.getProperties().get(
+            CONFIG_PROPERTY_WRITE_BATCH_LATENCY), DEFAULT_WRITE_BATCH_LATENCY));
+        this.cleanupBatchSize = Math.max(1, OsgiUtil.toInteger(context.getProperties().get(
+            CONFIG_PROPERTY_CLEANUP_BATCH_SIZE), DEFAULT_CLEANUP_BATCH_SIZE));
 
         this.running = true;
         // start writer thread
@@ -163,6 +233,15 @@ public abstract class AbstractRepositoryEventHandler
      * @param context
      */
     protected void deactivate(final ComponentContext context) {
+        if ( this.writtenEventCount.get() > 0 ) {
+            this.logger.info("deactivate: Wrote {} events with {} saves in {} ms ({} batches written event by event)",
+                new Object[] {this.writtenEventCount.get(), this.writeBatchCount.get(),
+                    this.writeTime.get(), this.writeBatchFailureCount.get()});
+        }
+        if ( this.cleanupRemovedCount.get() > 0 ) {
+            this.logger.info("deactivate: Removed {} nodes during cleanup with {} saves in {} ms",
+                new Object[] {this.cleanupRemovedCount.get(), this.cleanupSaveCount.get(), this.cleanupTime.get()});
+        }
         // stop background threads by putting empty objects into the queue
         this.running = false;
         try {
@@ -247,6 +326,20 @@ public abstract class AbstractRepositoryEventHandler
      * @throws IOException
      */
     protected Node writeEvent(Event e, String suggestedName)
+    throws RepositoryException {
+        final Node eventNode = this.addEvent(e, suggestedName);
+        this.ensureRepositoryPath().save();
+
+        return eventNode;
+    }
+
+    /**
+     * Add an event to the repository without saving it.
+     * @param e The event
+     * @param suggestName A suggest name/path for the node.
+     * @throws RepositoryException
+     */
+    protected Node addEvent(Event e, String suggestedName)
     throws RepositoryException {
         // create new node with name of topic
         final Node rootNode = this.ensureRepositoryPath();
@@ -258,7 +351,11 @@ public abstract class AbstractRepositoryEventHandler
         } else {
             final Calendar now = Calendar.getInstance();
             final int sepPos = nodeType.indexOf(':');
-            nodeName = nodeType.substring(sepPos+1) + "-" + this.applicationId + "-" + now.getTime().getTime();
+            // the events are stored in time buckets, so the cleanup can remove old buckets as a whole
+            // the counter keeps the names of events written in the same millisecond unique
+            nodeName = getBucketPath(now) + "/"
+                       + nodeType.substring(sepPos+1) + "-" + this.applicationId + "-" + now.getTime().getTime()
+                       + "-" + this.eventNodeCounter.incrementAndGet();
         }
         final Node eventNode = JcrResourceUtil.createPath(rootNode,
                 nodeName,
@@ -274,11 +371,366 @@ public abstract class AbstractRepositoryEventHandler
                                 IGNORE_PROPERTIES,
                                 EventHelper.NODE_PROPERTY_PROPERTIES);
         this.addNodeProperties(eventNode, e);
-        rootNode.save();
 
         return eventNode;
     }
 
+    /**
+     * Return the relative path of the time bucket for the date:
+     * year/month/day/hour in UTC.
+     */
+    protected static String getBucketPath(final Calendar date) {
+        final Calendar utc = Calendar.getInstance(BUCKET_TIME_ZONE);
+        utc.setTimeInMillis(date.getTimeInMillis());
+        return String.format("%04d/%02d/%02d/%02d", utc.get(Calendar.YEAR), utc.get(Calendar.MONTH) + 1,
+            utc.get(Calendar.DAY_OF_MONTH), utc.get(Calendar.HOUR_OF_DAY));
+    }
+
+    /**
+     * Remove all events below the node which have been created before the date.
+     * Time buckets which end before the date are removed as a whole, in the
+     * remaining buckets the creation date of each event is checked. Events
+     * stored directly below the node are checked as well.
+     * @param cleanup The cleanup run
+     * @param node The node to clean up, initially the repository path
+     * @param bucket The year, month, day and hour of the bucket; only the
+     *               first <code>level</code> values are set
+     * @param level The bucket level of the node, 0 for the repository path,
+     *              4 for an hour bucket
+     * @param deleteBefore The date
+     */
+    protected void cleanupBuckets(final Cleanup cleanup,
+                                  final Node node,
+                                  final int[] bucket,
+                                  final int level,
+                                  final Calendar deleteBefore)
+    throws RepositoryException {
+        // collect the children first as the removals are saved in between
+        final List<Node> children = new ArrayList<Node>();
+        final NodeIterator iter = node.getNodes();
+        while ( iter.hasNext() ) {
+            children.add(iter.nextNode());
+        }
+        for(final Node child : children) {
+            if ( !this.running ) {
+                return;
+            }
+            if ( child.isNodeType(this.getEventNodeType()) ) {
+                if ( child.getProperty(EventHelper.NODE_PROPERTY_CREATED).getDate().before(deleteBefore) ) {
+                    cleanup.remove(child);
+                }
+            } else if ( level < 4 ) {
+                try {
+                    bucket[level] = Integer.parseInt(child.getName());
+                } catch (NumberFormatException nfe) {
+                    // not a time bucket
+                    continue;
+                }
+                final Calendar start = Calendar.getInstance(BUCKET_TIME_ZONE);
+                start.clear();
+                start.set(bucket[0], (level > 0 ? bucket[1] - 1 : 0), (level > 1 ? bucket[2] : 1),
+                          (level > 2 ? bucket[3] : 0), 0);
+                if ( !start.before(deleteBefore) ) {
+                    continue;
+                }
+                final Calendar end = (Calendar)start.clone();
+                final int[] fields = {Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY};
+                end.add(fields[level], 1);
+                if ( !end.after(deleteBefore) ) {
+                    cleanup.removeTree(child);
+                } else {
+                    this.cleanupBuckets(cleanup, child, bucket, level + 1, deleteBefore);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a cleanup run with the session.
+     */
+    protected Cleanup startCleanup(final Session session) {
+        this.lastCleanupRemovedCount.set(0);
+        return new Cleanup(session);
+    }
+
+    /**
+     * Return the number of nodes removed by the cleanup.
+     */
+    public long getCleanupRemovedCount() {
+        return this.cleanupRemovedCount.get();
+    }
+
+    /**
+     * Return the number of saves of the cleanup.
+     */
+    public long getCleanupSaveCount() {
+        return this.cleanupSaveCount.get();
+    }
+
+    /**
+     * Return the time in ms spent by the cleanup.
+     */
+    public long getCleanupTime() {
+        return this.cleanupTime.get();
+    }
+
+    /**
+     * Return the number of nodes removed by the current or the last
+     * cleanup run. This shows the progress of a running cleanup.
+     */
+    public long getLastCleanupRemovedCount() {
+        return this.lastCleanupRemovedCount.get();
+    }
+
+    /**
+     * A cleanup run removes nodes and saves the removals in batches of
+     * {@link AbstractRepositoryEventHandler#cleanupBatchSize} nodes, so
+     * the transient space stays small even for a large backlog.
+     */
+    protected final class Cleanup {
+
+        private final Session session;
+
+        private final long start = System.currentTimeMillis();
+
+        /** The number of unsaved removals. */
+        private int pending;
+
+        /** The number of saved removals. */
+        private long removed;
+
+        private Cleanup(final Session session) {
+            this.session = session;
+        }
+
+        /**
+         * Remove the node. The removal is saved with the next full batch.
+         */
+        public void remove(final Node node) throws RepositoryException {
+            node.remove();
+            this.pending++;
+            if ( this.pending >= cleanupBatchSize ) {
+                this.save();
+            }
+        }
+
+        /**
+         * Remove the node with all descendants. The descendants are
+         * removed in batches before the node itself is removed.
+         */
+        public void removeTree(final Node node) throws RepositoryException {
+            boolean hasChildren = node.hasNodes();
+            while ( hasChildren && running ) {
+                // collect a batch first as the iterator gets invalid on save
+                final List<Node> children = new ArrayList<Node>();
+                final NodeIterator iter = node.getNodes();
+                while ( iter.hasNext() && children.size() < cleanupBatchSize ) {
+                    children.add(iter.nextNode());
+                }
+                for(final Node child : children) {
+                    if ( child.hasNodes() ) {
+                        this.removeTree(child);
+                    } else {
+                        this.remove(child);
+                    }
+                }
+                hasChildren = node.hasNodes();
+            }
+            if ( !hasChildren ) {
+                this.remove(node);
+            }
+        }
+
+        /**
+         * Save the pending removals and update the statistics.
+         */
+        public void finish() throws RepositoryException {
+            try {
+                this.save();
+            } finally {
+                cleanupTime.addAndGet(System.currentTimeMillis() - this.start);
+            }
+        }
+
+        /**
+         * Return the number of saved removals.
+         */
+        public long getRemoved() {
+            return this.removed;
+        }
+
+        private void save() throws RepositoryException {
+            if ( this.pending > 0 ) {
+                this.session.save();
+                this.removed += this.pending;
+                cleanupSaveCount.incrementAndGet();
+                cleanupRemovedCount.addAndGet(this.pending);
+                lastCleanupRemovedCount.addAndGet(this.pending);
+                this.pending = 0;
+            }
+        }
+    }
+
+    /**
+     * Take the next batch of events from the write queue. This method blocks
+     * until an event is available and then collects further events until the
+     * batch is full or the write batch latency has passed.
+     * @return The events, the list is empty if the thread has been interrupted.
+     */
+    protected List<Event> takeWriteBatch() {
+        final List<Event> events = new ArrayList<Event>();
+        try {
+            events.add(this.writeQueue.take());
+            this.writeQueue.drainTo(events, this.writeBatchSize - events.size());
+            if ( events.size() < this.writeBatchSize && this.writeBatchLatency > 0 ) {
+                final long end = System.currentTimeMillis() + this.writeBatchLatency;
+                long wait = this.writeBatchLatency;
+                while ( this.running && events.size() < this.writeBatchSize && wait > 0 ) {
+                    final Event event = this.writeQueue.poll(wait, TimeUnit.MILLISECONDS);
+                    if ( event == null ) {
+                        break;
+                    }
+                    events.add(event);
+                    this.writeQueue.drainTo(events, this.writeBatchSize - events.size());
+                    wait = end - System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            // we ignore this
+            this.ignoreException(e);
+        }
+        return events;
+    }
+
+    /**
+     * Write a batch of events into the repository with a single save
+     * (group commit). For each event {@link #addEvent(Event)} is called
+     * and once all events are saved {@link #eventWritten(Event, String)}.
+     * If the batch can't be saved as a whole, the changes are discarded
+     * and the events are written and saved one by one.
+     * @param events The events to write.
+     */
+    protected void writeEvents(final List<Event> events) {
+        final long start = System.currentTimeMillis();
+        final String[] nodePaths = new String[events.size()];
+        boolean saved = false;
+        try {
+            this.writerSession.refresh(false);
+            for(int i = 0; i < nodePaths.length; i++) {
+                nodePaths[i] = this.addEvent(events.get(i));
+            }
+            this.writerSession.save();
+            saved = true;
+            this.writeBatchCount.incrementAndGet();
+        } catch (RepositoryException re) {
+            this.writeBatchFailureCount.incrementAndGet();
+            this.logger.warn("writeEvents: Unable to write {} events at once, writing them one by one: {}",
+                events.size(), re.getMessage());
+            this.discardChanges();
+        }
+
+        if ( !saved ) {
+            for(int i = 0; i < nodePaths.length; i++) {
+                final Event event = events.get(i);
+                try {
+                    nodePaths[i] = this.addEvent(event);
+                    this.writerSession.save();
+                    this.writeBatchCount.incrementAndGet();
+                } catch (ItemExistsException iee) {
+                    // someone else did already write this node in the meantime
+                    // nothing to do for us
+                    nodePaths[i] = null;
+                    this.discardChanges();
+                    this.ignoreException(iee);
+                } catch (RepositoryException re) {
+                    nodePaths[i] = null;
+                    this.discardChanges();
+                    this.logger.error("Exception during writing the event '" + EventUtil.toString(event) + "' to the repository.", re);
+                }
+            }
+        }
+
+        final long time = System.currentTimeMillis() - start;
+        this.writtenEventCount.addAndGet(events.size());
+        this.writeTime.addAndGet(time);
+        if ( this.logger.isDebugEnabled() ) {
+            this.logger.debug("writeEvents: Wrote {} events in {} ms",
+                events.size(), time);
+        }
+
+        for(int i = 0; i < nodePaths.length; i++) {
+            if ( nodePaths[i] != null ) {
+                this.eventWritten(events.get(i), nodePaths[i]);
+            }
+        }
+    }
+
+    /**
+     * Add an event of a batch to the repository without saving it.
+     * This method can be overwritten by sub classes, by default the event
+     * is added with {@link #addEvent(Event, String)}.
+     * @param event The event
+     * @return The path of the node which should be passed on to
+     *         {@link #eventWritten(Event, String)} or <code>null</code>.
+     * @throws RepositoryException
+     */
+    protected String addEvent(Event event)
+    throws RepositoryException {
+        return this.addEvent(event, null).getPath();
+    }
+
+    /**
+     * Called for each event of a batch once the batch has been saved.
+     * This method can be enhanced by sub classes.
+     * @param event The event
+     * @param nodePath The path returned by {@link #addEvent(Event)}
+     */
+    protected void eventWritten(Event event, String nodePath) {
+        // nothing to do here
+    }
+
+    /**
+     * Discard the unsaved changes of the writer session.
+     */
+    private void discardChanges() {
+        try {
+            this.writerSession.refresh(false);
+        } catch (RepositoryException re) {
+            // we just ignore this
+            this.ignoreException(re);
+        }
+    }
+
+    /**
+     * Return the number of events written into the repository.
+     */
+    public long getWrittenEventCount() {
+        return this.writtenEventCount.get();
+    }
+
+    /**
+     * Return the number of saves of written events. Together with
+     * {@link #getWrittenEventCount()} this gives the average batch size.
+     */
+    public long getWriteBatchCount() {
+        return this.writeBatchCount.get();
+    }
+
+    /**
+     * Return the number of batches which could not be saved as a whole
+     * and have been written event by event.
+     */
+    public long getWriteBatchFailureCount() {
+        return this.writeBatchFailureCount.get();
+    }
+
+    /**
+     * Return the time in ms spent writing events into the repository.
+     */
+    public long getWriteTime() {
+        return this.writeTime.get();
+    }
+
     /**
      * Read an event from the repository.
      * @return
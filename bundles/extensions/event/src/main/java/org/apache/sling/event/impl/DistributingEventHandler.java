@@ -20,15 +20,13 @@ package org.apache.sling.event.impl;
 
 import java.util.Calendar;
 import java.util.Dictionary;
+import java.util.List;
 
 import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.observation.EventIterator;
-import javax.jcr.query.Query;
 
-import org.apache.jackrabbit.util.ISO8601;
 import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.event.EventUtil;
 import org.osgi.service.component.ComponentContext;
@@ -72,52 +70,29 @@ public class DistributingEventHandler
         super.activate(context);
     }
 
-    /**
-     * Return the query string for the clean up.
-     */
-    protected String getCleanUpQueryString() {
-        final Calendar deleteBefore = Calendar.getInstance();
-        deleteBefore.add(Calendar.MINUTE, -this.cleanupPeriod);
-        final String dateString = ISO8601.format(deleteBefore);
-
-        final StringBuffer buffer = new StringBuffer("/jcr:root");
-        buffer.append(this.repositoryPath);
-        buffer.append("//element(*, ");
-        buffer.append(getEventNodeType());
-        buffer.append(")[@");
-        buffer.append(EventHelper.NODE_PROPERTY_CREATED);
-        buffer.append(" < xs:dateTime('");
-        buffer.append(dateString);
-        buffer.append("')]");
-
-        return buffer.toString();
-    }
-
     /**
      * This method is invoked periodically.
+     * The events are stored in time buckets, so old buckets are removed
+     * as a whole without querying the repository.
      * @see java.lang.Runnable#run()
      */
     public void run() {
         if ( this.cleanupPeriod > 0 ) {
             this.logger.debug("Cleaning up repository, removing all entries older than {} minutes.", this.cleanupPeriod);
 
-            final String queryString = this.getCleanUpQueryString();
+            final Calendar deleteBefore = Calendar.getInstance();
+            deleteBefore.add(Calendar.MINUTE, -this.cleanupPeriod);
             // we create an own session for concurrency issues
             Session s = null;
             try {
                 s = this.createSession();
-                final Node parentNode = (Node)s.getItem(this.repositoryPath);
-                logger.debug("Executing query {}", queryString);
-                final Query q = s.getWorkspace().getQueryManager().createQuery(queryString, Query.XPATH);
-                final NodeIterator iter = q.execute().getNodes();
-                int count = 0;
-                while ( iter.hasNext() ) {
-                    final Node eventNode = iter.nextNode();
-                    eventNode.remove();
-                    count++;
+                final Cleanup cleanup = this.startCleanup(s);
+                try {
+                    this.cleanupBuckets(cleanup, (Node)s.getItem(this.repositoryPath), new int[4], 0, deleteBefore);
+                } finally {
+                    cleanup.finish();
                 }
-                parentNode.save();
-                logger.debug("Removed {} entries from the repository.", count);
+                logger.debug("Removed {} entries from the repository.", cleanup.getRemoved());
 
             } catch (RepositoryException e) {
                 // in the case of an error, we just log this as a warning
@@ -135,20 +110,10 @@ public class DistributingEventHandler
      */
     protected void processWriteQueue() {
         while ( this.running ) {
-            // so let's wait/get the next job from the queue
-            Event event = null;
-            try {
-                event = this.writeQueue.take();
-            } catch (InterruptedException e) {
-                // we ignore this
-                this.ignoreException(e);
-            }
-            if ( event != null && this.running ) {
-                try {
-                    this.writeEvent(event, null);
-                } catch (Exception e) {
-                    this.logger.error("Exception during writing the event to the repository.", e);
-                }
+            // so let's wait/get the next events from the queue
+            final List<Event> events = this.takeWriteBatch();
+            if ( !events.isEmpty() && this.running ) {
+                this.writeEvents(events);
             }
         }
     }
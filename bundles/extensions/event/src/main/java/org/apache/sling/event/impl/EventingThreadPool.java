@@ -23,6 +23,8 @@ import org.apache.sling.commons.threads.ThreadPoolConfig;
 import org.apache.sling.commons.threads.ThreadPoolManager;
 import org.apache.sling.event.ThreadPool;
 import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -33,9 +35,13 @@ import org.osgi.service.component.ComponentContext;
  * @scr.property nameRef="PROPERTY_MIN_POOL_SIZE" valueRef="DEFAULT_MIN_POOL_SIZE"
  * @scr.property nameRef="PROPERTY_MAX_POOL_SIZE" valueRef="DEFAULT_MAX_POOL_SIZE"
  * @scr.property nameRef="PROPERTY_QUEUEL_SIZE" valueRef="DEFAULT_QUEUE_SIZE"
+ * @scr.property nameRef="PROPERTY_POOL_TYPE" valueRef="DEFAULT_POOL_TYPE"
  */
 public class EventingThreadPool implements ThreadPool {
 
+    /** Default logger. */
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
     /** @scr.reference */
     protected ThreadPoolManager threadPoolManager;
 
@@ -45,10 +51,12 @@ public class EventingThreadPool implements ThreadPool {
     private static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     private static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
     private static final String PROPERTY_QUEUEL_SIZE = "queueSize";
+    private static final String PROPERTY_POOL_TYPE = "poolType";
 
     private static final int DEFAULT_MIN_POOL_SIZE = 20; // this is sufficient for all threads + approx 10 job queues
     private static final int DEFAULT_MAX_POOL_SIZE = 30;
     private static final int DEFAULT_QUEUE_SIZE = 50; // queue upto 50 threads
+    private static final String DEFAULT_POOL_TYPE = "EXECUTOR";
 
     /**
      * Activate this component.
@@ -63,6 +71,7 @@ public class EventingThreadPool implements ThreadPool {
         config.setMinPoolSize(OsgiUtil.toInteger(ctx.getProperties().get(PROPERTY_MIN_POOL_SIZE), DEFAULT_MIN_POOL_SIZE));
         config.setMaxPoolSize(OsgiUtil.toInteger(ctx.getProperties().get(PROPERTY_MAX_POOL_SIZE), DEFAULT_MAX_POOL_SIZE));
         config.setQueueSize(OsgiUtil.toInteger(ctx.getProperties().get(PROPERTY_QUEUEL_SIZE), DEFAULT_QUEUE_SIZE));
+        config.setType(getPoolType(OsgiUtil.toString(ctx.getProperties().get(PROPERTY_POOL_TYPE), DEFAULT_POOL_TYPE)));
         config.setShutdownGraceful(true);
         threadPoolManager.create(EventHelper.THREAD_POOL_NAME, config);
 
@@ -72,6 +81,19 @@ public class EventingThreadPool implements ThreadPool {
         }
     }
 
+    /**
+     * Get the pool type from the configuration value.
+     * An unknown type results in the default type.
+     */
+    private ThreadPoolConfig.ThreadPoolType getPoolType(final String value) {
+        try {
+            return ThreadPoolConfig.ThreadPoolType.valueOf(value.trim().toUpperCase());
+        } catch (final IllegalArgumentException iae) {
+            this.logger.warn("Unknown pool type {}, using {}.", value, DEFAULT_POOL_TYPE);
+            return ThreadPoolConfig.ThreadPoolType.valueOf(DEFAULT_POOL_TYPE);
+        }
+    }
+
     /**
      * Deactivate this component.
      * @param context
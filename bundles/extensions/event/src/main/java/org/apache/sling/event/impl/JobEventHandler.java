@@ -21,19 +21,20 @@ package org.apache.sling.event.impl;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.Item;
-import javax.jcr.ItemExistsException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
@@ -45,7 +46,6 @@ import javax.jcr.query.QueryManager;
 
 import org.apache.jackrabbit.util.ISO8601;
 import org.apache.sling.commons.osgi.OsgiUtil;
-import org.apache.sling.commons.scheduler.Scheduler;
 import org.apache.sling.commons.threads.ThreadPool;
 import org.apache.sling.event.EventPropertiesMap;
 import org.apache.sling.event.EventUtil;
@@ -81,7 +81,10 @@ public class JobEventHandler
     private final Map<String, Boolean> processingMap = new HashMap<String, Boolean>();
 
     /** A map for the different job queues. */
-    private final Map<String, JobBlockingQueue> jobQueues = new HashMap<String, JobBlockingQueue>();
+    private final Map<String, JobQueue> jobQueues = new HashMap<String, JobQueue>();
+
+    /** The jobs waiting for their retry or for being put back into a queue. */
+    private final DelayQueue<DelayedJob> delayedJobs = new DelayQueue<DelayedJob>();
 
     /** Default sleep time. */
     private static final long DEFAULT_SLEEP_TIME = 30;
@@ -107,6 +110,12 @@ public class JobEventHandler
     /** @scr.property valueRef="DEFAULT_WAIT_FOR_ACK" */
     private static final String CONFIG_PROPERTY_WAIT_FOR_ACK = "wait.for.ack";
 
+    /** Default number of parallel jobs for a job queue. */
+    private static final int DEFAULT_QUEUE_PARALLEL_JOBS = 1;
+
+    /** @scr.property cardinality="-2147483647" type="String" label="%job.queue.parallel.name" description="%job.queue.parallel.description" */
+    private static final String CONFIG_PROPERTY_QUEUE_PARALLEL_JOBS = "job.queue.parallel";
+
     /** We check every 30 secs by default. */
     private long sleepTime;
 
@@ -119,6 +128,9 @@ public class JobEventHandler
     /** Maximum parallel running jobs for a single queue. */
     private long maximumParallelJobs;
 
+    /** The configured number of parallel jobs by queue name or topic pattern. */
+    private Map<String, Integer> queueParallelJobs = new LinkedHashMap<String, Integer>();
+
     /** Background session. */
     private Session backgroundSession;
 
@@ -137,9 +149,6 @@ public class JobEventHandler
     /** We remove everything which is older than 5 min by default. */
     private int cleanupPeriod = DEFAULT_CLEANUP_PERIOD;
 
-    /** The scheduler for rescheduling jobs. @scr.reference */
-    private Scheduler scheduler;
-
     /** Our component context. */
     private ComponentContext componentContext;
 
@@ -157,6 +166,9 @@ public class JobEventHandler
     /** Number of parallel jobs for the main queue. */
     private long parallelJobCount;
 
+    /** The index of all queued and active jobs. */
+    private final JobIndex jobIndex = new JobIndex();
+
     /**
      * Activate this component.
      * @param context
@@ -171,34 +183,78 @@ public class JobEventHandler
         this.maxJobRetries = OsgiUtil.toInteger(props.get(CONFIG_PROPERTY_MAX_JOB_RETRIES), DEFAULT_MAX_JOB_RETRIES);
         this.waitForAckMs = OsgiUtil.toLong(props.get(CONFIG_PROPERTY_WAIT_FOR_ACK), DEFAULT_WAIT_FOR_ACK) * 1000;
         this.maximumParallelJobs = OsgiUtil.toLong(props.get(CONFIG_PROPERTY_MAXIMUM_PARALLEL_JOBS), DEFAULT_MAXIMUM_PARALLEL_JOBS);
+        this.queueParallelJobs = this.parseQueueParallelJobs(OsgiUtil.toStringArray(props.get(CONFIG_PROPERTY_QUEUE_PARALLEL_JOBS)));
         this.componentContext = context;
         super.activate(context);
         JOB_THREAD_POOL = this.threadPool;
+        // start retry thread
+        this.threadPool.execute(new Runnable() {
+            public void run() {
+                try {
+                    runDelayedJobs();
+                } catch (Throwable t) {
+                    logger.error("Retry thread stopped with exception: " + t.getMessage(), t);
+                }
+            }
+        });
     }
 
     /**
-     * @see org.apache.sling.event.impl.AbstractRepositoryEventHandler#deactivate(org.osgi.service.component.ComponentContext)
+     * Parse the configured number of parallel jobs. Each entry has the form
+     * <code>name=number</code> where the name is either the name of a job queue
+     * or a job topic. A topic ending with <code>*</code> matches all topics
+     * starting with the text before the <code>*</code>.
      */
-    protected void deactivate(final ComponentContext context) {
-        super.deactivate(context);
-        synchronized ( this.jobQueues ) {
-            final Iterator<JobBlockingQueue> i = this.jobQueues.values().iterator();
-            while ( i.hasNext() ) {
-                final JobBlockingQueue jbq = i.next();
-                // wake up qeue
-                if ( jbq.isWaiting() ) {
-                    synchronized ( jbq.getLock()) {
-                        jbq.notifyFinish(null);
+    private Map<String, Integer> parseQueueParallelJobs(final String[] config) {
+        final Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+        if ( config != null ) {
+            for(final String entry : config) {
+                final int pos = (entry == null ? -1 : entry.lastIndexOf('='));
+                if ( pos > 0 ) {
+                    try {
+                        result.put(entry.substring(0, pos).trim(), Integer.valueOf(entry.substring(pos + 1).trim()));
+                        continue;
+                    } catch (NumberFormatException nfe) {
+                        // log below
                     }
                 }
-                // continue queue processing
-                try {
-                    jbq.put(new EventInfo());
-                } catch (InterruptedException e) {
-                    this.ignoreException(e);
+                this.logger.warn("parseQueueParallelJobs: Ignoring invalid entry {}", entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of parallel jobs for a job queue. The queue name
+     * is checked first, then the topic of the job creating the queue.
+     */
+    private int getQueueParallelJobs(final String queueName, final String jobTopic) {
+        Integer value = this.queueParallelJobs.get(queueName);
+        if ( value == null && jobTopic != null ) {
+            for(final Map.Entry<String, Integer> entry : this.queueParallelJobs.entrySet()) {
+                final String pattern = entry.getKey();
+                if ( pattern.endsWith("*") ? jobTopic.startsWith(pattern.substring(0, pattern.length() - 1))
+                                           : jobTopic.equals(pattern) ) {
+                    value = entry.getValue();
+                    break;
                 }
             }
         }
+        return (value == null ? DEFAULT_QUEUE_PARALLEL_JOBS : value);
+    }
+
+    /**
+     * @see org.apache.sling.event.impl.AbstractRepositoryEventHandler#deactivate(org.osgi.service.component.ComponentContext)
+     */
+    protected void deactivate(final ComponentContext context) {
+        super.deactivate(context);
+        synchronized ( this.jobQueues ) {
+            // the queues don't have threads, so we just forget them
+            this.jobQueues.clear();
+        }
+        // stop the retry thread
+        this.delayedJobs.clear();
+        this.delayedJobs.put(new DelayedJob(null, null, 0));
         if ( this.backgroundSession != null ) {
             synchronized ( this.backgroundLock ) {
                 try {
@@ -212,6 +268,7 @@ public class JobEventHandler
             }
         }
         this.componentContext = null;
+        this.jobIndex.clear();
         JOB_THREAD_POOL = null;
     }
 
@@ -265,18 +322,19 @@ public class JobEventHandler
                 Session s = null;
                 try {
                     s = this.createSession();
-                    final Node parentNode = (Node)s.getItem(this.repositoryPath);
                     logger.debug("Executing query {}", queryString);
                     final Query q = s.getWorkspace().getQueryManager().createQuery(queryString, Query.XPATH);
                     final NodeIterator iter = q.execute().getNodes();
-                    int count = 0;
-                    while ( iter.hasNext() ) {
-                        final Node eventNode = iter.nextNode();
-                        eventNode.remove();
-                        count++;
+                    // the removals are saved in batches
+                    final Cleanup cleanup = this.startCleanup(s);
+                    try {
+                        while ( iter.hasNext() && this.running ) {
+                            cleanup.remove(iter.nextNode());
+                        }
+                    } finally {
+                        cleanup.finish();
                     }
-                    parentNode.save();
-                    logger.debug("Removed {} entries from the repository.", count);
+                    logger.debug("Removed {} entries from the repository.", cleanup.getRemoved());
 
                 } catch (RepositoryException e) {
                     // in the case of an error, we just log this as a warning
@@ -310,27 +368,19 @@ public class JobEventHandler
                 }
             }
 
-            // check for idle threads
+            // check for idle queues
             synchronized ( this.jobQueues ) {
-                final Iterator<Map.Entry<String, JobBlockingQueue>> i = this.jobQueues.entrySet().iterator();
+                final Iterator<Map.Entry<String, JobQueue>> i = this.jobQueues.entrySet().iterator();
                 while ( i.hasNext() ) {
-                    final Map.Entry<String, JobBlockingQueue> current = i.next();
-                    final JobBlockingQueue jbq = current.getValue();
-                    if ( jbq.size() == 0 ) {
-                        if ( jbq.isMarkedForCleanUp() ) {
-                            // set to finished
-                            jbq.setFinished(true);
-                            // wake up
-                            try {
-                                jbq.put(new EventInfo());
-                            } catch (InterruptedException e) {
-                                this.ignoreException(e);
-                            }
+                    final Map.Entry<String, JobQueue> current = i.next();
+                    final JobQueue jq = current.getValue();
+                    if ( jq.isIdle() ) {
+                        if ( jq.isMarkedForCleanUp() ) {
                             // remove
                             i.remove();
                         } else {
                             // mark to be removed during next cycle
-                            jbq.markForCleanUp();
+                            jq.markForCleanUp();
                         }
                     }
                 }
@@ -343,87 +393,90 @@ public class JobEventHandler
      */
     protected void processWriteQueue() {
         while ( this.running ) {
-            // so let's wait/get the next job from the queue
-            Event event = null;
-            try {
-                event = this.writeQueue.take();
-            } catch (InterruptedException e) {
-                // we ignore this
-                this.ignoreException(e);
-            }
-            if ( event != null && this.running ) {
-                logger.debug("Persisting job {}", event);
-                try {
-                    this.writerSession.refresh(false);
-                } catch (RepositoryException re) {
-                    // we just ignore this
-                    this.ignoreException(re);
+            // so let's wait/get the next jobs from the queue
+            final List<Event> events = this.takeWriteBatch();
+            if ( !events.isEmpty() && this.running ) {
+                logger.debug("Persisting {} jobs", events.size());
+                synchronized ( this.writeLock ) {
+                    this.writeEvents(events);
                 }
-                final EventInfo info = new EventInfo();
-                info.event = event;
-                final String jobId = (String)event.getProperty(EventUtil.PROPERTY_JOB_ID);
-                final String jobTopic = (String)event.getProperty(EventUtil.PROPERTY_JOB_TOPIC);
-                final String nodePath = this.getNodePath(jobTopic, jobId);
+            }
+        }
+    }
 
-                // if the job has no job id, we can just write the job to the repo and don't
-                // need locking
-                if ( jobId == null ) {
-                    try {
-                        final Node eventNode = this.writeEvent(event, nodePath);
-                        info.nodePath = eventNode.getPath();
-                    } catch (RepositoryException re ) {
-                        // something went wrong, so let's log it
-                        this.logger.error("Exception during writing new job '" + EventUtil.toString(event) + "' to repository at " + nodePath, re);
-                    }
-                } else {
-                    try {
-                        // let's first search for an existing node with the same id
-                        final Node parentNode = this.ensureRepositoryPath();
-                        Node foundNode = null;
-                        if ( parentNode.hasNode(nodePath) ) {
-                            foundNode = parentNode.getNode(nodePath);
-                        }
-                        if ( foundNode != null ) {
-                            // if the node is locked, someone else was quicker
-                            // and we don't have to process this job
-                            if ( !foundNode.isLocked() ) {
-                                // node is already in repository, so if not finished we just use it
-                                // otherwise it has already been processed
-                                try {
-                                    if ( !foundNode.hasProperty(EventHelper.NODE_PROPERTY_FINISHED) ) {
-                                        info.nodePath = foundNode.getPath();
-                                    }
-                                } catch (RepositoryException re) {
-                                    // if anything goes wrong, it means that (hopefully) someone
-                                    // else is processing this node
-                                }
-                            }
-                        } else {
-                            // We now write the event into the repository
-                            try {
-                                final Node eventNode = this.writeEvent(event, nodePath);
-                                info.nodePath = eventNode.getPath();
-                            } catch (ItemExistsException iee) {
-                                // someone else did already write this node in the meantime
-                                // nothing to do for us
-                            }
-                        }
-                    } catch (RepositoryException re ) {
-                        // something went wrong, so let's log it
-                        this.logger.error("Exception during writing new job '" + event + "' to repository at " + nodePath, re);
-                    }
-                }
-                // if we were able to write the event into the repository
-                // we will queue it for processing
-                if ( info.nodePath != null ) {
-                    try {
-                        this.queue.put(info);
-                    } catch (InterruptedException e) {
-                        // this should never happen
-                        this.ignoreException(e);
+    /**
+     * Add the job to the repository unless it is already stored there.
+     * @see org.apache.sling.event.impl.AbstractRepositoryEventHandler#addEvent(org.osgi.service.event.Event)
+     * @return The path of the job node if the job should be processed.
+     */
+    protected String addEvent(final Event event)
+    throws RepositoryException {
+        final String jobId = (String)event.getProperty(EventUtil.PROPERTY_JOB_ID);
+        final String jobTopic = (String)event.getProperty(EventUtil.PROPERTY_JOB_TOPIC);
+        final String nodePath = this.getNodePath(jobTopic, jobId);
+
+        // if the job has no job id, we can just write the job to the repo and don't
+        // need locking
+        if ( jobId == null ) {
+            return this.addEvent(event, nodePath).getPath();
+        }
+
+        // let's first check the job index for an unfinished job with the same id
+        final String path = this.repositoryPath + '/' + nodePath;
+        final JobIndex.State state = this.jobIndex.getState(path);
+        if ( state != null ) {
+            // if the job is active, someone else was quicker and we don't
+            // have to process this job, if it is queued we just use it
+            return (state == JobIndex.State.QUEUED ? path : null);
+        }
+
+        // search for an existing node with the same id
+        final Node parentNode = this.ensureRepositoryPath();
+        if ( parentNode.hasNode(nodePath) ) {
+            final Node foundNode = parentNode.getNode(nodePath);
+            // if the node is locked, someone else was quicker
+            // and we don't have to process this job
+            if ( !foundNode.isLocked() ) {
+                // node is already in repository, so if not finished we just use it
+                // otherwise it has already been processed
+                try {
+                    if ( !foundNode.hasProperty(EventHelper.NODE_PROPERTY_FINISHED) ) {
+                        return foundNode.getPath();
                     }
+                } catch (RepositoryException re) {
+                    // if anything goes wrong, it means that (hopefully) someone
+                    // else is processing this node
                 }
             }
+            return null;
+        }
+        // We now write the event into the repository
+        return this.addEvent(event, nodePath).getPath();
+    }
+
+    /**
+     * Queue the job for processing once it has been written.
+     * @see org.apache.sling.event.impl.AbstractRepositoryEventHandler#eventWritten(org.osgi.service.event.Event, java.lang.String)
+     */
+    protected void eventWritten(final Event event, final String nodePath) {
+        try {
+            final Node eventNode = (Node) this.writerSession.getItem(nodePath);
+            this.jobIndex.put(nodePath, this.readEvent(eventNode), JobIndex.State.QUEUED);
+        } catch (RepositoryException re) {
+            // the job is processed anyway, it is just missing in the index
+            this.ignoreException(re);
+        } catch (ClassNotFoundException cnfe) {
+            // the job is processed anyway, it is just missing in the index
+            this.ignoreException(cnfe);
+        }
+        final EventInfo info = new EventInfo();
+        info.event = event;
+        info.nodePath = nodePath;
+        try {
+            this.queue.put(info);
+        } catch (InterruptedException e) {
+            // this should never happen
+            this.ignoreException(e);
         }
     }
 
@@ -434,12 +487,13 @@ public class JobEventHandler
         this.backgroundSession = this.createSession();
         this.backgroundSession.getWorkspace().getObservationManager()
                 .addEventListener(this,
-                                  javax.jcr.observation.Event.PROPERTY_REMOVED
+                                  javax.jcr.observation.Event.PROPERTY_ADDED
+                                    |javax.jcr.observation.Event.PROPERTY_REMOVED
                                     |javax.jcr.observation.Event.NODE_REMOVED,
                                   this.repositoryPath,
                                   true,
                                   null,
-                                  new String[] {this.getEventNodeType()},
+                                  null,
                                   true);
         // give the system some time to start
         try {
@@ -482,37 +536,22 @@ public class JobEventHandler
                 // check if we should put this into a separate queue
                 if ( info != null && info.event.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) != null ) {
                     final String queueName = (String)info.event.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME);
+                    JobQueue jobQueue;
+                    boolean dispatch;
                     synchronized ( this.jobQueues ) {
-                        BlockingQueue<EventInfo> jobQueue = this.jobQueues.get(queueName);
+                        jobQueue = this.jobQueues.get(queueName);
                         if ( jobQueue == null ) {
-                            final JobBlockingQueue jq = new JobBlockingQueue();
-                            jobQueue = jq;
-                            this.jobQueues.put(queueName, jq);
-                            // Start background thread
-                            this.threadPool.execute(new Runnable() {
-
-                                /**
-                                 * @see java.lang.Runnable#run()
-                                 */
-                                public void run() {
-                                    while ( running && !jq.isFinished() ) {
-                                        logger.info("Starting job queue {}", queueName);
-                                        try {
-                                            runJobQueue(queueName, jq);
-                                        } catch (Throwable t) {
-                                            logger.error("Job queue stopped with exception: " + t.getMessage() + ". Restarting.", t);
-                                        }
-                                    }
-                                }
-
-                            });
-                        }
-                        try {
-                            jobQueue.put(info);
-                        } catch (InterruptedException e) {
-                            // this should never happen
-                            this.ignoreException(e);
+                            final int maxParallel = this.getQueueParallelJobs(queueName,
+                                (String)info.event.getProperty(EventUtil.PROPERTY_JOB_TOPIC));
+                            jobQueue = new JobQueue(queueName, maxParallel,
+                                info.event.getProperty(EventUtil.PROPERTY_JOB_QUEUE_ORDERED) != null);
+                            this.jobQueues.put(queueName, jobQueue);
+                            logger.info("Starting job queue {} with {} parallel jobs", queueName, jobQueue.getMaxParallel());
                         }
+                        dispatch = jobQueue.add(info);
+                    }
+                    if ( dispatch ) {
+                        this.dispatch(jobQueue);
                     }
                     // don't process this here
                     info = null;
@@ -527,108 +566,101 @@ public class JobEventHandler
     }
 
     /**
-     * Execute a job queue
-     * @param queueName The name of the job queue
+     * Start a task in the thread pool which starts the jobs of a job queue.
      * @param jobQueue The job queue
      */
-    private void runJobQueue(final String queueName, final JobBlockingQueue jobQueue) {
-        EventInfo info = null;
-        while ( this.running && !jobQueue.isFinished() ) {
-            if ( info == null ) {
-                // so let's wait/get the next job from the queue
-                try {
-                    info = jobQueue.take();
-                } catch (InterruptedException e) {
-                    // we ignore this
-                    this.ignoreException(e);
-                }
+    private void dispatch(final JobQueue jobQueue) {
+        this.threadPool.execute(new Runnable() {
+
+            /**
+             * @see java.lang.Runnable#run()
+             */
+            public void run() {
+                runJobQueue(jobQueue);
             }
 
-            if ( info != null && this.running && !jobQueue.isFinished() ) {
-                synchronized ( jobQueue.getLock()) {
-                    final EventInfo processInfo = info;
-                    info = null;
-                    if ( this.executeJob(processInfo, jobQueue) ) {
-                        EventInfo newInfo = null;
-                        try {
-                            newInfo = jobQueue.waitForFinish();
-                        } catch (InterruptedException e) {
-                            this.ignoreException(e);
-                        }
-                        // if we have an info, this is a reschedule
-                        if ( newInfo != null ) {
-                            final EventInfo newEventInfo = newInfo;
-                            final Event job = newInfo.event;
-
-                            // is this an ordered queue?
-                            final boolean orderedQueue = job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_ORDERED) != null;
-
-                            if ( orderedQueue ) {
-                                // we just sleep for the delay time - if none, we continue and retry
-                                // this job again
-                                if ( job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY) != null ) {
-                                    final long delay = (Long)job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY);
-                                    jobQueue.setSleeping(true, Thread.currentThread());
-                                    try {
-                                        Thread.sleep(delay);
-                                    } catch (InterruptedException e) {
-                                        this.ignoreException(e);
-                                    } finally {
-                                        jobQueue.setSleeping(false);
-                                    }
-                                }
-                                info = newInfo;
-                            } else {
-                                // delay rescheduling?
-                                if ( job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY) != null ) {
-                                    final long delay = (Long)job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY);
-                                    final Date fireDate = new Date();
-                                    fireDate.setTime(System.currentTimeMillis() + delay);
-
-                                    final String schedulerJobName = "Waiting:" + queueName;
-                                    final Runnable t = new Runnable() {
-                                        public void run() {
-                                            jobQueue.setSleeping(true, schedulerJobName);
-                                            try {
-                                                jobQueue.put(newEventInfo);
-                                            } catch (InterruptedException e) {
-                                                // this should never happen
-                                                ignoreException(e);
-                                            } finally {
-                                                jobQueue.setSleeping(false);
-                                            }
-                                        }
-                                    };
-                                    try {
-                                        this.scheduler.fireJobAt(schedulerJobName, t, null, fireDate);
-                                    } catch (Exception e) {
-                                        // we ignore the exception and just put back the job in the queue
-                                        ignoreException(e);
-                                        t.run();
-                                    }
-                                } else {
-                                    // put directly into queue
-                                    try {
-                                        jobQueue.put(newInfo);
-                                    } catch (InterruptedException e) {
-                                        // this should never happen
-                                        this.ignoreException(e);
-                                    }
-                                }
-                            }
-                        }
-                    }
+        });
+    }
+
+    /**
+     * Start jobs of a job queue until the maximum number of parallel
+     * jobs of the queue is running or the queue is empty.
+     * @param jobQueue The job queue
+     */
+    private void runJobQueue(final JobQueue jobQueue) {
+        EventInfo info = jobQueue.take();
+        while ( info != null ) {
+            boolean started = false;
+            try {
+                started = this.running && this.executeJob(info, jobQueue);
+            } catch (Throwable t) {
+                logger.error("Exception during processing job queue " + jobQueue.getName() + ": " + t.getMessage(), t);
+            } finally {
+                if ( !started ) {
+                    // free the slot of the job, we're running anyway
+                    jobQueue.finished();
                 }
             }
+            info = jobQueue.take();
+        }
+    }
+
+    /**
+     * Put the job back into the main queue or into its job queue after
+     * the delay. If the job queue is given, it has been notified by
+     * {@link JobQueue#retryLater()} before.
+     * @param info The job
+     * @param jobQueue The job queue or <code>null</code> for the main queue.
+     * @param delay The delay in milliseconds.
+     */
+    private void putBack(final EventInfo info, final JobQueue jobQueue, final long delay) {
+        if ( delay > 0 ) {
+            this.delayedJobs.put(new DelayedJob(info, jobQueue, delay));
+        } else {
+            this.retry(info, jobQueue);
+        }
+    }
+
+    /**
+     * Put the job back into the main queue or into its job queue.
+     */
+    private void retry(final EventInfo info, final JobQueue jobQueue) {
+        if ( jobQueue == null ) {
+            try {
+                this.queue.put(info);
+            } catch (InterruptedException e) {
+                // this should never happen
+                this.ignoreException(e);
+            }
+        } else if ( jobQueue.retry(info) ) {
+            this.dispatch(jobQueue);
+        }
+    }
+
+    /**
+     * This method runs in the background and puts the delayed jobs back
+     * into their queues once their delay is over.
+     */
+    private void runDelayedJobs() {
+        while ( this.running ) {
+            DelayedJob job = null;
+            try {
+                job = this.delayedJobs.take();
+            } catch (InterruptedException e) {
+                // we ignore this
+                this.ignoreException(e);
+            }
+            if ( job != null && job.info != null && this.running ) {
+                this.retry(job.info, job.jobQueue);
+            }
         }
     }
 
     /**
      * Process a job
      */
-    private boolean executeJob(final EventInfo info, final BlockingQueue<EventInfo> jobQueue) {
+    private boolean executeJob(final EventInfo info, final JobQueue jobQueue) {
         boolean putback = false;
-        boolean wait = false;
         synchronized (this.backgroundLock) {
             try {
                 this.backgroundSession.refresh(false);
@@ -655,9 +687,9 @@ public class JobEventHandler
 
                     } else {
                         // check number of parallel jobs for main queue
+                        // if the max is reached, the job is put back below
                         if ( jobQueue == null && this.parallelJobCount >= this.maximumParallelJobs ) {
                             process = false;
-                            wait = true;
                         }
                     }
                     if ( process ) {
@@ -674,8 +706,7 @@ public class JobEventHandler
                                 }
                                 if ( process ) {
                                     unlock = false;
-                                    this.processJob(info.event, eventNode, jobQueue == null);
-                                    return true;
+                                    return this.processJob(info.event, eventNode, jobQueue == null);
                                 }
                             }
                         } catch (RepositoryException e) {
@@ -706,52 +737,11 @@ public class JobEventHandler
             }
 
         }
-        // if this is the main queue and we have reached the max number of parallel jobs
-        // we wait a little bit before continuing
-        if ( wait ) {
-            try {
-                Thread.sleep(sleepTime * 1000);
-            } catch (InterruptedException ie) {
-                // ignore
-                ignoreException(ie);
-            }
-        }
-        // if we have to put back the job, we do it now
+        // if we have to put back the job, we put it back into the queue after a specific time
+        // this includes jobs of the main queue exceeding the max number of parallel jobs,
+        // which are delayed instead of blocking the main queue
         if ( putback ) {
-            final EventInfo eInfo = info;
-            final Date fireDate = new Date();
-            fireDate.setTime(System.currentTimeMillis() + this.sleepTime * 1000);
-
-                // we put it back into the queue after a specific time
-            final Runnable r = new Runnable() {
-
-                /**
-                 * @see java.lang.Runnable#run()
-                 */
-                public void run() {
-                    try {
-                        queue.put(eInfo);
-                    } catch (InterruptedException e) {
-                        // ignore
-                        ignoreException(e);
-                    }
-                }
-
-            };
-            try {
-                this.scheduler.fireJobAt(null, r, null, fireDate);
-            } catch (Exception e) {
-                // we ignore the exception
-                ignoreException(e);
-                // then wait for the time and readd the job
-                try {
-                    Thread.sleep(sleepTime * 1000);
-                } catch (InterruptedException ie) {
-                    // ignore
-                    ignoreException(ie);
-                }
-                r.run();
-            }
+            this.putBack(info, null, this.sleepTime * 1000);
         }
         return false;
     }
@@ -817,6 +807,7 @@ public class JobEventHandler
                                                         final EventInfo info = new EventInfo();
                                                         info.event = readEvent(eventNode);
                                                         info.nodePath = path;
+                                                        jobIndex.put(path, info.event, JobIndex.State.QUEUED);
                                                         try {
                                                             queue.put(info);
                                                         } catch (InterruptedException e) {
@@ -870,20 +861,24 @@ public class JobEventHandler
      * @param event The original event.
      * @param eventNode The node in the repository where the job is stored.
      * @param isMainQueue Is this the main queue?
+     * @return <code>true</code> if the job has been started.
      */
-    private void processJob(Event event, Node eventNode, boolean isMainQueue)  {
+    private boolean processJob(Event event, Node eventNode, boolean isMainQueue)  {
         final boolean parallelProcessing = event.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) != null
                                            || event.getProperty(EventUtil.PROPERTY_JOB_PARALLEL) != null;
         final String jobTopic = (String)event.getProperty(EventUtil.PROPERTY_JOB_TOPIC);
         boolean unlock = true;
         try {
-            if ( isMainQueue && !parallelProcessing ) {
+            if ( isMainQueue && parallelProcessing ) {
                 this.parallelJobCount++;
             }
             final String nodePath = eventNode.getPath();
             final Event jobEvent = this.getJobEvent(event, nodePath);
             eventNode.setProperty(EventHelper.NODE_PROPERTY_PROCESSOR, this.applicationId);
             eventNode.save();
+            if ( !this.jobIndex.setState(nodePath, JobIndex.State.ACTIVE) ) {
+                this.indexJob(eventNode, JobIndex.State.ACTIVE);
+            }
             final EventAdmin localEA = this.eventAdmin;
             if ( localEA != null ) {
                 final StartedJobInfo jobInfo = new StartedJobInfo(jobEvent, nodePath, System.currentTimeMillis());
@@ -906,7 +901,7 @@ public class JobEventHandler
             this.logger.error("Exception during job processing.", re);
         } finally {
             if ( unlock ) {
-                if ( isMainQueue && !parallelProcessing ) {
+                if ( isMainQueue && parallelProcessing ) {
                     this.parallelJobCount--;
                 }
                 if ( !parallelProcessing ) {
@@ -917,12 +912,60 @@ public class JobEventHandler
                 // unlock node
                 try {
                     eventNode.unlock();
+                    this.jobIndex.setState(eventNode.getPath(), JobIndex.State.QUEUED);
                 } catch (RepositoryException e) {
                     // if unlock fails, we silently ignore this
                     this.ignoreException(e);
                 }
             }
         }
+        return !unlock;
+    }
+
+    /**
+     * Read the job from the node and add it to the job index.
+     * @param eventNode The node in the repository where the job is stored.
+     * @param state The state of the job.
+     */
+    private void indexJob(final Node eventNode, final JobIndex.State state)
+    throws RepositoryException {
+        try {
+            this.jobIndex.put(eventNode.getPath(), this.readEvent(eventNode), state);
+        } catch (ClassNotFoundException cnfe) {
+            // the job can't be loaded yet, so we can't index it
+            this.ignoreException(cnfe);
+        }
+    }
+
+    /**
+     * Update the job index with the current state of the node.
+     * This is used for changes made by other sessions, e.g. by other
+     * cluster nodes.
+     * @param s The session to read the node.
+     * @param nodePath The path of the changed node.
+     */
+    private void updateJobIndex(final Session s, final String nodePath) {
+        try {
+            if ( !s.itemExists(nodePath) ) {
+                this.jobIndex.remove(nodePath);
+                return;
+            }
+            final Item item = s.getItem(nodePath);
+            if ( item.isNode() && ((Node)item).isNodeType(this.getEventNodeType()) ) {
+                final Node eventNode = (Node)item;
+                if ( eventNode.hasProperty(EventHelper.NODE_PROPERTY_FINISHED) ) {
+                    this.jobIndex.remove(nodePath);
+                } else {
+                    final JobIndex.State state = (eventNode.isLocked() ? JobIndex.State.ACTIVE : JobIndex.State.QUEUED);
+                    if ( !this.jobIndex.setState(nodePath, state) ) {
+                        this.indexJob(eventNode, state);
+                    }
+                }
+            }
+        } catch (RepositoryException re) {
+            // if anything goes wrong, the index is updated with the next change
+            this.ignoreException(re);
+        }
     }
 
     /**
@@ -980,13 +1023,32 @@ public class JobEventHandler
      * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
      */
     public void onEvent(EventIterator iter) {
-        // we create an own session here
+        // we create an own session here, but only if we need to read nodes
         Session s = null;
+        // the nodes changed by other sessions
+        final Set<String> changedNodes = new HashSet<String>();
         try {
-            s = this.createSession();
             while ( iter.hasNext() ) {
                 final javax.jcr.observation.Event event = iter.nextEvent();
-                if ( event.getType() == javax.jcr.observation.Event.PROPERTY_CHANGED
+                if ( event.getType() == javax.jcr.observation.Event.NODE_REMOVED ) {
+                    try {
+                        // a job or a whole topic folder has been removed
+                        this.jobIndex.removeTree(event.getPath());
+                    } catch (RepositoryException re) {
+                        this.logger.error("Exception during jcr event processing.", re);
+                    }
+                } else if ( event.getType() == javax.jcr.observation.Event.PROPERTY_ADDED ) {
+                    try {
+                        final String propPath = event.getPath();
+                        final int pos = propPath.lastIndexOf('/');
+                        final String nodePath = propPath.substring(0, pos);
+                        if ( this.isJobIndexChange(nodePath, propPath.substring(pos+1)) ) {
+                            changedNodes.add(nodePath);
+                        }
+                    } catch (RepositoryException re) {
+                        this.logger.error("Exception during jcr event processing.", re);
+                    }
+                } else if ( event.getType() == javax.jcr.observation.Event.PROPERTY_CHANGED
                    || event.getType() == javax.jcr.observation.Event.PROPERTY_REMOVED) {
                     try {
                         final String propPath = event.getPath();
@@ -996,11 +1058,17 @@ public class JobEventHandler
 
                         // we are only interested in unlocks
                         if ( "jcr:lockOwner".equals(propertyName) ) {
+                            if ( this.jobIndex.getState(nodePath) != JobIndex.State.QUEUED ) {
+                                changedNodes.add(nodePath);
+                            }
                             boolean doNotProcess = false;
                             synchronized ( this.deletedJobs ) {
                                 doNotProcess = this.deletedJobs.remove(nodePath);
                             }
                             if ( !doNotProcess ) {
+                                if ( s == null ) {
+                                    s = this.createSession();
+                                }
                                 final Node eventNode = (Node) s.getItem(nodePath);
                                 if ( !eventNode.isLocked() && !eventNode.hasProperty(EventHelper.NODE_PROPERTY_FINISHED)) {
                                     try {
@@ -1028,6 +1096,17 @@ public class JobEventHandler
                     }
                 }
             }
+            // we sync with the job processing to not overwrite a newer state
+            if ( !changedNodes.isEmpty() ) {
+                if ( s == null ) {
+                    s = this.createSession();
+                }
+                synchronized ( this.backgroundLock ) {
+                    for(final String nodePath : changedNodes) {
+                        this.updateJobIndex(s, nodePath);
+                    }
+                }
+            }
         } catch (RepositoryException re) {
             this.logger.error("Unable to create a session.", re);
         } finally {
@@ -1037,6 +1116,27 @@ public class JobEventHandler
         }
     }
 
+    /**
+     * Check if an added property might change the job index.
+     * All other properties of a job node are written together with the
+     * creation time, and the changes made by this instance have already
+     * been applied to the index, so these are ignored without reading
+     * the node.
+     * @param nodePath The path of the node.
+     * @param propertyName The name of the added property.
+     */
+    private boolean isJobIndexChange(final String nodePath, final String propertyName) {
+        final JobIndex.State state = this.jobIndex.getState(nodePath);
+        if ( EventHelper.NODE_PROPERTY_CREATED.equals(propertyName) ) {
+            return state == null;
+        } else if ( EventHelper.NODE_PROPERTY_FINISHED.equals(propertyName) ) {
+            return state != null;
+        } else if ( "jcr:lockOwner".equals(propertyName) ) {
+            return state != JobIndex.State.ACTIVE;
+        }
+        return false;
+    }
+
     /**
      * Load all active jobs from the repository.
      * @throws RepositoryException
@@ -1055,23 +1155,30 @@ public class JobEventHandler
             final NodeIterator result = q.execute().getNodes();
             while ( result.hasNext() ) {
                 final Node eventNode = result.nextNode();
-                if ( !eventNode.isLocked() && !eventNode.hasProperty(EventHelper.NODE_PROPERTY_FINISHED)) {
+                if ( !eventNode.hasProperty(EventHelper.NODE_PROPERTY_FINISHED)) {
                     final String nodePath = eventNode.getPath();
+                    final boolean locked = eventNode.isLocked();
                     try {
                         final Event event = this.readEvent(eventNode);
-                        final EventInfo info = new EventInfo();
-                        info.event = event;
-                        info.nodePath = nodePath;
-                        try {
-                            this.queue.put(info);
-                        } catch (InterruptedException e) {
-                            // we ignore this exception as this should never occur
-                            this.ignoreException(e);
+                        // jobs locked by someone else are only indexed
+                        this.jobIndex.put(nodePath, event, (locked ? JobIndex.State.ACTIVE : JobIndex.State.QUEUED));
+                        if ( !locked ) {
+                            final EventInfo info = new EventInfo();
+                            info.event = event;
+                            info.nodePath = nodePath;
+                            try {
+                                this.queue.put(info);
+                            } catch (InterruptedException e) {
+                                // we ignore this exception as this should never occur
+                                this.ignoreException(e);
+                            }
                         }
                     } catch (ClassNotFoundException cnfe) {
-                        // store path for lazy loading
-                        synchronized ( this.unloadedJobs ) {
-                            this.unloadedJobs.add(nodePath);
+                        if ( !locked ) {
+                            // store path for lazy loading
+                            synchronized ( this.unloadedJobs ) {
+                                this.unloadedJobs.add(nodePath);
+                            }
                         }
                         this.ignoreException(cnfe);
                     } catch (RepositoryException re) {
@@ -1079,6 +1186,10 @@ public class JobEventHandler
                     }
                 }
             }
+            // from now on status queries are served by the index
+            this.jobIndex.setLoaded(true);
+            logger.debug("Loaded {} queued and {} active jobs into the job index.",
+                this.jobIndex.size(JobIndex.State.QUEUED), this.jobIndex.size(JobIndex.State.ACTIVE));
         } catch (RepositoryException re) {
             this.logger.error("Exception during initial loading of stored jobs.", re);
         }
@@ -1134,160 +1245,122 @@ public class JobEventHandler
         }
         final boolean parallelProcessing = job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) != null
                                         || job.getProperty(EventUtil.PROPERTY_JOB_PARALLEL) != null;
-        EventInfo putback = null;
-        // we have to use the same session for unlocking that we used for locking!
-        synchronized ( this.backgroundLock ) {
-            // we might get here asnyc while this service has already been shutdown!
-            if ( this.backgroundSession == null ) {
-                // we can only return false here
-                return false;
+        JobQueue jobQueue = null;
+        if ( job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) != null ) {
+            synchronized ( this.jobQueues ) {
+                jobQueue = this.jobQueues.get(job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME));
             }
-            try {
-                this.backgroundSession.refresh(false);
-                // check if the job has been cancelled
-                if ( !this.backgroundSession.itemExists(eventNodePath) ) {
-                    return true;
+        }
+        EventInfo putback = null;
+        try {
+            // we have to use the same session for unlocking that we used for locking!
+            synchronized ( this.backgroundLock ) {
+                // we might get here asnyc while this service has already been shutdown!
+                if ( this.backgroundSession == null ) {
+                    // we can only return false here
+                    return false;
                 }
-                final Node eventNode = (Node) this.backgroundSession.getItem(eventNodePath);
-                boolean unlock = true;
                 try {
-                    if ( !reschedule ) {
-                        synchronized ( this.deletedJobs ) {
-                            this.deletedJobs.add(eventNodePath);
-                        }
-                        // unlock node
-                        try {
-                            eventNode.unlock();
-                        } catch (RepositoryException e) {
-                            // if unlock fails, we silently ignore this
-                            this.ignoreException(e);
-                        }
-                        unlock = false;
-                        final String jobId = (String)job.getProperty(EventUtil.PROPERTY_JOB_ID);
-                        if ( jobId == null ) {
-                            // remove node from repository if no job is set
-                            final Node parentNode = eventNode.getParent();
-                            eventNode.remove();
-                            parentNode.save();
-                        } else {
-                            eventNode.setProperty(EventHelper.NODE_PROPERTY_FINISHED, Calendar.getInstance());
-                            eventNode.save();
-                        }
-                    }
-                } catch (RepositoryException re) {
-                    // if an exception occurs, we just log
-                    this.logger.error("Exception during job finishing.", re);
-                } finally {
-                    if ( !parallelProcessing) {
-                        final String jobTopic = (String)job.getProperty(EventUtil.PROPERTY_JOB_TOPIC);
-                        synchronized ( this.processingMap ) {
-                            this.processingMap.put(jobTopic, Boolean.FALSE);
-                        }
-                    } else {
-                        if ( job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) == null ) {
-                            this.parallelJobCount--;
-                        }
-                    }
-                    if ( unlock ) {
-                        synchronized ( this.deletedJobs ) {
-                            this.deletedJobs.add(eventNodePath);
-                        }
-                        // unlock node
-                        try {
-                            eventNode.unlock();
-                        } catch (RepositoryException e) {
-                            // if unlock fails, we silently ignore this
-                            this.ignoreException(e);
-                        }
+                    this.backgroundSession.refresh(false);
+                    // check if the job has been cancelled
+                    if ( !this.backgroundSession.itemExists(eventNodePath) ) {
+                        this.jobIndex.remove(eventNodePath);
+                        return true;
                     }
-                }
-                if ( reschedule ) {
-                    // update retry count and retries in the repository
+                    final Node eventNode = (Node) this.backgroundSession.getItem(eventNodePath);
+                    boolean unlock = true;
                     try {
-                        eventNode.setProperty(EventUtil.PROPERTY_JOB_RETRIES, (Integer)job.getProperty(EventUtil.PROPERTY_JOB_RETRIES));
-                        eventNode.setProperty(EventUtil.PROPERTY_JOB_RETRY_COUNT, (Integer)job.getProperty(EventUtil.PROPERTY_JOB_RETRY_COUNT));
-                        eventNode.save();
+                        if ( !reschedule ) {
+                            this.jobIndex.remove(eventNodePath);
+                            synchronized ( this.deletedJobs ) {
+                                this.deletedJobs.add(eventNodePath);
+                            }
+                            // unlock node
+                            try {
+                                eventNode.unlock();
+                            } catch (RepositoryException e) {
+                                // if unlock fails, we silently ignore this
+                                this.ignoreException(e);
+                            }
+                            unlock = false;
+                            final String jobId = (String)job.getProperty(EventUtil.PROPERTY_JOB_ID);
+                            if ( jobId == null ) {
+                                // remove node from repository if no job is set
+                                final Node parentNode = eventNode.getParent();
+                                eventNode.remove();
+                                parentNode.save();
+                            } else {
+                                eventNode.setProperty(EventHelper.NODE_PROPERTY_FINISHED, Calendar.getInstance());
+                                eventNode.save();
+                            }
+                        }
                     } catch (RepositoryException re) {
                         // if an exception occurs, we just log
-                        this.logger.error("Exception during job updating job rescheduling information.", re);
-                    }
-                    final EventInfo info = new EventInfo();
-                    try {
-                        info.event = job;
-                        info.nodePath = eventNode.getPath();
-                    } catch (RepositoryException e) {
-                        // this should never happen
-                        this.ignoreException(e);
-                    }
-                    // if this is an own job queue, we simply signal the queue to continue
-                    // it will pick up the event and either reschedule or wait
-                    if ( job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) != null ) {
-                        // we know the queue exists
-                        final JobBlockingQueue jobQueue;
-                        synchronized ( this.jobQueues ) {
-                            jobQueue = this.jobQueues.get(job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME));
-                        }
-                        synchronized ( jobQueue.getLock()) {
-                            jobQueue.notifyFinish(info);
-                        }
-                    } else {
-
-                        // delay rescheduling?
-                        if ( job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY) != null ) {
-                            putback = info;
+                        this.logger.error("Exception during job finishing.", re);
+                    } finally {
+                        if ( !parallelProcessing) {
+                            final String jobTopic = (String)job.getProperty(EventUtil.PROPERTY_JOB_TOPIC);
+                            synchronized ( this.processingMap ) {
+                                this.processingMap.put(jobTopic, Boolean.FALSE);
+                            }
                         } else {
-                            // put directly into queue
+                            if ( job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) == null ) {
+                                this.parallelJobCount--;
+                            }
+                        }
+                        if ( unlock ) {
+                            synchronized ( this.deletedJobs ) {
+                                this.deletedJobs.add(eventNodePath);
+                            }
+                            // unlock node
                             try {
-                                queue.put(info);
-                            } catch (InterruptedException e) {
-                                // this should never happen
+                                eventNode.unlock();
+                            } catch (RepositoryException e) {
+                                // if unlock fails, we silently ignore this
                                 this.ignoreException(e);
                             }
                         }
                     }
-                } else {
-                    // if this is an own job queue, we simply signal the queue to continue
-                    // it will pick up the event and continue with the next event
-                    if ( job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME) != null ) {
-                        // we know the queue exists
-                        final JobBlockingQueue jobQueue;
-                        synchronized ( this.jobQueues ) {
-                            jobQueue = this.jobQueues.get(job.getProperty(EventUtil.PROPERTY_JOB_QUEUE_NAME));
+                    if ( reschedule ) {
+                        // update retry count and retries in the repository
+                        try {
+                            eventNode.setProperty(EventUtil.PROPERTY_JOB_RETRIES, (Integer)job.getProperty(EventUtil.PROPERTY_JOB_RETRIES));
+                            eventNode.setProperty(EventUtil.PROPERTY_JOB_RETRY_COUNT, (Integer)job.getProperty(EventUtil.PROPERTY_JOB_RETRY_COUNT));
+                            eventNode.save();
+                            this.indexJob(eventNode, JobIndex.State.QUEUED);
+                        } catch (RepositoryException re) {
+                            // if an exception occurs, we just log
+                            this.logger.error("Exception during job updating job rescheduling information.", re);
                         }
-                        synchronized ( jobQueue.getLock()) {
-                            jobQueue.notifyFinish(null);
+                        final EventInfo info = new EventInfo();
+                        try {
+                            info.event = job;
+                            info.nodePath = eventNode.getPath();
+                        } catch (RepositoryException e) {
+                            // this should never happen
+                            this.ignoreException(e);
                         }
+                        // the job is put back into the main queue or into its own job queue
+                        // after the retry delay, an ordered job queue waits for this job
+                        putback = info;
                     }
+                } catch (RepositoryException re) {
+                    this.logger.error("Unable to create new session.", re);
+                    return false;
                 }
-            } catch (RepositoryException re) {
-                this.logger.error("Unable to create new session.", re);
-                return false;
             }
-        }
-        if ( putback != null ) {
-            final EventInfo info = putback;
-            final long delay = (Long)job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY);
-            final Date fireDate = new Date();
-            fireDate.setTime(System.currentTimeMillis() + delay);
-
-            final Runnable t = new Runnable() {
-                public void run() {
-                    try {
-                        queue.put(info);
-                    } catch (InterruptedException e) {
-                        // this should never happen
-                        ignoreException(e);
-                    }
+        } finally {
+            // if this is an own job queue, it can continue with the next job
+            if ( jobQueue != null ) {
+                final boolean dispatch = (putback != null ? jobQueue.retryLater() : jobQueue.finished());
+                if ( dispatch ) {
+                    this.dispatch(jobQueue);
                 }
-            };
-            try {
-                this.scheduler.fireJobAt(null, t, null, fireDate);
-            } catch (Exception e) {
-                // we ignore the exception and just put back the job in the queue
-                ignoreException(e);
-                t.run();
             }
         }
+        if ( putback != null ) {
+            this.putBack(putback, jobQueue, OsgiUtil.toLong(job.getProperty(EventUtil.PROPERTY_JOB_RETRY_DELAY), 0));
+        }
         if ( !shouldReschedule ) {
             return true;
         }
@@ -1296,6 +1369,7 @@ public class JobEventHandler
 
     /**
      * Search for job nodes
+     * This is only used until the job index has been loaded.
      * @param topic The job topic
      * @param filterProps optional filter props
      * @param locked only active jobs?
@@ -1420,6 +1494,9 @@ public class JobEventHandler
      * @see org.apache.sling.event.JobStatusProvider#getCurrentJobs(java.lang.String, java.util.Map...)
      */
     public Collection<Event> getCurrentJobs(String topic, Map<String, Object>... filterProps) {
+        if ( this.jobIndex.isLoaded() ) {
+            return this.jobIndex.getJobs(topic, JobIndex.State.ACTIVE, filterProps);
+        }
         return this.queryJobs(topic, true, filterProps);
     }
 
@@ -1427,6 +1504,9 @@ public class JobEventHandler
      * @see org.apache.sling.event.JobStatusProvider#getScheduledJobs(java.lang.String, java.util.Map...)
      */
     public Collection<Event> getScheduledJobs(String topic, Map<String, Object>... filterProps) {
+        if ( this.jobIndex.isLoaded() ) {
+            return this.jobIndex.getJobs(topic, JobIndex.State.QUEUED, filterProps);
+        }
         return this.queryJobs(topic, false, filterProps);
     }
 
@@ -1435,6 +1515,9 @@ public class JobEventHandler
      * @see org.apache.sling.event.JobStatusProvider#getAllJobs(java.lang.String, java.util.Map...)
      */
     public Collection<Event> getAllJobs(String topic, Map<String, Object>... filterProps) {
+        if ( this.jobIndex.isLoaded() ) {
+            return this.jobIndex.getJobs(topic, null, filterProps);
+        }
         return this.queryJobs(topic, null, filterProps);
     }
 
@@ -1466,6 +1549,7 @@ public class JobEventHandler
                         item.remove();
                         parentNode.save();
                     }
+                    this.jobIndex.removeTree(jobId);
                 } catch (RepositoryException e) {
                     this.logger.error("Error during cancelling job at " + jobId, e);
                 }
@@ -1479,23 +1563,41 @@ public class JobEventHandler
      */
     public void wakeUpJobQueue(String jobQueueName) {
         if ( jobQueueName != null ) {
-            synchronized ( this.jobQueues ) {
-                final JobBlockingQueue queue = this.jobQueues.get(jobQueueName);
-                if ( queue != null && queue.isSleeping() ) {
-                    final String schedulerJobName = queue.getSchedulerJobName();
-                    final Thread thread = queue.getSleepingThread();
-                    if ( schedulerJobName != null ) {
-                        this.scheduler.removeJob(schedulerJobName);
-                    }
-                    if ( thread != null ) {
-                        thread.interrupt();
-                    }
+            // retry all jobs of the queue now
+            for(final DelayedJob job : this.delayedJobs.toArray(new DelayedJob[0])) {
+                if ( job.jobQueue != null && jobQueueName.equals(job.jobQueue.getName())
+                     && this.delayedJobs.remove(job) ) {
+                    this.retry(job.info, job.jobQueue);
                 }
             }
         }
     }
 
 
+    /**
+     * A job which is put back into its queue once the delay is over.
+     */
+    private static final class DelayedJob implements Delayed {
+        public final EventInfo info;
+        public final JobQueue jobQueue;
+        public final long fireTime;
+
+        public DelayedJob(final EventInfo info, final JobQueue jobQueue, final long delay) {
+            this.info = info;
+            this.jobQueue = jobQueue;
+            this.fireTime = System.currentTimeMillis() + delay;
+        }
+
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(this.fireTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(final Delayed o) {
+            final long other = ((DelayedJob)o).fireTime;
+            return (this.fireTime < other ? -1 : (this.fireTime == other ? 0 : 1));
+        }
+    }
+
     private static final class StartedJobInfo {
         public final Event event;
         public final String nodePath;
@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.sling.event.EventUtil;
+import org.osgi.service.event.Event;
+
+/**
+ * The job index keeps track of all unfinished jobs (queued and active)
+ * in memory, so that status queries and duplicate checks do not have to
+ * query the repository.
+ * Jobs are indexed by the path of their node, which is built from the job
+ * topic and the job id, and by the job topic. The index keeps the order
+ * in which the jobs have been added.
+ */
+public final class JobIndex {
+
+    /** The state of a job. */
+    public enum State {
+        QUEUED,
+        ACTIVE
+    }
+
+    /** All jobs by node path. */
+    private final Map<String, JobEntry> jobs = new LinkedHashMap<String, JobEntry>();
+
+    /** All jobs sorted by node path to find the jobs below a path. */
+    private final TreeMap<String, JobEntry> sortedJobs = new TreeMap<String, JobEntry>();
+
+    /** All jobs by job topic and node path. */
+    private final Map<String, Map<String, JobEntry>> topics = new HashMap<String, Map<String, JobEntry>>();
+
+    /** Has the index been loaded from the repository? */
+    private volatile boolean loaded;
+
+    /**
+     * Add a job to the index or update the state of an indexed job.
+     * @param nodePath The path of the job node.
+     * @param job The job as read from the repository.
+     * @param state The new state.
+     */
+    public synchronized void put(final String nodePath, final Event job, final State state) {
+        final JobEntry entry = this.jobs.get(nodePath);
+        if ( entry != null ) {
+            entry.job = job;
+            entry.state = state;
+        } else {
+            final JobEntry newEntry = new JobEntry(job, state);
+            this.jobs.put(nodePath, newEntry);
+            this.sortedJobs.put(nodePath, newEntry);
+            Map<String, JobEntry> topicJobs = this.topics.get(newEntry.topic);
+            if ( topicJobs == null ) {
+                topicJobs = new LinkedHashMap<String, JobEntry>();
+                this.topics.put(newEntry.topic, topicJobs);
+            }
+            topicJobs.put(nodePath, newEntry);
+        }
+    }
+
+    /**
+     * Update the state of an indexed job.
+     * @param nodePath The path of the job node.
+     * @param state The new state.
+     * @return <code>true</code> if the job is indexed.
+     */
+    public synchronized boolean setState(final String nodePath, final State state) {
+        final JobEntry entry = this.jobs.get(nodePath);
+        if ( entry != null ) {
+            entry.state = state;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the state of a job.
+     * @param nodePath The path of the job node.
+     * @return The state or <code>null</code> if the job is not indexed.
+     */
+    public synchronized State getState(final String nodePath) {
+        final JobEntry entry = this.jobs.get(nodePath);
+        if ( entry != null ) {
+            return entry.state;
+        }
+        return null;
+    }
+
+    /**
+     * Remove a job from the index, for example if it has been finished
+     * or cancelled.
+     * @param nodePath The path of the job node.
+     */
+    public synchronized void remove(final String nodePath) {
+        final JobEntry entry = this.jobs.remove(nodePath);
+        if ( entry != null ) {
+            this.sortedJobs.remove(nodePath);
+            final Map<String, JobEntry> topicJobs = this.topics.get(entry.topic);
+            topicJobs.remove(nodePath);
+            if ( topicJobs.isEmpty() ) {
+                this.topics.remove(entry.topic);
+            }
+        }
+    }
+
+    /**
+     * Remove all jobs stored below the path, for example if a whole
+     * topic folder has been removed.
+     * @param path The path of the removed node.
+     */
+    public synchronized void removeTree(final String path) {
+        // most removals are single job nodes
+        this.remove(path);
+
+        final String prefix = path + '/';
+        final List<String> removedPaths = new ArrayList<String>(
+            this.sortedJobs.subMap(prefix, prefix + '\uffff').keySet());
+        for(final String nodePath : removedPaths) {
+            this.remove(nodePath);
+        }
+    }
+
+    /**
+     * Return the jobs in the order they have been added.
+     * @param topic The job topic or <code>null</code> for all topics.
+     * @param state The state of the jobs or <code>null</code> for all jobs.
+     * @param filterProps optional filter props, a job matches if it has all
+     *                    properties of at least one of the maps.
+     * @return A new collection with the matching jobs.
+     */
+    public synchronized Collection<Event> getJobs(final String topic,
+                                                  final State state,
+                                                  final Map<String, Object>... filterProps) {
+        final Map<String, JobEntry> candidates;
+        if ( topic != null ) {
+            candidates = this.topics.get(topic);
+        } else {
+            candidates = this.jobs;
+        }
+        final List<Event> result = new ArrayList<Event>();
+        if ( candidates != null ) {
+            for(final JobEntry entry : candidates.values()) {
+                if ( (state == null || entry.state == state) && matches(entry.job, filterProps) ) {
+                    result.add(entry.job);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of indexed jobs with the given state.
+     * @param state The state or <code>null</code> for all jobs.
+     */
+    public synchronized int size(final State state) {
+        if ( state == null ) {
+            return this.jobs.size();
+        }
+        int count = 0;
+        for(final JobEntry entry : this.jobs.values()) {
+            if ( entry.state == state ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Mark the index as loaded from the repository. Until then, the index
+     * only contains the jobs which have been added since startup.
+     */
+    public void setLoaded(final boolean flag) {
+        this.loaded = flag;
+    }
+
+    /**
+     * Has the index been loaded from the repository?
+     */
+    public boolean isLoaded() {
+        return this.loaded;
+    }
+
+    /**
+     * Remove all jobs from the index.
+     */
+    public synchronized void clear() {
+        this.jobs.clear();
+        this.sortedJobs.clear();
+        this.topics.clear();
+        this.loaded = false;
+    }
+
+    /**
+     * Check if the job matches one of the filter maps. The values are
+     * compared by equality or by their string representation as a job
+     * property might have been converted when it was read from the repository.
+     */
+    private static boolean matches(final Event job, final Map<String, Object>... filterProps) {
+        if ( filterProps == null || filterProps.length == 0 ) {
+            return true;
+        }
+        for(final Map<String, Object> template : filterProps) {
+            boolean matches = true;
+            final Iterator<Map.Entry<String, Object>> i = template.entrySet().iterator();
+            while ( matches && i.hasNext() ) {
+                final Map.Entry<String, Object> current = i.next();
+                final Object value = job.getProperty(current.getKey());
+                matches = value != null
+                    && (value.equals(current.getValue()) || value.toString().equals(String.valueOf(current.getValue())));
+            }
+            if ( matches ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class JobEntry {
+        public final String topic;
+        public Event job;
+        public State state;
+
+        public JobEntry(final Event job, final State state) {
+            final String jobTopic = (String)job.getProperty(EventUtil.PROPERTY_JOB_TOPIC);
+            this.topic = (jobTopic != null ? jobTopic : job.getTopic());
+            this.job = job;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl;
+
+import java.util.LinkedList;
+
+import org.apache.sling.event.impl.AbstractRepositoryEventHandler.EventInfo;
+
+/**
+ * The job queue holds the jobs of a named queue and keeps track of the
+ * number of jobs which are currently processed from this queue.
+ * The queue does not own a thread: jobs are taken from the queue by a
+ * dispatch task running in the shared thread pool as long as less than
+ * the maximum number of parallel jobs are running. Once no more jobs can
+ * be started, the dispatch task ends and a new one is started when a job
+ * is added or has finished.
+ * An ordered queue processes one job at a time and retries a failed
+ * job before any other job of the queue.
+ */
+public final class JobQueue {
+
+    /** The name of the queue. */
+    private final String name;
+
+    /** The maximum number of parallel jobs. */
+    private final int maxParallel;
+
+    /** Is this an ordered queue? */
+    private final boolean ordered;
+
+    /** The jobs waiting to be processed. */
+    private final LinkedList<EventInfo> jobs = new LinkedList<EventInfo>();
+
+    /** The number of jobs currently processed. */
+    private int running;
+
+    /** The number of jobs waiting for a retry. */
+    private int delayed;
+
+    /** Is a dispatch task scheduled or running? */
+    private boolean dispatching;
+
+    private boolean markForCleanUp;
+
+    public JobQueue(final String name, final int maxParallel, final boolean ordered) {
+        this.name = name;
+        this.ordered = ordered;
+        this.maxParallel = (ordered ? 1 : Math.max(1, maxParallel));
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getMaxParallel() {
+        return this.maxParallel;
+    }
+
+    public boolean isOrdered() {
+        return this.ordered;
+    }
+
+    /**
+     * Add a job to the end of the queue.
+     * @return <code>true</code> if a dispatch task has to be started.
+     */
+    public synchronized boolean add(final EventInfo info) {
+        this.jobs.add(info);
+        this.markForCleanUp = false;
+        return this.startDispatching();
+    }
+
+    /**
+     * Take the next job which can be started. If no job can be started,
+     * either because the queue is empty or because the maximum number of
+     * parallel jobs is running, the dispatch task has to end.
+     * @return The next job or <code>null</code> if the dispatch task has to end.
+     */
+    public synchronized EventInfo take() {
+        if ( this.running < this.maxParallel && !this.jobs.isEmpty() ) {
+            this.running++;
+            return this.jobs.removeFirst();
+        }
+        this.dispatching = false;
+        return null;
+    }
+
+    /**
+     * A job taken from this queue has finished or could not be started.
+     * @return <code>true</code> if a dispatch task has to be started.
+     */
+    public synchronized boolean finished() {
+        this.running--;
+        return this.startDispatching();
+    }
+
+    /**
+     * A job taken from this queue will be retried later.
+     * For an ordered queue the job keeps its slot, so that no other job
+     * is started until the job has been retried.
+     * @return <code>true</code> if a dispatch task has to be started.
+     */
+    public synchronized boolean retryLater() {
+        this.delayed++;
+        if ( this.ordered ) {
+            return false;
+        }
+        this.running--;
+        return this.startDispatching();
+    }
+
+    /**
+     * Put a job back into the queue after its retry delay.
+     * For an ordered queue the job is put at the head of the queue.
+     * @return <code>true</code> if a dispatch task has to be started.
+     */
+    public synchronized boolean retry(final EventInfo info) {
+        this.delayed--;
+        this.markForCleanUp = false;
+        if ( this.ordered ) {
+            this.jobs.addFirst(info);
+            this.running--;
+        } else {
+            this.jobs.add(info);
+        }
+        return this.startDispatching();
+    }
+
+    private boolean startDispatching() {
+        if ( !this.dispatching && this.running < this.maxParallel && !this.jobs.isEmpty() ) {
+            this.dispatching = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Is this queue idle? A queue is idle if it has no jobs, no
+     * running jobs and no jobs waiting for a retry.
+     */
+    public synchronized boolean isIdle() {
+        return this.jobs.isEmpty() && this.running == 0 && this.delayed == 0 && !this.dispatching;
+    }
+
+    public synchronized void markForCleanUp() {
+        this.markForCleanUp = true;
+    }
+
+    public synchronized boolean isMarkedForCleanUp() {
+        return this.markForCleanUp;
+    }
+
+    public synchronized int size() {
+        return this.jobs.size();
+    }
+
+    public synchronized int getRunning() {
+        return this.running;
+    }
+}
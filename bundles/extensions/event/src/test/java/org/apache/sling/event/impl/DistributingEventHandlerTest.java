@@ -19,11 +19,14 @@
 package org.apache.sling.event.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -56,12 +59,12 @@ public class DistributingEventHandlerTest extends AbstractRepositoryEventHandler
         final Dictionary<String, Object> props = new Hashtable<String, Object>();
         props.put("a property", "some value");
         final Event e = new Event(topic, props);
-        this.handler.writeEvent(e, null);
+        final String path = this.handler.writeEvent(e, null).getPath();
 
-        final Node rootNode = (Node) session.getItem(this.handler.repositoryPath);
-        final NodeIterator iter = rootNode.getNodes();
-        iter.hasNext();
-        final Node eventNode = iter.nextNode();
+        // the event is stored in the bucket of the current hour
+        assertTrue(path.startsWith(this.handler.repositoryPath + "/"));
+        assertTrue(path.substring(this.handler.repositoryPath.length() + 1).matches("\\d{4}/\\d{2}/\\d{2}/\\d{2}/[^/]+"));
+        final Node eventNode = (Node) session.getItem(path);
         assertEquals(topic, eventNode.getProperty(EventHelper.NODE_PROPERTY_TOPIC).getString());
         assertEquals(handler.applicationId, eventNode.getProperty(EventHelper.NODE_PROPERTY_APPLICATION).getString());
         assertTrue(Calendar.getInstance().compareTo(eventNode.getProperty(EventHelper.NODE_PROPERTY_CREATED).getDate()) >= 0);
@@ -75,15 +78,78 @@ public class DistributingEventHandlerTest extends AbstractRepositoryEventHandler
         props.put("a property", "some value");
         // now we check if the application id is handled correctly
         props.put(EventUtil.PROPERTY_APPLICATION, "foo");
-        this.handler.writeEvent(new Event(topic, props), null);
-        final Node rootNode = (Node) session.getItem(this.handler.repositoryPath);
-        final NodeIterator iter = rootNode.getNodes();
-        iter.hasNext();
-        final Node eventNode = iter.nextNode();
+        final String path = this.handler.writeEvent(new Event(topic, props), null).getPath();
+        final Node eventNode = (Node) session.getItem(path);
         assertEquals(topic, eventNode.getProperty(EventHelper.NODE_PROPERTY_TOPIC).getString());
         assertEquals(handler.applicationId, eventNode.getProperty(EventHelper.NODE_PROPERTY_APPLICATION).getString());
         assertTrue(Calendar.getInstance().compareTo(eventNode.getProperty(EventHelper.NODE_PROPERTY_CREATED).getDate()) >= 0);
         // as a starting point we just check if the properties property exists
         assertTrue(eventNode.hasProperty(ISO9075.encode("a property")));
     }
+
+    @org.junit.Test public void testWriteEvents() throws Exception {
+        final String topic = "write/events/test";
+        final List<Event> events = new ArrayList<Event>();
+        for(int i = 0; i < 10; i++) {
+            final Dictionary<String, Object> props = new Hashtable<String, Object>();
+            props.put("index", String.valueOf(i));
+            events.add(new Event(topic, props));
+        }
+        final long written = this.handler.getWrittenEventCount();
+        final long batches = this.handler.getWriteBatchCount();
+        this.handler.writeEvents(events);
+
+        // all events are written with a single save
+        assertEquals(written + events.size(), this.handler.getWrittenEventCount());
+        assertEquals(batches + 1, this.handler.getWriteBatchCount());
+
+        final Node rootNode = (Node) session.getItem(this.handler.repositoryPath);
+        rootNode.refresh(false);
+        final List<Node> eventNodes = new ArrayList<Node>();
+        this.collectEvents(rootNode, eventNodes);
+        for(final Node eventNode : eventNodes) {
+            assertEquals(topic, eventNode.getProperty(EventHelper.NODE_PROPERTY_TOPIC).getString());
+        }
+        assertEquals(events.size(), eventNodes.size());
+    }
+
+    @org.junit.Test public void testCleanup() throws Exception {
+        final String topic = "cleanup/test";
+        final Node current = this.handler.writeEvent(new Event(topic, (Dictionary<String, Object>)null), null);
+        // an event in an old time bucket
+        this.handler.writeEvent(new Event(topic, (Dictionary<String, Object>)null), "2000/01/01/00/old");
+        // an event stored directly below the repository path
+        final Node legacy = this.handler.writeEvent(new Event(topic, (Dictionary<String, Object>)null), "legacy");
+        final Calendar created = Calendar.getInstance();
+        created.add(Calendar.DAY_OF_MONTH, -1);
+        legacy.setProperty(EventHelper.NODE_PROPERTY_CREATED, created);
+        legacy.save();
+
+        // save after every second removal
+        this.handler.cleanupBatchSize = 2;
+        final long saves = this.handler.getCleanupSaveCount();
+        ((DistributingEventHandler)this.handler).run();
+
+        // the old bucket with its four folders and the two old events are removed
+        assertEquals(6, this.handler.getLastCleanupRemovedCount());
+        assertEquals(saves + 3, this.handler.getCleanupSaveCount());
+
+        final Node rootNode = (Node) session.getItem(this.handler.repositoryPath);
+        rootNode.refresh(false);
+        assertFalse(rootNode.hasNode("2000"));
+        assertFalse(rootNode.hasNode("legacy"));
+        assertTrue(session.itemExists(current.getPath()));
+    }
+
+    private void collectEvents(final Node node, final List<Node> eventNodes) throws Exception {
+        final NodeIterator iter = node.getNodes();
+        while ( iter.hasNext() ) {
+            final Node child = iter.nextNode();
+            if ( child.isNodeType(EventHelper.EVENT_NODE_TYPE) ) {
+                eventNodes.add(child);
+            } else {
+                this.collectEvents(child, eventNodes);
+            }
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.sling.event.EventUtil;
+import org.junit.Test;
+import org.osgi.service.event.Event;
+
+public class JobIndexTest {
+
+    private static final String PATH = "/var/eventing/jobs/";
+
+    private Event createJob(final String topic, final String id, final String queueName) {
+        final Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(EventUtil.PROPERTY_JOB_TOPIC, topic);
+        props.put(EventUtil.PROPERTY_JOB_ID, id);
+        if ( queueName != null ) {
+            props.put(EventUtil.PROPERTY_JOB_QUEUE_NAME, queueName);
+        }
+        props.put(EventUtil.PROPERTY_JOB_RETRY_COUNT, 0);
+        return new Event(topic, props);
+    }
+
+    private String getPath(final Event job) {
+        return PATH + job.getTopic().replace('/', '.') + '/' + job.getProperty(EventUtil.PROPERTY_JOB_ID);
+    }
+
+    private JobIndex createIndex(final Event... jobs) {
+        final JobIndex index = new JobIndex();
+        for(final Event job : jobs) {
+            index.put(this.getPath(job), job, JobIndex.State.QUEUED);
+        }
+        return index;
+    }
+
+    @Test public void testStates() {
+        final Event a = this.createJob("job/a", "1", null);
+        final Event b = this.createJob("job/a", "2", null);
+        final Event c = this.createJob("job/c", "1", "queue");
+        final JobIndex index = this.createIndex(a, b, c);
+
+        assertEquals(3, index.size(null));
+        assertEquals(JobIndex.State.QUEUED, index.getState(this.getPath(a)));
+        assertTrue(index.setState(this.getPath(b), JobIndex.State.ACTIVE));
+        assertFalse(index.setState(PATH + "job.a/3", JobIndex.State.ACTIVE));
+        assertNull(index.getState(PATH + "job.a/3"));
+
+        assertEquals(2, index.size(JobIndex.State.QUEUED));
+        assertEquals(1, index.size(JobIndex.State.ACTIVE));
+        assertContains(index.getJobs(null, JobIndex.State.ACTIVE), b);
+        assertContains(index.getJobs(null, JobIndex.State.QUEUED), a, c);
+        assertContains(index.getJobs("job/a", null), a, b);
+        assertContains(index.getJobs("job/b", null));
+
+        // reschedule
+        index.put(this.getPath(b), b, JobIndex.State.QUEUED);
+        assertContains(index.getJobs("job/a", JobIndex.State.QUEUED), a, b);
+
+        index.remove(this.getPath(a));
+        assertNull(index.getState(this.getPath(a)));
+        assertContains(index.getJobs("job/a", null), b);
+        index.remove(this.getPath(b));
+        assertContains(index.getJobs("job/a", null));
+        assertEquals(1, index.size(null));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test public void testFilterProps() {
+        final Event a = this.createJob("job/a", "1", null);
+        final Event b = this.createJob("job/a", "2", "queue");
+        final Event c = this.createJob("job/c", "3", "queue");
+        final JobIndex index = this.createIndex(a, b, c);
+
+        final Map<String, Object> queue = new HashMap<String, Object>();
+        queue.put(EventUtil.PROPERTY_JOB_QUEUE_NAME, "queue");
+        assertContains(index.getJobs(null, null, queue), b, c);
+        assertContains(index.getJobs("job/a", null, queue), b);
+
+        final Map<String, Object> id = new HashMap<String, Object>();
+        id.put(EventUtil.PROPERTY_JOB_ID, "1");
+        assertContains(index.getJobs(null, null, queue, id), a, b, c);
+
+        // all properties of a map have to match
+        id.put(EventUtil.PROPERTY_JOB_QUEUE_NAME, "queue");
+        assertContains(index.getJobs(null, null, id));
+
+        // values are compared by their string representation as well
+        final Map<String, Object> retryCount = new HashMap<String, Object>();
+        retryCount.put(EventUtil.PROPERTY_JOB_RETRY_COUNT, "0");
+        assertContains(index.getJobs(null, null, retryCount), a, b, c);
+    }
+
+    @Test public void testRemoveTree() {
+        final Event a = this.createJob("job/a", "1", null);
+        final Event b = this.createJob("job/ab", "2", null);
+        final Event c = this.createJob("job/ab", "3", null);
+        final JobIndex index = this.createIndex(a, b, c);
+
+        index.removeTree(PATH + "job.a");
+        assertContains(index.getJobs(null, null), b, c);
+        index.removeTree(this.getPath(b));
+        assertContains(index.getJobs(null, null), c);
+        index.removeTree(PATH.substring(0, PATH.length() - 1));
+        assertEquals(0, index.size(null));
+    }
+
+    @Test public void testLoaded() {
+        final JobIndex index = this.createIndex(this.createJob("job/a", "1", null));
+        assertFalse(index.isLoaded());
+        index.setLoaded(true);
+        assertTrue(index.isLoaded());
+        index.clear();
+        assertFalse(index.isLoaded());
+        assertEquals(0, index.size(null));
+    }
+
+    private static void assertContains(final Collection<Event> jobs, final Event... expected) {
+        assertEquals(expected.length, jobs.size());
+        final Iterator<Event> i = jobs.iterator();
+        for(final Event job : expected) {
+            assertTrue(job == i.next());
+        }
+    }
+}
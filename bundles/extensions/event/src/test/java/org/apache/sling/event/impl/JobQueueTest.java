@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.sling.event.impl.AbstractRepositoryEventHandler.EventInfo;
+import org.junit.Test;
+
+public class JobQueueTest {
+
+    private EventInfo createInfo(final String nodePath) {
+        final EventInfo info = new EventInfo();
+        info.nodePath = nodePath;
+        return info;
+    }
+
+    @Test public void testParallelJobs() {
+        final JobQueue queue = new JobQueue("test", 2, false);
+        assertEquals(2, queue.getMaxParallel());
+        assertTrue(queue.isIdle());
+
+        // only the first add starts a dispatch task
+        assertTrue(queue.add(this.createInfo("1")));
+        assertFalse(queue.add(this.createInfo("2")));
+        assertFalse(queue.add(this.createInfo("3")));
+
+        assertEquals("1", queue.take().nodePath);
+        assertEquals("2", queue.take().nodePath);
+        // two jobs are running, so the dispatch task ends
+        assertNull(queue.take());
+        assertEquals(2, queue.getRunning());
+        assertEquals(1, queue.size());
+
+        // a finished job frees a slot for the next job
+        assertTrue(queue.finished());
+        assertEquals("3", queue.take().nodePath);
+        assertNull(queue.take());
+
+        assertFalse(queue.finished());
+        assertFalse(queue.finished());
+        assertTrue(queue.isIdle());
+    }
+
+    @Test public void testRetry() {
+        final JobQueue queue = new JobQueue("test", 2, false);
+        queue.add(this.createInfo("1"));
+        queue.add(this.createInfo("2"));
+        final EventInfo first = queue.take();
+        queue.take();
+        assertNull(queue.take());
+
+        // a job waiting for its retry frees its slot
+        assertFalse(queue.retryLater());
+        assertFalse(queue.isIdle());
+        assertTrue(queue.add(this.createInfo("3")));
+        assertEquals("3", queue.take().nodePath);
+        assertNull(queue.take());
+
+        // the retried job is put at the end of the queue
+        assertFalse(queue.retry(first));
+        assertTrue(queue.finished());
+        assertEquals("1", queue.take().nodePath);
+        assertNull(queue.take());
+    }
+
+    @Test public void testOrderedQueue() {
+        final JobQueue queue = new JobQueue("test", 5, true);
+        assertEquals(1, queue.getMaxParallel());
+        queue.add(this.createInfo("1"));
+        queue.add(this.createInfo("2"));
+        final EventInfo first = queue.take();
+        assertNull(queue.take());
+
+        // the failed job keeps its slot until it is retried
+        assertFalse(queue.retryLater());
+        assertFalse(queue.add(this.createInfo("3")));
+        assertEquals(2, queue.size());
+
+        // and it is retried before any other job
+        assertTrue(queue.retry(first));
+        assertEquals("1", queue.take().nodePath);
+        assertNull(queue.take());
+        assertTrue(queue.finished());
+        assertEquals("2", queue.take().nodePath);
+    }
+
+    @Test public void testCleanUp() {
+        final JobQueue queue = new JobQueue("test", 1, false);
+        queue.markForCleanUp();
+        assertTrue(queue.isMarkedForCleanUp());
+        queue.add(this.createInfo("1"));
+        assertFalse(queue.isMarkedForCleanUp());
+        assertFalse(queue.isIdle());
+    }
+}
@@ -104,6 +104,15 @@ public abstract class AbstractSlingRepository implements SlingRepository,
      */
     public static final String PROPERTY_MAX_IDLE_SESSIONS = "pool.maxIdle";
 
+    /**
+     * The name of the configuration parameter containing the number of
+     * seconds after which sessions idle in the pool are logged out (value is
+     * "pool.maxIdleTime"). Zero disables evicting idle sessions.
+     *
+     * @scr.property value="600" type="Integer"
+     */
+    public static final String PROPERTY_MAX_IDLE_TIME = "pool.maxIdleTime";
+
     public static final String DEFAULT_ANONYMOUS_USER = "anonymous";
 
     public static final String DEFAULT_ANONYMOUS_PASS = "anonymous";
@@ -323,6 +332,8 @@ public abstract class AbstractSlingRepository implements SlingRepository,
             PROPERTY_MAX_IDLE_SESSIONS);
         final int maxActiveSessionsWait = this.getIntProperty(properties,
             PROPERTY_MAX_ACTIVE_SESSIONS_WAIT);
+        final int maxIdleTime = this.getIntProperty(properties,
+            PROPERTY_MAX_IDLE_TIME);
         return new SessionPoolFactory() {
 
             public SessionPool createPool(final SessionPoolManager mgr,
@@ -332,6 +343,7 @@ public abstract class AbstractSlingRepository implements SlingRepository,
                 pool.setMaxActiveSessions(maxActiveSessions);
                 pool.setMaxActiveSessionsWait(maxActiveSessionsWait);
                 pool.setMaxIdleSessions(maxIdleSessions);
+                pool.setMaxIdleTime(maxIdleTime);
                 return pool;
             }
         };
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.base.internal;
+
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * The <code>Activator</code> registers the session pool Web Console plugin
+ * if the Web Console is available.
+ */
+public class Activator implements BundleActivator {
+
+    public void start(BundleContext context) {
+        try {
+            SessionPoolConsolePlugin.initPlugin(context);
+        } catch (Throwable t) {
+            // web console might not be available, don't care
+        }
+    }
+
+    public void stop(BundleContext context) {
+        try {
+            SessionPoolConsolePlugin.destroyPlugin();
+        } catch (Throwable t) {
+            // web console might not be available, don't care
+        }
+    }
+}
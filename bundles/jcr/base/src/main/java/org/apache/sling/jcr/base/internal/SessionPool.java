@@ -18,9 +18,16 @@
  */
 package org.apache.sling.jcr.base.internal;
 
-import java.util.IdentityHashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.jcr.Credentials;
 import javax.jcr.LoginException;
@@ -80,6 +87,24 @@ public class SessionPool {
      */
     public static final int DEFAULT_MAX_IDLE_SESSIONS = 10;
 
+    /**
+     * The default maximum time in seconds a session may stay idle in the pool
+     * before being evicted (value is "600").
+     *
+     * @see #setMaxIdleTime(int)
+     * @see #getMaxIdleTime()
+     */
+    public static final int DEFAULT_MAX_IDLE_TIME = 600;
+
+    /**
+     * The upper bounds in milliseconds of the buckets of the histogram of the
+     * times spent waiting for an active session slot. The last bucket of the
+     * histogram counts all waits longer than the last bound.
+     *
+     * @see #getWaitTimeHistogram()
+     */
+    public static final long[] WAIT_TIME_BUCKETS = { 1, 10, 100, 1000, 10000 };
+
     /** default log */
     private static final Logger log = LoggerFactory.getLogger(SessionPool.class);
 
@@ -93,15 +118,32 @@ public class SessionPool {
     private int[] passData;
 
     /**
-     * The session pool. Access to this object must be synchronized to prevent
-     * corruption of the data structures.
+     * The idle sessions of the pool in the order in which they have been
+     * released. Sessions are taken from the tail of the list, such that the
+     * most recently released session is reused first and surplus sessions
+     * collect at the head of the list, from where they are evicted once they
+     * have been idle for too long. Access to the list is synchronized on the
+     * list itself.
+     */
+    private final LinkedList<IdleSession> idleSessions;
+
+    /**
+     * The number of entries in the {@link #idleSessions} list, which may be
+     * checked and reserved without locking the list.
      */
-    private final LinkedList<Session> idleSessions;
+    private final AtomicInteger numIdleSessions;
 
     /**
      * Active sessions issued by this session pool.
      */
-    protected final IdentityHashMap<PooledSession, Session> activeSessions;
+    protected final Map<PooledSession, Session> activeSessions;
+
+    /**
+     * The fair semaphore handing out the permits for active sessions. Each
+     * active session holds one permit, which is returned when the session is
+     * released to the pool.
+     */
+    private final ActiveSessionLimit activeSessionLimit;
 
     /**
      * The maximum number of active sessions for this mapping.
@@ -111,9 +153,6 @@ public class SessionPool {
     /** The maximum number of idle sessions stored in the idleSessions */
     private int maxIdleSessions;
 
-    /** The singal object used for maxActiveSession wait/notify */
-    private final Object activeSessionLock;
-
     /**
      * The number of milliseconds to wait for the number of currently active
      * sessions from this pool to drop below the configured number of maximum
@@ -125,32 +164,62 @@ public class SessionPool {
      * @see #setMaxActiveSessionsWait(long)
      * @see #checkActiveSessions()
      */
-    private long maxActiveWait;
+    private volatile long maxActiveWait;
+
+    /**
+     * The number of milliseconds after which an idle session is evicted from
+     * the pool by {@link #evictIdleSessions()} or zero to never evict idle
+     * sessions.
+     *
+     * @see #DEFAULT_MAX_IDLE_TIME
+     * @see #getMaxIdleTime()
+     * @see #setMaxIdleTime(int)
+     */
+    private volatile long maxIdleTime;
 
     /**
      * The counter for the number of sessions which could be served from the
      * pool.
      */
-    private int poolHitCounter;
+    private final AtomicInteger poolHitCounter;
 
     /**
      * The counter for the number of sessions which have to be acquired through
      * repository login (login or impersonation).
      */
-    private int poolMissCounter;
+    private final AtomicInteger poolMissCounter;
 
     /**
      * The counter for the number of sessions which cannot be returned to the
      * pool. See the {@link #getPoolDropCounter()} method for reasons why
      * sessions might be dropped.
      */
-    private int poolDropCounter;
+    private final AtomicInteger poolDropCounter;
+
+    /**
+     * The counter for the number of idle sessions logged out because they
+     * have been idle longer than the maximum idle time.
+     */
+    private final AtomicInteger poolEvictCounter;
+
+    /**
+     * The counter for the number of session acquisitions failing because no
+     * active session slot became available in time.
+     */
+    private final AtomicInteger timeoutCounter;
+
+    /**
+     * The histogram of the times spent waiting for an active session slot.
+     *
+     * @see #WAIT_TIME_BUCKETS
+     */
+    private final AtomicLongArray waitTimeHistogram;
 
     /**
      * Flag indicating whether this pool has already been disposed off. If this
      * is <code>true</code>, no sessions will be provided by this pool anymore.
      */
-    private boolean disposed;
+    private volatile boolean disposed;
 
     /**
      * Creates a new instance of this class presetting internal counters
@@ -161,14 +230,22 @@ public class SessionPool {
         this.poolManager = poolManager;
         this.userName = credentials.getUserID();
         this.passData = this.getPassData(credentials);
-        this.idleSessions = new LinkedList<Session>();
-        this.activeSessions = new IdentityHashMap<PooledSession, Session>();
-        this.activeSessionLock = new Object();
-        this.clearCounters();
+        this.idleSessions = new LinkedList<IdleSession>();
+        this.numIdleSessions = new AtomicInteger();
+        this.activeSessions = new ConcurrentHashMap<PooledSession, Session>();
+        this.activeSessionLimit = new ActiveSessionLimit(DEFAULT_MAX_ACTIVE_SESSIONS);
+        this.maxActiveSessions = DEFAULT_MAX_ACTIVE_SESSIONS;
+        this.poolHitCounter = new AtomicInteger();
+        this.poolMissCounter = new AtomicInteger();
+        this.poolDropCounter = new AtomicInteger();
+        this.poolEvictCounter = new AtomicInteger();
+        this.timeoutCounter = new AtomicInteger();
+        this.waitTimeHistogram = new AtomicLongArray(WAIT_TIME_BUCKETS.length + 1);
 
         // explicitly set the default value here, as the setConfig
         // will not set the default if the configured value is <= 0
         this.setMaxActiveSessionsWait(DEFAULT_MAX_ACTIVE_SESSIONS_WAIT);
+        this.setMaxIdleTime(DEFAULT_MAX_IDLE_TIME);
     }
 
     /**
@@ -180,17 +257,14 @@ public class SessionPool {
         // stop providing sessions and force logging out released sessions
         this.disposed = true;
 
-        synchronized (this.idleSessions) {
-            // logout all sessions in the pool
-            this.logoutSessions(this.idleSessions.iterator());
-            this.idleSessions.clear();
+        // logout all sessions in the pool
+        for (IdleSession idle = this.pollIdleSession(); idle != null; idle = this.pollIdleSession()) {
+            this.logoutSession(idle.session);
         }
 
-        synchronized (this.activeSessions) {
-            // logout all sessions in the pool
-            this.logoutSessions(this.activeSessions.values().iterator());
-            this.activeSessions.clear();
-        }
+        // logout all active sessions
+        this.logoutSessions(this.activeSessions.values().iterator());
+        this.activeSessions.clear();
     }
 
     /**
@@ -258,17 +332,27 @@ public class SessionPool {
 
         this.checkActiveSessions();
 
-        // only try to get from the pool, if the password matches
-        if (this.passDataMatch(credentials, this.passData)) {
-            Session session = this.getFromPool(workSpace);
-            if (session != null) {
-                return session;
+        boolean acquired = false;
+        try {
+            // only try to get from the pool, if the password matches
+            Session session = null;
+            if (this.passDataMatch(credentials, this.passData)) {
+                session = this.getFromPool(workSpace);
             }
-        }
 
-        // login new session (fails if password has changed but is not valid)
-        Session session = this.poolManager.getRepository().login(credentials, workSpace);
-        return this.createPooledSession(session);
+            if (session == null) {
+                // login new session (fails if password has changed but is not valid)
+                session = this.createPooledSession(this.poolManager.getRepository().login(
+                    credentials, workSpace));
+            }
+
+            acquired = true;
+            return session;
+        } finally {
+            if (!acquired) {
+                this.activeSessionLimit.release();
+            }
+        }
     }
 
     /**
@@ -324,13 +408,20 @@ public class SessionPool {
 
         this.checkActiveSessions();
 
-        Session session = this.getFromPool(baseSession.getWorkspace().getName());
-        if (session != null) {
+        boolean acquired = false;
+        try {
+            Session session = this.getFromPool(baseSession.getWorkspace().getName());
+            if (session == null) {
+                session = this.createPooledSession(baseSession.impersonate(credentials));
+            }
+
+            acquired = true;
             return session;
+        } finally {
+            if (!acquired) {
+                this.activeSessionLimit.release();
+            }
         }
-
-        session = baseSession.impersonate(credentials);
-        return this.createPooledSession(session);
     }
 
     //---------- JMX ----------------------------------------------------------
@@ -369,10 +460,11 @@ public class SessionPool {
      * @see #DEFAULT_MAX_ACTIVE_SESSIONS
      * @see #getMaxActiveSessions()
      */
-    public void setMaxActiveSessions(int maxActiveSessions) {
+    public synchronized void setMaxActiveSessions(int maxActiveSessions) {
         this.maxActiveSessions = (maxActiveSessions <= 0)
                 ? DEFAULT_MAX_ACTIVE_SESSIONS
                 : maxActiveSessions;
+        this.activeSessionLimit.setLimit(this.maxActiveSessions);
     }
 
     /**
@@ -442,9 +534,7 @@ public class SessionPool {
      * solely for the purposes of JMX support.
      */
     public int getNumActiveSessions() {
-        synchronized (this.activeSessions) {
-            return this.activeSessions.size();
-        }
+        return this.activeSessions.size();
     }
 
     /**
@@ -454,7 +544,52 @@ public class SessionPool {
      * solely for the purposes of JMX support.
      */
     public int getIdleSessions() {
-        return this.idleSessions.size();
+        return this.numIdleSessions.get();
+    }
+
+    /**
+     * Returns the maximum number of seconds a session may stay idle in the
+     * pool before being evicted. Zero means idle sessions are never evicted.
+     * <p>
+     * This method is not part of the public API of this class and is present
+     * solely for the purposes of JMX support.
+     *
+     * @see #DEFAULT_MAX_IDLE_TIME
+     * @see #setMaxIdleTime(int)
+     */
+    public int getMaxIdleTime() {
+        return (int) (this.maxIdleTime / 1000L);
+    }
+
+    /**
+     * Sets the maximum number of seconds a session may stay idle in the pool
+     * before being evicted.
+     * <p>
+     * This method is not part of the public API of this class and is present
+     * solely for the purposes of JMX support.
+     *
+     * @param maxIdleTime The number of seconds. If less than zero, the default
+     *          value of 600 is assumed. If zero, idle sessions are never
+     *          evicted.
+     *
+     * @see #DEFAULT_MAX_IDLE_TIME
+     * @see #getMaxIdleTime()
+     */
+    public void setMaxIdleTime(int maxIdleTime) {
+        this.maxIdleTime = 1000L * ((maxIdleTime < 0)
+                ? DEFAULT_MAX_IDLE_TIME
+                : maxIdleTime);
+    }
+
+    /**
+     * Returns the number of threads currently waiting for an active session
+     * slot to become available.
+     * <p>
+     * This method is not part of the public API of this class and is present
+     * solely for the purposes of JMX support.
+     */
+    public int getNumWaitingThreads() {
+        return this.activeSessionLimit.getQueueLength();
     }
 
     /**
@@ -464,7 +599,7 @@ public class SessionPool {
      * solely for the purposes of JMX support.
      */
     public int getPoolHitCounter() {
-        return this.poolHitCounter;
+        return this.poolHitCounter.get();
     }
 
     /**
@@ -474,7 +609,49 @@ public class SessionPool {
      * solely for the purposes of JMX support.
      */
     public int getPoolMissCounter() {
-        return this.poolMissCounter;
+        return this.poolMissCounter.get();
+    }
+
+    /**
+     * Returns the number of idle sessions logged out because they have been
+     * idle in the pool longer than the maximum idle time.
+     * <p>
+     * This method is not part of the public API of this class and is present
+     * solely for the purposes of JMX support.
+     */
+    public int getPoolEvictCounter() {
+        return this.poolEvictCounter.get();
+    }
+
+    /**
+     * Returns the number of session acquisitions which failed because the
+     * maximum number of active sessions has been reached and no session has
+     * been released while waiting.
+     * <p>
+     * This method is not part of the public API of this class and is present
+     * solely for the purposes of JMX support.
+     */
+    public int getTimeoutCounter() {
+        return this.timeoutCounter.get();
+    }
+
+    /**
+     * Returns a copy of the histogram of the times spent waiting for an active
+     * session slot. Entry <i>i</i> counts the waits shorter than
+     * <code>WAIT_TIME_BUCKETS[i]</code> milliseconds (and not shorter than the
+     * previous bound), the last entry counts all longer waits.
+     * <p>
+     * This method is not part of the public API of this class and is present
+     * solely for the purposes of JMX support.
+     *
+     * @see #WAIT_TIME_BUCKETS
+     */
+    public long[] getWaitTimeHistogram() {
+        long[] histogram = new long[this.waitTimeHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = this.waitTimeHistogram.get(i);
+        }
+        return histogram;
     }
 
     /**
@@ -492,7 +669,7 @@ public class SessionPool {
      * solely for the purposes of JMX support.
      */
     public int getPoolDropCounter() {
-        return this.poolDropCounter;
+        return this.poolDropCounter.get();
     }
 
     /**
@@ -502,9 +679,53 @@ public class SessionPool {
      * solely for the purposes of JMX support.
      */
     public void clearCounters() {
-        this.poolHitCounter = 0;
-        this.poolMissCounter = 0;
-        this.poolDropCounter = 0;
+        this.poolHitCounter.set(0);
+        this.poolMissCounter.set(0);
+        this.poolDropCounter.set(0);
+        this.poolEvictCounter.set(0);
+        this.timeoutCounter.set(0);
+        for (int i = 0; i < this.waitTimeHistogram.length(); i++) {
+            this.waitTimeHistogram.set(i, 0);
+        }
+    }
+
+    /**
+     * Logs out all sessions which have been idle in the pool for longer than
+     * the maximum idle time. This method is called periodically by the
+     * {@link SessionPoolManager}.
+     *
+     * @return The number of sessions evicted from the pool
+     */
+    int evictIdleSessions() {
+        long maxIdleTime = this.maxIdleTime;
+        if (maxIdleTime <= 0) {
+            return 0;
+        }
+
+        // sessions are appended to the list as they are released and taken
+        // from its tail, so the longest idle sessions are at the head
+        long threshold = System.currentTimeMillis() - maxIdleTime;
+        List<IdleSession> expired = new ArrayList<IdleSession>();
+        synchronized (this.idleSessions) {
+            while (!this.idleSessions.isEmpty()
+                    && this.idleSessions.getFirst().idleSince <= threshold) {
+                expired.add(this.idleSessions.removeFirst());
+                this.numIdleSessions.decrementAndGet();
+            }
+        }
+
+        // logout outside of the lock not to block acquiring and releasing
+        for (IdleSession idle : expired) {
+            log.debug("evictIdleSessions: Logging out session {}, idle for {}ms",
+                this.getUserName(), new Long(System.currentTimeMillis() - idle.idleSince));
+            this.logoutSession(idle.session);
+        }
+
+        int evicted = expired.size();
+        if (evicted > 0) {
+            this.poolEvictCounter.addAndGet(evicted);
+        }
+        return evicted;
     }
 
     //---------- Support for PooledSession
@@ -514,8 +735,9 @@ public class SessionPool {
      * to the pool or logs the session out if it is not live any more or the
      * maximum number of idle sessions in this pool has been reached.
      * <p>
-     * This method also notifies any threads waiting for the number active
-     * sessions to drop below the maximum number of sessions.
+     * This method also returns the active session slot of the session, such
+     * that the next thread waiting for the number of active sessions to drop
+     * below the maximum number of sessions may continue.
      * <p>
      * This method is called by the {@link PooledSession#logout()} method to
      * release the session.
@@ -523,32 +745,35 @@ public class SessionPool {
      * @param pooledSession The {@link PooledSession} to release.
      */
     void release(PooledSession pooledSession) {
+        // unwrap the repository session
+        Session session = pooledSession.getSession();
+
         // remove the pooled session. If it is not in the activeSessions
-        // map, it has been removed by one of the acquireSession methods
-        // due to changed passwords. In this case, the delegate session
-        // is not idled but immediately logged out
-        boolean forcedLogout;
-        synchronized (this.activeSessions) {
-            forcedLogout = this.activeSessions.remove(pooledSession) == null;
+        // map, it has already been released or it has been logged out
+        // when the pool has been disposed off. In this case, the delegate
+        // session must neither be idled again nor be logged out, as it
+        // may already be in use again, and no active session slot is returned
+        if (this.activeSessions.remove(pooledSession) == null) {
+            log.debug("Ignoring release of session {}; not active in the pool",
+                session.getUserID());
+            return;
         }
 
-        synchronized (this.activeSessionLock) {
-            this.activeSessionLock.notifyAll();
+        try {
+            this.idle(session);
+        } finally {
+            this.activeSessionLimit.release();
         }
+    }
 
-        // unwrap the repository session
-        Session session = pooledSession.getSession();
-
+    /**
+     * Cleans up the released session and adds it to the idle sessions or
+     * logs it out if it cannot be reused.
+     */
+    private void idle(Session session) {
         // cache the session owner for messages and more
         String userId = session.getUserID();
 
-        // if the session is to be logged out forcibly
-        if (forcedLogout) {
-            log.debug("Logging out session {}; password has changed", userId);
-            session.logout();
-            return;
-        }
-
         // if the pool has been disposed off, the session will be logged out
         if (this.isDisposed()) {
             log.debug("Logging out session {}; pool has been disposed off",
@@ -559,10 +784,10 @@ public class SessionPool {
 
         // if the pool is full or the session is already dead, logout and return
         // this results in the session not being added to the pool
-        if (this.idleSessions.size() >= this.getMaxIdleSessions() || !session.isLive()) {
+        if (this.getIdleSessions() >= this.getMaxIdleSessions() || !session.isLive()) {
             log.debug("Logging out session {}; pool is full or session is not alive",
                 userId);
-            this.poolDropCounter++;
+            this.poolDropCounter.incrementAndGet();
             session.logout();
             return;
         }
@@ -618,7 +843,7 @@ public class SessionPool {
                 } else {
                     log.info("Cannot cleanup lockes of session {}, logging out", userId);
                 }
-                this.poolDropCounter++;
+                this.poolDropCounter.incrementAndGet();
                 session.logout();
                 return;
             }
@@ -642,7 +867,7 @@ public class SessionPool {
             } catch (RepositoryException re) {
                 log.info("Cannot check or unregister event listeners of session " +
                     "{}, logging out", userId);
-                this.poolDropCounter++;
+                this.poolDropCounter.incrementAndGet();
                 session.logout();
                 return;
             }
@@ -658,19 +883,26 @@ public class SessionPool {
         } catch (RepositoryException re) {
             log.info("Cannot check or drop pending changes of session " +
                 "{}, logging out", userId);
-            this.poolDropCounter++;
+            this.poolDropCounter.incrementAndGet();
             session.logout();
             return;
         }
 
-        // now the session is "clean" and may be added to the pool
-        log.debug("Returning session {} to the pool, now with {} entries",
-            userId, new Integer(this.idleSessions.size()));
+        // now the session is "clean" and may be added to the pool unless
+        // other sessions have filled the pool in the meantime
+        int numIdle = this.numIdleSessions.incrementAndGet();
+        if (numIdle > this.getMaxIdleSessions()) {
+            this.numIdleSessions.decrementAndGet();
+            log.debug("Logging out session {}; pool is full", userId);
+            this.poolDropCounter.incrementAndGet();
+            session.logout();
+            return;
+        }
 
-        // add to the pool and notify waiting session acquiry
-        //    ==> checkActiveSessions()
+        log.debug("Returning session {} to the pool, now with {} entries",
+            userId, new Integer(numIdle));
         synchronized (this.idleSessions) {
-            this.idleSessions.add(session);
+            this.idleSessions.addLast(new IdleSession(session));
         }
     }
 
@@ -711,9 +943,7 @@ public class SessionPool {
         }
 
         // keep the pooled session
-        synchronized (this.activeSessions) {
-            this.activeSessions.put(pooledSession, delegatee);
-        }
+        this.activeSessions.put(pooledSession, delegatee);
 
         return pooledSession;
     }
@@ -725,10 +955,14 @@ public class SessionPool {
      * method silently returns.
      * <p>
      * If the maximum number of active sessions has been reached, this method
-     * waits for at most 10 seconds for a session to be released. If after that
-     * time or after a notification or an interrupt the number of sessions is
-     * not below the maximum number of sessions, a
-     * <code>RepositoryException</code> is thrown.
+     * waits for at most {@link #getMaxActiveSessionsWait()} seconds for a
+     * session to be released. Waiting threads are served in the order of their
+     * arrival. If after that time or after an interrupt no session has been
+     * released, a <code>TooManySessionsException</code> is thrown.
+     * <p>
+     * If this method returns normally, the calling thread holds an active
+     * session slot, which must be returned by the {@link #release(PooledSession)}
+     * method or if no session can be provided.
      *
      * @throws TooManySessionsException If the maximum number of active
      *             sessions has been reached and no session was released while
@@ -741,28 +975,40 @@ public class SessionPool {
             throw new IllegalStateException("Pool has already been disposed off");
         }
 
-        // check whether maxActiveSession is exhausted
-        int maxActiveSessions = this.getMaxActiveSessions();
-        if (this.getNumActiveSessions() < maxActiveSessions) {
-            return;
-        }
-
-        // sessions exhausted, wait for sessions to be released
+        // acquire a slot, waiting for sessions to be released if exhausted
+        long start = System.currentTimeMillis();
+        boolean acquired;
         try {
-            synchronized (this.activeSessionLock) {
-                this.activeSessionLock.wait(this.maxActiveWait);
-            }
+            acquired = this.activeSessionLimit.tryAcquire(this.maxActiveWait,
+                TimeUnit.MILLISECONDS);
         } catch (InterruptedException ie) {
             log.debug("Interrupted while waiting for session to " +
                 "become available");
+            Thread.currentThread().interrupt();
+            acquired = false;
         }
+        this.recordWaitTime(System.currentTimeMillis() - start);
 
-        // if the number of active sessions has still not dropped, fail
-        if (this.getNumActiveSessions() >= maxActiveSessions) {
+        // if the number of active sessions has not dropped, fail
+        if (!acquired) {
+            this.timeoutCounter.incrementAndGet();
             throw new TooManySessionsException(this.getUserName());
         }
     }
 
+    /**
+     * Counts the time spent waiting for an active session slot in the
+     * respective bucket of the wait time histogram.
+     */
+    private void recordWaitTime(long waitTime) {
+        int bucket = 0;
+        while (bucket < WAIT_TIME_BUCKETS.length
+            && waitTime >= WAIT_TIME_BUCKETS[bucket]) {
+            bucket++;
+        }
+        this.waitTimeHistogram.incrementAndGet(bucket);
+    }
+
     /**
      * Returns a session for the given workspace from the pool of sessions or
      * <code>null</code> if the pool is empty or has no sessions for the
@@ -772,10 +1018,13 @@ public class SessionPool {
      * correct workspace - session, which is not live or is attached to another
      * than the requested workspace is logged out and removed from the pool.
      * <p>
-     * This is of course only a poor man's clean up mechanism which has at least
-     * two flaws: (1) Sessions may remain in the pool for ever and (2) sessions
-     * are removed from the pool which just do not qulaify for the desired
-     * workspace but would qualify later. The reason for the second issue being
+     * Before being returned, the session is validated by refreshing it
+     * without keeping changes. Sessions failing this test are logged out as
+     * well. Sessions staying in the pool for too long are evicted by the
+     * {@link #evictIdleSessions()} method.
+     * <p>
+     * Sessions are removed from the pool which just do not qulaify for the
+     * desired workspace but would qualify later. The reason for this being
      * no problem at the moment, is that the JCR adapter is attached to a single
      * workspace and only during startup will the workspace name be different.
      *
@@ -791,45 +1040,72 @@ public class SessionPool {
         for (;;) {
 
             // get a session from the, return if empty
-            Session session;
-            synchronized (this.idleSessions) {
-                if (this.idleSessions.isEmpty()) {
-                    log.debug("getFromPool: No idle session in pool");
-                    this.poolMissCounter++;
-                    return null;
-                }
-
-                // get the first entry from the pool
-                session = this.idleSessions.removeFirst();
+            IdleSession idle = this.pollIdleSession();
+            if (idle == null) {
+                log.debug("getFromPool: No idle session in pool");
+                this.poolMissCounter.incrementAndGet();
+                return null;
             }
 
             // check the session and the session's workspace
+            Session session = idle.session;
             if (session.isLive()
-                    && session.getWorkspace().getName().equals(workSpaceName)) {
-                this.poolHitCounter++;
+                    && session.getWorkspace().getName().equals(workSpaceName)
+                    && this.isValid(session)) {
+                this.poolHitCounter.incrementAndGet();
                 return this.createPooledSession(session);
             }
 
             // session is not alive anymore or has the wrong workspace name,
             // logout and try next from pool
-            this.poolDropCounter++;
+            this.poolDropCounter.incrementAndGet();
             session.logout();
         }
     }
 
+    /**
+     * Returns <code>true</code> if the idle <code>session</code> taken from
+     * the pool can still be used, that is if it can be refreshed.
+     */
+    private boolean isValid(Session session) {
+        try {
+            session.refresh(false);
+            return true;
+        } catch (RepositoryException re) {
+            log.debug("isValid: Cannot refresh idle session {}, dropping: {}",
+                this.getUserName(), re.toString());
+            return false;
+        }
+    }
+
     //---------- internal helper ----------------------------------------------
 
+    private IdleSession pollIdleSession() {
+        // take the most recently released session, so that the sessions not
+        // needed under the current load remain idle and are eventually evicted
+        synchronized (this.idleSessions) {
+            if (this.idleSessions.isEmpty()) {
+                return null;
+            }
+            this.numIdleSessions.decrementAndGet();
+            return this.idleSessions.removeLast();
+        }
+    }
+
     private void logoutSessions(Iterator<Session> sessions) {
         // logout all sessions in the pool
         while (sessions.hasNext()) {
-            Session session = sessions.next();
-            try {
-                if (session.isLive()) {
-                    session.logout();
-                }
-            } catch (Exception e) {
-                log.info("Unexpected problem logging out session " + session, e);
+            this.logoutSession(sessions.next());
+        }
+    }
+
+    private void logoutSession(Session session) {
+        try {
+            if (session.isLive()) {
+                session.logout();
             }
+        } catch (Exception e) {
+            log.info("Unexpected problem logging out session " + session, e);
         }
     }
 
@@ -867,4 +1143,44 @@ public class SessionPool {
 
         return true;
     }
+
+    /**
+     * The <code>IdleSession</code> keeps a session in the pool together with
+     * the time it has been added to the pool.
+     */
+    private static final class IdleSession {
+
+        final Session session;
+
+        final long idleSince;
+
+        IdleSession(Session session) {
+            this.session = session;
+            this.idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The <code>ActiveSessionLimit</code> is a fair semaphore whose number of
+     * permits can be changed while permits are held.
+     */
+    @SuppressWarnings("serial")
+    private static final class ActiveSessionLimit extends Semaphore {
+
+        private int limit;
+
+        ActiveSessionLimit(int limit) {
+            super(limit, true);
+            this.limit = limit;
+        }
+
+        synchronized void setLimit(int newLimit) {
+            if (newLimit > this.limit) {
+                this.release(newLimit - this.limit);
+            } else if (newLimit < this.limit) {
+                this.reducePermits(this.limit - newLimit);
+            }
+            this.limit = newLimit;
+        }
+    }
 }
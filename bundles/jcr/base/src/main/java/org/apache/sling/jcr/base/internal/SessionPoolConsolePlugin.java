@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.base.internal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.webconsole.AbstractWebConsolePlugin;
+import org.apache.felix.webconsole.WebConsoleConstants;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Felix OSGi console plugin displaying the state of the JCR session pools:
+ * the number of active and idle sessions, the pool counters, the number of
+ * timeouts and the histogram of the times spent waiting for a session.
+ */
+@SuppressWarnings("serial")
+public class SessionPoolConsolePlugin extends AbstractWebConsolePlugin {
+
+    public static final String LABEL = "sessionpools";
+
+    private static SessionPoolConsolePlugin instance;
+
+    private ServiceRegistration serviceRegistration;
+
+    private SessionPoolConsolePlugin() {
+    }
+
+    public static void initPlugin(BundleContext context) {
+        if (instance == null) {
+            SessionPoolConsolePlugin tmp = new SessionPoolConsolePlugin();
+            tmp.activate(context);
+            instance = tmp;
+        }
+    }
+
+    public static void destroyPlugin() {
+        if (instance != null) {
+            try {
+                instance.deactivate();
+            } finally {
+                instance = null;
+            }
+        }
+    }
+
+    public void activate(BundleContext context) {
+        super.activate(context);
+
+        Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Web Console Plugin to display the state of the JCR session pools");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(Constants.SERVICE_PID, getClass().getName());
+        props.put(WebConsoleConstants.PLUGIN_LABEL, LABEL);
+
+        serviceRegistration = context.registerService(
+            WebConsoleConstants.SERVICE_NAME, this, props);
+    }
+
+    public void deactivate() {
+        if (serviceRegistration != null) {
+            serviceRegistration.unregister();
+            serviceRegistration = null;
+        }
+        super.deactivate();
+    }
+
+    @Override
+    public String getLabel() {
+        return LABEL;
+    }
+
+    @Override
+    public String getTitle() {
+        return "Session Pools";
+    }
+
+    @Override
+    protected void renderContent(HttpServletRequest req,
+            HttpServletResponse res) throws ServletException, IOException {
+        final PrintWriter pw = res.getWriter();
+
+        final int columns = 9 + SessionPool.WAIT_TIME_BUCKETS.length + 1;
+
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+        pw.println("<tr class='content'>");
+        pw.println("<th colspan='" + columns
+            + "' class='content container'>JCR Session Pools</th>");
+        pw.println("</tr>");
+
+        final List<SessionPool> pools = new ArrayList<SessionPool>();
+        for (SessionPoolManager manager : SessionPoolManager.getSessionPoolManagers()) {
+            pools.addAll(manager.getSessionPools());
+        }
+
+        if (pools.isEmpty()) {
+            pw.println("<tr class='content'>");
+            pw.println("<td colspan='" + columns
+                + "' class='content'>No session pool is in use</td>");
+            pw.println("</tr>");
+        } else {
+            pw.println("<tr class='content'>");
+            pw.println("<th class='content'>User</th>");
+            pw.println("<th class='content'>Active</th>");
+            pw.println("<th class='content'>Idle</th>");
+            pw.println("<th class='content'>Waiting</th>");
+            pw.println("<th class='content'>Hits</th>");
+            pw.println("<th class='content'>Misses</th>");
+            pw.println("<th class='content'>Dropped</th>");
+            pw.println("<th class='content'>Evicted</th>");
+            pw.println("<th class='content'>Timeouts</th>");
+            long lower = 0;
+            for (long upper : SessionPool.WAIT_TIME_BUCKETS) {
+                pw.println("<th class='content'>Wait " + lower + "-" + upper
+                    + "ms</th>");
+                lower = upper;
+            }
+            pw.println("<th class='content'>Wait &gt;" + lower + "ms</th>");
+            pw.println("</tr>");
+
+            for (SessionPool pool : pools) {
+                pw.println("<tr class='content'>");
+                pw.println("<td class='content'>" + pool.getUserName()
+                    + "</td>");
+                pw.println("<td class='content'>"
+                    + pool.getNumActiveSessions() + " / "
+                    + formatLimit(pool.getMaxActiveSessions()) + "</td>");
+                pw.println("<td class='content'>" + pool.getIdleSessions()
+                    + " / " + pool.getMaxIdleSessions() + "</td>");
+                pw.println("<td class='content'>"
+                    + pool.getNumWaitingThreads() + "</td>");
+                pw.println("<td class='content'>" + pool.getPoolHitCounter()
+                    + "</td>");
+                pw.println("<td class='content'>"
+                    + pool.getPoolMissCounter() + "</td>");
+                pw.println("<td class='content'>"
+                    + pool.getPoolDropCounter() + "</td>");
+                pw.println("<td class='content'>"
+                    + pool.getPoolEvictCounter() + "</td>");
+                pw.println("<td class='content'>" + pool.getTimeoutCounter()
+                    + "</td>");
+                for (long count : pool.getWaitTimeHistogram()) {
+                    pw.println("<td class='content'>" + count + "</td>");
+                }
+                pw.println("</tr>");
+            }
+        }
+
+        pw.println("</table>");
+    }
+
+    private String formatLimit(int limit) {
+        return (limit == SessionPool.DEFAULT_MAX_ACTIVE_SESSIONS)
+                ? "unlimited"
+                : String.valueOf(limit);
+    }
+}
@@ -18,9 +18,15 @@
  */
 package org.apache.sling.jcr.base.internal;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.jcr.Credentials;
 import javax.jcr.LoginException;
@@ -31,6 +37,8 @@ import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 
 import org.apache.sling.jcr.api.SlingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The <code>SessionPoolManager</code> is an abstract implementation of the
@@ -44,9 +52,26 @@ import org.apache.sling.jcr.api.SlingRepository;
  */
 public class SessionPoolManager {
 
+    /**
+     * The number of milliseconds between two runs of the task evicting
+     * sessions idle for too long from the pools (value is 10 seconds).
+     */
+    private static final long EVICTION_INTERVAL = 10 * 1000L;
+
+    /**
+     * The session pool managers currently in use, for the web console plugin
+     * to be able to show the state of their pools.
+     */
+    private static final List<SessionPoolManager> poolManagers = new CopyOnWriteArrayList<SessionPoolManager>();
+
+    /** default log */
+    private static final Logger log = LoggerFactory.getLogger(SessionPoolManager.class);
+
     private final Repository repository;
 
-    private final Map<String, SessionPool> sessionPools;
+    private final ConcurrentMap<String, SessionPool> sessionPools;
+
+    private final Timer evictionTimer;
 
     private final NamespaceMapper namespaceMapper;
 
@@ -57,13 +82,25 @@ public class SessionPoolManager {
             SessionPoolFactory factory) {
 
         this.repository = repository;
-        this.sessionPools = new HashMap<String, SessionPool>();
+        this.sessionPools = new ConcurrentHashMap<String, SessionPool>();
         this.sessionPoolFactory = factory;
 
         this.namespaceMapper = mapper;
+
+        this.evictionTimer = new Timer("Sling Session Pool Evictor", true);
+        this.evictionTimer.schedule(new TimerTask() {
+            public void run() {
+                evictIdleSessions();
+            }
+        }, EVICTION_INTERVAL, EVICTION_INTERVAL);
+
+        poolManagers.add(this);
     }
 
     public void dispose() {
+        poolManagers.remove(this);
+        this.evictionTimer.cancel();
+
         if (this.sessionPools != null) {
             for (Iterator<SessionPool> si = this.sessionPools.values().iterator(); si.hasNext();) {
                 SessionPool pool = si.next();
@@ -73,6 +110,21 @@ public class SessionPoolManager {
         }
     }
 
+    /**
+     * Returns the session pool managers currently in use.
+     */
+    static List<SessionPoolManager> getSessionPoolManagers() {
+        return new ArrayList<SessionPoolManager>(poolManagers);
+    }
+
+    /**
+     * Returns the session pools of this manager, whose statistics counters
+     * and gauges may be inspected.
+     */
+    public Collection<SessionPool> getSessionPools() {
+        return new ArrayList<SessionPool>(this.sessionPools.values());
+    }
+
     Repository getRepository() {
         return this.repository;
     }
@@ -146,9 +198,25 @@ public class SessionPoolManager {
         SessionPool pool = this.sessionPools.get(userName);
         if (pool == null) {
             pool = this.sessionPoolFactory.createPool(this, credentials);
-            this.sessionPools.put(userName, pool);
+            SessionPool existing = this.sessionPools.putIfAbsent(userName, pool);
+            if (existing != null) {
+                // another thread has been faster creating the pool
+                pool.dispose();
+                pool = existing;
+            }
         }
 
         return pool;
     }
+
+    private void evictIdleSessions() {
+        for (SessionPool pool : this.sessionPools.values()) {
+            try {
+                pool.evictIdleSessions();
+            } catch (Throwable t) {
+                log.warn("evictIdleSessions: Unexpected problem evicting idle sessions of "
+                    + pool.getUserName(), t);
+            }
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.jcr.base.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Repository;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Workspace;
+
+import junit.framework.TestCase;
+
+public class SessionPoolTest extends TestCase {
+
+    private final List<TestSession> logins = new ArrayList<TestSession>();
+
+    private final Repository repository = (Repository) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] { Repository.class },
+        new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("login".equals(method.getName())) {
+                    TestSession session = new TestSession(repository);
+                    logins.add(session);
+                    return session.session;
+                }
+                return null;
+            }
+        });
+
+    private final SimpleCredentials credentials = new SimpleCredentials(
+        "admin", "admin".toCharArray());
+
+    private SessionPoolManager poolManager;
+
+    private SessionPool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        poolManager = new SessionPoolManager(repository, null, null);
+        pool = new SessionPool(poolManager, credentials);
+        pool.setMaxIdleSessions(SessionPool.DEFAULT_MAX_IDLE_SESSIONS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.dispose();
+        poolManager.dispose();
+        super.tearDown();
+    }
+
+    public void testReuseMostRecentlyReleased() throws Exception {
+        Session first = pool.acquireSession(credentials, "default");
+        Session second = pool.acquireSession(credentials, "default");
+        assertEquals(2, logins.size());
+
+        first.logout();
+        second.logout();
+        assertEquals(2, pool.getIdleSessions());
+
+        // the session released last is handed out again first
+        Session session = pool.acquireSession(credentials, "default");
+        assertSame(logins.get(1).session, ((PooledSession) session).getSession());
+        session.logout();
+
+        assertEquals(2, logins.size());
+        assertEquals(1, pool.getPoolHitCounter());
+    }
+
+    public void testEvictSurplusSessions() throws Exception {
+        pool.setMaxIdleTime(1);
+
+        Session first = pool.acquireSession(credentials, "default");
+        Session second = pool.acquireSession(credentials, "default");
+        first.logout();
+        second.logout();
+
+        // nothing is evicted before the maximum idle time has passed
+        assertEquals(0, pool.evictIdleSessions());
+
+        Thread.sleep(1100);
+
+        // a load of one session keeps reusing the same session, so the
+        // other session remains idle and is evicted
+        Session session = pool.acquireSession(credentials, "default");
+        session.logout();
+
+        assertEquals(1, pool.evictIdleSessions());
+        assertEquals(1, pool.getIdleSessions());
+        assertEquals(1, pool.getPoolEvictCounter());
+        assertEquals(1, logins.get(0).loggedOut);
+        assertEquals(0, logins.get(1).loggedOut);
+    }
+
+    public void testNoEvictionIfDisabled() throws Exception {
+        pool.setMaxIdleTime(0);
+
+        pool.acquireSession(credentials, "default").logout();
+
+        assertEquals(0, pool.evictIdleSessions());
+        assertEquals(1, pool.getIdleSessions());
+    }
+
+    public void testDisposeLogsOutIdleSessions() throws Exception {
+        Session first = pool.acquireSession(credentials, "default");
+        Session second = pool.acquireSession(credentials, "default");
+        first.logout();
+        second.logout();
+
+        pool.dispose();
+
+        assertEquals(0, pool.getIdleSessions());
+        assertEquals(1, logins.get(0).loggedOut);
+        assertEquals(1, logins.get(1).loggedOut);
+    }
+
+    private static class TestSession implements InvocationHandler {
+
+        final Session session = (Session) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Session.class }, this);
+
+        final Workspace workspace = (Workspace) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Workspace.class }, this);
+
+        final Repository repository;
+
+        boolean live = true;
+
+        int loggedOut;
+
+        TestSession(Repository repository) {
+            this.repository = repository;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("isLive".equals(name)) {
+                return live;
+            } else if ("logout".equals(name)) {
+                loggedOut++;
+                live = false;
+            } else if ("hasPendingChanges".equals(name)) {
+                return false;
+            } else if ("getUserID".equals(name)) {
+                return "admin";
+            } else if ("getName".equals(name)) {
+                return "default";
+            } else if ("getWorkspace".equals(name)) {
+                return workspace;
+            } else if ("getRepository".equals(name)) {
+                return repository;
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            return null;
+        }
+    }
+}
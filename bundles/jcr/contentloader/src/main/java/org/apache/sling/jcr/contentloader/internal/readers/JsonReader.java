@@ -19,10 +19,13 @@
 package org.apache.sling.jcr.contentloader.internal.readers;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.jcr.PropertyType;
@@ -30,7 +33,7 @@ import javax.jcr.RepositoryException;
 
 import org.apache.sling.commons.json.JSONArray;
 import org.apache.sling.commons.json.JSONException;
-import org.apache.sling.commons.json.JSONObject;
+import org.apache.sling.commons.json.JSONParser;
 import org.apache.sling.jcr.contentloader.internal.ContentCreator;
 import org.apache.sling.jcr.contentloader.internal.ContentReader;
 import org.apache.sling.jcr.contentloader.internal.ImportProvider;
@@ -88,66 +91,132 @@ public class JsonReader implements ContentReader {
 
     public void parse(InputStream ins, ContentCreator contentCreator) throws IOException, RepositoryException {
         try {
-            String jsonString = toString(ins).trim();
-            if (!jsonString.startsWith("{")) {
-                jsonString = "{" + jsonString + "}";
+            final JSONParser parser = new JSONParser(toReader(ins));
+            if (parser.next() != JSONParser.Event.START_OBJECT) {
+                throw parser.syntaxError("A JSONObject text must begin with '{'");
             }
-
-            JSONObject json = new JSONObject(jsonString);
-            this.createNode(null, json, contentCreator);
+            this.createNode(null, parser, contentCreator);
         } catch (JSONException je) {
             throw (IOException) new IOException(je.getMessage()).initCause(je);
         }
     }
 
-    protected void createNode(String name, JSONObject obj, ContentCreator contentCreator)
+    /**
+     * Creates the node from the object just started in the parser and reads
+     * the object up to its end. The node is created once its primary and
+     * mixin types are known or when its first child node starts, whichever
+     * comes first. Properties read before the node is created are kept until
+     * then, so at most the properties of a single node are held in memory.
+     */
+    protected void createNode(String name, JSONParser parser, ContentCreator contentCreator)
     throws JSONException, RepositoryException {
-        Object primaryTypeObj = obj.opt("jcr:primaryType");
         String primaryType = null;
-        if (primaryTypeObj != null) {
-            primaryType = String.valueOf(primaryTypeObj);
-        }
-
         String[] mixinTypes = null;
-        Object mixinsObject = obj.opt("jcr:mixinTypes");
-        if (mixinsObject instanceof JSONArray) {
-            JSONArray mixins = (JSONArray) mixinsObject;
-            mixinTypes = new String[mixins.length()];
-            for (int i = 0; i < mixins.length(); i++) {
-                mixinTypes[i] = mixins.getString(i);
-            }
-        }
+        boolean primaryTypeSet = false;
+        boolean mixinTypesSet = false;
+        boolean created = false;
+        List<Object[]> pendingProperties = null;
 
-        contentCreator.createNode(name, primaryType, mixinTypes);
+        for (JSONParser.Event event = parser.next(); event != JSONParser.Event.END_OBJECT; event = parser.next()) {
+            // event is KEY
+            final String n = parser.getKey();
+            event = parser.next();
 
-        // add properties and nodes
-        JSONArray names = obj.names();
-        for (int i = 0; names != null && i < names.length(); i++) {
-            final String n = names.getString(i);
-            // skip well known objects
-            if (!ignoredNames.contains(n)) {
-                Object o = obj.get(n);
-                if (o instanceof JSONObject) {
-                    this.createNode(n, (JSONObject) o, contentCreator);
+            if (n.equals("jcr:primaryType") && !created) {
+                primaryType = String.valueOf(readValue(parser, event));
+                primaryTypeSet = true;
+            } else if (n.equals("jcr:mixinTypes") && !created) {
+                final Object mixinsObject = readValue(parser, event);
+                if (mixinsObject instanceof JSONArray) {
+                    final JSONArray mixins = (JSONArray) mixinsObject;
+                    mixinTypes = new String[mixins.length()];
+                    for (int i = 0; i < mixins.length(); i++) {
+                        mixinTypes[i] = mixins.getString(i);
+                    }
+                }
+                mixinTypesSet = true;
+            } else if (ignoredNames.contains(n)) {
+                // skip well known objects
+                parser.skipValue(event);
+            } else if (event == JSONParser.Event.START_OBJECT) {
+                if (!created) {
+                    createNode(name, primaryType, mixinTypes,
+                        pendingProperties, contentCreator);
+                    created = true;
+                }
+                this.createNode(n, parser, contentCreator);
+            } else {
+                final Object value = (event == JSONParser.Event.START_ARRAY)
+                        ? readValues(parser)
+                        : parser.getValue();
+                if (created) {
+                    this.createProperty(n, value, contentCreator);
                 } else {
-                    this.createProperty(n, o, contentCreator);
+                    if (pendingProperties == null) {
+                        pendingProperties = new ArrayList<Object[]>();
+                    }
+                    pendingProperties.add(new Object[] { n, value });
                 }
             }
+
+            if (!created && primaryTypeSet && mixinTypesSet) {
+                createNode(name, primaryType, mixinTypes, pendingProperties,
+                    contentCreator);
+                created = true;
+            }
+        }
+
+        if (!created) {
+            createNode(name, primaryType, mixinTypes, pendingProperties,
+                contentCreator);
         }
         contentCreator.finishNode();
     }
 
+    private void createNode(String name, String primaryType,
+            String[] mixinTypes, List<Object[]> properties,
+            ContentCreator contentCreator)
+    throws JSONException, RepositoryException {
+        contentCreator.createNode(name, primaryType, mixinTypes);
+        if (properties != null) {
+            for (Object[] property : properties) {
+                this.createProperty((String) property[0], property[1],
+                    contentCreator);
+            }
+        }
+    }
+
+    /**
+     * Reads the simple value or the complete object or array reported by the
+     * event.
+     */
+    private Object readValue(JSONParser parser, JSONParser.Event event)
+    throws JSONException {
+        if (event == JSONParser.Event.START_OBJECT
+            || event == JSONParser.Event.START_ARRAY) {
+            return parser.readStructure();
+        }
+        return parser.getValue();
+    }
+
+    /**
+     * Reads the values of the array just started as strings.
+     */
+    private String[] readValues(JSONParser parser) throws JSONException {
+        final List<String> values = new ArrayList<String>();
+        for (JSONParser.Event event = parser.next(); event != JSONParser.Event.END_ARRAY; event = parser.next()) {
+            values.add(readValue(parser, event).toString());
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
     protected void createProperty(String name, Object value, ContentCreator contentCreator)
     throws JSONException, RepositoryException {
         // assume simple value
-        if (value instanceof JSONArray) {
+        if (value instanceof String[]) {
             // multivalue
-            final JSONArray array = (JSONArray) value;
-            if (array.length() > 0) {
-                final String values[] = new String[array.length()];
-                for (int i = 0; i < array.length(); i++) {
-                    values[i] = array.get(i).toString();
-                }
+            final String values[] = (String[]) value;
+            if (values.length > 0) {
                 final int propertyType = getType(name, values[0]);
                 contentCreator.createProperty(getName(name), propertyType, values);
             } else {
@@ -183,7 +252,7 @@ public class JsonReader implements ContentReader {
         return name;
     }
 
-    private String toString(InputStream ins) throws IOException {
+    private Reader toReader(InputStream ins) throws IOException {
         if (!ins.markSupported()) {
             ins = new BufferedInputStream(ins);
         }
@@ -203,14 +272,67 @@ public class JsonReader implements ContentReader {
             encoding = "UTF-8";
         }
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] buf = new byte[1024];
-        int rd;
-        while ( (rd = ins.read(buf)) >= 0) {
-            bos.write(buf, 0, rd);
+        return new ObjectReader(new InputStreamReader(ins, encoding));
+    }
+
+    /**
+     * The <code>ObjectReader</code> encloses the content in braces unless it
+     * starts with an opening brace after optional whitespace, such that the
+     * outermost braces of the content may be omitted.
+     */
+    private static class ObjectReader extends Reader {
+
+        private final Reader delegate;
+
+        /** the leading whitespace and character read ahead, null once done */
+        private String prefix;
+
+        private int prefixPos;
+
+        /** whether the closing brace still has to be returned */
+        private boolean suffix;
+
+        ObjectReader(Reader delegate) {
+            this.delegate = delegate;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (prefix == null) {
+                final StringBuilder buf = new StringBuilder();
+                int c = delegate.read();
+                while (c >= 0 && Character.isWhitespace((char) c)) {
+                    buf.append((char) c);
+                    c = delegate.read();
+                }
+                suffix = (c != '{');
+                if (suffix) {
+                    buf.insert(0, '{');
+                }
+                if (c >= 0) {
+                    buf.append((char) c);
+                }
+                prefix = buf.toString();
+            }
+            if (prefixPos < prefix.length()) {
+                final int num = Math.min(len, prefix.length() - prefixPos);
+                prefix.getChars(prefixPos, prefixPos + num, cbuf, off);
+                prefixPos += num;
+                return num;
+            }
+            final int rd = delegate.read(cbuf, off, len);
+            if (rd < 0 && suffix) {
+                suffix = false;
+                cbuf[off] = '}';
+                return 1;
+            }
+            return rd;
         }
-        bos.close(); // just to comply with the contract
 
-        return new String(bos.toByteArray(), encoding);
+        public void close() throws IOException {
+            delegate.close();
+        }
     }
 }
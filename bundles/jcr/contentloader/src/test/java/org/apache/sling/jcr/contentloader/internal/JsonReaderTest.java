@@ -238,6 +238,34 @@ public class JsonReaderTest {
         this.parse(json);
     }
 
+    @org.junit.Test public void testPrimaryTypeAfterProperties() throws Exception {
+        String json = "{ \"p1\": \"v1\", \"jcr:primaryType\": \"xyz:testType\" }";
+
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, "xyz:testType", null); inSequence(mySequence);
+            allowing(creator).createProperty("p1", PropertyType.STRING, "v1"); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        this.parse(json);
+    }
+
+    @org.junit.Test public void testPropertyAfterChild() throws Exception {
+        String json = "{ " +
+        " p1 : \"v1\"," +
+        " c1 : {}," +
+        " p2 : [\"v2\", \"v3\"]" +
+        "}";
+        this.mockery.checking(new Expectations() {{
+            allowing(creator).createNode(null, null, null); inSequence(mySequence);
+            allowing(creator).createProperty("p1", PropertyType.STRING, "v1"); inSequence(mySequence);
+            allowing(creator).createNode("c1", null, null); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+            allowing(creator).createProperty("p2", PropertyType.STRING, new String[] {"v2", "v3"}); inSequence(mySequence);
+            allowing(creator).finishNode(); inSequence(mySequence);
+        }});
+        this.parse(json);
+    }
+
     //---------- internal helper ----------------------------------------------
 
     private void parse(String json) throws IOException, RepositoryException {
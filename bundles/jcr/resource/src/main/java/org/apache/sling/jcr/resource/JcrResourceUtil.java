@@ -35,6 +35,7 @@ import javax.jcr.query.QueryResult;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.jcr.resource.internal.JcrResourceResolver2;
 import org.apache.sling.jcr.resource.internal.helper.LazyInputStream;
 
 /**
@@ -244,6 +245,23 @@ public class JcrResourceUtil {
         return resourceSuperType;
     }
 
+    /**
+     * Clears the resources and <code>ValueMap</code>s cached by the given
+     * resource resolver for the current request. This method should be called
+     * after modifying the repository through the session of the resource
+     * resolver such that subsequent resource accesses see the modifications.
+     * This method has no effect if the resource resolver does not cache
+     * resources.
+     *
+     * @param resolver The <code>ResourceResolver</code> whose cache is to be
+     *            cleared.
+     */
+    public static void invalidateResourceCache(ResourceResolver resolver) {
+        if (resolver instanceof JcrResourceResolver2) {
+            ((JcrResourceResolver2) resolver).invalidateResourceCache();
+        }
+    }
+
     /**
      * Creates or gets the {@link javax.jcr.Node Node} at the given Path.
      * In case it has to create the Node all non-existent intermediate path-elements
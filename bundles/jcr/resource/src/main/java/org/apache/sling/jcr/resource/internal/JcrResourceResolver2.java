@@ -18,11 +18,20 @@
  */
 package org.apache.sling.jcr.resource.internal;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -42,14 +51,19 @@ import org.apache.sling.api.SlingException;
 import org.apache.sling.api.resource.NonExistingResource;
 import org.apache.sling.api.resource.QuerySyntaxException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
 import org.apache.sling.api.resource.ResourceNotFoundException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.jcr.resource.JcrResourceUtil;
+import org.apache.sling.jcr.resource.internal.helper.AliasIndex;
+import org.apache.sling.jcr.resource.internal.helper.ChangeCounter;
 import org.apache.sling.jcr.resource.internal.helper.MapEntries;
 import org.apache.sling.jcr.resource.internal.helper.MapEntry;
+import org.apache.sling.jcr.resource.internal.helper.MapEntryIndex;
 import org.apache.sling.jcr.resource.internal.helper.RedirectResource;
+import org.apache.sling.jcr.resource.internal.helper.ResolutionCache;
 import org.apache.sling.jcr.resource.internal.helper.ResourcePathIterator;
 import org.apache.sling.jcr.resource.internal.helper.jcr.JcrNodeResourceIterator;
 import org.apache.sling.jcr.resource.internal.helper.jcr.JcrResourceProviderEntry;
@@ -72,6 +86,12 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
     private static final String MANGLE_NAMESPACE_OUT = "/([^:/]+):";
 
+    /**
+     * The maximum number of resources kept in the request scoped resource
+     * cache, the least recently used resources are dropped first.
+     */
+    private static final int RESOURCE_CACHE_SIZE = 1000;
+
     public static final String PROP_REG_EXP = "sling:match";
 
     public static final String PROP_REDIRECT_INTERNAL = "sling:internalRedirect";
@@ -91,11 +111,37 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
     private final MapEntries resourceMapper;
 
+    // the resources returned by getResource(String) indexed by the requested
+    // path, null if resources are not cached. Like the session, the resource
+    // resolver is used by a single thread only, so the cache is not
+    // synchronized
+    private final Map<String, Resource> resourceCache;
+
+    // the generation of repository changes when the resource cache was last
+    // validated
+    private long resourceCacheChanges;
+
+    // incremented whenever the resource cache is cleared such that resources
+    // drop the ValueMap they have cached
+    private int resourceCacheGeneration;
+
+    // the session returned by adaptTo(Session.class) if resources are
+    // cached, which clears the resource cache on save and refresh
+    private Session invalidatingSession;
+
     public JcrResourceResolver2(JcrResourceProviderEntry rootProvider,
             JcrResourceResolverFactoryImpl factory, MapEntries resourceMapper) {
         this.rootProvider = rootProvider;
         this.factory = factory;
         this.resourceMapper = resourceMapper;
+
+        ChangeCounter changeCounter = factory.getChangeCounter();
+        if (changeCounter != null) {
+            this.resourceCache = new ResourceCache(RESOURCE_CACHE_SIZE);
+            this.resourceCacheChanges = changeCounter.getGeneration();
+        } else {
+            this.resourceCache = null;
+        }
     }
 
     // ---------- resolving resources
@@ -133,6 +179,30 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
         log.debug("resolve: Resolving request path {}", requestPath);
 
+        // use the same mappings for resolution and the cache entry
+        final MapEntryIndex resolveIndex = resourceMapper.getResolveIndex();
+
+        // check for a cached resolution of the request path
+        final ResolutionCache cache = factory.getResolutionCache();
+        final String cacheKey;
+        long cacheGeneration = 0;
+        if (cache != null && cache.isResolveCacheEnabled()
+            && cache.isCacheable(getSession())) {
+            cacheGeneration = cache.getInvalidationGeneration();
+            cacheKey = ResolutionCache.getKey(getSession().getUserID(),
+                getSession().getWorkspace().getName(),
+                factory.getResolutionGeneration(), requestPath);
+            Resource res = getCachedResource(cache.get(cacheKey, resolveIndex),
+                absPath);
+            if (res != null) {
+                log.debug("resolve: Path {} resolves to cached Resource {}",
+                    absPath, res);
+                return res;
+            }
+        } else {
+            cacheKey = null;
+        }
+
         // loop while finding internal or external redirect into the
         // content out of the virtual host mapping tree
         // the counter is to ensure we are not caught in an endless loop here
@@ -140,7 +210,7 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
         for (int i = 0; i < 100; i++) {
 
             String[] mappedPath = null;
-            for (MapEntry mapEntry : resourceMapper.getResolveMaps()) {
+            for (MapEntry mapEntry : resolveIndex.getCandidates(requestPath)) {
                 mappedPath = mapEntry.replace(requestPath);
                 if (mappedPath != null) {
                     log.debug(
@@ -155,6 +225,10 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
                     // external redirect
                     log.debug("resolve: Returning external redirect");
+                    if (cacheKey != null) {
+                        cache.putRedirect(cacheKey, cacheGeneration,
+                            resolveIndex, mappedPath[0]);
+                    }
                     return new RedirectResource(this, absPath, mappedPath[0]);
                 }
             }
@@ -236,13 +310,73 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
                 "resolve: Path {} does not resolve, returning NonExistingResource at {}",
                 absPath, realPathList[0]);
             res = new NonExistingResource(this, ensureAbsPath(realPathList[0]));
+            if (cacheKey != null) {
+                cache.putNonExisting(cacheKey, cacheGeneration, resolveIndex,
+                    res.getPath(), getDependencies(realPathList, null));
+            }
         } else {
             log.debug("resolve: Path {} resolves to Resource {}", absPath, res);
+            if (cacheKey != null && !(res instanceof StarResource)) {
+                ResourceMetadata metadata = res.getResourceMetadata();
+                cache.putResource(cacheKey, cacheGeneration, resolveIndex,
+                    metadata.getResolutionPath(),
+                    metadata.getResolutionPathInfo(), getDependencies(
+                        realPathList, metadata.getResolutionPath()));
+            }
         }
 
         return res;
     }
 
+    /**
+     * Returns the resource for a cached resolution result or
+     * <code>null</code> if <code>entry</code> is <code>null</code> or the
+     * cached resource cannot be accessed any longer.
+     */
+    private Resource getCachedResource(ResolutionCache.Entry entry,
+            String absPath) {
+        if (entry == null) {
+            return null;
+        }
+
+        switch (entry.getType()) {
+            case ResolutionCache.TYPE_REDIRECT:
+                return new RedirectResource(this, absPath, entry.getPath());
+
+            case ResolutionCache.TYPE_NON_EXISTING:
+                return new NonExistingResource(this, entry.getPath());
+
+            default:
+                Resource res = getResourceInternal(entry.getPath());
+                if (res != null) {
+                    res.getResourceMetadata().setResolutionPathInfo(
+                        entry.getResolutionPathInfo());
+                }
+                return res;
+        }
+    }
+
+    /**
+     * Returns the absolute paths on which the resolution of the
+     * <code>realPathList</code> depends for invalidation of cached results.
+     */
+    private String[] getDependencies(String[] realPathList, String resolvedPath) {
+        List<String> dependencies = new ArrayList<String>();
+        for (String realPath : realPathList) {
+            if (realPath.startsWith("/")) {
+                dependencies.add(realPath);
+            } else {
+                for (String prefix : factory.getSearchPath()) {
+                    dependencies.add(prefix + realPath);
+                }
+            }
+        }
+        if (resolvedPath != null) {
+            dependencies.add(resolvedPath);
+        }
+        return dependencies.toArray(new String[dependencies.size()]);
+    }
+
     // calls map(HttpServletRequest, String) as map(null, resourcePath)
     public String map(String resourcePath) {
         return map(null, resourcePath);
@@ -290,6 +424,32 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
         }
 
+        // use the same mappings for mapping and the cache entry
+        final Collection<MapEntry> mapMaps = resourceMapper.getMapMaps();
+
+        // check for a cached mapping of the resource path
+        final ResolutionCache cache = factory.getResolutionCache();
+        final String cacheKey;
+        final String cacheDependency = mappedPath;
+        long cacheGeneration = 0;
+        if (cache != null && cache.isMapCacheEnabled()
+            && cache.isCacheable(getSession())) {
+            cacheGeneration = cache.getInvalidationGeneration();
+            cacheKey = ResolutionCache.getMapKey(getSession().getUserID(),
+                getSession().getWorkspace().getName(),
+                factory.getResolutionGeneration(), schemehostport,
+                (request != null) ? request.getContextPath() : null,
+                resourcePath);
+            String cached = cache.getMapping(cacheKey, mapMaps);
+            if (cached != null) {
+                log.debug("map: Returning cached mapping {} for {}", cached,
+                    resourcePath);
+                return cached;
+            }
+        } else {
+            cacheKey = null;
+        }
+
         String resolutionPathInfo;
         Resource res = resolveInternal(mappedPath);
         if (res != null) {
@@ -301,25 +461,30 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
                 resolutionPathInfo);
 
             // find aliases for segments
-            LinkedList<String> names = new LinkedList<String>();
-            while (res != null) {
-                String alias = getProperty(res, PROP_ALIAS);
-                if (alias == null) {
-                    alias = ResourceUtil.getName(res);
-                }
-                if (alias != null && alias.length() > 0) {
-                    names.add(alias);
+            AliasIndex aliasIndex = factory.getAliasIndex();
+            if (aliasIndex != null) {
+                mappedPath = getAliasPath(aliasIndex, res.getPath());
+            } else {
+                LinkedList<String> names = new LinkedList<String>();
+                while (res != null) {
+                    String alias = getProperty(res, PROP_ALIAS);
+                    if (alias == null) {
+                        alias = ResourceUtil.getName(res);
+                    }
+                    if (alias != null && alias.length() > 0) {
+                        names.add(alias);
+                    }
+                    res = ResourceUtil.getParent(res);
                 }
-                res = ResourceUtil.getParent(res);
-            }
 
-            // build path from segment names
-            StringBuilder buf = new StringBuilder();
-            while (!names.isEmpty()) {
-                buf.append('/');
-                buf.append(names.removeLast());
+                // build path from segment names
+                StringBuilder buf = new StringBuilder();
+                while (!names.isEmpty()) {
+                    buf.append('/');
+                    buf.append(names.removeLast());
+                }
+                mappedPath = buf.toString();
             }
-            mappedPath = buf.toString();
 
             log.debug("map: Alias mapping resolves to path {}", mappedPath);
 
@@ -331,7 +496,7 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
         }
 
         boolean mappedPathIsUrl = false;
-        for (MapEntry mapEntry : resourceMapper.getMapMaps()) {
+        for (MapEntry mapEntry : mapMaps) {
             String[] mappedPaths = mapEntry.replace(mappedPath);
             if (mappedPaths != null) {
 
@@ -421,6 +586,11 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
             mappedPath = mappedPath.concat(fragmentQuery);
         }
 
+        if (cacheKey != null) {
+            cache.putMapping(cacheKey, cacheGeneration, mapMaps, mappedPath,
+                cacheDependency);
+        }
+
         return mappedPath;
     }
 
@@ -433,6 +603,22 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
     // ---------- direct resource access without resolution
 
     public Resource getResource(String path) {
+        final Map<String, Resource> cache = getResourceCache();
+        if (cache == null) {
+            return getResourceUncached(path);
+        }
+
+        Resource res = cache.get(path);
+        if (res == null) {
+            res = getResourceUncached(path);
+            if (res != null) {
+                cache.put(path, res);
+            }
+        }
+        return res;
+    }
+
+    private Resource getResourceUncached(String path) {
 
         // if the path is absolute, normalize . and .. segements and get res
         if (path.startsWith("/")) {
@@ -443,7 +629,7 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
         // otherwise we have to apply the search path
         // (don't use this.getSearchPath() to save a few cycle for not cloning)
         for (String prefix : factory.getSearchPath()) {
-            Resource res = getResource(prefix + path);
+            Resource res = getResourceUncached(prefix + path);
             if (res != null) {
                 return res;
             }
@@ -466,6 +652,63 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
         return rootProvider.listChildren(parent);
     }
 
+    // ---------- Request scoped resource cache
+
+    /**
+     * Clears the resources and <code>ValueMap</code>s cached by this
+     * resource resolver. This method has no effect if resources are not
+     * cached.
+     */
+    public void invalidateResourceCache() {
+        if (resourceCache != null) {
+            resourceCache.clear();
+            resourceCacheGeneration++;
+        }
+    }
+
+    /**
+     * Returns the current generation of the resource cache or -1 if
+     * resources and <code>ValueMap</code>s may currently not be cached. A
+     * <code>ValueMap</code> cached by a resource is only valid as long as
+     * the generation does not change.
+     */
+    public int getResourceCacheGeneration() {
+        return (getResourceCache() != null) ? resourceCacheGeneration : -1;
+    }
+
+    /**
+     * Returns the resource cache or <code>null</code> if resources are not
+     * cached or may currently not be cached because the session has pending
+     * changes. The cache is cleared if changes have been saved to the
+     * repository since the cache has last been used.
+     */
+    private Map<String, Resource> getResourceCache() {
+        if (resourceCache == null) {
+            return null;
+        }
+
+        try {
+            if (getSession().hasPendingChanges()) {
+                invalidateResourceCache();
+                return null;
+            }
+        } catch (RepositoryException re) {
+            log.warn("getResourceCache: Cannot check for pending changes", re);
+            return null;
+        }
+
+        ChangeCounter changeCounter = factory.getChangeCounter();
+        long changes = (changeCounter != null)
+                ? changeCounter.getGeneration()
+                : -1;
+        if (changes != resourceCacheChanges) {
+            invalidateResourceCache();
+            resourceCacheChanges = changes;
+        }
+
+        return resourceCache;
+    }
+
     // ---------- Querying resources
 
     public Iterator<Resource> findResources(String query, String language)
@@ -531,6 +774,9 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
     @SuppressWarnings("unchecked")
     public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
         if (type == Session.class) {
+            if (resourceCache != null) {
+                return (AdapterType) getInvalidatingSession();
+            }
             return (AdapterType) getSession();
         }
 
@@ -548,6 +794,59 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
         return rootProvider.getSession();
     }
 
+    /**
+     * Returns a proxy of the session which clears the resource cache when
+     * the session is saved or refreshed. This way changes saved through the
+     * session are visible to this resource resolver immediately instead of
+     * only once they have been observed by the {@link ChangeCounter}. The
+     * proxy implements all interfaces of the session.
+     * <p>
+     * Changes saved through <code>Item.save()</code> are not covered, these
+     * are only picked up by the pending changes check if the cache is used
+     * before saving.
+     */
+    private Session getInvalidatingSession() {
+        if (invalidatingSession == null) {
+            final Session session = getSession();
+            Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+            for (Class<?> c = session.getClass(); c != null; c = c.getSuperclass()) {
+                collectInterfaces(c, interfaces);
+            }
+            invalidatingSession = (Session) Proxy.newProxyInstance(
+                session.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[interfaces.size()]),
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("equals".equals(name) && args != null
+                            && args.length == 1 && args[0] == proxy) {
+                            return Boolean.TRUE;
+                        }
+                        try {
+                            return method.invoke(session, args);
+                        } catch (InvocationTargetException ite) {
+                            throw ite.getCause();
+                        } finally {
+                            if ("save".equals(name) || "refresh".equals(name)) {
+                                invalidateResourceCache();
+                            }
+                        }
+                    }
+                });
+        }
+        return invalidatingSession;
+    }
+
+    private static void collectInterfaces(Class<?> type,
+            Set<Class<?>> interfaces) {
+        for (Class<?> iface : type.getInterfaces()) {
+            if (interfaces.add(iface)) {
+                collectInterfaces(iface, interfaces);
+            }
+        }
+    }
+
     /**
      * Returns a string used for matching map entries against the given request
      * or URI parts.
@@ -668,7 +967,10 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
     }
 
     private Resource getChildInternal(Resource parent, String childName) {
-        Resource child = getResource(parent, childName);
+        // don't use the resource cache since the resolution path info is set
+        // on the resource returned
+        Resource child = getResourceUncached(parent.getPath() + "/"
+            + childName);
         if (child != null) {
             String alias = getProperty(child, PROP_REDIRECT_INTERNAL);
             if (alias != null) {
@@ -684,6 +986,26 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
         // we do not have a child with the exact name, so we look for
         // a child, whose alias matches the childName
+        AliasIndex aliasIndex = factory.getAliasIndex();
+        if (aliasIndex != null) {
+            String aliasedName = aliasIndex.getChildName(parent.getPath(),
+                childName);
+            if (aliasedName != null) {
+                child = getResourceUncached(parent.getPath() + "/"
+                    + aliasedName);
+                if (child != null) {
+                    log.debug(
+                        "getChildInternal: Found Resource {} with alias {} to use",
+                        child, childName);
+                    return child;
+                }
+            }
+
+            log.debug("getChildInternal: Resource {} has no child {}", parent,
+                childName);
+            return null;
+        }
+
         Iterator<Resource> children = listChildren(parent);
         while (children.hasNext()) {
             child = children.next();
@@ -702,6 +1024,32 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
         return null;
     }
 
+    /**
+     * Returns the <code>path</code> with each segment replaced by the alias
+     * of the respective resource as recorded in the <code>aliasIndex</code>.
+     */
+    private String getAliasPath(AliasIndex aliasIndex, String path) {
+        StringBuilder buf = new StringBuilder(path.length());
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+
+            String alias = aliasIndex.getAlias(path.substring(0, end));
+            buf.append('/');
+            if (alias != null) {
+                buf.append(alias);
+            } else {
+                buf.append(path, start, end);
+            }
+
+            start = end + 1;
+        }
+        return buf.toString();
+    }
+
     /**
      * Creates a JcrNodeResource with the given path if existing
      */
@@ -813,4 +1161,25 @@ public class JcrResourceResolver2 extends SlingAdaptable implements
 
         return absPath;
     }
+
+    /**
+     * The request scoped resource cache keeping at most a given number of
+     * resources, dropping the least recently used resource on overflow.
+     */
+    private static class ResourceCache extends LinkedHashMap<String, Resource> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        ResourceCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest) {
+            return size() > maxSize;
+        }
+    }
 }
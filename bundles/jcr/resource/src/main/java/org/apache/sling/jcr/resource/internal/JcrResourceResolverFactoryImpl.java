@@ -37,8 +37,11 @@ import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.jcr.api.SlingRepository;
 import org.apache.sling.jcr.resource.JcrResourceResolverFactory;
 import org.apache.sling.jcr.resource.JcrResourceTypeProvider;
+import org.apache.sling.jcr.resource.internal.helper.AliasIndex;
+import org.apache.sling.jcr.resource.internal.helper.ChangeCounter;
 import org.apache.sling.jcr.resource.internal.helper.MapEntries;
 import org.apache.sling.jcr.resource.internal.helper.Mapping;
+import org.apache.sling.jcr.resource.internal.helper.ResolutionCache;
 import org.apache.sling.jcr.resource.internal.helper.ResourceProviderEntry;
 import org.apache.sling.jcr.resource.internal.helper.ResourceProviderEntryException;
 import org.apache.sling.jcr.resource.internal.helper.jcr.JcrResourceProviderEntry;
@@ -120,6 +123,77 @@ public class JcrResourceResolverFactoryImpl implements
      */
     private static final String PROP_ALLOW_DIRECT = "resource.resolver.allowDirect";
 
+    /**
+     * Defines whether <code>sling:alias</code> properties are kept in an index
+     * maintained through observation instead of scanning the children of a
+     * resource when resolving an aliased name. The index only covers
+     * repository content, so this should be disabled if other resource
+     * providers supply aliased resources.
+     * <p>
+     * The default value of this property if no configuration is provided is
+     * <code>true</code>.
+     *
+     * @scr.property value="true" type="Boolean"
+     */
+    private static final String PROP_OPTIMIZE_ALIAS_RESOLUTION = "resource.resolver.optimize.alias.resolution";
+
+    /**
+     * The maximum number of request paths whose resolution is cached by the
+     * resource resolvers. Setting this property to zero disables the cache.
+     * <p>
+     * The default value of this property if no configuration is provided is
+     * <code>1000</code>.
+     *
+     * @scr.property value="1000" type="Integer"
+     */
+    private static final String PROP_RESOLVE_CACHE_SIZE = "resource.resolver.resolve.cache.size";
+
+    /** The default value for the {@link #PROP_RESOLVE_CACHE_SIZE} property */
+    private static final int DEFAULT_RESOLVE_CACHE_SIZE = 1000;
+
+    /**
+     * The maximum number of resource paths whose mapping to URLs is cached by
+     * the resource resolvers. The least recently used mappings are evicted
+     * from the cache if the cache is full. Setting this property to zero
+     * disables the cache.
+     * <p>
+     * The default value of this property if no configuration is provided is
+     * <code>5000</code>.
+     *
+     * @scr.property value="5000" type="Integer"
+     */
+    private static final String PROP_MAP_CACHE_SIZE = "resource.resolver.map.cache.size";
+
+    /** The default value for the {@link #PROP_MAP_CACHE_SIZE} property */
+    private static final int DEFAULT_MAP_CACHE_SIZE = 5000;
+
+    /**
+     * Defines whether the resource resolvers keep the resources returned by
+     * <code>ResourceResolver.getResource</code> and the
+     * <code>ValueMap</code>s adapted from them for the duration of the
+     * request. The cache is cleared when the session of the resource resolver
+     * has pending changes, when changes are saved to the repository or when
+     * the cache is invalidated explicitly with
+     * {@link org.apache.sling.jcr.resource.JcrResourceUtil#invalidateResourceCache(org.apache.sling.api.resource.ResourceResolver)}.
+     * <p>
+     * The default value of this property if no configuration is provided is
+     * <code>false</code>.
+     *
+     * @scr.property value="false" type="Boolean"
+     */
+    private static final String PROP_REQUEST_CACHE = "resource.resolver.request.cache";
+
+    /**
+     * The paths below which saved changes do not clear the request resource
+     * caches of all resource resolvers. Resources below these paths are only
+     * invalidated if they are changed through the session of the resource
+     * resolver itself. By default the trees written by the event and job
+     * handling are excluded.
+     *
+     * @scr.property values.1="/var/eventing" values.2="/sling/events"
+     */
+    private static final String PROP_REQUEST_CACHE_EXCLUDE = "resource.resolver.request.cache.exclude";
+
     /**
      * The resolver.virtual property has no default configuration. But the sling
      * maven plugin and the sling management console cannot handle empty
@@ -170,6 +244,19 @@ public class JcrResourceResolverFactoryImpl implements
     // helper for the new JcrResourceResolver2
     private MapEntries mapEntries = MapEntries.EMPTY;
 
+    // index of sling:alias properties, null if not used
+    private AliasIndex aliasIndex;
+
+    // cache of resolution results, null if not used
+    private ResolutionCache resolutionCache;
+
+    // counter of repository changes for the request scoped resource caches,
+    // null if the resource resolvers do not cache resources
+    private ChangeCounter changeCounter;
+
+    // incremented whenever the resource provider tree changes
+    private volatile long resolutionGeneration;
+
     /** all mappings */
     private Mapping[] mappings;
 
@@ -259,6 +346,39 @@ public class JcrResourceResolverFactoryImpl implements
         return mapEntries;
     }
 
+    /**
+     * Returns the cache of resolution and mapping results or
+     * <code>null</code> if neither is cached.
+     */
+    ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    /**
+     * Returns the current generation of the resource provider setup. Cached
+     * resolution results of older generations are not used any longer.
+     */
+    long getResolutionGeneration() {
+        return resolutionGeneration;
+    }
+
+    /**
+     * Returns the counter of repository changes used to invalidate the request
+     * scoped resource caches or <code>null</code> if the resource resolvers
+     * do not cache resources.
+     */
+    ChangeCounter getChangeCounter() {
+        return changeCounter;
+    }
+
+    /**
+     * Returns the index of <code>sling:alias</code> properties or
+     * <code>null</code> if alias resolution is not optimized.
+     */
+    AliasIndex getAliasIndex() {
+        return aliasIndex;
+    }
+
     /**
      * Getter for rootProviderEntry, making it easier to extend
      * JcrResourceResolverFactoryImpl. See <a
@@ -336,6 +456,23 @@ public class JcrResourceResolverFactoryImpl implements
 
         // set up the map entries from configuration
         try {
+            int resolveCacheSize = OsgiUtil.toInteger(
+                properties.get(PROP_RESOLVE_CACHE_SIZE),
+                DEFAULT_RESOLVE_CACHE_SIZE);
+            int mapCacheSize = OsgiUtil.toInteger(
+                properties.get(PROP_MAP_CACHE_SIZE), DEFAULT_MAP_CACHE_SIZE);
+            if (resolveCacheSize > 0 || mapCacheSize > 0) {
+                resolutionCache = new ResolutionCache(getRepository(),
+                    resolveCacheSize, mapCacheSize);
+            }
+            if (OsgiUtil.toBoolean(
+                properties.get(PROP_OPTIMIZE_ALIAS_RESOLUTION), true)) {
+                aliasIndex = new AliasIndex(getRepository(), resolutionCache);
+            }
+            if (OsgiUtil.toBoolean(properties.get(PROP_REQUEST_CACHE), false)) {
+                changeCounter = new ChangeCounter(getRepository(),
+                    OsgiUtil.toStringArray(properties.get(PROP_REQUEST_CACHE_EXCLUDE)));
+            }
             mapEntries = new MapEntries(this, getRepository());
             plugin = new JcrResourceResolverWebConsolePlugin(componentContext.getBundleContext(), this);
         } catch (Exception e) {
@@ -359,6 +496,21 @@ public class JcrResourceResolverFactoryImpl implements
             mapEntries = MapEntries.EMPTY;
         }
 
+        if (aliasIndex != null) {
+            aliasIndex.dispose();
+            aliasIndex = null;
+        }
+
+        if (resolutionCache != null) {
+            resolutionCache.dispose();
+            resolutionCache = null;
+        }
+
+        if (changeCounter != null) {
+            changeCounter.dispose();
+            changeCounter = null;
+        }
+
         this.componentContext = null;
     }
 
@@ -455,6 +607,7 @@ public class JcrResourceResolverFactoryImpl implements
                         try {
                             rootProviderEntry.addResourceProvider(root,
                                 provider);
+                            resolutionGeneration++;
 
                             log.debug("bindResourceProvider: {}={} ({})",
                                 new Object[] { root, provider, serviceName });
@@ -495,6 +648,7 @@ public class JcrResourceResolverFactoryImpl implements
                     // owns it. This may be the case if adding the provider
                     // yielded an ResourceProviderEntryException
                     rootProviderEntry.removeResourceProvider(root);
+                    resolutionGeneration++;
                     
                     log.debug("unbindResourceProvider: root={} ({})", root,
                         serviceName);
@@ -36,8 +36,10 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.felix.webconsole.AbstractWebConsolePlugin;
 import org.apache.felix.webconsole.WebConsoleConstants;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.jcr.resource.internal.helper.BoundedCache;
 import org.apache.sling.jcr.resource.internal.helper.MapEntries;
 import org.apache.sling.jcr.resource.internal.helper.MapEntry;
+import org.apache.sling.jcr.resource.internal.helper.ResolutionCache;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
@@ -146,6 +148,27 @@ public class JcrResourceResolverWebConsolePlugin extends AbstractWebConsolePlugi
             "Lists the entries used by the ResourceResolver.map methods to map Resource Paths to URLs",
             mapEntries.getMapMaps());
 
+        ResolutionCache resolutionCache = resolverFactory.getResolutionCache();
+        if (resolutionCache != null && resolutionCache.isResolveCacheEnabled()) {
+            separator(pw);
+
+            dumpCache(
+                pw,
+                "Resolution Cache",
+                "Statistics of the cache used by the ResourceResolver.resolve methods to cache resolution results",
+                resolutionCache.getCache());
+        }
+
+        if (resolutionCache != null && resolutionCache.isMapCacheEnabled()) {
+            separator(pw);
+
+            dumpCache(
+                pw,
+                "Mapping Cache",
+                "Statistics of the cache used by the ResourceResolver.map methods to cache mapped URLs",
+                resolutionCache.getMapCache());
+        }
+
         pw.println("</table>");
 
     }
@@ -184,6 +207,33 @@ public class JcrResourceResolverWebConsolePlugin extends AbstractWebConsolePlugi
         }
     }
 
+    private void dumpCache(PrintWriter pw, String title, String description,
+            BoundedCache<?> cache) {
+
+        title(pw, title, description);
+
+        long hits = cache.getHits();
+        long requests = hits + cache.getMisses();
+        String hitRate = (requests > 0)
+                ? String.valueOf((hits * 100) / requests) + "%"
+                : "-";
+
+        cacheValue(pw, "Entries", cache.size() + " of " + cache.getMaxSize());
+        cacheValue(pw, "Hits", String.valueOf(hits));
+        cacheValue(pw, "Misses", String.valueOf(cache.getMisses()));
+        cacheValue(pw, "Hit Rate", hitRate);
+        cacheValue(pw, "Evictions", String.valueOf(cache.getEvictions()));
+        cacheValue(pw, "Invalidations",
+            String.valueOf(cache.getInvalidations()));
+    }
+
+    private void cacheValue(PrintWriter pw, String label, String value) {
+        pw.println("<tr class='content'>");
+        pw.println("<td class='content'>" + label + "</td>");
+        pw.println("<td class='content' colspan='2'>" + value + "</td>");
+        pw.println("</tr>");
+    }
+
     private void title(PrintWriter pw, String title, String description) {
         pw.println("<tr class='content'>");
         pw.println("<th colspan='3'class='content container'>" + title
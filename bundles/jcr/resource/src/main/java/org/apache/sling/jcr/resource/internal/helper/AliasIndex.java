@@ -0,0 +1,465 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.Item;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.query.Query;
+
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.jcr.resource.JcrResourceUtil;
+import org.apache.sling.jcr.resource.internal.JcrResourceResolver2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>AliasIndex</code> keeps an index of all <code>sling:alias</code>
+ * properties in the repository. The index is loaded with a single query when
+ * created and is kept up to date by listening for repository changes.
+ * <p>
+ * As with the {@link JcrResourceResolver2#getProperty(org.apache.sling.api.resource.Resource, String)}
+ * method an alias may either be set on a node itself or on its
+ * <code>jcr:content</code> child node, where the former takes precedence.
+ * <p>
+ * The index only contains names and paths. Resolution of the actual resources
+ * is still done with the session of the respective resource resolver, such
+ * that access control is not bypassed by the index.
+ * <p>
+ * Since the order in which observation listeners are called is not defined,
+ * the index invalidates the affected entries of the {@link ResolutionCache}
+ * itself once changed aliases have been applied. Otherwise a mapping computed
+ * with the old aliases might be cached after the cache handled the event.
+ */
+public class AliasIndex implements EventListener {
+
+    private static final String JCR_CONTENT = "jcr:content";
+
+    private static final String JCR_CONTENT_SUFFIX = "/" + JCR_CONTENT;
+
+    private static final String ALIAS_PROPERTY_SUFFIX = "/"
+        + JcrResourceResolver2.PROP_ALIAS;
+
+    /**
+     * The trees written by the event and job handling, which frequently add
+     * and remove nodes and never contain aliased resources.
+     */
+    private static final String[] EXCLUDED_PREFIXES = { "/var/eventing/",
+        "/sling/events/" };
+
+    private static final String ALIAS_QUERY = "SELECT "
+        + JcrResourceResolver2.PROP_ALIAS + " FROM nt:base WHERE "
+        + JcrResourceResolver2.PROP_ALIAS + " IS NOT NULL";
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ResolutionCache resolutionCache;
+
+    private Session session;
+
+    /** parent path -> (alias -> child name) */
+    private volatile Map<String, Map<String, String>> aliasMap;
+
+    /** resource path -> aliases */
+    private volatile Map<String, String[]> pathMap;
+
+    /**
+     * Creates the index.
+     *
+     * @param resolutionCache The cache to invalidate when aliases change or
+     *            <code>null</code> if results are not cached.
+     */
+    public AliasIndex(SlingRepository repository,
+            ResolutionCache resolutionCache) throws RepositoryException {
+        this.resolutionCache = resolutionCache;
+        this.session = repository.loginAdministrative(null);
+        this.aliasMap = new ConcurrentHashMap<String, Map<String, String>>();
+        this.pathMap = new ConcurrentHashMap<String, String[]>();
+
+        try {
+            session.getWorkspace().getObservationManager().addEventListener(
+                this, 255, "/", true, null, null, false);
+        } catch (RepositoryException re) {
+            log.error(
+                "AliasIndex<init>: Failed registering as observation listener",
+                re);
+        }
+
+        init();
+    }
+
+    public void dispose() {
+        Session oldSession;
+        synchronized (this) {
+            // signal to the event handler to stop working
+            oldSession = session;
+            session = null;
+        }
+
+        if (oldSession != null) {
+            try {
+                oldSession.getWorkspace().getObservationManager().removeEventListener(
+                    this);
+            } catch (RepositoryException re) {
+                log.error(
+                    "dispose: Failed unregistering as observation listener", re);
+            }
+
+            try {
+                oldSession.logout();
+            } catch (Exception e) {
+                log.error("dispose: Unexpected problem logging out", e);
+            }
+        }
+
+        aliasMap = Collections.emptyMap();
+        pathMap = Collections.emptyMap();
+    }
+
+    /**
+     * Returns the name of the child of the resource at <code>parentPath</code>
+     * having the given <code>alias</code> or <code>null</code> if no child
+     * has that alias.
+     */
+    public String getChildName(String parentPath, String alias) {
+        Map<String, String> aliases = aliasMap.get(parentPath);
+        return (aliases != null) ? aliases.get(alias) : null;
+    }
+
+    /**
+     * Returns the (first) alias of the resource at <code>path</code> or
+     * <code>null</code> if the resource has no alias.
+     */
+    public String getAlias(String path) {
+        String[] aliases = pathMap.get(path);
+        return (aliases != null) ? aliases[0] : null;
+    }
+
+    /** Returns the number of resources having an alias */
+    public int size() {
+        return pathMap.size();
+    }
+
+    // ---------- EventListener interface
+
+    public void onEvent(EventIterator events) {
+        List<String> removed = new ArrayList<String>();
+        List<String> changed = new ArrayList<String>();
+        boolean added = false;
+
+        while (session != null && events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                if (isExcluded(path)) {
+                    continue;
+                }
+                switch (event.getType()) {
+                    case Event.NODE_ADDED:
+                        added = true;
+                        break;
+
+                    case Event.NODE_REMOVED:
+                        removed.add(path);
+                        break;
+
+                    case Event.PROPERTY_ADDED:
+                    case Event.PROPERTY_CHANGED:
+                    case Event.PROPERTY_REMOVED:
+                        if (path.endsWith(ALIAS_PROPERTY_SUFFIX)) {
+                            changed.add(ResourceUtil.getParent(path));
+                        }
+                        break;
+                }
+            } catch (Throwable t) {
+                log.warn("onEvent: Cannot complete event handling", t);
+            }
+        }
+
+        if (session == null) {
+            log.info("onEvent: Already disposed, not updating");
+            return;
+        }
+
+        Set<String> roots = new HashSet<String>();
+        try {
+            boolean reload = false;
+            for (String path : removed) {
+                if (removeSubtree(path)) {
+                    roots.add(getRoot(path));
+
+                    // aliased nodes may have been moved, which is not
+                    // reported for the properties of the moved nodes, so we
+                    // have to reload to find them at their new location
+                    reload |= added;
+                }
+            }
+
+            if (reload) {
+                init();
+                roots.add("/");
+            } else {
+                for (String path : changed) {
+                    update(path);
+                    roots.add(getRoot(path));
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("onEvent: Failed updating alias index after changes", t);
+            roots.add("/");
+        }
+
+        if (resolutionCache != null) {
+            resolutionCache.invalidate(roots);
+        }
+    }
+
+    // ---------- internal
+
+    /**
+     * Loads all aliases from the repository with a single query and replaces
+     * the current index.
+     */
+    private void init() {
+        Map<String, Map<String, String>> newAliasMap = new ConcurrentHashMap<String, Map<String, String>>();
+        Map<String, String[]> newPathMap = new ConcurrentHashMap<String, String[]>();
+
+        synchronized (this) {
+            if (session == null) {
+                return;
+            }
+
+            try {
+                session.refresh(false);
+                NodeIterator nodes = JcrResourceUtil.query(session,
+                    ALIAS_QUERY, Query.SQL).getNodes();
+                while (nodes.hasNext()) {
+                    Node node = nodes.nextNode();
+                    String target = getTargetPath(node.getPath());
+                    if (target != null && !newPathMap.containsKey(target)) {
+                        String[] aliases = readAliases(target);
+                        if (aliases != null) {
+                            put(newAliasMap, newPathMap, target, aliases);
+                        }
+                    }
+                }
+            } catch (RepositoryException re) {
+                log.error("init: Failed loading aliases", re);
+            }
+
+            this.aliasMap = newAliasMap;
+            this.pathMap = newPathMap;
+        }
+
+        log.debug("init: Loaded aliases of {} resources", newPathMap.size());
+    }
+
+    /**
+     * Rereads the aliases for the resource providing the alias property at
+     * <code>nodePath</code>.
+     */
+    private synchronized void update(String nodePath) {
+        if (session == null) {
+            return;
+        }
+
+        String target = getTargetPath(nodePath);
+        if (target == null) {
+            return;
+        }
+
+        remove(target);
+
+        try {
+            session.refresh(false);
+            String[] aliases = readAliases(target);
+            if (aliases != null) {
+                put(aliasMap, pathMap, target, aliases);
+                log.debug("update: Aliases of {} are now {}", target, aliases);
+            }
+        } catch (RepositoryException re) {
+            log.warn("update: Failed reading aliases of " + target, re);
+        }
+    }
+
+    /**
+     * Removes all aliases of the resources at or below <code>path</code>. If
+     * <code>path</code> is a <code>jcr:content</code> node the aliases of
+     * the parent are reread.
+     */
+    private synchronized boolean removeSubtree(String path) {
+        boolean removed = remove(path);
+
+        String prefix = path.concat("/");
+        for (Iterator<String> pi = pathMap.keySet().iterator(); pi.hasNext();) {
+            String target = pi.next();
+            if (target.startsWith(prefix)) {
+                removed |= remove(target);
+            }
+        }
+
+        if (path.endsWith(JCR_CONTENT_SUFFIX)) {
+            update(path);
+            removed = true;
+        }
+        return removed;
+    }
+
+    private boolean remove(String target) {
+        String[] aliases = pathMap.remove(target);
+        if (aliases != null) {
+            String parent = ResourceUtil.getParent(target);
+            Map<String, String> current = aliasMap.get(parent);
+            if (current != null) {
+                Map<String, String> newAliases = new HashMap<String, String>(
+                    current);
+                for (String alias : aliases) {
+                    newAliases.remove(alias);
+                }
+                if (newAliases.isEmpty()) {
+                    aliasMap.remove(parent);
+                } else {
+                    aliasMap.put(parent, newAliases);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void put(Map<String, Map<String, String>> aliasMap,
+            Map<String, String[]> pathMap, String target, String[] aliases) {
+        String parent = ResourceUtil.getParent(target);
+        String name = ResourceUtil.getName(target);
+
+        // inner maps are never modified once published
+        Map<String, String> current = aliasMap.get(parent);
+        Map<String, String> newAliases = (current == null)
+                ? new HashMap<String, String>()
+                : new HashMap<String, String>(current);
+        for (String alias : aliases) {
+            newAliases.put(alias, name);
+        }
+
+        aliasMap.put(parent, newAliases);
+        pathMap.put(target, aliases);
+    }
+
+    /**
+     * Returns the aliases of the node at <code>target</code>, or of its
+     * <code>jcr:content</code> child node if the node itself has no alias.
+     * Returns <code>null</code> if neither node has an alias.
+     */
+    private String[] readAliases(String target) throws RepositoryException {
+        if (!session.itemExists(target)) {
+            return null;
+        }
+
+        Item item = session.getItem(target);
+        if (!item.isNode()) {
+            return null;
+        }
+
+        Node node = (Node) item;
+        String[] aliases = readAliases(node);
+        if (aliases == null && node.hasNode(JCR_CONTENT)) {
+            aliases = readAliases(node.getNode(JCR_CONTENT));
+        }
+        return aliases;
+    }
+
+    private String[] readAliases(Node node) throws RepositoryException {
+        if (!node.hasProperty(JcrResourceResolver2.PROP_ALIAS)) {
+            return null;
+        }
+
+        Property prop = node.getProperty(JcrResourceResolver2.PROP_ALIAS);
+        List<String> aliases = new ArrayList<String>();
+        if (prop.getDefinition().isMultiple()) {
+            for (Value value : prop.getValues()) {
+                addAlias(aliases, value.getString());
+            }
+        } else {
+            addAlias(aliases, prop.getString());
+        }
+
+        return aliases.isEmpty()
+                ? null
+                : aliases.toArray(new String[aliases.size()]);
+    }
+
+    private void addAlias(List<String> aliases, String alias) {
+        // ignore empty aliases and aliases which cannot be path segments
+        if (alias != null && alias.length() > 0 && alias.indexOf('/') < 0) {
+            aliases.add(alias);
+        }
+    }
+
+    private static boolean isExcluded(String path) {
+        for (String prefix : EXCLUDED_PREFIXES) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the path of the resource to which an alias set on the node at
+     * <code>nodePath</code> applies. This is the parent path for
+     * <code>jcr:content</code> nodes and the node path otherwise. Returns
+     * <code>null</code> for the root node, which cannot have an alias.
+     */
+    private static String getTargetPath(String nodePath) {
+        if (nodePath.endsWith(JCR_CONTENT_SUFFIX)) {
+            nodePath = ResourceUtil.getParent(nodePath);
+        }
+        return ("/".equals(nodePath)) ? null : nodePath;
+    }
+
+    /**
+     * Returns the path below which cached resolutions and mappings depend on
+     * the alias set on the node at <code>nodePath</code>, which is the parent
+     * of the resource having the alias.
+     */
+    private static String getRoot(String nodePath) {
+        String target = getTargetPath(nodePath);
+        String parent = (target != null) ? ResourceUtil.getParent(target) : null;
+        return (parent != null) ? parent : "/";
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>BoundedCache</code> is a size limited cache evicting the least
+ * recently used entries. To reduce lock contention the cache is split into a
+ * number of segments, each of which is an access ordered
+ * <code>LinkedHashMap</code> guarded by its own lock.
+ * <p>
+ * The cache keeps counters of the cache hits, misses, evictions and
+ * invalidations for display in the web console.
+ */
+public class BoundedCache<V> {
+
+    /**
+     * The <code>Invalidator</code> interface is implemented by callers of the
+     * {@link BoundedCache#invalidate(Invalidator)} method to select the
+     * entries to remove from the cache.
+     */
+    public static interface Invalidator<V> {
+
+        /**
+         * Returns <code>true</code> if the entry with the given
+         * <code>key</code> and <code>value</code> is to be removed.
+         */
+        boolean isInvalid(String key, V value);
+    }
+
+    /**
+     * The <code>EvictionListener</code> interface is implemented by users of
+     * the cache which have to be informed about entries evicted to make
+     * room for new entries. The listener is called while holding the lock of
+     * the segment of the entry.
+     */
+    public static interface EvictionListener<V> {
+
+        /**
+         * Called when the entry with the given <code>key</code> and
+         * <code>value</code> is evicted.
+         */
+        void evicted(String key, V value);
+    }
+
+    private static final int NUM_SEGMENTS = 16;
+
+    private final Segment<V>[] segments;
+
+    private final int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public BoundedCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Creates a cache informing the <code>evictionListener</code> about
+     * evicted entries.
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(int maxSize, EvictionListener<V> evictionListener) {
+        this.maxSize = maxSize;
+
+        int segmentSize = Math.max(1, (maxSize + NUM_SEGMENTS - 1)
+            / NUM_SEGMENTS);
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<V>(segmentSize, evictions,
+                evictionListener);
+        }
+    }
+
+    /**
+     * Returns the value cached for the <code>key</code> or <code>null</code>
+     * if there is none.
+     */
+    public V get(String key) {
+        Segment<V> segment = getSegment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Caches the <code>value</code> for the <code>key</code>, possibly
+     * evicting the least recently used entry of the segment.
+     *
+     * @return The value replaced by the <code>value</code> or
+     *         <code>null</code> if there was none.
+     */
+    public V put(String key, V value) {
+        Segment<V> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    /**
+     * Removes the entry for the <code>key</code>.
+     *
+     * @return The removed value or <code>null</code> if there was none.
+     */
+    public V remove(String key) {
+        Segment<V> segment = getSegment(key);
+        synchronized (segment) {
+            V value = segment.remove(key);
+            if (value != null) {
+                invalidations.incrementAndGet();
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Removes all entries for which the <code>invalidator</code> returns
+     * <code>true</code>.
+     */
+    public void invalidate(Invalidator<V> invalidator) {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                for (Iterator<Map.Entry<String, V>> ei = segment.entrySet().iterator(); ei.hasNext();) {
+                    Map.Entry<String, V> entry = ei.next();
+                    if (invalidator.isInvalid(entry.getKey(), entry.getValue())) {
+                        ei.remove();
+                        invalidations.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                invalidations.addAndGet(segment.size());
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private Segment<V> getSegment(String key) {
+        // spread the hash code bits before selecting the segment
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & (NUM_SEGMENTS - 1)];
+    }
+
+    private static class Segment<V> extends LinkedHashMap<String, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        private final AtomicLong evictions;
+
+        private final EvictionListener<V> evictionListener;
+
+        Segment(int maxSize, AtomicLong evictions,
+                EvictionListener<V> evictionListener) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.evictions = evictions;
+            this.evictionListener = evictionListener;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            if (size() > maxSize) {
+                evictions.incrementAndGet();
+                if (evictionListener != null) {
+                    evictionListener.evicted(eldest.getKey(), eldest.getValue());
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ChangeCounter</code> counts the batches of changes saved to the
+ * repository. Request scoped caches compare the current count with the count
+ * at the time they were filled to find out whether they have to be cleared.
+ * <p>
+ * Changes below the excluded paths, e.g. the trees written by the event and
+ * job handling, are not counted, such that these frequent writes do not
+ * clear the caches of all requests. Resources below these paths are only
+ * guaranteed to be up to date in a request if they are changed through the
+ * session of the request itself.
+ */
+public class ChangeCounter implements EventListener {
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /** the excluded paths, each with a trailing slash */
+    private final String[] excludedPrefixes;
+
+    private Session session;
+
+    public ChangeCounter(SlingRepository repository, String[] excludedPaths)
+            throws RepositoryException {
+        if (excludedPaths == null) {
+            this.excludedPrefixes = new String[0];
+        } else {
+            this.excludedPrefixes = new String[excludedPaths.length];
+            for (int i = 0; i < excludedPaths.length; i++) {
+                String path = excludedPaths[i];
+                this.excludedPrefixes[i] = path.endsWith("/")
+                        ? path
+                        : path.concat("/");
+            }
+        }
+
+        this.session = repository.loginAdministrative(null);
+
+        try {
+            session.getWorkspace().getObservationManager().addEventListener(
+                this, 255, "/", true, null, null, false);
+        } catch (RepositoryException re) {
+            log.error(
+                "ChangeCounter<init>: Failed registering as observation listener",
+                re);
+        }
+    }
+
+    public void dispose() {
+        Session oldSession;
+        synchronized (this) {
+            oldSession = session;
+            session = null;
+        }
+
+        if (oldSession != null) {
+            try {
+                oldSession.getWorkspace().getObservationManager().removeEventListener(
+                    this);
+            } catch (RepositoryException re) {
+                log.error(
+                    "dispose: Failed unregistering as observation listener", re);
+            }
+
+            try {
+                oldSession.logout();
+            } catch (Exception e) {
+                log.error("dispose: Unexpected problem logging out", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of batches of changes observed so far.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    // ---------- EventListener interface
+
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                if (!isExcluded(event.getPath())) {
+                    generation.incrementAndGet();
+                    return;
+                }
+            } catch (RepositoryException re) {
+                // count the batch if we cannot tell where the change is
+                generation.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    // ---------- internal
+
+    private boolean isExcluded(String path) {
+        String prefix = path.concat("/");
+        for (String excluded : excludedPrefixes) {
+            if (prefix.startsWith(excluded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The <code>DependencyIndex</code> maps the paths on which cache entries
+ * depend to the keys of these entries. This allows to find the entries
+ * depending on the paths below a changed node without scanning the complete
+ * cache.
+ * <p>
+ * As with the former scan, a path depends on a root path if it starts with
+ * the root path. This may select some more entries than strictly needed,
+ * e.g. <code>/a/bc</code> for the root <code>/a/b</code>, which does no harm.
+ */
+public class DependencyIndex {
+
+    /** The keys of the cache entries by dependency path */
+    private final TreeMap<String, Set<String>> keysByPath = new TreeMap<String, Set<String>>();
+
+    /**
+     * Adds the <code>key</code> for each of the <code>paths</code>.
+     */
+    public synchronized void add(String key, String[] paths) {
+        for (String path : paths) {
+            Set<String> keys = keysByPath.get(path);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysByPath.put(path, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Removes the <code>key</code> from each of the <code>paths</code>
+     * except the paths in <code>keep</code>, which may be <code>null</code>.
+     */
+    public synchronized void remove(String key, String[] paths, String[] keep) {
+        for (String path : paths) {
+            if (keep != null && contains(keep, path)) {
+                continue;
+            }
+            Set<String> keys = keysByPath.get(path);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByPath.remove(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all paths starting with any of the <code>roots</code> from the
+     * index and returns the keys indexed for these paths.
+     */
+    public synchronized Set<String> removeBelow(Collection<String> roots) {
+        Set<String> result = new HashSet<String>();
+        for (String root : roots) {
+            SortedMap<String, Set<String>> below = keysByPath.subMap(root,
+                root + '\uffff');
+            for (Iterator<Map.Entry<String, Set<String>>> ei = below.entrySet().iterator(); ei.hasNext();) {
+                result.addAll(ei.next().getValue());
+                ei.remove();
+            }
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        keysByPath.clear();
+    }
+
+    /**
+     * Returns the number of indexed paths.
+     */
+    public synchronized int size() {
+        return keysByPath.size();
+    }
+
+    private static boolean contains(String[] paths, String path) {
+        for (String candidate : paths) {
+            if (candidate.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
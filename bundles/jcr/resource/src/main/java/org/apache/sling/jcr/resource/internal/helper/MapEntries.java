@@ -66,7 +66,7 @@ public class MapEntries implements EventListener {
 
     private Session session;
 
-    private List<MapEntry> resolveMaps;
+    private volatile MapEntryIndex resolveIndex;
 
     private Collection<MapEntry> mapMaps;
 
@@ -77,7 +77,7 @@ public class MapEntries implements EventListener {
         factory = null;
         resolver = null;
 
-        resolveMaps = Collections.<MapEntry> emptyList();
+        resolveIndex = MapEntryIndex.EMPTY;
         mapMaps = Collections.<MapEntry> emptyList();
     }
 
@@ -125,7 +125,7 @@ public class MapEntries implements EventListener {
             // load the configuration into the mapper map
             loadMapConfiguration(factory, newMapMaps);
 
-            this.resolveMaps = newResolveMaps;
+            this.resolveIndex = new MapEntryIndex(newResolveMaps);
             this.mapMaps = new TreeSet<MapEntry>(newMapMaps.values());
 
         } finally {
@@ -181,7 +181,15 @@ public class MapEntries implements EventListener {
     }
 
     public List<MapEntry> getResolveMaps() {
-        return resolveMaps;
+        return resolveIndex.getEntries();
+    }
+
+    /**
+     * Returns the index of the resolution entries. The index is an immutable
+     * snapshot replaced as a whole whenever the mappings are reloaded.
+     */
+    public MapEntryIndex getResolveIndex() {
+        return resolveIndex;
     }
 
     public Collection<MapEntry> getMapMaps() {
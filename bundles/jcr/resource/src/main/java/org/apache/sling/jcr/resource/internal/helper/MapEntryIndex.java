@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>MapEntryIndex</code> is an immutable index over the list of
+ * resolution {@link MapEntry} instances. Each entry is filed in a character
+ * trie under the literal prefix of its regular expression such that for a
+ * given request path only those entries have to be matched whose literal
+ * prefix is actually a prefix of the request path.
+ * <p>
+ * Since the request path has the form <code>{scheme}/{host}.{port}{path}</code>
+ * the trie partitions the entries by scheme, host and port first and by the
+ * path prefix next. Entries which match any scheme and host (such as vanity
+ * paths and configured virtual URLs) are filed in a second trie keyed by the
+ * path part of the request path only.
+ * <p>
+ * The {@link #getCandidates(String)} method returns the candidate entries in
+ * the same order as the entries have been given to the constructor such that
+ * resolution semantics (first match wins) are retained.
+ */
+public class MapEntryIndex {
+
+    /** An empty index, not containing any entries */
+    public static final MapEntryIndex EMPTY = new MapEntryIndex(
+        Collections.<MapEntry> emptyList());
+
+    /**
+     * The regular expression prefix matching any scheme and host.port part of
+     * a request path. Entries starting with this prefix are indexed by their
+     * path prefix only.
+     */
+    static final String ANY_SCHEME_HOST = "^[^/]+/[^/]+";
+
+    /** The characters with special meaning in regular expressions */
+    private static final String REGEXP_META = "\\^$.|?*+()[]{}";
+
+    /** The entries in their original order */
+    private final List<MapEntry> entries;
+
+    /** Trie of entries indexed by the literal prefix of the full pattern */
+    private final Node requestPathRoot;
+
+    /** Trie of entries matching any scheme and host, indexed by path */
+    private final Node pathRoot;
+
+    public MapEntryIndex(List<MapEntry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<MapEntry>(
+            entries));
+        this.requestPathRoot = new Node();
+        this.pathRoot = new Node();
+
+        for (int i = 0; i < this.entries.size(); i++) {
+            String pattern = this.entries.get(i).getPattern();
+            if (pattern.startsWith(ANY_SCHEME_HOST)) {
+                String prefix = getLiteralPrefix(pattern.substring(ANY_SCHEME_HOST.length()));
+                if (prefix.startsWith("/")) {
+                    pathRoot.add(prefix, i);
+                    continue;
+                }
+            }
+
+            // strip the start hook (always present, see MapEntry)
+            if (pattern.startsWith("^")) {
+                pattern = pattern.substring(1);
+            }
+            requestPathRoot.add(getLiteralPrefix(pattern), i);
+        }
+    }
+
+    /**
+     * Returns all entries in their original order.
+     */
+    public List<MapEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the entries, which may match the given request path, in their
+     * original order. Entries not contained in the returned list are
+     * guaranteed not to match the request path.
+     *
+     * @param requestPath The request path as returned from
+     *            {@link org.apache.sling.jcr.resource.internal.JcrResourceResolver2#getMapPath(String, String, int, String)}
+     */
+    public List<MapEntry> getCandidates(String requestPath) {
+        if (entries.isEmpty()) {
+            return entries;
+        }
+
+        IndexCollector collector = new IndexCollector();
+        requestPathRoot.collect(requestPath, 0, collector);
+
+        // the path starts after the second slash: {scheme}/{host}.{port}/...
+        int slash = requestPath.indexOf('/');
+        if (slash >= 0) {
+            slash = requestPath.indexOf('/', slash + 1);
+            if (slash >= 0) {
+                pathRoot.collect(requestPath, slash, collector);
+            }
+        }
+
+        return collector.toEntries(entries);
+    }
+
+    /**
+     * Returns the literal prefix of the regular expression <code>pattern</code>,
+     * that is the longest string every match of the pattern must start with.
+     * If the pattern contains an alternation the empty string is returned
+     * because the alternation may apply to the complete pattern.
+     */
+    static String getLiteralPrefix(String pattern) {
+        // we do not try to analyze alternations
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '|') {
+                return "";
+            }
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                // escaped meta character is literal, anything else (\d, \Q
+                // etc.) terminates the literal prefix
+                if (i + 1 < pattern.length()
+                    && REGEXP_META.indexOf(pattern.charAt(i + 1)) >= 0) {
+                    i++;
+                    c = pattern.charAt(i);
+                } else {
+                    break;
+                }
+            } else if (REGEXP_META.indexOf(c) >= 0) {
+                // any other meta character terminates the literal prefix
+                // (+ requires the previous character at least once)
+                break;
+            }
+
+            // a literal character followed by a quantifier is optional
+            if (i + 1 < pattern.length()) {
+                char next = pattern.charAt(i + 1);
+                if (next == '?' || next == '*' || next == '{') {
+                    break;
+                }
+            }
+
+            prefix.append(c);
+        }
+
+        return prefix.toString();
+    }
+
+    // ---------- internal
+
+    /**
+     * A node in the character trie. Each node holds the indices of the
+     * entries whose literal prefix ends at this node.
+     */
+    private static class Node {
+
+        private Map<Character, Node> children;
+
+        private int[] indices;
+
+        void add(String prefix, int index) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                if (node.children == null) {
+                    node.children = new HashMap<Character, Node>();
+                }
+                Character c = Character.valueOf(prefix.charAt(i));
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+
+            if (node.indices == null) {
+                node.indices = new int[] { index };
+            } else {
+                int[] newIndices = new int[node.indices.length + 1];
+                System.arraycopy(node.indices, 0, newIndices, 0,
+                    node.indices.length);
+                newIndices[node.indices.length] = index;
+                node.indices = newIndices;
+            }
+        }
+
+        void collect(String path, int start, IndexCollector collector) {
+            Node node = this;
+            int i = start;
+            while (node != null) {
+                if (node.indices != null) {
+                    collector.add(node.indices);
+                }
+                if (node.children == null || i >= path.length()) {
+                    break;
+                }
+                node = node.children.get(Character.valueOf(path.charAt(i)));
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Collects entry indices from the trie nodes and returns the respective
+     * entries in the original order.
+     */
+    private static class IndexCollector {
+
+        private int[] indices = new int[8];
+
+        private int size;
+
+        void add(int[] newIndices) {
+            if (size + newIndices.length > indices.length) {
+                int[] tmp = new int[Math.max(indices.length * 2, size
+                    + newIndices.length)];
+                System.arraycopy(indices, 0, tmp, 0, size);
+                indices = tmp;
+            }
+            System.arraycopy(newIndices, 0, indices, size, newIndices.length);
+            size += newIndices.length;
+        }
+
+        List<MapEntry> toEntries(List<MapEntry> entries) {
+            if (size == 0) {
+                return Collections.<MapEntry> emptyList();
+            }
+
+            Arrays.sort(indices, 0, size);
+            List<MapEntry> result = new ArrayList<MapEntry>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(entries.get(indices[i]));
+            }
+            return result;
+        }
+    }
+}
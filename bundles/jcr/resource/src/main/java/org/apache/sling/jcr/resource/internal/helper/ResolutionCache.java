@@ -0,0 +1,538 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.jcr.resource.internal.JcrResourceResolver2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ResolutionCache</code> caches the outcome of the
+ * <code>ResourceResolver.resolve</code> and <code>ResourceResolver.map</code>
+ * methods. Only paths and URLs are cached, never <code>Resource</code>
+ * objects, since these are bound to the session of the resource resolver
+ * which created them.
+ * <p>
+ * Cache entries are invalidated by observing the repository: Adding or
+ * removing a node or changing a <code>sling:alias</code> property invalidates
+ * all entries whose resolution depends on paths in the subtree of the parent
+ * node. To find these entries without scanning the caches, the entries are
+ * indexed by the paths they depend on. Entries created with outdated mappings from {@link MapEntries} are
+ * ignored such that changes to <code>/etc/map</code> and vanity paths need
+ * not be tracked separately.
+ * <p>
+ * Since results are computed before they are put into the cache, an
+ * invalidation might happen in between. Each invalidation therefore
+ * increments the invalidation generation, which callers read with
+ * {@link #getInvalidationGeneration()} before computing a result and hand
+ * to the put methods. Results computed before an invalidation are not
+ * cached.
+ */
+public class ResolutionCache implements EventListener {
+
+    /** The request path resolves to an external redirect */
+    public static final int TYPE_REDIRECT = 0;
+
+    /** The request path resolves to an existing resource */
+    public static final int TYPE_RESOURCE = 1;
+
+    /** The request path does not resolve to an existing resource */
+    public static final int TYPE_NON_EXISTING = 2;
+
+    private static final String JCR_CONTENT_SUFFIX = "/jcr:content";
+
+    private static final String ALIAS_PROPERTY_SUFFIX = "/"
+        + JcrResourceResolver2.PROP_ALIAS;
+
+    /**
+     * The <code>Entry</code> class represents the cached outcome of resolving
+     * a single request path.
+     */
+    public static class Entry {
+
+        private final MapEntryIndex resolveIndex;
+
+        private final int type;
+
+        private final String path;
+
+        private final String resolutionPathInfo;
+
+        private final String[] dependencies;
+
+        Entry(MapEntryIndex resolveIndex, int type, String path,
+                String resolutionPathInfo, String[] dependencies) {
+            this.resolveIndex = resolveIndex;
+            this.type = type;
+            this.path = path;
+            this.resolutionPathInfo = resolutionPathInfo;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * Returns the type of this entry, one of {@link #TYPE_REDIRECT},
+         * {@link #TYPE_RESOURCE} or {@link #TYPE_NON_EXISTING}.
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Returns the redirect target, the path of the resolved resource or
+         * the path of the non-existing resource depending on the type.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the resolution path info of the resolved resource.
+         */
+        public String getResolutionPathInfo() {
+            return resolutionPathInfo;
+        }
+
+    }
+
+    /**
+     * The <code>MappingEntry</code> class represents the cached outcome of
+     * mapping a single resource path.
+     */
+    private static class MappingEntry {
+
+        private final Collection<MapEntry> mapMaps;
+
+        private final String url;
+
+        private final String[] dependencies;
+
+        MappingEntry(Collection<MapEntry> mapMaps, String url,
+                String dependency) {
+            this.mapMaps = mapMaps;
+            this.url = url;
+            this.dependencies = new String[] { dependency };
+        }
+    }
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final BoundedCache<Entry> cache;
+
+    private final BoundedCache<MappingEntry> mapCache;
+
+    /** The keys of the resolution results by dependency path */
+    private final DependencyIndex dependencyIndex = new DependencyIndex();
+
+    /** The keys of the mapping results by dependency path */
+    private final DependencyIndex mapDependencyIndex = new DependencyIndex();
+
+    /** Incremented by each invalidation */
+    private final AtomicLong invalidationGeneration = new AtomicLong();
+
+    private Session session;
+
+    /** The name of the observed workspace */
+    private final String workspaceName;
+
+    /**
+     * Creates the cache.
+     *
+     * @param maxSize The maximum number of cached resolution results. If zero
+     *            resolution results are not cached.
+     * @param mapMaxSize The maximum number of cached mapping results. If
+     *            zero mapping results are not cached.
+     */
+    public ResolutionCache(SlingRepository repository, int maxSize,
+            int mapMaxSize) throws RepositoryException {
+        this.cache = (maxSize > 0) ? new BoundedCache<Entry>(maxSize,
+            new BoundedCache.EvictionListener<Entry>() {
+                public void evicted(String key, Entry value) {
+                    dependencyIndex.remove(key, value.dependencies, null);
+                }
+            }) : null;
+        this.mapCache = (mapMaxSize > 0)
+                ? new BoundedCache<MappingEntry>(mapMaxSize,
+                    new BoundedCache.EvictionListener<MappingEntry>() {
+                        public void evicted(String key, MappingEntry value) {
+                            mapDependencyIndex.remove(key, value.dependencies,
+                                null);
+                        }
+                    })
+                : null;
+        this.session = repository.loginAdministrative(null);
+        this.workspaceName = session.getWorkspace().getName();
+
+        try {
+            session.getWorkspace().getObservationManager().addEventListener(
+                this, 255, "/", true, null, null, false);
+        } catch (RepositoryException re) {
+            log.error(
+                "ResolutionCache<init>: Failed registering as observation listener",
+                re);
+        }
+    }
+
+    public void dispose() {
+        Session oldSession;
+        synchronized (this) {
+            // signal to the event handler to stop working
+            oldSession = session;
+            session = null;
+        }
+
+        if (oldSession != null) {
+            try {
+                oldSession.getWorkspace().getObservationManager().removeEventListener(
+                    this);
+            } catch (RepositoryException re) {
+                log.error(
+                    "dispose: Failed unregistering as observation listener", re);
+            }
+
+            try {
+                oldSession.logout();
+            } catch (Exception e) {
+                log.error("dispose: Unexpected problem logging out", e);
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Returns <code>true</code> if resolution results are cached.
+     */
+    public boolean isResolveCacheEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns <code>true</code> if mapping results are cached.
+     */
+    public boolean isMapCacheEnabled() {
+        return mapCache != null;
+    }
+
+    /**
+     * Returns <code>true</code> if results computed with the
+     * <code>session</code> may be cached. Only changes of the default
+     * workspace are observed, so results computed in other workspaces are
+     * never cached.
+     */
+    public boolean isCacheable(Session session) {
+        return workspaceName.equals(session.getWorkspace().getName());
+    }
+
+    /**
+     * Returns the cache key for resolving the <code>requestPath</code>.
+     *
+     * @param userId The ID of the user on whose behalf the path is resolved.
+     *            Since resolution depends on access control, entries are not
+     *            shared between users.
+     * @param workspaceName The name of the workspace in which the path is
+     *            resolved
+     * @param generation The generation of the resource resolver factory
+     *            configuration
+     * @param requestPath The request path as returned from
+     *            {@link JcrResourceResolver2#getMapPath(String, String, int, String)}
+     */
+    public static String getKey(String userId, String workspaceName,
+            long generation, String requestPath) {
+        StringBuilder buf = new StringBuilder(requestPath.length() + 48);
+        buf.append(generation).append(' ');
+        buf.append(userId).append(' ');
+        buf.append(workspaceName).append(' ');
+        buf.append(requestPath);
+        return buf.toString();
+    }
+
+    /**
+     * Returns the current invalidation generation, to be read before
+     * computing a result to be cached.
+     */
+    public long getInvalidationGeneration() {
+        return invalidationGeneration.get();
+    }
+
+    /**
+     * Returns the entry for the <code>key</code> or <code>null</code> if
+     * there is no entry or if the entry has been created with another map
+     * entry index than the <code>currentIndex</code>.
+     */
+    public Entry get(String key, MapEntryIndex currentIndex) {
+        Entry entry = cache.get(key);
+        if (entry != null && entry.resolveIndex != currentIndex) {
+            remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches an external redirect to <code>target</code>.
+     *
+     * @param generation The invalidation generation read before resolving
+     */
+    public void putRedirect(String key, long generation,
+            MapEntryIndex resolveIndex, String target) {
+        put(key, generation, new Entry(resolveIndex, TYPE_REDIRECT, target, null,
+            new String[0]));
+    }
+
+    /**
+     * Caches the resolution to the resource at <code>path</code>.
+     *
+     * @param generation The invalidation generation read before resolving
+     * @param dependencies The absolute paths whose resolution yielded the
+     *            resource
+     */
+    public void putResource(String key, long generation,
+            MapEntryIndex resolveIndex, String path, String resolutionPathInfo,
+            String[] dependencies) {
+        put(key, generation, new Entry(resolveIndex, TYPE_RESOURCE, path,
+            resolutionPathInfo, dependencies));
+    }
+
+    /**
+     * Caches the fact that no resource could be found.
+     *
+     * @param generation The invalidation generation read before resolving
+     * @param path The path of the non-existing resource
+     * @param dependencies The absolute paths which did not resolve
+     */
+    public void putNonExisting(String key, long generation,
+            MapEntryIndex resolveIndex, String path, String[] dependencies) {
+        put(key, generation, new Entry(resolveIndex, TYPE_NON_EXISTING, path, null,
+            dependencies));
+    }
+
+    private void put(String key, long generation, Entry entry) {
+        if (generation != invalidationGeneration.get()) {
+            log.debug("put: Not caching outdated resolution of {}", key);
+            return;
+        }
+
+        // index first such that a concurrent invalidation finds the entry
+        dependencyIndex.add(key, entry.dependencies);
+        Entry old = cache.put(key, entry);
+        if (old != null) {
+            dependencyIndex.remove(key, old.dependencies, entry.dependencies);
+        }
+
+        // an invalidation started since the check above might have missed
+        // the entry, so better drop it
+        if (generation != invalidationGeneration.get()) {
+            remove(key);
+        }
+    }
+
+    private void remove(String key) {
+        Entry old = cache.remove(key);
+        if (old != null) {
+            dependencyIndex.remove(key, old.dependencies, null);
+        }
+    }
+
+    /**
+     * Returns the cache key for mapping the <code>resourcePath</code>.
+     *
+     * @param userId The ID of the user on whose behalf the path is mapped.
+     * @param workspaceName The name of the workspace in which the path is
+     *            mapped
+     * @param generation The generation of the resource resolver factory
+     *            configuration
+     * @param schemeHostPort The scheme, host and port of the request or
+     *            <code>null</code> if mapping without a request
+     * @param contextPath The servlet context path of the request or
+     *            <code>null</code> if mapping without a request
+     * @param resourcePath The resource path to map
+     */
+    public static String getMapKey(String userId, String workspaceName,
+            long generation, String schemeHostPort, String contextPath,
+            String resourcePath) {
+        StringBuilder buf = new StringBuilder(resourcePath.length() + 80);
+        buf.append(generation).append(' ');
+        buf.append(userId).append(' ');
+        buf.append(workspaceName).append(' ');
+        buf.append(schemeHostPort).append(' ');
+        buf.append(contextPath).append(' ');
+        buf.append(resourcePath);
+        return buf.toString();
+    }
+
+    /**
+     * Returns the cached mapping for the <code>key</code> or
+     * <code>null</code> if there is none or if the mapping has been created
+     * with other map entries than the <code>currentMapMaps</code>.
+     */
+    public String getMapping(String key, Collection<MapEntry> currentMapMaps) {
+        MappingEntry entry = mapCache.get(key);
+        if (entry != null && entry.mapMaps != currentMapMaps) {
+            removeMapping(key);
+            return null;
+        }
+        return (entry != null) ? entry.url : null;
+    }
+
+    /**
+     * Caches the <code>url</code> to which a resource path is mapped.
+     *
+     * @param generation The invalidation generation read before mapping
+     * @param mapMaps The map entries used to map the resource path
+     * @param dependency The absolute resource path (without query and
+     *            fragment) which has been mapped
+     */
+    public void putMapping(String key, long generation,
+            Collection<MapEntry> mapMaps, String url, String dependency) {
+        if (generation != invalidationGeneration.get()) {
+            log.debug("putMapping: Not caching outdated mapping of {}", key);
+            return;
+        }
+
+        MappingEntry entry = new MappingEntry(mapMaps, url, dependency);
+        mapDependencyIndex.add(key, entry.dependencies);
+        MappingEntry old = mapCache.put(key, entry);
+        if (old != null) {
+            mapDependencyIndex.remove(key, old.dependencies,
+                entry.dependencies);
+        }
+
+        if (generation != invalidationGeneration.get()) {
+            removeMapping(key);
+        }
+    }
+
+    private void removeMapping(String key) {
+        MappingEntry old = mapCache.remove(key);
+        if (old != null) {
+            mapDependencyIndex.remove(key, old.dependencies, null);
+        }
+    }
+
+    public void clear() {
+        invalidationGeneration.incrementAndGet();
+        if (cache != null) {
+            cache.clear();
+        }
+        if (mapCache != null) {
+            mapCache.clear();
+        }
+        dependencyIndex.clear();
+        mapDependencyIndex.clear();
+    }
+
+    /**
+     * Returns the resolution cache for access to the cache statistics or
+     * <code>null</code> if resolution results are not cached.
+     */
+    public BoundedCache<Entry> getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the mapping cache for access to the cache statistics or
+     * <code>null</code> if mapping results are not cached.
+     */
+    public BoundedCache<?> getMapCache() {
+        return mapCache;
+    }
+
+    // ---------- EventListener interface
+
+    public void onEvent(EventIterator events) {
+        Set<String> roots = new HashSet<String>();
+        while (session != null && events.hasNext()) {
+            Event event = events.nextEvent();
+            try {
+                String path = event.getPath();
+                switch (event.getType()) {
+                    case Event.NODE_ADDED:
+                    case Event.NODE_REMOVED:
+                        roots.add(getParent(path));
+                        break;
+
+                    case Event.PROPERTY_ADDED:
+                    case Event.PROPERTY_CHANGED:
+                    case Event.PROPERTY_REMOVED:
+                        if (path.endsWith(ALIAS_PROPERTY_SUFFIX)) {
+                            String node = ResourceUtil.getParent(path);
+                            if (node.endsWith(JCR_CONTENT_SUFFIX)) {
+                                node = ResourceUtil.getParent(node);
+                            }
+                            roots.add(getParent(node));
+                        }
+                        break;
+                }
+            } catch (Throwable t) {
+                log.warn("onEvent: Cannot complete event handling", t);
+            }
+        }
+
+        invalidate(roots);
+    }
+
+    /**
+     * Invalidates all entries depending on paths starting with any of the
+     * <code>roots</code>. This is called for repository changes and by the
+     * {@link AliasIndex} once it has applied changed aliases.
+     */
+    public void invalidate(Collection<String> roots) {
+        if (roots.isEmpty()) {
+            return;
+        }
+
+        if (roots.contains("/")) {
+            log.debug("invalidate: Clearing resolution cache");
+            clear();
+            return;
+        }
+
+        log.debug("invalidate: Invalidating resolution cache below {}", roots);
+        invalidationGeneration.incrementAndGet();
+        if (cache != null) {
+            for (String key : dependencyIndex.removeBelow(roots)) {
+                remove(key);
+            }
+        }
+        if (mapCache != null) {
+            for (String key : mapDependencyIndex.removeBelow(roots)) {
+                removeMapping(key);
+            }
+        }
+    }
+
+    private static String getParent(String path) {
+        String parent = ResourceUtil.getParent(path);
+        return (parent == null) ? "/" : parent;
+    }
+}
@@ -18,16 +18,13 @@
  */
 package org.apache.sling.jcr.resource.internal.helper;
 
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceProvider;
@@ -35,17 +32,23 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.SyntheticResource;
 
 /**
- * The <code>ResourceProviderEntry</code> class represents a node in the tree
- * of resource providers spanned by the root paths of the provider resources.
+ * The <code>ResourceProviderEntry</code> class represents the root of the
+ * tree of resource providers spanned by the root paths of the provider
+ * resources.
  * <p>
- * This class is comparable to itself to help keep the child entries list sorted
- * by their prefix.
+ * The resource providers registered below the path of this entry are kept in
+ * an immutable {@link ResourceProviderTrie}, which is replaced whenever a
+ * resource provider is added or removed. Thus selecting the resource
+ * providers for a path does not require any synchronization and only walks
+ * the segments of the path.
+ * <p>
+ * This class is comparable to itself to help keep entries sorted by their
+ * prefix.
  */
 public class ResourceProviderEntry implements Comparable<ResourceProviderEntry> {
 
     // the path to resources provided by the resource provider of this
-    // entry. this path is relative to the path of the parent resource
-    // provider entry and has no trailing slash.
+    // entry. this path has no trailing slash.
     private final String path;
 
     // the path to resources provided by the resource provider of this
@@ -57,15 +60,14 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
     // below the path of this entry.
     private final ResourceProvider provider;
 
-    // child resource provider entries sharing the same path prefix of this
-    // entry but with more path elements.
-    private ResourceProviderEntry[] entries;
+    // the resource providers registered below the path of this entry
+    private volatile ResourceProviderTrie trie;
 
     /**
-     * Creates an instance of this class with the given path relative to the
-     * parent resource provider entry, encapsulating the given ResourceProvider.
-     * 
-     * @param path The relative path supported by the provider
+     * Creates an instance of this class with the given path encapsulating the
+     * given ResourceProvider.
+     *
+     * @param path The path supported by the provider
      * @param provider The resource provider to encapsulate by this entry.
      */
     public ResourceProviderEntry(String path, ResourceProvider provider) {
@@ -73,12 +75,13 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
     }
 
     /**
-     * Creates an instance of this class with the given path relative to the
-     * parent resource provider entry, encapsulating the given ResourceProvider,
-     * and a number of inital child entries.
-     * 
-     * @param path The relative path supported by the provider
+     * Creates an instance of this class with the given path, encapsulating
+     * the given ResourceProvider, and a number of inital child entries.
+     *
+     * @param path The path supported by the provider
      * @param provider The resource provider to encapsulate by this entry.
+     * @param entries The initial child entries whose paths are relative to
+     *            the path of this entry. This may be <code>null</code>.
      */
     public ResourceProviderEntry(String path, ResourceProvider provider,
             ResourceProviderEntry[] entries) {
@@ -90,7 +93,17 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
             this.prefix = path + "/";
         }
         this.provider = provider;
-        this.entries = entries;
+        this.trie = ResourceProviderTrie.EMPTY;
+
+        if (entries != null) {
+            for (ResourceProviderEntry entry : entries) {
+                addResourceProvider(this.prefix + entry.path, entry.provider);
+                for (Map.Entry<String, ResourceProvider> child : entry.getTrie().getResourceProviders().entrySet()) {
+                    addResourceProvider(this.prefix + child.getKey(),
+                        child.getValue());
+                }
+            }
+        }
     }
 
     /**
@@ -101,17 +114,23 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
     }
 
     /**
-     * Returns the child resource provider entries of this entry
+     * Returns the trie of resource providers registered below this entry
      */
-    public ResourceProviderEntry[] getEntries() {
-        return entries;
+    public ResourceProviderTrie getTrie() {
+        return trie;
     }
 
     /**
      * Returns the resource with the given path or <code>null</code> if
-     * neither the resource provider of this entry nor the resource provider of
-     * any of the child entries can provide the resource.
-     * 
+     * neither the resource provider of this entry nor any resource provider
+     * registered below this entry can provide the resource.
+     * <p>
+     * The resource providers are asked in order from the provider registered
+     * deepest in the path to the provider of this entry. If the deepest
+     * provider has no resource for the path and resource providers are
+     * registered below the path, a synthetic resource is returned for the
+     * path.
+     *
      * @param path The path to the resource to return.
      * @return The resource for the path or <code>null</code> if no resource
      *         can be found.
@@ -119,38 +138,84 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
      *             access an existing resource.
      */
     public Resource getResource(ResourceResolver resourceResolver, String path) {
-        return getResource(resourceResolver, path, path);
+        if (path.equals(this.path)) {
+            return getResourceProvider().getResource(resourceResolver, path);
+        } else if (!path.startsWith(this.prefix)) {
+            // no match for my prefix, return null
+            return null;
+        }
+
+        ResourceProviderTrie.Node node = getTrie().getNode(path);
+
+        // the path is an intermediate node of the trie, thus there are
+        // resource providers registered below the path for which a synthetic
+        // resource is returned if there is no concrete resource
+        boolean synthetic = !node.isRoot() && node.getProvider() == null
+            && path.equals(node.getPath());
+
+        ResourceProvider[] providers = node.getProviders();
+        ResourceProvider ownProvider = getResourceProvider();
+        for (int i = 0; i <= providers.length; i++) {
+            ResourceProvider provider = (i < providers.length)
+                    ? providers[i]
+                    : ownProvider;
+            if (provider != null) {
+                Resource resource = provider.getResource(resourceResolver,
+                    path);
+                if (resource != null) {
+                    return resource;
+                } else if (synthetic) {
+                    break;
+                }
+            }
+        }
+
+        if (synthetic) {
+            return new SyntheticResource(resourceResolver, path,
+                ResourceProvider.RESOURCE_TYPE_SYNTHETIC);
+        }
+
+        return null;
     }
 
     public Iterator<Resource> listChildren(final Resource resource) {
+        String path = resource.getPath();
+        ResourceProviderTrie.Node node = getTrie().getNode(path);
+        final ResourceProvider[] trieProviders = path.equals(node.getPath())
+                ? node.getChildProviders()
+                : node.getProviders();
+        final ResourceProvider ownProvider = getResourceProvider();
+
+        // a single provider does not need merging its children with the
+        // children of other providers
+        if (trieProviders.length == 0
+            || (trieProviders.length == 1 && ownProvider == null)) {
+            ResourceProvider provider = (trieProviders.length == 0)
+                    ? ownProvider
+                    : trieProviders[0];
+            Iterator<Resource> children = (provider != null)
+                    ? provider.listChildren(resource)
+                    : null;
+            if (children == null) {
+                children = Collections.<Resource> emptyList().iterator();
+            }
+            return children;
+        }
+
         return new Iterator<Resource>() {
-            private final Iterator<ResourceProvider> providers;
+            private int providerIndex;
 
             private Iterator<Resource> resources;
 
             private Resource nextResource;
 
-            private Map<String, Resource> delayed;
-            
-            private Set<String> visited;
+            private Map<String, Resource> delayed = new HashMap<String, Resource>();
+
+            private Set<String> visited = new HashSet<String>();
 
             private Iterator<Resource> delayedIter;
 
             {
-                String path = resource.getPath();
-                if (!path.endsWith("/")) {
-                    path += "/";
-                }
-
-                // gather the providers in linked set, such that we keep
-                // the order of addition and make sure we only get one entry
-                // for each resource provider
-                Set<ResourceProvider> providersSet = new LinkedHashSet<ResourceProvider>();
-                getResourceProviders(path, providersSet);
-                
-                providers = providersSet.iterator();
-                delayed = new HashMap<String, Resource>();
-                visited = new HashSet<String>();
                 nextResource = seek();
             }
 
@@ -172,39 +237,54 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
                 throw new UnsupportedOperationException("remove");
             }
 
+            private ResourceProvider nextProvider() {
+                while (providerIndex <= trieProviders.length) {
+                    ResourceProvider provider = (providerIndex < trieProviders.length)
+                            ? trieProviders[providerIndex]
+                            : ownProvider;
+                    providerIndex++;
+                    if (provider != null) {
+                        return provider;
+                    }
+                }
+                return null;
+            }
+
             private Resource seek() {
                 for (;;) {
-                    while ((resources == null || !resources.hasNext())
-                        && providers.hasNext()) {
-                        ResourceProvider provider = providers.next();
+                    while (resources == null || !resources.hasNext()) {
+                        ResourceProvider provider = nextProvider();
+                        if (provider == null) {
+                            break;
+                        }
                         resources = provider.listChildren(resource);
                     }
 
                     if (resources != null && resources.hasNext()) {
                         Resource res = resources.next();
                         String resPath = res.getPath();
-                        
+
                         if (visited.contains(resPath)) {
 
                             // ignore a path, we have already visited and
                             // ensure it will not be listed as a delayed
                             // resource at the end
                             delayed.remove(resPath);
-                            
+
                         } else if (res instanceof SyntheticResource) {
-                            
+
                             // don't return synthetic resources right away,
                             // since a concrete resource for the same path
                             // may be provided later on
                             delayed.put(resPath, res);
-                            
+
                         } else {
-                            
+
                             // we use this concrete, unvisited resource but
                             // mark it as visited
                             visited.add(resPath);
                             return res;
-                            
+
                         }
                     } else {
                         break;
@@ -223,7 +303,7 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
 
     /**
      * Adds the given resource provider into the tree for the given prefix.
-     * 
+     *
      * @return <code>true</code> if the provider could be entered into the
      *         subtree below this entry. Otherwise <code>false</code> is
      *         returned.
@@ -231,47 +311,23 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
      *             given prefix has already been registered at or below this
      *             entry.
      */
-    public boolean addResourceProvider(String prefix, ResourceProvider provider) {
+    public synchronized boolean addResourceProvider(String prefix,
+            ResourceProvider provider) {
         if (prefix.equals(this.path)) {
-        
+
             throw new ResourceProviderEntryException(
                 "ResourceProviderEntry for prefix already exists", this);
 
         } else if (prefix.startsWith(this.prefix)) {
 
-            // consider relative path for further checks
-            prefix = prefix.substring(this.prefix.length());
-
-            // check whether there is a better suited place
-            if (entries != null) {
-                for (int i = 0; i < entries.length; i++) {
-                    ResourceProviderEntry entry = entries[i];
-                    if (entry.addResourceProvider(prefix, provider)) {
-                        return true;
-                    } else if (entry.prefix.startsWith(prefix)
-                        && entry.prefix.charAt(prefix.length()) == '/') {
-                        ResourceProviderEntry newEntry = new ResourceProviderEntry(
-                            prefix, provider);
-                        newEntry.addResourceProvider(entry.path, entry.provider);
-                        entries[i] = newEntry;
-                        return true;
-                    }
-
-                }
-            }
-
-            // none found, so add it here
-            ResourceProviderEntry entry = new ResourceProviderEntry(prefix,
-                provider);
-            if (entries == null) {
-                entries = new ResourceProviderEntry[] { entry };
-            } else {
-                SortedSet<ResourceProviderEntry> set = new TreeSet<ResourceProviderEntry>();
-                set.addAll(Arrays.asList(entries));
-                set.add(entry);
-                entries = set.toArray(new ResourceProviderEntry[set.size()]);
+            ResourceProvider existing = trie.getResourceProvider(prefix);
+            if (existing != null) {
+                throw new ResourceProviderEntryException(
+                    "ResourceProviderEntry for prefix already exists",
+                    new ResourceProviderEntry(prefix, existing));
             }
 
+            trie = trie.add(prefix, provider);
             return true;
         }
 
@@ -279,51 +335,16 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
         return false;
     }
 
-    public boolean removeResourceProvider(String prefix) {
-        if (prefix.equals(path)) {
-            return true;
-        } else if (prefix.startsWith(this.prefix)) {
-            // consider relative path for further checks
-            prefix = prefix.substring(this.prefix.length());
-
-            // check whether there is a better suited place
-            if (entries != null) {
-                for (int i = 0; i < entries.length; i++) {
-                    ResourceProviderEntry entry = entries[i];
-                    if (entry.removeResourceProvider(prefix)) {
-                        if (entries.length == 1) {
-                            entries = null;
-                        } else {
-                            int newEntriesLen = entries.length - 1;
-                            ResourceProviderEntry[] newEntries = new ResourceProviderEntry[newEntriesLen];
-                            if (i > 0) {
-                                System.arraycopy(entries, 0, newEntries, 0, i);
-                            }
-                            if (i < newEntriesLen) {
-                                System.arraycopy(entries, i + 1, newEntries, i,
-                                    newEntriesLen - i);
-                            }
-                            entries = newEntries;
-                        }
-
-                        // reinsert children
-                        ResourceProviderEntry[] children = entry.entries;
-                        if (children != null) {
-                            String pathPrefix = this.prefix + entry.prefix;
-                            for (ResourceProviderEntry child : children) {
-                                String path = pathPrefix + child.path;
-                                addResourceProvider(path, child.provider);
-                            }
-                        }
-
-                        return false;
-                    }
-
-                }
-            }
-        }
-
-        return false;
+    /**
+     * Removes the resource provider registered for the given prefix.
+     *
+     * @return <code>true</code> if a resource provider has been registered
+     *         for the prefix.
+     */
+    public synchronized boolean removeResourceProvider(String prefix) {
+        ResourceProviderTrie oldTrie = trie;
+        trie = oldTrie.remove(prefix);
+        return trie != oldTrie;
     }
 
     // ---------- Comparable<ResourceProviderEntry> interface ------------------
@@ -331,110 +352,4 @@ public class ResourceProviderEntry implements Comparable<ResourceProviderEntry>
     public int compareTo(ResourceProviderEntry o) {
         return prefix.compareTo(o.prefix);
     }
-
-    // ---------- internal -----------------------------------------------------
-
-    /**
-     * Returns the resource with the given path or <code>null</code> if
-     * neither the resource provider of this entry nor the resource provider of
-     * any of the child entries can provide the resource.
-     * <p>
-     * This method implements the {@link #getResource(String)} method
-     * recursively calling itself on any child provide entries matching the
-     * path.
-     * 
-     * @param path The path to the resource to return relative to the parent
-     *            resource provider entry, which called this method.
-     * @param fullPath The actual path to the resource as provided to the
-     *            {@link #getResource(String)} method.
-     * @return The resource for the path or <code>null</code> if no resource
-     *         can be found.
-     * @throws SlingException if an error occurrs trying to access an existing
-     *             resource.
-     */
-    private Resource getResource(ResourceResolver resourceResolver,
-            String path, String fullPath) {
-        if (path.equals(this.path)) {
-            return getResourceProvider().getResource(resourceResolver, fullPath);
-        } else if (path.startsWith(this.prefix)) {
-            ResourceProviderEntry[] entries = getEntries();
-            if (entries != null) {
-
-                // consider relative path for further checks
-                path = path.substring(this.prefix.length());
-
-                for (ResourceProviderEntry entry : entries) {
-                    Resource test = entry.getResource(resourceResolver, path,
-                        fullPath);
-                    if (test != null) {
-                        return test;
-                    }
-                }
-            }
-
-            // no more specific provider, return mine
-            Resource resource = getResourceProvider().getResource(resourceResolver, fullPath);
-
-            // there is no concrete resource for the requested path, so lets
-            // check whether one of the child provider entries is prefixed
-            // with the requested path. if so, a synthetic resource is
-            // returned for the requested path
-            if (resource == null && entries != null) {
-                String checkPath = path.concat("/");
-                for (ResourceProviderEntry entry : entries) {
-                    if (entry.path.startsWith(checkPath)) {
-                        resource = new SyntheticResource(resourceResolver, fullPath,
-                            ResourceProvider.RESOURCE_TYPE_SYNTHETIC);
-                        
-                        // don't look further
-                        break;
-                    }
-                }
-            }
-
-            return resource;
-        }
-
-        // no match for my prefix, return null
-        return null;
-    }
-
-    /**
-     * Returns all resource providers which provider resources whose prefix is
-     * the given path.
-     * 
-     * @param path The prefix path to match the resource provider roots against
-     * @param providers The set of already found resource providers to which
-     * any additional resource providers are added.
-     */
-    private void getResourceProviders(String path,
-            Set<ResourceProvider> providers) {
-        if (path.startsWith(this.prefix)) {
-
-            ResourceProviderEntry[] entries = getEntries();
-            if (entries != null) {
-
-                // consider relative path for further checks
-                path = path.substring(this.prefix.length());
-
-                for (ResourceProviderEntry entry : entries) {
-                    if (path.length() == 0) {
-                        providers.add(entry.getResourceProvider());
-                    } else {
-                        entry.getResourceProviders(path, providers);
-                    }
-                }
-            }
-
-            // add myself to the list
-            providers.add(getResourceProvider());
-            
-        } else if (this.prefix.startsWith(path)) {
-
-            // add myself to the list, as the path is my root
-            providers.add(getResourceProvider());
-
-        }
-    }
-
 }
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.sling.api.resource.ResourceProvider;
+
+/**
+ * The <code>ResourceProviderTrie</code> is an immutable tree of path segments
+ * spanned by the root paths of the registered resource providers. Each node
+ * of the trie precomputes the resource providers to ask for a resource at
+ * its path and the resource providers contributing children to its path, such
+ * that selecting the providers for a path only requires walking the segments
+ * of the path.
+ * <p>
+ * Registering or unregistering a provider creates a new trie, which may be
+ * published without further synchronization.
+ */
+public class ResourceProviderTrie {
+
+    private static final ResourceProvider[] NO_PROVIDERS = new ResourceProvider[0];
+
+    private static final Node[] NO_NODES = new Node[0];
+
+    /** The empty trie without any resource providers */
+    public static final ResourceProviderTrie EMPTY = new ResourceProviderTrie(
+        new TreeMap<String, ResourceProvider>());
+
+    // the registered resource providers indexed by their root path
+    private final SortedMap<String, ResourceProvider> providers;
+
+    // the root node of the trie
+    private final Node root;
+
+    private ResourceProviderTrie(SortedMap<String, ResourceProvider> providers) {
+        this.providers = Collections.unmodifiableSortedMap(providers);
+
+        MutableNode mutableRoot = new MutableNode("/");
+        for (Map.Entry<String, ResourceProvider> entry : providers.entrySet()) {
+            mutableRoot.getNode(entry.getKey()).provider = entry.getValue();
+        }
+        this.root = mutableRoot.toNode(NO_PROVIDERS);
+    }
+
+    /**
+     * Returns a new trie containing the providers of this trie and the given
+     * <code>provider</code> registered for <code>path</code>. An existing
+     * provider registered for the same path is replaced.
+     */
+    public ResourceProviderTrie add(String path, ResourceProvider provider) {
+        SortedMap<String, ResourceProvider> newProviders = new TreeMap<String, ResourceProvider>(
+            providers);
+        newProviders.put(path, provider);
+        return new ResourceProviderTrie(newProviders);
+    }
+
+    /**
+     * Returns a new trie containing the providers of this trie except the
+     * one registered for <code>path</code>. If no provider is registered for
+     * the path, this trie is returned.
+     */
+    public ResourceProviderTrie remove(String path) {
+        if (!providers.containsKey(path)) {
+            return this;
+        }
+
+        SortedMap<String, ResourceProvider> newProviders = new TreeMap<String, ResourceProvider>(
+            providers);
+        newProviders.remove(path);
+        return new ResourceProviderTrie(newProviders);
+    }
+
+    /**
+     * Returns the resource provider registered for exactly the given
+     * <code>path</code> or <code>null</code> if there is none.
+     */
+    public ResourceProvider getResourceProvider(String path) {
+        return providers.get(path);
+    }
+
+    /**
+     * Returns an unmodifiable map of the registered resource providers
+     * indexed by their root paths.
+     */
+    public SortedMap<String, ResourceProvider> getResourceProviders() {
+        return providers;
+    }
+
+    /**
+     * Returns the deepest node of the trie whose path is the
+     * <code>path</code> or an ancestor of the <code>path</code>. This is the
+     * root node if no segment of the path is contained in the trie.
+     * {@link Node#getPath()} is equal to the <code>path</code> if the path
+     * itself is contained in the trie.
+     */
+    public Node getNode(String path) {
+        Node node = root;
+        int len = path.length();
+        int start = path.startsWith("/") ? 1 : len;
+        while (start < len && node.children.length > 0) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = len;
+            }
+
+            Node child = node.getChild(path, start, end);
+            if (child == null) {
+                break;
+            }
+
+            node = child;
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * The <code>Node</code> is a node in the trie. The arrays returned by the
+     * methods of this class are shared and must not be modified.
+     */
+    public static final class Node {
+
+        private final String name;
+
+        private final String path;
+
+        private final ResourceProvider provider;
+
+        private final Node[] children;
+
+        private final ResourceProvider[] providers;
+
+        private final ResourceProvider[] childProviders;
+
+        private Node(String name, String path, ResourceProvider provider,
+                Node[] children, ResourceProvider[] providers,
+                ResourceProvider[] childProviders) {
+            this.name = name;
+            this.path = path;
+            this.provider = provider;
+            this.children = children;
+            this.providers = providers;
+            this.childProviders = childProviders;
+        }
+
+        /** Returns the absolute path of this node */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the resource provider registered at the path of this node
+         * or <code>null</code> if this node is only an intermediate node.
+         */
+        public ResourceProvider getProvider() {
+            return provider;
+        }
+
+        /** Returns <code>true</code> if this node is the root node */
+        public boolean isRoot() {
+            return name.length() == 0;
+        }
+
+        /**
+         * Returns the resource providers registered at or above this node
+         * ordered from the deepest to the top most provider. These are the
+         * providers to ask for resources at and below this node.
+         */
+        public ResourceProvider[] getProviders() {
+            return providers;
+        }
+
+        /**
+         * Returns the resource providers contributing child resources to the
+         * path of this node: the top most providers registered below this
+         * node followed by the {@link #getProviders() providers} registered
+         * at or above this node.
+         */
+        public ResourceProvider[] getChildProviders() {
+            return childProviders;
+        }
+
+        private Node getChild(String path, int start, int end) {
+            int len = end - start;
+            for (Node child : children) {
+                if (child.name.length() == len
+                    && path.regionMatches(start, child.name, 0, len)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The <code>MutableNode</code> is used to collect the nodes of the trie
+     * before the immutable nodes are created.
+     */
+    private static class MutableNode {
+
+        private final String path;
+
+        private final SortedMap<String, MutableNode> children = new TreeMap<String, MutableNode>();
+
+        private ResourceProvider provider;
+
+        MutableNode(String path) {
+            this.path = path;
+        }
+
+        MutableNode getNode(String path) {
+            MutableNode node = this;
+            for (String segment : path.split("/")) {
+                if (segment.length() > 0) {
+                    MutableNode child = node.children.get(segment);
+                    if (child == null) {
+                        String childPath = ("/".equals(node.path))
+                                ? "/".concat(segment)
+                                : node.path + "/" + segment;
+                        child = new MutableNode(childPath);
+                        node.children.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            return node;
+        }
+
+        Node toNode(ResourceProvider[] parentProviders) {
+            ResourceProvider[] providers;
+            if (provider != null) {
+                Set<ResourceProvider> set = new LinkedHashSet<ResourceProvider>();
+                set.add(provider);
+                Collections.addAll(set, parentProviders);
+                providers = set.toArray(new ResourceProvider[set.size()]);
+            } else {
+                providers = parentProviders;
+            }
+
+            Node[] nodes = NO_NODES;
+            ResourceProvider[] childProviders = providers;
+            if (!children.isEmpty()) {
+                nodes = new Node[children.size()];
+                Set<ResourceProvider> set = new LinkedHashSet<ResourceProvider>();
+                int i = 0;
+                for (MutableNode child : children.values()) {
+                    nodes[i++] = child.toNode(providers);
+                    child.collectTopMostProviders(set);
+                }
+                Collections.addAll(set, providers);
+                childProviders = set.toArray(new ResourceProvider[set.size()]);
+            }
+
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            return new Node(name, path, provider, nodes, providers,
+                childProviders);
+        }
+
+        private void collectTopMostProviders(Set<ResourceProvider> set) {
+            if (provider != null) {
+                set.add(provider);
+            } else {
+                for (MutableNode child : children.values()) {
+                    child.collectTopMostProviders(set);
+                }
+            }
+        }
+    }
+
+}
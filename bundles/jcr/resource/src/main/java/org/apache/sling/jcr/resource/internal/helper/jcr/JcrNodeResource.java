@@ -46,6 +46,7 @@ import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.jcr.resource.JcrModifiablePropertyMap;
 import org.apache.sling.jcr.resource.JcrPropertyMap;
 import org.apache.sling.jcr.resource.JcrResourceTypeProvider;
+import org.apache.sling.jcr.resource.internal.JcrResourceResolver2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +60,13 @@ public class JcrNodeResource extends JcrItemResource {
 
     private final String resourceType;
 
+    // the ValueMap of this resource cached for the resource resolver
+    private ValueMap valueMap;
+
+    // the generation of the resource cache of the resource resolver
+    // when the valueMap has been created
+    private int valueMapGeneration;
+
     public JcrNodeResource(ResourceResolver resourceResolver, Node node,
             JcrResourceTypeProvider[] resourceTypeProviders)
             throws RepositoryException {
@@ -83,7 +91,7 @@ public class JcrNodeResource extends JcrItemResource {
         } else if (type == URL.class) {
             return (Type) getURL(); // unchecked cast
         } else if (type == Map.class || type == ValueMap.class) {
-            return (Type) new JcrPropertyMap(getNode()); // unchecked cast
+            return (Type) getValueMap(); // unchecked cast
         } else if (type == PersistableValueMap.class) {
             // check write
             try {
@@ -118,6 +126,27 @@ public class JcrNodeResource extends JcrItemResource {
         return node;
     }
 
+    /**
+     * Returns the <code>ValueMap</code> of this resource. If the resource
+     * resolver caches resources, the <code>ValueMap</code> is kept until the
+     * resource cache of the resource resolver is cleared.
+     */
+    private ValueMap getValueMap() {
+        ResourceResolver resolver = getResourceResolver();
+        if (resolver instanceof JcrResourceResolver2) {
+            int generation = ((JcrResourceResolver2) resolver).getResourceCacheGeneration();
+            if (generation >= 0) {
+                if (valueMap == null || valueMapGeneration != generation) {
+                    valueMap = new JcrPropertyMap(getNode());
+                    valueMapGeneration = generation;
+                }
+                return valueMap;
+            }
+        }
+
+        return new JcrPropertyMap(getNode());
+    }
+
     /**
      * Returns a stream to the <em>jcr:data</em> property if the
      * {@link #getNode() node} is an <em>nt:file</em> or <em>nt:resource</em>
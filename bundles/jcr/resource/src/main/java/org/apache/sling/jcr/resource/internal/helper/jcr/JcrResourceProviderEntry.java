@@ -23,6 +23,7 @@ import javax.jcr.Session;
 import org.apache.sling.api.resource.ResourceProvider;
 import org.apache.sling.jcr.resource.JcrResourceTypeProvider;
 import org.apache.sling.jcr.resource.internal.helper.ResourceProviderEntry;
+import org.apache.sling.jcr.resource.internal.helper.ResourceProviderTrie;
 
 public class JcrResourceProviderEntry extends ResourceProviderEntry {
 
@@ -51,8 +52,8 @@ public class JcrResourceProviderEntry extends ResourceProviderEntry {
     }
     
     @Override
-    public ResourceProviderEntry[] getEntries() {
-        return delegatee.getEntries();
+    public ResourceProviderTrie getTrie() {
+        return delegatee.getTrie();
     }
 
     @Override
@@ -27,6 +27,7 @@ import java.util.Map;
 
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
+import javax.jcr.Session;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.Cookie;
@@ -42,9 +43,13 @@ import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.commons.testing.jcr.RepositoryTestBase;
 import org.apache.sling.commons.testing.jcr.RepositoryUtil;
 import org.apache.sling.jcr.resource.JcrResourceConstants;
+import org.apache.sling.jcr.resource.JcrResourceUtil;
+import org.apache.sling.jcr.resource.internal.helper.AliasIndex;
+import org.apache.sling.jcr.resource.internal.helper.ChangeCounter;
 import org.apache.sling.jcr.resource.internal.helper.MapEntries;
 import org.apache.sling.jcr.resource.internal.helper.Mapping;
 import org.apache.sling.jcr.resource.internal.helper.RedirectResource;
+import org.apache.sling.jcr.resource.internal.helper.ResolutionCache;
 import org.apache.sling.jcr.resource.internal.helper.starresource.StarResource;
 
 public class JcrResourceResolver2Test extends RepositoryTestBase {
@@ -1204,6 +1209,245 @@ public class JcrResourceResolver2Test extends RepositoryTestBase {
         assertEquals(child.getPath(), resNode.getPath());
     }
 
+    public void testAliasIndex() throws Exception {
+
+        AliasIndex aliasIndex = new AliasIndex(getRepository(), null);
+        Field aliasIndexField = resFac.getClass().getDeclaredField("aliasIndex");
+        aliasIndexField.setAccessible(true);
+        aliasIndexField.set(resFac, aliasIndex);
+
+        try {
+            Node child = rootNode.addNode("child");
+            child.setProperty(JcrResourceResolver2.PROP_ALIAS, "kind");
+            Node other = rootNode.addNode("other");
+            other.addNode("jcr:content").setProperty(
+                JcrResourceResolver2.PROP_ALIAS, "andere");
+            session.save();
+            String otherPath = other.getPath();
+
+            Thread.sleep(1000L);
+
+            assertEquals("child", aliasIndex.getChildName(rootPath, "kind"));
+            assertEquals("andere", aliasIndex.getAlias(otherPath));
+
+            // expect kind due to alias and no parent due to mapping
+            // the rootPath onto root
+            String path = "/kind.html";
+            assertEquals(path, resResolver.map(child.getPath() + ".html"));
+            assertEquals("/andere", resResolver.map(otherPath));
+
+            Resource res = resResolver.resolve(null, path);
+            Node resNode = res.adaptTo(Node.class);
+            assertNotNull(resNode);
+            assertEquals(child.getPath(), resNode.getPath());
+
+            // removing the alias removes it from the index
+            child.getProperty(JcrResourceResolver2.PROP_ALIAS).remove();
+            other.remove();
+            session.save();
+
+            Thread.sleep(1000L);
+
+            assertNull(aliasIndex.getChildName(rootPath, "kind"));
+            assertNull(aliasIndex.getAlias(otherPath));
+            assertTrue(ResourceUtil.isNonExistingResource(resResolver.resolve(
+                null, path)));
+        } finally {
+            aliasIndexField.set(resFac, null);
+            aliasIndex.dispose();
+        }
+    }
+
+    public void testAliasIndexMove() throws Exception {
+
+        AliasIndex aliasIndex = new AliasIndex(getRepository(), null);
+
+        try {
+            Node folder = rootNode.addNode("folder");
+            Node child = folder.addNode("child");
+            child.setProperty(JcrResourceResolver2.PROP_ALIAS, "kind");
+            rootNode.addNode("target");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            assertEquals("child", aliasIndex.getChildName(folder.getPath(),
+                "kind"));
+
+            // adding and removing unaliased nodes keeps the index
+            rootNode.addNode("added");
+            rootNode.getNode("target").remove();
+            rootNode.addNode("target");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            assertEquals("child", aliasIndex.getChildName(folder.getPath(),
+                "kind"));
+
+            // moved aliased nodes are found at their new location
+            String targetPath = rootPath + "/target";
+            session.move(folder.getPath(), targetPath + "/folder");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            assertNull(aliasIndex.getChildName(rootPath + "/folder", "kind"));
+            assertEquals("child", aliasIndex.getChildName(targetPath
+                + "/folder", "kind"));
+        } finally {
+            aliasIndex.dispose();
+        }
+    }
+
+    public void testMapCacheAliasChange() throws Exception {
+
+        ResolutionCache cache = new ResolutionCache(getRepository(), 100, 100);
+        Field cacheField = resFac.getClass().getDeclaredField("resolutionCache");
+        cacheField.setAccessible(true);
+        cacheField.set(resFac, cache);
+
+        AliasIndex aliasIndex = new AliasIndex(getRepository(), cache);
+        Field aliasIndexField = resFac.getClass().getDeclaredField("aliasIndex");
+        aliasIndexField.setAccessible(true);
+        aliasIndexField.set(resFac, aliasIndex);
+
+        try {
+            Node child = rootNode.addNode("child");
+            child.setProperty(JcrResourceResolver2.PROP_ALIAS, "kind");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            // the second mapping is served from the cache
+            assertEquals("/kind.html", resResolver.map(child.getPath()
+                + ".html"));
+            assertEquals("/kind.html", resResolver.map(child.getPath()
+                + ".html"));
+            assertEquals(1, cache.getMapCache().getHits());
+
+            // changing the alias invalidates the cached mapping
+            child.setProperty(JcrResourceResolver2.PROP_ALIAS, "art");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            assertEquals("/art.html", resResolver.map(child.getPath()
+                + ".html"));
+        } finally {
+            aliasIndexField.set(resFac, null);
+            aliasIndex.dispose();
+            cacheField.set(resFac, null);
+            cache.dispose();
+        }
+    }
+
+    public void testResourceCache() throws Exception {
+
+        ChangeCounter changeCounter = new ChangeCounter(getRepository(), null);
+        Field changeCounterField = resFac.getClass().getDeclaredField(
+            "changeCounter");
+        changeCounterField.setAccessible(true);
+        changeCounterField.set(resFac, changeCounter);
+
+        try {
+            Node child = rootNode.addNode("cached");
+            child.setProperty("title", "first");
+            session.save();
+
+            // wait for the change to be counted before using the cache
+            Thread.sleep(1000L);
+
+            ResourceResolver resolver = resFac.getResourceResolver(session);
+            Resource res = resolver.getResource(child.getPath());
+            assertNotNull(res);
+            assertSame(res, resolver.getResource(child.getPath()));
+
+            ValueMap props = res.adaptTo(ValueMap.class);
+            assertSame(props, res.adaptTo(ValueMap.class));
+            assertEquals("first", props.get("title", String.class));
+
+            // pending changes bypass the cache
+            child.setProperty("title", "second");
+            assertNotSame(res, resolver.getResource(child.getPath()));
+            session.save();
+
+            // explicit invalidation drops resources and value maps
+            JcrResourceUtil.invalidateResourceCache(resolver);
+            Resource res2 = resolver.getResource(child.getPath());
+            assertNotSame(res, res2);
+            assertEquals("second", res.adaptTo(ValueMap.class).get("title",
+                String.class));
+
+            // saved changes clear the cache
+            rootNode.addNode("other");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            assertNotSame(res2, resolver.getResource(child.getPath()));
+        } finally {
+            changeCounterField.set(resFac, null);
+            changeCounter.dispose();
+        }
+    }
+
+    public void testResourceCacheExcludedPaths() throws Exception {
+
+        // changes below the test root are not counted at all
+        ChangeCounter changeCounter = new ChangeCounter(getRepository(),
+            new String[] { rootNode.getPath() });
+        Field changeCounterField = resFac.getClass().getDeclaredField(
+            "changeCounter");
+        changeCounterField.setAccessible(true);
+        changeCounterField.set(resFac, changeCounter);
+
+        try {
+            Node child = rootNode.addNode("excluded");
+            child.setProperty("title", "first");
+            session.save();
+
+            Thread.sleep(1000L);
+
+            ResourceResolver resolver = resFac.getResourceResolver(session);
+            Resource res = resolver.getResource(child.getPath());
+            assertNotNull(res);
+
+            // changes of other sessions below excluded paths keep the cache
+            Session other = getRepository().loginAdministrative(null);
+            try {
+                other.getRootNode().getNode(child.getPath().substring(1)).setProperty(
+                    "title", "second");
+                other.save();
+            } finally {
+                other.logout();
+            }
+
+            Thread.sleep(1000L);
+
+            assertSame(res, resolver.getResource(child.getPath()));
+
+            // saving through the session of the resolver clears the cache
+            Session resolverSession = resolver.adaptTo(Session.class);
+            resolverSession.refresh(false);
+            Resource res2 = resolver.getResource(child.getPath());
+            assertNotSame(res, res2);
+            assertEquals("second", res2.adaptTo(ValueMap.class).get("title",
+                String.class));
+
+            resolverSession.getRootNode().getNode(child.getPath().substring(1)).setProperty(
+                "title", "third");
+            resolverSession.save();
+            Resource res3 = resolver.getResource(child.getPath());
+            assertNotSame(res2, res3);
+            assertEquals("third", res3.adaptTo(ValueMap.class).get("title",
+                String.class));
+        } finally {
+            changeCounterField.set(resFac, null);
+            changeCounter.dispose();
+        }
+    }
+
     // ---------- internal
 
     private void testStarResourceHelper(final String path, final String method) {
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import junit.framework.TestCase;
+
+public class BoundedCacheTest extends TestCase {
+
+    public void testGetPut() {
+        BoundedCache<String> cache = new BoundedCache<String>(100);
+        assertNull(cache.get("/a"));
+        cache.put("/a", "A");
+        assertEquals("A", cache.get("/a"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testEviction() {
+        BoundedCache<String> cache = new BoundedCache<String>(32);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("/path/" + i, String.valueOf(i));
+        }
+
+        assertTrue(cache.size() <= 32);
+        assertEquals(1000 - cache.size(), cache.getEvictions());
+    }
+
+    public void testLeastRecentlyUsedEviction() {
+        // a single entry per segment
+        BoundedCache<String> cache = new BoundedCache<String>(1);
+        cache.put("/a", "A");
+        cache.put("/a", "B");
+        assertEquals("B", cache.get("/a"));
+        assertEquals(0, cache.getEvictions());
+    }
+
+    public void testInvalidate() {
+        BoundedCache<String> cache = new BoundedCache<String>(100);
+        cache.put("/a", "/content/a");
+        cache.put("/b", "/content/b");
+        cache.put("/c", "/other/c");
+
+        cache.invalidate(new BoundedCache.Invalidator<String>() {
+            public boolean isInvalid(String key, String value) {
+                return value.startsWith("/content/");
+            }
+        });
+
+        assertNull(cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertEquals("/other/c", cache.get("/c"));
+        assertEquals(2, cache.getInvalidations());
+
+        cache.remove("/c");
+        assertNull(cache.get("/c"));
+        assertEquals(3, cache.getInvalidations());
+    }
+
+    public void testClear() {
+        BoundedCache<String> cache = new BoundedCache<String>(100);
+        cache.put("/a", "A");
+        cache.put("/b", "B");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getInvalidations());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class DependencyIndexTest extends TestCase {
+
+    public void testRemoveBelow() {
+        DependencyIndex index = new DependencyIndex();
+        index.add("k1", new String[] { "/content/a", "/apps/a" });
+        index.add("k2", new String[] { "/content/b/c" });
+        index.add("k3", new String[] { "/contentx" });
+        index.add("k4", new String[] { "/other" });
+
+        assertEquals(keys("k1", "k2"),
+            index.removeBelow(Collections.singleton("/content/")));
+        assertEquals(keys(),
+            index.removeBelow(Collections.singleton("/content/")));
+
+        // the former scan selected all paths starting with the root
+        assertEquals(keys("k1", "k3"), index.removeBelow(Arrays.asList(
+            "/apps", "/content")));
+        assertEquals(1, index.size());
+    }
+
+    public void testRemove() {
+        DependencyIndex index = new DependencyIndex();
+        index.add("k1", new String[] { "/a", "/b" });
+        index.add("k2", new String[] { "/a" });
+
+        // replacing an entry keeps the paths of the new entry
+        index.add("k1", new String[] { "/b", "/c" });
+        index.remove("k1", new String[] { "/a", "/b" }, new String[] { "/b",
+            "/c" });
+        assertEquals(keys("k2"), index.removeBelow(Collections.singleton("/a")));
+        assertEquals(keys("k1"), index.removeBelow(Collections.singleton("/b")));
+
+        index.remove("k1", new String[] { "/c" }, null);
+        assertEquals(0, index.size());
+    }
+
+    public void testEvictionListener() {
+        final DependencyIndex index = new DependencyIndex();
+        BoundedCache<String> cache = new BoundedCache<String>(1,
+            new BoundedCache.EvictionListener<String>() {
+                public void evicted(String key, String value) {
+                    index.remove(key, new String[] { value }, null);
+                }
+            });
+        for (int i = 0; i < 100; i++) {
+            index.add("k" + i, new String[] { "/p" + i });
+            cache.put("k" + i, "/p" + i);
+        }
+        assertEquals(cache.size(), index.size());
+    }
+
+    private Set<String> keys(String... keys) {
+        return new HashSet<String>(Arrays.asList(keys));
+    }
+}
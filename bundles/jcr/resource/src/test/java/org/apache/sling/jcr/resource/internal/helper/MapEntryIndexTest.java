@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class MapEntryIndexTest extends TestCase {
+
+    public void testLiteralPrefix() {
+        assertEquals("http/localhost.80/",
+            MapEntryIndex.getLiteralPrefix("http/localhost\\.80/"));
+        assertEquals("http/localhost",
+            MapEntryIndex.getLiteralPrefix("http/localhost.80/"));
+        assertEquals("http", MapEntryIndex.getLiteralPrefix("https?/host"));
+        assertEquals("a", MapEntryIndex.getLiteralPrefix("a+b"));
+        assertEquals("ab", MapEntryIndex.getLiteralPrefix("ab\\dc"));
+        assertEquals("/foo", MapEntryIndex.getLiteralPrefix("/foo(\\..*)"));
+        assertEquals("", MapEntryIndex.getLiteralPrefix("(x)"));
+        assertEquals("", MapEntryIndex.getLiteralPrefix("a|b"));
+        assertEquals("", MapEntryIndex.getLiteralPrefix(""));
+    }
+
+    public void testEmpty() {
+        assertTrue(MapEntryIndex.EMPTY.getCandidates("http/localhost.80/").isEmpty());
+    }
+
+    public void testCandidates() {
+        MapEntry vanity = new MapEntry("^[^/]+/[^/]+/foo$", -1, false,
+            "/content/foo.html");
+        MapEntry vanityExt = new MapEntry("^[^/]+/[^/]+/foo(\\..*)", -1,
+            false, "/content/foo$1");
+        MapEntry localhost = new MapEntry("http/localhost\\.80/", -1, true,
+            "/content/");
+        MapEntry example = new MapEntry("http/www\\.example\\.com\\.80/", -1,
+            true, "/content/example/");
+        MapEntry any = new MapEntry("[^/]+/[^/]+/$", -1, false, "/index.html");
+
+        List<MapEntry> entries = new ArrayList<MapEntry>();
+        entries.add(localhost);
+        entries.add(vanity);
+        entries.add(example);
+        entries.add(vanityExt);
+        entries.add(any);
+
+        MapEntryIndex index = new MapEntryIndex(entries);
+        assertEquals(entries, index.getEntries());
+
+        assertCandidates(index.getCandidates("http/localhost.80/foo"),
+            localhost, vanity, vanityExt, any);
+        assertCandidates(index.getCandidates("http/localhost.80/bar"),
+            localhost, any);
+        assertCandidates(index.getCandidates("http/www.example.com.80/foo.html"),
+            vanity, example, vanityExt, any);
+        assertCandidates(index.getCandidates("https/other.443/foo"), vanity,
+            vanityExt, any);
+        assertCandidates(index.getCandidates("https/other.443/fo"), any);
+    }
+
+    public void testCandidatesMatchLinearScan() {
+        List<MapEntry> entries = new ArrayList<MapEntry>();
+        entries.add(new MapEntry("http/localhost\\.80/content/", -1, true,
+            "/content/"));
+        entries.add(new MapEntry("http/localhost\\.80/", -1, true, "/"));
+        entries.add(new MapEntry("^[^/]+/[^/]+/content/a$", -1, false,
+            "/content/b.html"));
+        entries.add(new MapEntry("https?/localhost\\.\\d+/", -1, true, "/x/"));
+
+        MapEntryIndex index = new MapEntryIndex(entries);
+        String[] paths = { "http/localhost.80/content/a",
+            "http/localhost.80/other", "https/localhost.443/content/a",
+            "http/remote.80/content/a", "http/remote.80/" };
+        for (String path : paths) {
+            MapEntry expected = null;
+            for (MapEntry entry : entries) {
+                if (entry.replace(path) != null) {
+                    expected = entry;
+                    break;
+                }
+            }
+
+            MapEntry actual = null;
+            for (MapEntry entry : index.getCandidates(path)) {
+                if (entry.replace(path) != null) {
+                    actual = entry;
+                    break;
+                }
+            }
+
+            assertSame(path, expected, actual);
+        }
+    }
+
+    private void assertCandidates(List<MapEntry> candidates,
+            MapEntry... expected) {
+        assertEquals(expected.length, candidates.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], candidates.get(i));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.jcr.resource.internal.helper;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceProvider;
+import org.apache.sling.api.resource.ResourceResolver;
+
+public class ResourceProviderTrieTest extends TestCase {
+
+    private final ResourceProvider apps = new TestResourceProvider();
+
+    private final ResourceProvider sample = new TestResourceProvider();
+
+    private final ResourceProvider rootel = new TestResourceProvider();
+
+    private final ResourceProvider child = new TestResourceProvider();
+
+    private ResourceProviderTrie trie;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        trie = ResourceProviderTrie.EMPTY.add("/apps", apps).add(
+            "/apps/sling/sample", sample).add("/rootel", rootel).add(
+            "/rootel/child", child);
+    }
+
+    public void testGetNode() {
+        assertEquals("/", trie.getNode("/").getPath());
+        assertTrue(trie.getNode("/").isRoot());
+        assertEquals("/", trie.getNode("/content/page").getPath());
+        assertEquals("/apps", trie.getNode("/apps").getPath());
+        assertEquals("/apps/sling", trie.getNode("/apps/sling").getPath());
+        assertEquals("/apps/sling", trie.getNode("/apps/sling/other").getPath());
+        assertEquals("/apps/sling/sample",
+            trie.getNode("/apps/sling/sample/html.js").getPath());
+        assertEquals("/rootel", trie.getNode("/rootel/childish").getPath());
+        assertEquals("/", trie.getNode("relpath").getPath());
+    }
+
+    public void testProviders() {
+        assertProviders(trie.getNode("/").getProviders());
+        assertProviders(trie.getNode("/apps").getProviders(), apps);
+        assertProviders(trie.getNode("/apps/sling").getProviders(), apps);
+        assertNull(trie.getNode("/apps/sling").getProvider());
+        assertProviders(trie.getNode("/apps/sling/sample").getProviders(),
+            sample, apps);
+        assertProviders(trie.getNode("/rootel/child/a").getProviders(),
+            child, rootel);
+    }
+
+    public void testChildProviders() {
+        assertProviders(trie.getNode("/").getChildProviders(), apps, rootel);
+        assertProviders(trie.getNode("/apps").getChildProviders(), sample,
+            apps);
+        assertProviders(trie.getNode("/apps/sling").getChildProviders(),
+            sample, apps);
+        assertProviders(trie.getNode("/rootel/child").getChildProviders(),
+            child, rootel);
+    }
+
+    public void testAddRemove() {
+        ResourceProviderTrie removed = trie.remove("/apps");
+        assertNotSame(trie, removed);
+        assertSame(removed, removed.remove("/apps"));
+        assertNull(removed.getResourceProvider("/apps"));
+        assertSame(apps, trie.getResourceProvider("/apps"));
+
+        assertProviders(removed.getNode("/apps/sling/sample").getProviders(),
+            sample);
+        assertProviders(removed.getNode("/").getChildProviders(), sample,
+            rootel);
+    }
+
+    private void assertProviders(ResourceProvider[] actual,
+            ResourceProvider... expected) {
+        assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+    }
+
+    private static class TestResourceProvider implements ResourceProvider {
+
+        public Resource getResource(ResourceResolver resolver,
+                HttpServletRequest request, String path) {
+            return null;
+        }
+
+        public Resource getResource(ResourceResolver resolver, String path) {
+            return null;
+        }
+
+        public Iterator<Resource> listChildren(Resource parent) {
+            return null;
+        }
+    }
+}
@@ -19,6 +19,11 @@
 package org.apache.sling.scripting.javascript.helper;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
@@ -43,6 +48,20 @@ public class SlingContextFactory extends ContextFactory {
 
     private boolean debuggerActive;
 
+    // the contexts reused by the threads entering contexts through enter().
+    // The thread locals only hold the JDK holder objects, which are also
+    // registered in contextHolders such that dispose() can clear the
+    // contexts of all threads and does not leave them pinning the bundle
+    // class loader in the thread local maps of pooled threads
+    private final ThreadLocal<AtomicReference<Context>> threadContext = new ThreadLocal<AtomicReference<Context>>();
+
+    // the holders of all thread contexts, weakly referenced to not keep the
+    // holders of terminated threads
+    private final Map<AtomicReference<Context>, Boolean> contextHolders = new WeakHashMap<AtomicReference<Context>, Boolean>();
+
+    // set by dispose() to prevent contexts from being kept after disposal
+    private volatile boolean disposed;
+
     // conditionally setup the global ContextFactory to be ours. If
     // a global context factory has already been set, we have lost
     // and cannot set this one.
@@ -53,6 +72,22 @@ public class SlingContextFactory extends ContextFactory {
         }
     }
 
+    /**
+     * Enters a Rhino <code>Context</code> for the current thread. If the
+     * global context factory is a <code>SlingContextFactory</code> the
+     * context created for the thread by an earlier call is entered again
+     * instead of creating and configuring a new context. Like for
+     * <code>Context.enter()</code> each call must be paired with a call to
+     * <code>Context.exit()</code>.
+     */
+    public static Context enter() {
+        ContextFactory factory = getGlobal();
+        if (factory instanceof SlingContextFactory) {
+            return ((SlingContextFactory) factory).enterThreadContext();
+        }
+        return Context.enter();
+    }
+
     public static void teardown() {
         ContextFactory factory = getGlobal();
         if (factory instanceof SlingContextFactory) {
@@ -68,6 +103,18 @@ public class SlingContextFactory extends ContextFactory {
     private void dispose() {
         // ensure the debugger is closed
         exitDebugger();
+
+        // drop the contexts kept for the threads
+        List<AtomicReference<Context>> holders;
+        synchronized (contextHolders) {
+            disposed = true;
+            holders = new ArrayList<AtomicReference<Context>>(
+                contextHolders.keySet());
+            contextHolders.clear();
+        }
+        for (AtomicReference<Context> holder : holders) {
+            holder.set(null);
+        }
         
         // reset the context factory class for future use
         ContextFactory newGlobal = new ContextFactory();
@@ -79,6 +126,35 @@ public class SlingContextFactory extends ContextFactory {
         setField(newGlobal, "applicationClassLoader", null);
     }
 
+    private Context enterThreadContext() {
+        // nested calls just enter the current context again, while the
+        // debugger has to be attached to newly created contexts
+        if (Context.getCurrentContext() != null || isDebugging() || disposed) {
+            return enterContext();
+        }
+
+        AtomicReference<Context> holder = threadContext.get();
+        if (holder == null) {
+            holder = new AtomicReference<Context>();
+            threadContext.set(holder);
+        }
+
+        Context cx = holder.get();
+        if (cx == null) {
+            cx = enterContext();
+            synchronized (contextHolders) {
+                // only keep the context if dispose() cannot miss it
+                if (!disposed) {
+                    contextHolders.put(holder, Boolean.TRUE);
+                    holder.set(cx);
+                }
+            }
+            return cx;
+        }
+
+        return enterContext(cx);
+    }
+
     @Override
     protected Context makeContext() {
         return new SlingContext();
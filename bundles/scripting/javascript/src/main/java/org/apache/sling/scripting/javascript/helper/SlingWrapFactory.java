@@ -18,8 +18,8 @@
  */
 package org.apache.sling.scripting.javascript.helper;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Scriptable;
@@ -35,7 +35,16 @@ public class SlingWrapFactory extends WrapFactory {
     /** default log */
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Map<Class<?>, String> wrappers = new HashMap<Class<?>, String>();
+    /** Marks classes without host object in the resolved host object names */
+    private static final String NO_HOST_OBJECT = "";
+
+    private final Map<Class<?>, String> wrappers = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * The host object names resolved for the classes of wrapped objects to
+     * not walk the class hierarchy again for each object to be wrapped.
+     */
+    private final Map<Class<?>, String> resolvedWrappers = new ConcurrentHashMap<Class<?>, String>();
 
     /**
      * @param cx the current Context for this thread
@@ -74,6 +83,22 @@ public class SlingWrapFactory extends WrapFactory {
     }
 
     private String getHostObjectName(Class<?> javaClass) {
+        if (javaClass == null) {
+            return null;
+        }
+
+        String hostObjectName = resolvedWrappers.get(javaClass);
+        if (hostObjectName == null) {
+            hostObjectName = resolveHostObjectName(javaClass);
+            resolvedWrappers.put(javaClass, (hostObjectName == null)
+                    ? NO_HOST_OBJECT
+                    : hostObjectName);
+        }
+
+        return (hostObjectName == NO_HOST_OBJECT) ? null : hostObjectName;
+    }
+
+    private String resolveHostObjectName(Class<?> javaClass) {
         if(javaClass==null || isExcluded(javaClass)) {
             return null;
         }
@@ -84,11 +109,11 @@ public class SlingWrapFactory extends WrapFactory {
             // a Node wrapper, that's not what we want
             final Class<?>[] javaInterfaces = javaClass.getInterfaces();
             for (int i = 0; i < javaInterfaces.length && hostObjectName == null; i++) {
-                hostObjectName = getHostObjectName(javaInterfaces[i]);
+                hostObjectName = resolveHostObjectName(javaInterfaces[i]);
             }
 
             if (hostObjectName == null) {
-                hostObjectName = getHostObjectName(javaClass.getSuperclass());
+                hostObjectName = resolveHostObjectName(javaClass.getSuperclass());
             }
         }
 
@@ -109,9 +134,11 @@ public class SlingWrapFactory extends WrapFactory {
 
     public void registerWrapper(Class<?> javaClass, String hostObjectName) {
         wrappers.put(javaClass, hostObjectName);
+        resolvedWrappers.clear();
     }
 
     public void unregisterWrapper(Class<?> javaClass) {
         wrappers.remove(javaClass);
+        resolvedWrappers.clear();
     }
 }
@@ -29,10 +29,11 @@ import javax.script.ScriptException;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.api.scripting.SlingScriptHelper;
 import org.apache.sling.scripting.api.AbstractSlingScriptEngine;
-import org.apache.sling.scripting.javascript.io.EspReader;
+import org.apache.sling.scripting.javascript.helper.SlingContextFactory;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.ScriptRuntime;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -58,18 +59,15 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
             throws ScriptException {
         Bindings bindings = scriptContext.getBindings(ScriptContext.ENGINE_SCOPE);
         String scriptName = "NO_SCRIPT_NAME";
+        boolean cacheable = false;
         {
             SlingScriptHelper helper = (SlingScriptHelper) bindings.get(SlingBindings.SLING);
             if (helper != null) {
                 scriptName = helper.getScript().getScriptResource().getPath();
+                cacheable = true;
             }
         }
 
-        // wrap the reader in an EspReader for ESP scripts
-        if (scriptName.endsWith(RhinoJavaScriptEngineFactory.ESP_SCRIPT_EXTENSION)) {
-            scriptReader = new EspReader(scriptReader);
-        }
-
         // container for replaced properties
         Map<String, Object> replacedProperties = null;
         Scriptable scope = null;
@@ -77,7 +75,7 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
         // create a rhino Context and execute the script
         try {
 
-            final Context rhinoContext = Context.enter();
+            final Context rhinoContext = SlingContextFactory.enter();
 
             if (ScriptRuntime.hasTopCall(rhinoContext)) {
 
@@ -106,11 +104,12 @@ public class RhinoJavaScriptEngine extends AbstractSlingScriptEngine {
             // add initial properties to the scope
             replacedProperties = setBoundProperties(scope, bindings);
 
-            final int lineNumber = 1;
-            final Object securityDomain = null;
+            // get the compiled script, which is cached for scripts of
+            // script resources
+            final Script script = ((RhinoJavaScriptEngineFactory) getFactory()).getScript(
+                rhinoContext, scriptName, scriptReader, cacheable);
 
-            return rhinoContext.evaluateReader(scope, scriptReader, scriptName,
-                lineNumber, securityDomain);
+            return script.exec(rhinoContext, scope);
 
         } catch (JavaScriptException t) {
 
@@ -18,17 +18,23 @@
  */
 package org.apache.sling.scripting.javascript.internal;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Set;
 
 import javax.script.ScriptEngine;
 
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.jcr.resource.JcrResourceResolverFactory;
 import org.apache.sling.scripting.api.AbstractScriptEngineFactory;
 import org.apache.sling.scripting.javascript.RhinoHostObjectProvider;
 import org.apache.sling.scripting.javascript.SlingWrapper;
 import org.apache.sling.scripting.javascript.helper.SlingContextFactory;
 import org.apache.sling.scripting.javascript.helper.SlingWrapFactory;
+import org.apache.sling.scripting.javascript.io.EspReader;
 import org.apache.sling.scripting.javascript.wrapper.ScriptableCalendar;
 import org.apache.sling.scripting.javascript.wrapper.ScriptableItemMap;
 import org.apache.sling.scripting.javascript.wrapper.ScriptableNode;
@@ -42,6 +48,7 @@ import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.NativeJavaClass;
 import org.mozilla.javascript.NativeJavaPackage;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.tools.debugger.ScopeProvider;
@@ -59,6 +66,12 @@ import org.slf4j.LoggerFactory;
  *                interface="org.apache.sling.scripting.javascript.RhinoHostObjectProvider"
  *                cardinality="0..n" policy="dynamic"
  *                bind="addHostObjectProvider" unbind="removeHostObjectProvider"
+ * @scr.reference name="repository"
+ *                interface="org.apache.sling.jcr.api.SlingRepository"
+ *                cardinality="0..1" policy="dynamic"
+ * @scr.reference name="resourceResolverFactory"
+ *                interface="org.apache.sling.jcr.resource.JcrResourceResolverFactory"
+ *                cardinality="0..1" policy="dynamic"
  */
 public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         implements ScopeProvider {
@@ -67,6 +80,32 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
 
     public final static String ESP_SCRIPT_EXTENSION = "esp";
 
+    /**
+     * The name of the configuration property defining the maximum number of
+     * compiled scripts to cache. Caching is disabled if this is zero or
+     * negative (value is "org.apache.sling.scripting.javascript.cacheSize").
+     */
+    public static final String PROP_CACHE_SIZE = "org.apache.sling.scripting.javascript.cacheSize";
+
+    /**
+     * The name of the configuration property defining the Rhino optimization
+     * level used to compile scripts. The default of -1 has scripts
+     * interpreted, levels 0 to 9 have scripts compiled to Java classes
+     * (value is "org.apache.sling.scripting.javascript.optimizationLevel").
+     */
+    public static final String PROP_OPTIMIZATION_LEVEL = "org.apache.sling.scripting.javascript.optimizationLevel";
+
+    /**
+     * The name of the configuration property defining whether the scripts
+     * below the search path are compiled into the cache at startup (value is
+     * "org.apache.sling.scripting.javascript.precompile").
+     */
+    public static final String PROP_PRECOMPILE = "org.apache.sling.scripting.javascript.precompile";
+
+    private static final int DEFAULT_CACHE_SIZE = 500;
+
+    private static final int DEFAULT_OPTIMIZATION_LEVEL = -1;
+
     private static final Class<?>[] HOSTOBJECT_CLASSES = {
         ScriptableResource.class, ScriptableNode.class,
         ScriptableProperty.class, ScriptableItemMap.class,
@@ -80,10 +119,23 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
 
     private SlingWrapFactory wrapFactory;
     
-    private Scriptable rootScope;
+    private volatile Scriptable rootScope;
 
     private final Set<RhinoHostObjectProvider> hostObjectProvider = new HashSet<RhinoHostObjectProvider>();
 
+    private SlingRepository repository;
+
+    private JcrResourceResolverFactory resourceResolverFactory;
+
+    private int optimizationLevel = DEFAULT_OPTIMIZATION_LEVEL;
+
+    private boolean precompile;
+
+    // the cache of compiled scripts, null if disabled
+    private volatile RhinoScriptCache scriptCache;
+
+    private RhinoScriptPrecompiler precompiler;
+
     public ScriptEngine getScriptEngine() {
         return new RhinoJavaScriptEngine(this, getRootScope());
     }
@@ -103,41 +155,143 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
     SlingWrapFactory getWrapFactory() {
         return wrapFactory;
     }
-    
-    @SuppressWarnings("unchecked")
-    private Scriptable getRootScope() {
-        if (rootScope == null) {
 
-            final Context rhinoContext = Context.enter();
-            try {
-                
-                Scriptable tmpScope = rhinoContext.initStandardObjects(
-                    new ImporterTopLevel(), false);
-    
-                // default classes
-                addHostObjects(tmpScope,
-                    (Class<? extends ScriptableObject>[]) HOSTOBJECT_CLASSES);
+    RhinoScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Returns the compiled script for the script <code>scriptName</code>
+     * read from <code>scriptReader</code>. If the script is
+     * <code>cacheable</code> the compiled script is taken from the cache if
+     * it has already been compiled from the same source. Otherwise it is
+     * compiled and added to the cache.
+     */
+    Script getScript(Context rhinoContext, String scriptName,
+            Reader scriptReader, boolean cacheable) throws IOException {
+        final RhinoScriptCache cache = scriptCache;
+        if (cache == null || !cacheable || isDebugging()) {
+            return compileScript(rhinoContext, scriptName, scriptReader);
+        }
+
+        final String source = readSource(scriptReader);
+        Script script = cache.get(scriptName, source);
+        if (script == null) {
+            script = compileScript(rhinoContext, scriptName, source);
+            cache.put(scriptName, source, script);
+        }
+        return script;
+    }
+
+    Script compileScript(Context rhinoContext, String scriptName, String source)
+            throws IOException {
+        return compileScript(rhinoContext, scriptName, new StringReader(
+            source));
+    }
+
+    /**
+     * Returns <code>true</code> if the resource at <code>path</code> is an
+     * ECMA or ESP script handled by this factory.
+     */
+    boolean isScript(String path) {
+        return path.endsWith("." + ECMA_SCRIPT_EXTENSION)
+            || path.endsWith("." + ESP_SCRIPT_EXTENSION);
+    }
+
+    static String readSource(Reader reader) throws IOException {
+        StringBuilder source = new StringBuilder();
+        char[] buf = new char[2048];
+        int rd;
+        while ((rd = reader.read(buf)) >= 0) {
+            source.append(buf, 0, rd);
+        }
+        return source.toString();
+    }
+
+    private Script compileScript(Context rhinoContext, String scriptName,
+            Reader scriptReader) throws IOException {
+
+        // wrap the reader in an EspReader for ESP scripts
+        if (scriptName.endsWith(ESP_SCRIPT_EXTENSION)) {
+            scriptReader = new EspReader(scriptReader);
+        }
+
+        final int oldLevel = rhinoContext.getOptimizationLevel();
+        if (!isDebugging()) {
+            rhinoContext.setOptimizationLevel(optimizationLevel);
+        }
+        try {
+            return rhinoContext.compileReader(scriptReader, scriptName, 1,
+                null);
+        } finally {
+            rhinoContext.setOptimizationLevel(oldLevel);
+        }
+    }
+
+    private boolean isDebugging() {
+        ContextFactory contextFactory = ContextFactory.getGlobal();
+        return (contextFactory instanceof SlingContextFactory)
+            && ((SlingContextFactory) contextFactory).isDebugging();
+    }
     
-                // provided classes
-                for (RhinoHostObjectProvider provider : hostObjectProvider) {
-                    addHostObjects(tmpScope, provider.getHostObjectClasses());
-                    addImportedClasses(rhinoContext, tmpScope,
-                        provider.getImportedClasses());
-                    addImportedPackages(rhinoContext, tmpScope,
-                        provider.getImportedPackages());
+    /**
+     * Returns the root scope shared by all script evaluations. The root scope
+     * is created once for the current set of host objects and sealed such
+     * that scripts cannot modify it. Each evaluation uses its own top level
+     * scope having the root scope as its prototype.
+     */
+    private Scriptable getRootScope() {
+        Scriptable scope = rootScope;
+        if (scope == null) {
+            synchronized (this) {
+                scope = rootScope;
+                if (scope == null) {
+                    scope = createRootScope();
+                    rootScope = scope;
                 }
-                
-                // only assign the root scope when complete set up
-                rootScope = tmpScope;
-                
-            } finally {
-                // ensure the context is exited after setting up the
-                // the new root scope
-                Context.exit();
             }
         }
 
-        return rootScope;
+        return scope;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Scriptable createRootScope() {
+        final Context rhinoContext = Context.enter();
+        try {
+
+            ScriptableObject tmpScope = rhinoContext.initStandardObjects(
+                new ImporterTopLevel(), true);
+
+            // default classes
+            addHostObjects(tmpScope,
+                (Class<? extends ScriptableObject>[]) HOSTOBJECT_CLASSES);
+
+            // provided classes
+            for (RhinoHostObjectProvider provider : hostObjectProvider) {
+                addHostObjects(tmpScope, provider.getHostObjectClasses());
+                addImportedClasses(rhinoContext, tmpScope,
+                    provider.getImportedClasses());
+                addImportedPackages(rhinoContext, tmpScope,
+                    provider.getImportedPackages());
+            }
+
+            // force the lazily loaded standard objects to be loaded now as
+            // they cannot be defined in the root scope once it is sealed
+            rhinoContext.evaluateString(tmpScope,
+                "RegExp; getClass; java; Packages; JavaAdapter;",
+                "lazyLoad", 0, null);
+
+            // prevent scripts from modifying the shared scope
+            tmpScope.sealObject();
+
+            return tmpScope;
+
+        } finally {
+            // ensure the context is exited after setting up the
+            // the new root scope
+            Context.exit();
+        }
     }
 
     private void dropRootScope() {
@@ -183,10 +337,41 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         if (contextFactory instanceof SlingContextFactory) {
             ((SlingContextFactory) contextFactory).setDebugging(debugging);
         }
+
+        // setup the compiled script cache
+        int level = getProperty(PROP_OPTIMIZATION_LEVEL, props,
+            context.getBundleContext(), DEFAULT_OPTIMIZATION_LEVEL);
+        if (Context.isValidOptimizationLevel(level)) {
+            optimizationLevel = level;
+        } else {
+            log.warn("activate: Ignoring invalid optimization level {}",
+                String.valueOf(level));
+            optimizationLevel = DEFAULT_OPTIMIZATION_LEVEL;
+        }
+
+        int cacheSize = getProperty(PROP_CACHE_SIZE, props,
+            context.getBundleContext(), DEFAULT_CACHE_SIZE);
+        if (cacheSize > 0) {
+            RhinoScriptCache cache = new RhinoScriptCache(cacheSize);
+            cache.setRepository(repository);
+            scriptCache = cache;
+        }
+
+        precompile = getProperty(PROP_PRECOMPILE, props,
+            context.getBundleContext(), true);
+        startPrecompiler();
     }
 
     protected void deactivate(ComponentContext context) {
 
+        // stop precompiling and drop the compiled scripts
+        stopPrecompiler();
+        RhinoScriptCache cache = scriptCache;
+        scriptCache = null;
+        if (cache != null) {
+            cache.dispose();
+        }
+
         // remove the root scope
         dropRootScope();
         
@@ -199,10 +384,10 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
     }
 
     protected void addHostObjectProvider(RhinoHostObjectProvider provider) {
-        hostObjectProvider.add(provider);
-
-        if (rootScope != null) {
-            addHostObjects(rootScope, provider.getHostObjectClasses());
+        // the sealed root scope cannot be extended, so have it recreated
+        // including the new host object classes
+        if (hostObjectProvider.add(provider)) {
+            dropRootScope();
         }
     }
 
@@ -214,8 +399,64 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
         }
     }
 
+    protected void bindRepository(SlingRepository repository) {
+        this.repository = repository;
+
+        RhinoScriptCache cache = scriptCache;
+        if (cache != null) {
+            cache.setRepository(repository);
+            startPrecompiler();
+        }
+    }
+
+    protected void unbindRepository(SlingRepository repository) {
+        if (this.repository == repository) {
+            stopPrecompiler();
+
+            RhinoScriptCache cache = scriptCache;
+            if (cache != null) {
+                cache.setRepository(null);
+            }
+
+            this.repository = null;
+        }
+    }
+
+    protected void bindResourceResolverFactory(
+            JcrResourceResolverFactory resourceResolverFactory) {
+        this.resourceResolverFactory = resourceResolverFactory;
+        if (scriptCache != null) {
+            startPrecompiler();
+        }
+    }
+
+    protected void unbindResourceResolverFactory(
+            JcrResourceResolverFactory resourceResolverFactory) {
+        if (this.resourceResolverFactory == resourceResolverFactory) {
+            stopPrecompiler();
+            this.resourceResolverFactory = null;
+        }
+    }
+
     // ---------- internal
 
+    private synchronized void startPrecompiler() {
+        RhinoScriptCache cache = scriptCache;
+        if (precompile && precompiler == null && cache != null
+            && repository != null && resourceResolverFactory != null) {
+            precompiler = new RhinoScriptPrecompiler(this, cache, repository,
+                resourceResolverFactory);
+            precompiler.start();
+        }
+    }
+
+    private synchronized void stopPrecompiler() {
+        if (precompiler != null) {
+            precompiler.stop();
+            precompiler = null;
+        }
+    }
+
     private void addHostObjects(Scriptable scope,
             Class<? extends Scriptable>[] classes) {
         if (classes != null) {
@@ -285,4 +526,25 @@ public class RhinoJavaScriptEngineFactory extends AbstractScriptEngineFactory
                 ? Boolean.parseBoolean(String.valueOf(value))
                 : defaultValue;
     }
+
+    private int getProperty(String name, Dictionary<?, ?> props,
+            BundleContext bundleContext, int defaultValue) {
+        Object value = props.get(name);
+        if (value == null) {
+            value = bundleContext.getProperty(name);
+        }
+
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            try {
+                return Integer.parseInt(String.valueOf(value));
+            } catch (NumberFormatException nfe) {
+                log.warn("getProperty: Ignoring invalid value {} for {}",
+                    value, name);
+            }
+        }
+
+        return defaultValue;
+    }
 }
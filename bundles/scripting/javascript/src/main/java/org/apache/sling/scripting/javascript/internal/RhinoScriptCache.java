@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.javascript.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.mozilla.javascript.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>RhinoScriptCache</code> caches the compiled Rhino
+ * <code>Script</code> objects indexed by the path of the script resource.
+ * <p>
+ * Each entry keeps the source the script has been compiled from and is only
+ * returned for exactly the same source. This prevents stale scripts from
+ * being used even if the script has been modified without the cache being
+ * notified and ensures scripts whose source is amended by the caller, e.g.
+ * for <code>SlingScript.call</code>, are not confused with the plain script.
+ * If a repository is available, entries are additionally removed as soon as
+ * the script resources below the script search path are modified or removed
+ * to not keep outdated scripts in memory. Outdated scripts outside of the
+ * search path are only dropped when they are least recently used.
+ */
+class RhinoScriptCache {
+
+    /**
+     * The script search path observed for modifications, one listener being
+     * registered for each entry.
+     */
+    static final String[] SEARCH_PATH = { "/apps", "/libs" };
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final int maxSize;
+
+    private final Map<String, Entry> cache;
+
+    // the sorted paths of the cache entries to find the scripts below a
+    // modified path, guarded by the cache
+    private final TreeSet<String> paths = new TreeSet<String>();
+
+    private final List<EventListener> listeners = new ArrayList<EventListener>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private Session session;
+
+    RhinoScriptCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > RhinoScriptCache.this.maxSize) {
+                    paths.remove(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Registers this cache for observation of the given repository to remove
+     * modified scripts from the cache. Observation of a previously set
+     * repository is stopped. If <code>repository</code> is <code>null</code>
+     * observation is just stopped.
+     */
+    void setRepository(SlingRepository repository) {
+        Session oldSession;
+        List<EventListener> oldListeners;
+        synchronized (this) {
+            oldSession = session;
+            session = null;
+            oldListeners = new ArrayList<EventListener>(listeners);
+            listeners.clear();
+        }
+
+        if (oldSession != null) {
+            for (EventListener listener : oldListeners) {
+                try {
+                    oldSession.getWorkspace().getObservationManager().removeEventListener(
+                        listener);
+                } catch (RepositoryException re) {
+                    log.error(
+                        "setRepository: Failed unregistering as observation listener",
+                        re);
+                }
+            }
+
+            try {
+                oldSession.logout();
+            } catch (Exception e) {
+                log.error("setRepository: Unexpected problem logging out", e);
+            }
+        }
+
+        if (repository != null) {
+            try {
+                Session newSession = repository.loginAdministrative(null);
+                synchronized (this) {
+                    session = newSession;
+                }
+                for (String root : SEARCH_PATH) {
+                    EventListener listener = new ScriptListener();
+                    synchronized (this) {
+                        listeners.add(listener);
+                    }
+                    newSession.getWorkspace().getObservationManager().addEventListener(
+                        listener, 255, root, true, null, null, false);
+                }
+            } catch (RepositoryException re) {
+                log.error(
+                    "setRepository: Failed registering as observation listener",
+                    re);
+            }
+        }
+    }
+
+    void dispose() {
+        setRepository(null);
+        clear();
+    }
+
+    /**
+     * Returns the script cached for the <code>path</code> if it has been
+     * compiled from the given <code>source</code>. Otherwise
+     * <code>null</code> is returned.
+     */
+    Script get(String path, String source) {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(path);
+        }
+
+        if (entry != null && entry.source.equals(source)) {
+            hits.incrementAndGet();
+            return entry.script;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(String path, String source, Script script) {
+        Entry entry = new Entry(source, script);
+        synchronized (cache) {
+            cache.put(path, entry);
+            paths.add(path);
+        }
+    }
+
+    boolean contains(String path) {
+        synchronized (cache) {
+            return cache.containsKey(path);
+        }
+    }
+
+    /**
+     * Removes the scripts at or below the <code>path</code> as well as the
+     * script containing the <code>path</code>, for example the script whose
+     * <code>jcr:content/jcr:data</code> property has been modified.
+     */
+    void invalidate(String path) {
+        if ("/".equals(path)) {
+            clear();
+            return;
+        }
+
+        synchronized (cache) {
+            // the scripts below the path, which sort between path + "/" and
+            // path + "0", the character following the slash
+            List<String> removed = new ArrayList<String>(paths.subSet(
+                path + "/", path + "0"));
+
+            // the path itself and the script containing the path
+            for (String current = path; current.length() > 1; current = current.substring(
+                0, Math.max(1, current.lastIndexOf('/')))) {
+                if (cache.containsKey(current)) {
+                    removed.add(current);
+                }
+            }
+
+            for (String scriptPath : removed) {
+                log.debug("invalidate: Removing script {}", scriptPath);
+                cache.remove(scriptPath);
+                paths.remove(scriptPath);
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (cache) {
+            cache.clear();
+            paths.clear();
+        }
+    }
+
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    // ---------- internal
+
+    /**
+     * The listener registered for each entry of the script search path,
+     * removing the scripts affected by the events from the cache.
+     */
+    private class ScriptListener implements EventListener {
+
+        public void onEvent(EventIterator events) {
+            List<String> eventPaths = new ArrayList<String>();
+            while (session != null && events.hasNext()) {
+                try {
+                    eventPaths.add(events.nextEvent().getPath());
+                } catch (Throwable t) {
+                    log.warn("onEvent: Cannot get the path of an event", t);
+                }
+            }
+
+            for (String path : eventPaths) {
+                invalidate(path);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final String source;
+
+        final Script script;
+
+        Entry(String source, Script script) {
+            this.source = source;
+            this.script = script;
+        }
+    }
+}
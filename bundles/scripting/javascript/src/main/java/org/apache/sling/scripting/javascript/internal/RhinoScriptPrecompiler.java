@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.javascript.internal;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Iterator;
+
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.apache.sling.jcr.resource.JcrResourceResolverFactory;
+import org.mozilla.javascript.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>RhinoScriptPrecompiler</code> walks the resource tree below the
+ * search path entries and compiles all ECMA and ESP scripts into the
+ * {@link RhinoScriptCache} such that the first requests after startup do not
+ * have to compile the scripts. The scripts are compiled in a background
+ * thread, which may be stopped at any time by calling {@link #stop()}.
+ */
+class RhinoScriptPrecompiler implements Runnable {
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final RhinoJavaScriptEngineFactory factory;
+
+    private final RhinoScriptCache cache;
+
+    private final SlingRepository repository;
+
+    private final JcrResourceResolverFactory resourceResolverFactory;
+
+    private volatile boolean running;
+
+    private int compiled;
+
+    RhinoScriptPrecompiler(RhinoJavaScriptEngineFactory factory,
+            RhinoScriptCache cache, SlingRepository repository,
+            JcrResourceResolverFactory resourceResolverFactory) {
+        this.factory = factory;
+        this.cache = cache;
+        this.repository = repository;
+        this.resourceResolverFactory = resourceResolverFactory;
+    }
+
+    void start() {
+        running = true;
+
+        Thread thread = new Thread(this, "Rhino Script Precompiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    public void run() {
+        final long start = System.currentTimeMillis();
+
+        Session session = null;
+        final Context rhinoContext = Context.enter();
+        try {
+            session = repository.loginAdministrative(null);
+            ResourceResolver resolver = resourceResolverFactory.getResourceResolver(session);
+            for (String path : resolver.getSearchPath()) {
+                Resource root = resolver.getResource(path);
+                if (root != null) {
+                    precompile(rhinoContext, resolver, root);
+                }
+            }
+
+            log.info("run: Precompiled {} scripts in {}ms",
+                String.valueOf(compiled),
+                String.valueOf(System.currentTimeMillis() - start));
+
+        } catch (Throwable t) {
+            log.error("run: Failure precompiling scripts", t);
+
+        } finally {
+            Context.exit();
+
+            if (session != null) {
+                session.logout();
+            }
+
+            running = false;
+        }
+    }
+
+    private void precompile(Context rhinoContext, ResourceResolver resolver,
+            Resource parent) {
+        for (Iterator<Resource> ci = resolver.listChildren(parent); running
+            && ci.hasNext();) {
+            Resource child = ci.next();
+            String path = child.getPath();
+            if (factory.isScript(path)) {
+                precompileScript(rhinoContext, child);
+            } else {
+                precompile(rhinoContext, resolver, child);
+            }
+        }
+    }
+
+    private void precompileScript(Context rhinoContext, Resource script) {
+        final String path = script.getPath();
+
+        // the script may already have been requested meanwhile
+        if (cache.contains(path)) {
+            return;
+        }
+
+        InputStream input = script.adaptTo(InputStream.class);
+        if (input == null) {
+            return;
+        }
+
+        try {
+            String encoding = script.getResourceMetadata().getCharacterEncoding();
+            if (encoding == null) {
+                encoding = "UTF-8";
+            }
+            Reader reader = new BufferedReader(new InputStreamReader(input,
+                encoding));
+
+            String source = RhinoJavaScriptEngineFactory.readSource(reader);
+            cache.put(path, source, factory.compileScript(rhinoContext, path,
+                source));
+            compiled++;
+
+        } catch (Throwable t) {
+            // the script will be compiled (and fail) again when requested
+            log.warn("precompileScript: Cannot compile script " + path, t);
+
+        } finally {
+            try {
+                input.close();
+            } catch (Exception ignore) {
+                // don't care
+            }
+        }
+    }
+}
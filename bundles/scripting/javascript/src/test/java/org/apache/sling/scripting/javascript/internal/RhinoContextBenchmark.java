@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ */
+package org.apache.sling.scripting.javascript.internal;
+
+import org.apache.sling.scripting.javascript.helper.SlingContextFactory;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Compares the per evaluation setup cost of entering a new Rhino context for
+ * each evaluation, as before, with reusing the context of the thread through
+ * {@link SlingContextFactory#enter()}. Both evaluate a trivial script in a
+ * new top level scope having a shared sealed root scope as prototype.
+ * <p>
+ * This is not a unit test, run it with
+ * <code>java -cp ... org.apache.sling.scripting.javascript.internal.RhinoContextBenchmark [evaluations]</code>.
+ */
+public class RhinoContextBenchmark {
+
+    public static void main(String[] args) {
+        final int evaluations = (args.length > 0)
+                ? Integer.parseInt(args[0])
+                : 200000;
+
+        SlingContextFactory.setup(null);
+        try {
+            final Scriptable rootScope;
+            final Script script;
+            Context cx = Context.enter();
+            try {
+                ScriptableObject scope = cx.initStandardObjects(
+                    new ImporterTopLevel(), true);
+                scope.sealObject();
+                rootScope = scope;
+                script = cx.compileString("var a = 1; a + 1", "benchmark", 1,
+                    null);
+            } finally {
+                Context.exit();
+            }
+
+            // warm up both variants before measuring
+            run(rootScope, script, evaluations / 10, false);
+            run(rootScope, script, evaluations / 10, true);
+
+            final long before = run(rootScope, script, evaluations, false);
+            final long after = run(rootScope, script, evaluations, true);
+
+            System.out.println("RhinoContextBenchmark: " + evaluations
+                + " evaluations, new context: " + before
+                + "ms, reused context: " + after + "ms");
+        } finally {
+            SlingContextFactory.teardown();
+        }
+    }
+
+    private static long run(Scriptable rootScope, Script script,
+            int evaluations, boolean reuse) {
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < evaluations; i++) {
+            final Context cx = reuse ? SlingContextFactory.enter() : Context.enter();
+            try {
+                Scriptable scope = new ImporterTopLevel();
+                scope.setPrototype(rootScope);
+                scope.setParentScope(null);
+                script.exec(cx, scope);
+            } finally {
+                Context.exit();
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
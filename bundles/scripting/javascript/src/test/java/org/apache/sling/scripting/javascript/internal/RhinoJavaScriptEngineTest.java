@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ */
+package org.apache.sling.scripting.javascript.internal;
+
+import javax.script.ScriptException;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.scripting.javascript.helper.SlingContextFactory;
+import org.mozilla.javascript.Context;
+
+public class RhinoJavaScriptEngineTest extends TestCase {
+
+    private final ScriptEngineHelper script = new ScriptEngineHelper();
+
+    public void testNoStateLeakOnSameThread() throws ScriptException {
+        assertEquals(42, ((Number) script.eval("var leaked = 42; leaked",
+            null)).intValue());
+        assertEquals("undefined", script.eval("typeof leaked", null));
+    }
+
+    public void testNoStateLeakBetweenThreads() throws Exception {
+        final Object[] result = new Object[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = script.eval("var other = 1; typeof other",
+                        null);
+                } catch (ScriptException se) {
+                    result[0] = se;
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertEquals("number", result[0]);
+        assertEquals("undefined", script.eval("typeof other", null));
+    }
+
+    public void testContextReusedPerThread() throws Exception {
+        // ensure the context factory has been set up
+        script.eval("1", null);
+
+        final Context first = enterAndExit();
+        assertSame(first, enterAndExit());
+
+        final Context[] other = new Context[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other[0] = enterAndExit();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotNull(other[0]);
+        assertNotSame(first, other[0]);
+    }
+
+    public void testSealedStandardObjects() throws ScriptException {
+        try {
+            script.eval("String.prototype.shout = function() { return 'x'; }",
+                null);
+            fail("Standard objects must be sealed");
+        } catch (ScriptException se) {
+            // expected
+        }
+        try {
+            script.eval("Math.answer = 42", null);
+            fail("Standard objects must be sealed");
+        } catch (ScriptException se) {
+            // expected
+        }
+        assertEquals("undefined", script.eval("typeof ''.shout", null));
+        assertEquals("undefined", script.eval("typeof Math.answer", null));
+
+        // scripts still define their own globals
+        assertEquals("function", script.eval("function f() {}; typeof f",
+            null));
+    }
+
+    private static Context enterAndExit() {
+        Context cx = SlingContextFactory.enter();
+        try {
+            return cx;
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.javascript.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.observation.ObservationManager;
+
+import junit.framework.TestCase;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+public class RhinoScriptCacheTest extends TestCase {
+
+    private RhinoScriptCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new RhinoScriptCache(2);
+    }
+
+    public void testGetRequiresSameSource() throws Exception {
+        Script script = compile("1 + 1");
+        cache.put("/apps/a/html.ecma", "1 + 1", script);
+
+        assertSame(script, cache.get("/apps/a/html.ecma", "1 + 1"));
+        assertNull(cache.get("/apps/a/html.ecma", "1 + 2"));
+        assertNull(cache.get("/apps/b/html.ecma", "1 + 1"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        cache.put("/apps/a.ecma", "a", compile("a"));
+        cache.put("/apps/b.ecma", "b", compile("b"));
+        assertNotNull(cache.get("/apps/a.ecma", "a"));
+
+        cache.put("/apps/c.ecma", "c", compile("c"));
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains("/apps/a.ecma"));
+        assertFalse(cache.contains("/apps/b.ecma"));
+        assertTrue(cache.contains("/apps/c.ecma"));
+    }
+
+    public void testInvalidate() throws Exception {
+        cache = new RhinoScriptCache(10);
+        cache.put("/apps/a/html.esp", "a", compile("a"));
+        cache.put("/apps/ab/html.esp", "b", compile("b"));
+
+        // modification of the file content
+        cache.invalidate("/apps/a/html.esp/jcr:content/jcr:data");
+        assertFalse(cache.contains("/apps/a/html.esp"));
+        assertTrue(cache.contains("/apps/ab/html.esp"));
+
+        // removal of a sibling folder with a common prefix
+        cache.put("/apps/a/html.esp", "a", compile("a"));
+        cache.invalidate("/apps/a");
+        assertFalse(cache.contains("/apps/a/html.esp"));
+        assertTrue(cache.contains("/apps/ab/html.esp"));
+
+        cache.invalidate("/");
+        assertEquals(0, cache.size());
+    }
+
+    public void testInvalidateAfterEviction() throws Exception {
+        cache.put("/apps/a/html.esp", "a", compile("a"));
+        cache.put("/apps/b/html.esp", "b", compile("b"));
+        cache.put("/apps/c/html.esp", "c", compile("c"));
+        assertFalse(cache.contains("/apps/a/html.esp"));
+
+        cache.invalidate("/apps/b");
+        assertEquals(1, cache.size());
+        assertTrue(cache.contains("/apps/c/html.esp"));
+
+        cache.invalidate("/apps");
+        assertEquals(0, cache.size());
+    }
+
+    public void testObserveSearchPath() throws Exception {
+        final List<Object[]> registrations = new ArrayList<Object[]>();
+        final Object workspace = Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Workspace.class,
+                ObservationManager.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if ("getObservationManager".equals(name)) {
+                        return proxy;
+                    } else if ("addEventListener".equals(name)) {
+                        registrations.add(args);
+                    }
+                    return null;
+                }
+            });
+        final Object session = Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Session.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "getWorkspace".equals(method.getName())
+                            ? workspace
+                            : null;
+                }
+            });
+        cache.setRepository((SlingRepository) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] { SlingRepository.class }, new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return "loginAdministrative".equals(method.getName())
+                            ? session
+                            : null;
+                }
+            }));
+
+        // one listener for each search path entry
+        assertEquals(RhinoScriptCache.SEARCH_PATH.length, registrations.size());
+        for (int i = 0; i < registrations.size(); i++) {
+            assertEquals(RhinoScriptCache.SEARCH_PATH[i],
+                registrations.get(i)[2]);
+            assertEquals(Boolean.TRUE, registrations.get(i)[3]);
+        }
+        assertNotSame(registrations.get(0)[0], registrations.get(1)[0]);
+    }
+
+    private Script compile(String source) {
+        Context cx = Context.enter();
+        try {
+            return cx.compileString(source, "test", 1, null);
+        } finally {
+            Context.exit();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The <code>ByteRange</code> class represents a range of bytes of an entity
+ * requested with an HTTP <code>Range</code> header as defined in section
+ * 14.35 of RFC 2616.
+ */
+class ByteRange implements Comparable<ByteRange> {
+
+    /** The unit of the only range type supported */
+    static final String BYTES_UNIT = "bytes";
+
+    /**
+     * The maximum number of ranges accepted in a single header. Requests for
+     * more ranges are answered with the complete entity.
+     */
+    static final int MAX_RANGES = 32;
+
+    private final long start;
+
+    private final long end;
+
+    ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses the value of a <code>Range</code> header for an entity of the
+     * given <code>length</code>.
+     * <p>
+     * Returns <code>null</code> if the header is syntactically invalid, uses
+     * an unsupported unit or requests too many ranges. In this case the
+     * header must be ignored. Returns an empty list if none of the ranges is
+     * satisfiable. Otherwise the satisfiable ranges are returned in ascending
+     * order with overlapping and adjacent ranges coalesced.
+     */
+    static List<ByteRange> parse(String header, long length) {
+        if (header == null || !header.startsWith(BYTES_UNIT + "=")) {
+            return null;
+        }
+
+        String[] specs = header.substring(BYTES_UNIT.length() + 1).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // suffix range: the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        end = length - 1;
+                    } else {
+                        end = Long.parseLong(spec.substring(dash + 1));
+                        if (end < start) {
+                            return null;
+                        }
+                        end = Math.min(end, length - 1);
+                    }
+                }
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+
+            if (start < length && start >= 0) {
+                ranges.add(new ByteRange(start, end));
+            }
+        }
+
+        return coalesce(ranges);
+    }
+
+    /** The position of the first byte of the range */
+    long getStart() {
+        return start;
+    }
+
+    /** The position of the last byte of the range */
+    long getEnd() {
+        return end;
+    }
+
+    /** The number of bytes in the range */
+    long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Returns the value of the <code>Content-Range</code> header for this
+     * range of an entity of the given <code>length</code>.
+     */
+    String getContentRange(long length) {
+        return BYTES_UNIT + " " + start + "-" + end + "/" + length;
+    }
+
+    public int compareTo(ByteRange other) {
+        if (start != other.start) {
+            return (start < other.start) ? -1 : 1;
+        }
+        return (end < other.end) ? -1 : ((end == other.end) ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ByteRange) {
+            ByteRange other = (ByteRange) obj;
+            return start == other.start && end == other.end;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (start ^ (start >>> 32)) * 31
+            + (int) (end ^ (end >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+
+        Collections.sort(ranges);
+        List<ByteRange> result = new ArrayList<ByteRange>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end,
+                    next.end));
+            } else {
+                result.add(current);
+                current = next;
+            }
+        }
+        result.add(current);
+        return result;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * The <code>EcmaDateFormat</code> formats dates like a
+ * <code>SimpleDateFormat</code> with the
+ * {@link JsonResourceWriter#ECMA_DATE_FORMAT} pattern and the
+ * {@link JsonResourceWriter#DATE_FORMAT_LOCALE} locale, for example
+ * <code>Fri Oct 17 2008 14:20:00 GMT+0200</code>.
+ * <p>
+ * Dates are formatted in the default time zone without any locking: each
+ * thread uses its own calendar and buffer and keeps the last formatted date,
+ * such that repeatedly formatting dates of the same second is cheap.
+ */
+public final class EcmaDateFormat {
+
+    private static final String[] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu",
+        "Fri", "Sat" };
+
+    private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr",
+        "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+
+    private static final ThreadLocal<Formatter> FORMATTER = new ThreadLocal<Formatter>() {
+        protected Formatter initialValue() {
+            return new Formatter(TimeZone.getDefault());
+        }
+    };
+
+    private EcmaDateFormat() {
+    }
+
+    /**
+     * Returns the date formatted in the default time zone.
+     */
+    public static String format(Calendar date) {
+        return format(date.getTimeInMillis());
+    }
+
+    /**
+     * Returns the time formatted in the default time zone.
+     */
+    public static String format(long time) {
+        return FORMATTER.get().format(time);
+    }
+
+    /** The per-thread state to format dates */
+    private static class Formatter {
+
+        private final Calendar calendar;
+
+        private final StringBuilder buf = new StringBuilder(33);
+
+        /** the second of the last formatted date */
+        private long lastSeconds = Long.MIN_VALUE;
+
+        /** the last formatted date */
+        private String lastValue;
+
+        Formatter(TimeZone timeZone) {
+            this.calendar = Calendar.getInstance(timeZone,
+                JsonResourceWriter.DATE_FORMAT_LOCALE);
+        }
+
+        String format(long time) {
+            // floor to seconds, milliseconds are not part of the format
+            long seconds = time / 1000;
+            if (time % 1000 < 0) {
+                seconds--;
+            }
+            if (seconds != lastSeconds || lastValue == null) {
+                lastValue = doFormat(time);
+                lastSeconds = seconds;
+            }
+            return lastValue;
+        }
+
+        private String doFormat(long time) {
+            calendar.setTimeInMillis(time);
+
+            buf.setLength(0);
+            buf.append(DAYS[calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY]);
+            buf.append(' ').append(MONTHS[calendar.get(Calendar.MONTH)]);
+            buf.append(' ');
+            appendPadded(buf, calendar.get(Calendar.DAY_OF_MONTH), 2);
+            buf.append(' ');
+            appendPadded(buf, calendar.get(Calendar.YEAR), 4);
+            buf.append(' ');
+            appendPadded(buf, calendar.get(Calendar.HOUR_OF_DAY), 2);
+            buf.append(':');
+            appendPadded(buf, calendar.get(Calendar.MINUTE), 2);
+            buf.append(':');
+            appendPadded(buf, calendar.get(Calendar.SECOND), 2);
+
+            int tzOffset = calendar.get(Calendar.ZONE_OFFSET)
+                + calendar.get(Calendar.DST_OFFSET);
+            tzOffset /= (60 * 1000);
+            buf.append((tzOffset < 0) ? " GMT-" : " GMT+");
+            tzOffset = Math.abs(tzOffset);
+            appendPadded(buf, ((tzOffset / 60) * 100) + (tzOffset % 60), 4);
+
+            return buf.toString();
+        }
+
+        private static void appendPadded(StringBuilder dest, int value,
+                int digits) {
+            for (int limit = 10; digits > 1; digits--, limit *= 10) {
+                if (value < limit) {
+                    dest.append('0');
+                }
+            }
+            dest.append(value);
+        }
+    }
+}
@@ -19,8 +19,6 @@ package org.apache.sling.servlets.get.impl.helpers;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.Locale;
@@ -38,8 +36,6 @@ import org.apache.sling.commons.json.io.JSONWriter;
  */
 public class JsonResourceWriter {
 
-    private static DateFormat calendarFormat;
-
     private final Set<String> propertyNamesToIgnore;
 
     /** Used to format date values */
@@ -73,7 +69,7 @@ public class JsonResourceWriter {
      */
     public void dump(Resource resource, Writer w, int maxRecursionLevels, boolean tidy)
             throws JSONException {
-        JSONWriter jw = new JSONWriter(w);
+        JSONWriter jw = new JSONWriter(w, true);
         jw.setTidy(tidy);
         dump(resource, jw, 0, maxRecursionLevels);
     }
@@ -246,10 +242,11 @@ public class JsonResourceWriter {
         }
     }
 
-    public static synchronized String format(Calendar date) {
-        if (calendarFormat == null) {
-            calendarFormat = new SimpleDateFormat(ECMA_DATE_FORMAT, DATE_FORMAT_LOCALE);
-        }
-        return calendarFormat.format(date.getTime());
+    /**
+     * Returns the date formatted with the {@link #ECMA_DATE_FORMAT} in the
+     * default time zone. This method is thread safe and does not lock.
+     */
+    public static String format(Calendar date) {
+        return EcmaDateFormat.format(date);
     }
 }
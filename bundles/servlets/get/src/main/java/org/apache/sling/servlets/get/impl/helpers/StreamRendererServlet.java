@@ -17,15 +17,27 @@
 package org.apache.sling.servlets.get.impl.helpers;
 
 import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_PARTIAL_CONTENT;
+import static javax.servlet.http.HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+import static org.apache.sling.api.servlets.HttpConstants.HEADER_ETAG;
 import static org.apache.sling.api.servlets.HttpConstants.HEADER_IF_MODIFIED_SINCE;
 import static org.apache.sling.api.servlets.HttpConstants.HEADER_LAST_MODIFIED;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -48,6 +60,10 @@ import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
  * {@link org.apache.sling.servlets.get.impl.DefaultGetServlet}. If the current
  * resource cannot be streamed it is rendered using the
  * {@link PlainTextRendererServlet}.
+ * <p>
+ * Streamed resources are sent with a strong <code>ETag</code> and support
+ * conditional requests as well as single and multiple byte ranges. Resources
+ * adapting to a <code>File</code> are transferred from the file channel.
  */
 public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
@@ -55,6 +71,25 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
 
     private static final long serialVersionUID = -1L;
 
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String HEADER_RANGE = "Range";
+
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    /** The size of the buffers used to copy streams */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The buffers kept for reuse by subsequent requests */
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<byte[]>(
+        16);
+
     private boolean index;
 
     private String[] indexFiles;
@@ -88,10 +123,15 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             return;
         }
 
-        // check the last modification time and If-Modified-Since header
+        // check the entity tag and last modification time against the
+        // If-None-Match and If-Modified-Since headers
         ResourceMetadata meta = resource.getResourceMetadata();
         long modifTime = meta.getModificationTime();
-        if (unmodified(request, modifTime)) {
+        String etag = getETag(resource);
+        if (unmodified(request, modifTime, etag)) {
+            if (etag != null) {
+                response.setHeader(HEADER_ETAG, etag);
+            }
             response.setStatus(SC_NOT_MODIFIED);
             return;
         }
@@ -100,7 +140,7 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         InputStream stream = resource.adaptTo(InputStream.class);
         if (stream != null) {
             
-            streamResource(resource, stream, response);
+            streamResource(request, resource, etag, stream, response);
             
         } else {
             
@@ -122,18 +162,45 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
     }
 
     /**
-     * Returns <code>true</code> if the request has a
+     * Returns the strong entity tag of the resource built from the last
+     * modification time, the content length and the path of the resource or
+     * <code>null</code> if the resource has no last modification time.
+     */
+    static String getETag(Resource resource) {
+        ResourceMetadata meta = resource.getResourceMetadata();
+        long modifTime = meta.getModificationTime();
+        if (modifTime <= 0) {
+            return null;
+        }
+
+        return "\"" + Long.toHexString(modifTime) + "-"
+            + Long.toHexString(meta.getContentLength()) + "-"
+            + Integer.toHexString(resource.getPath().hashCode()) + "\"";
+    }
+
+    /**
+     * Returns <code>true</code> if the request has an
+     * <code>If-None-Match</code> header matching the <code>etag</code> or
+     * -- if there is no <code>If-None-Match</code> header -- an
      * <code>If-Modified-Since</code> header whose date value is later than
      * the last modification time given as <code>modifTime</code>.
      * 
      * @param request The <code>ComponentRequest</code> checked for the
-     *            <code>If-Modified-Since</code> header.
+     *            <code>If-None-Match</code> and
+     *            <code>If-Modified-Since</code> headers.
      * @param modifTime The last modification time to compare the header to.
-     * @return <code>true</code> if the <code>modifTime</code> is less than
-     *         or equal to the time of the <code>If-Modified-Since</code>
-     *         header.
+     * @param etag The entity tag of the resource, may be <code>null</code>.
+     * @return <code>true</code> if the <code>etag</code> matches or the
+     *         <code>modifTime</code> is less than or equal to the time of
+     *         the <code>If-Modified-Since</code> header.
      */
-    private boolean unmodified(HttpServletRequest request, long modifTime) {
+    private boolean unmodified(HttpServletRequest request, long modifTime,
+            String etag) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+
         if (modifTime > 0) {
             long modTime = modifTime / 1000; // seconds
             long ims = request.getDateHeader(HEADER_IF_MODIFIED_SINCE) / 1000;
@@ -144,7 +211,61 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         return false;
     }
 
-    private void streamResource(Resource resource, InputStream stream,
+    /**
+     * Returns <code>true</code> if the list of entity tags of an
+     * <code>If-None-Match</code> or <code>If-Match</code> header contains
+     * the <code>etag</code> or is the wildcard <code>*</code>.
+     */
+    static boolean matches(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)
+                || (candidate.startsWith("W/") && candidate.substring(2).equals(
+                    etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ranges requested by the <code>Range</code> header or
+     * <code>null</code> if the complete entity is to be sent because there
+     * is no valid <code>Range</code> header or the <code>If-Range</code>
+     * header does not match the current entity.
+     */
+    private List<ByteRange> getRanges(HttpServletRequest request,
+            long length, long modifTime, String etag) {
+        String range = request.getHeader(HEADER_RANGE);
+        if (range == null) {
+            return null;
+        }
+
+        String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // only strong entity tags may be used for ranges
+                if (etag == null || !ifRange.trim().equals(etag)) {
+                    return null;
+                }
+            } else {
+                long date;
+                try {
+                    date = request.getDateHeader(HEADER_IF_RANGE);
+                } catch (IllegalArgumentException iae) {
+                    return null;
+                }
+                if (modifTime <= 0 || modifTime / 1000 != date / 1000) {
+                    return null;
+                }
+            }
+        }
+
+        return ByteRange.parse(range, length);
+    }
+
+    private void streamResource(SlingHttpServletRequest request,
+            Resource resource, String etag, InputStream stream,
             SlingHttpServletResponse response) throws IOException {
         // finally stream the resource
         try {
@@ -155,6 +276,9 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
             if (modifTime > 0) {
                 response.setDateHeader(HEADER_LAST_MODIFIED, modifTime);
             }
+            if (etag != null) {
+                response.setHeader(HEADER_ETAG, etag);
+            }
 
             final String defaultContentType = "application/octet-stream";
             String contentType = meta.getContentType();
@@ -178,17 +302,78 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
                 response.setCharacterEncoding(encoding);
             }
 
-            long length = meta.getContentLength();
-            if (length > 0 && length < Integer.MAX_VALUE) {
-                response.setContentLength((int) length);
+            // file resources are copied without passing through the heap
+            File file = resource.adaptTo(File.class);
+            if (file != null && !file.isFile()) {
+                file = null;
             }
 
-            OutputStream out = response.getOutputStream();
+            long length = (file != null)
+                    ? file.length()
+                    : meta.getContentLength();
 
-            byte[] buf = new byte[1024];
-            int rd;
-            while ((rd = stream.read(buf)) >= 0) {
-                out.write(buf, 0, rd);
+            List<ByteRange> ranges = null;
+            if (length > 0) {
+                response.setHeader(HEADER_ACCEPT_RANGES, ByteRange.BYTES_UNIT);
+                ranges = getRanges(request, length, modifTime, etag);
+            }
+
+            if (ranges == null) {
+
+                // the complete entity
+                setContentLength(response, length);
+                copy(stream, file, response.getOutputStream(), 0,
+                    (file != null) ? length : -1);
+
+            } else if (ranges.isEmpty()) {
+
+                response.setHeader(HEADER_CONTENT_RANGE, ByteRange.BYTES_UNIT
+                    + " */" + length);
+                response.sendError(SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+
+            } else if (ranges.size() == 1) {
+
+                ByteRange range = ranges.get(0);
+                response.setStatus(SC_PARTIAL_CONTENT);
+                response.setHeader(HEADER_CONTENT_RANGE,
+                    range.getContentRange(length));
+                setContentLength(response, range.getLength());
+                if (file == null) {
+                    skip(stream, range.getStart());
+                }
+                copy(stream, file, response.getOutputStream(),
+                    range.getStart(), range.getLength());
+
+            } else {
+
+                // the ranges are ascending, such that the stream is only
+                // read forward
+                String boundary = UUID.randomUUID().toString();
+                String partContentType = response.getContentType();
+                response.setStatus(SC_PARTIAL_CONTENT);
+                response.setContentType("multipart/byteranges; boundary="
+                    + boundary);
+
+                OutputStream out = response.getOutputStream();
+                long position = 0;
+                for (ByteRange range : ranges) {
+                    StringBuilder head = new StringBuilder();
+                    head.append("\r\n--").append(boundary).append("\r\n");
+                    if (partContentType != null) {
+                        head.append("Content-Type: ").append(partContentType).append(
+                            "\r\n");
+                    }
+                    head.append("Content-Range: ").append(
+                        range.getContentRange(length)).append("\r\n\r\n");
+                    out.write(head.toString().getBytes("ISO-8859-1"));
+
+                    if (file == null) {
+                        skip(stream, range.getStart() - position);
+                    }
+                    copy(stream, file, out, range.getStart(), range.getLength());
+                    position = range.getEnd() + 1;
+                }
+                out.write(("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1"));
             }
 
         } finally {
@@ -200,6 +385,94 @@ public class StreamRendererServlet extends SlingSafeMethodsServlet {
         }
     }
     
+    private void setContentLength(HttpServletResponse response, long length) {
+        if (length > 0 && length < Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else if (length > 0) {
+            response.setHeader(HEADER_CONTENT_LENGTH, String.valueOf(length));
+        }
+    }
+
+    /**
+     * Copies <code>length</code> bytes starting at <code>start</code> to
+     * the output stream. If a <code>file</code> is given, the bytes are
+     * transferred from the file channel. Otherwise they are read from the
+     * <code>stream</code>, which is expected to be positioned at
+     * <code>start</code> already. A negative <code>length</code> copies the
+     * stream to its end.
+     */
+    private void copy(InputStream stream, File file, OutputStream out,
+            long start, long length) throws IOException {
+        if (file != null && length >= 0) {
+            transfer(file, out, start, length);
+            return;
+        }
+
+        byte[] buf = acquireBuffer();
+        try {
+            long remaining = (length < 0) ? Long.MAX_VALUE : length;
+            while (remaining > 0) {
+                int rd = stream.read(buf, 0,
+                    (int) Math.min(buf.length, remaining));
+                if (rd < 0) {
+                    break;
+                }
+                out.write(buf, 0, rd);
+                remaining -= rd;
+            }
+        } finally {
+            releaseBuffer(buf);
+        }
+    }
+
+    private void transfer(File file, OutputStream out, long start, long length)
+            throws IOException {
+        FileInputStream fin = new FileInputStream(file);
+        try {
+            FileChannel channel = fin.getChannel();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long end = start + length;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position,
+                    target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            try {
+                fin.close();
+            } catch (IOException ignore) {
+                // don't care
+            }
+        }
+    }
+
+    private void skip(InputStream stream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = stream.skip(count);
+            if (skipped <= 0) {
+                // some streams do not support skipping, read instead
+                if (stream.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buf = BUFFERS.poll();
+        return (buf != null) ? buf : new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buf) {
+        BUFFERS.offer(buf);
+    }
+
     private void renderDirectory(SlingHttpServletRequest request,
             SlingHttpServletResponse response) throws ServletException,
             IOException {
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class ByteRangeTest extends TestCase {
+
+    public void testSingleRanges() {
+        assertRanges(ByteRange.parse("bytes=0-99", 1000), 0, 99);
+        assertRanges(ByteRange.parse("bytes=500-", 1000), 500, 999);
+        assertRanges(ByteRange.parse("bytes=-100", 1000), 900, 999);
+        assertRanges(ByteRange.parse("bytes=-2000", 1000), 0, 999);
+        assertRanges(ByteRange.parse("bytes=900-1999", 1000), 900, 999);
+    }
+
+    public void testMultipleRangesAreSortedAndCoalesced() {
+        assertRanges(ByteRange.parse("bytes=500-599, 0-99", 1000), 0, 99,
+            500, 599);
+        assertRanges(ByteRange.parse("bytes=0-99,50-149,150-199", 1000), 0,
+            199);
+        assertRanges(ByteRange.parse("bytes=0-99,2000-2999", 1000), 0, 99);
+    }
+
+    public void testUnsatisfiable() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+    }
+
+    public void testInvalid() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("pages=1-2", 1000));
+        assertNull(ByteRange.parse("bytes=abc", 1000));
+        assertNull(ByteRange.parse("bytes=10-5", 1000));
+        assertNull(ByteRange.parse("bytes=a-5", 1000));
+
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 0; i < ByteRange.MAX_RANGES; i++) {
+            many.append(',').append(2 * i + 2).append('-').append(2 * i + 2);
+        }
+        assertNull(ByteRange.parse(many.toString(), 1000));
+    }
+
+    public void testContentRange() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100).get(0);
+        assertEquals(10, range.getLength());
+        assertEquals("bytes 10-19/100", range.getContentRange(100));
+    }
+
+    public void testMatches() {
+        String etag = "\"11-22-33\"";
+        assertTrue(StreamRendererServlet.matches(etag, etag));
+        assertTrue(StreamRendererServlet.matches("*", etag));
+        assertTrue(StreamRendererServlet.matches("\"x\", W/" + etag, etag));
+        assertFalse(StreamRendererServlet.matches("\"11-22-34\"", etag));
+    }
+
+    private void assertRanges(List<ByteRange> ranges, long... bounds) {
+        ByteRange[] expected = new ByteRange[bounds.length / 2];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new ByteRange(bounds[2 * i], bounds[2 * i + 1]);
+        }
+        assertEquals(Arrays.asList(expected), ranges);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.servlets.get.impl.helpers;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class EcmaDateFormatTest extends TestCase {
+
+    private final SimpleDateFormat reference = new SimpleDateFormat(
+        JsonResourceWriter.ECMA_DATE_FORMAT,
+        JsonResourceWriter.DATE_FORMAT_LOCALE);
+
+    public void testFormat() {
+        long time = 1214985600000L; // 2008-07-02 08:00:00 UTC
+        for (int i = 0; i < 800; i++) {
+            time += 86400000L + 3661001L;
+            assertEquals(reference.format(new Date(time)),
+                EcmaDateFormat.format(time));
+        }
+    }
+
+    public void testFormatEarlyDates() {
+        long time = -2208988800000L; // 1900-01-01 00:00:00 UTC
+        for (int i = 0; i < 100; i++) {
+            time += 7 * 86400000L + 999L;
+            assertEquals(reference.format(new Date(time)),
+                EcmaDateFormat.format(time));
+        }
+    }
+
+    public void testFormatCalendar() {
+        Calendar cal = Calendar.getInstance();
+        cal.set(2009, Calendar.FEBRUARY, 3, 4, 5, 6);
+        assertEquals(reference.format(cal.getTime()),
+            JsonResourceWriter.format(cal));
+    }
+
+    public void testSameSecond() {
+        long time = 1214985600000L;
+        assertSame(EcmaDateFormat.format(time), EcmaDateFormat.format(time + 999));
+        assertEquals(reference.format(new Date(time + 1000)),
+            EcmaDateFormat.format(time + 1000));
+        assertEquals(reference.format(new Date(time - 1)),
+            EcmaDateFormat.format(time - 1));
+    }
+}
@@ -34,6 +34,7 @@ import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.servlets.HtmlResponse;
 import org.apache.sling.api.wrappers.SlingRequestPaths;
+import org.apache.sling.jcr.resource.JcrResourceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -104,6 +105,7 @@ public abstract class AbstractSlingPostOperation implements SlingPostOperation {
             }
             if (session.hasPendingChanges()) {
                 session.save();
+                JcrResourceUtil.invalidateResourceCache(request.getResourceResolver());
             }
 
         } catch (Exception e) {
@@ -115,6 +117,7 @@ public abstract class AbstractSlingPostOperation implements SlingPostOperation {
             try {
                 if (session.hasPendingChanges()) {
                     session.refresh(false);
+                    JcrResourceUtil.invalidateResourceCache(request.getResourceResolver());
                 }
             } catch (RepositoryException e) {
                 log.warn("RepositoryException in finally block: {}",
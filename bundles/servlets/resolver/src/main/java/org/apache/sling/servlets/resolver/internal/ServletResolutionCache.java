@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>ServletResolutionCache</code> caches the ordered list of paths of
+ * the servlet and script resources found by the
+ * {@link org.apache.sling.servlets.resolver.internal.helper.ResourceCollector}
+ * for a given
+ * {@link org.apache.sling.servlets.resolver.internal.helper.ResourceCollector#getCacheKey(org.apache.sling.api.resource.Resource) cache key}.
+ * <p>
+ * Only paths are cached since resources are bound to the resource resolver
+ * of the request. The cache is cleared whenever content below the search path
+ * changes and whenever servlets are registered or unregistered.
+ * <p>
+ * Each clear increments the generation of the cache. Callers read the
+ * generation before collecting the resources and hand it to
+ * {@link #put(String, long, String[])}, such that results collected before
+ * a clear are not cached.
+ */
+class ServletResolutionCache implements EventListener {
+
+    /** default log */
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String[] searchPath;
+
+    private final int maxSize;
+
+    private final Map<String, String[]> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** Incremented by each clear, guarded by the cache lock */
+    private long generation;
+
+    private Session session;
+
+    ServletResolutionCache(SlingRepository repository, String[] searchPath,
+            int maxSize) throws RepositoryException {
+        this.searchPath = searchPath;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, String[]> eldest) {
+                return size() > ServletResolutionCache.this.maxSize;
+            }
+        };
+
+        this.session = repository.loginAdministrative(null);
+        try {
+            session.getWorkspace().getObservationManager().addEventListener(
+                this, 255, "/", true, null, null, false);
+        } catch (RepositoryException re) {
+            log.error(
+                "ServletResolutionCache<init>: Failed registering as observation listener",
+                re);
+        }
+    }
+
+    void dispose() {
+        Session oldSession;
+        synchronized (this) {
+            oldSession = session;
+            session = null;
+        }
+
+        if (oldSession != null) {
+            try {
+                oldSession.getWorkspace().getObservationManager().removeEventListener(
+                    this);
+            } catch (RepositoryException re) {
+                log.error(
+                    "dispose: Failed unregistering as observation listener", re);
+            }
+
+            try {
+                oldSession.logout();
+            } catch (Exception e) {
+                log.error("dispose: Unexpected problem logging out", e);
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Returns the paths cached for the <code>key</code> or <code>null</code>
+     * if nothing is cached.
+     */
+    String[] get(String key) {
+        String[] paths;
+        synchronized (cache) {
+            paths = cache.get(key);
+        }
+
+        if (paths != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the current generation, to be read before collecting the
+     * resources to be cached.
+     */
+    long getGeneration() {
+        synchronized (cache) {
+            return generation;
+        }
+    }
+
+    /**
+     * Caches the <code>paths</code> unless the cache has been cleared since
+     * the <code>generation</code> has been read.
+     */
+    void put(String key, long generation, String[] paths) {
+        synchronized (cache) {
+            if (generation == this.generation) {
+                cache.put(key, paths);
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (cache) {
+            generation++;
+            if (!cache.isEmpty()) {
+                invalidations.incrementAndGet();
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the current cache contents.
+     */
+    Map<String, String[]> getEntries() {
+        synchronized (cache) {
+            return new LinkedHashMap<String, String[]>(cache);
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getInvalidations() {
+        return invalidations.get();
+    }
+
+    // ---------- EventListener interface
+
+    public void onEvent(EventIterator events) {
+        while (session != null && events.hasNext()) {
+            try {
+                String path = events.nextEvent().getPath();
+                for (String prefix : searchPath) {
+                    if (path.startsWith(prefix)) {
+                        log.debug("onEvent: Clearing cache after change of {}",
+                            path);
+                        clear();
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                log.warn("onEvent: Cannot complete event handling", t);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.webconsole.AbstractWebConsolePlugin;
+import org.apache.felix.webconsole.WebConsoleConstants;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * The <code>ServletResolverWebConsolePlugin</code> displays the contents and
+ * the hit rate of the servlet resolution cache.
+ */
+public class ServletResolverWebConsolePlugin extends AbstractWebConsolePlugin {
+
+    private static final String LABEL = "servletresolver";
+
+    // --------- setup and shutdown
+
+    private static ServletResolverWebConsolePlugin INSTANCE;
+
+    static void initPlugin(BundleContext context,
+            SlingServletResolver servletResolver) {
+        if (INSTANCE == null) {
+            ServletResolverWebConsolePlugin tmp = new ServletResolverWebConsolePlugin(
+                servletResolver);
+            tmp.activate(context);
+            INSTANCE = tmp;
+        }
+    }
+
+    static void destroyPlugin() {
+        if (INSTANCE != null) {
+            try {
+                INSTANCE.deactivate();
+            } finally {
+                INSTANCE = null;
+            }
+        }
+    }
+
+    private ServiceRegistration serviceRegistration;
+
+    private final SlingServletResolver servletResolver;
+
+    // private constructor to force using static setup and shutdown
+    private ServletResolverWebConsolePlugin(
+            SlingServletResolver servletResolver) {
+        this.servletResolver = servletResolver;
+    }
+
+    @Override
+    public String getLabel() {
+        return LABEL;
+    }
+
+    @Override
+    public String getTitle() {
+        return "Servlet Resolver";
+    }
+
+    @Override
+    protected void renderContent(HttpServletRequest req, HttpServletResponse res)
+            throws IOException {
+        PrintWriter pw = res.getWriter();
+
+        pw.println("<table class='content' cellpadding='0' cellspacing='0' width='100%'>");
+
+        pw.println("<tr class='content'>");
+        pw.println("<th colspan='2' class='content container'>Servlet Resolution Cache</th>");
+        pw.println("</tr>");
+
+        ServletResolutionCache cache = servletResolver.getCache();
+        if (cache == null) {
+            pw.println("<tr class='content'>");
+            pw.println("<td class='content' colspan='2'>The servlet resolution cache is disabled</td>");
+            pw.println("</tr>");
+        } else {
+            Map<String, String[]> entries = cache.getEntries();
+            long hits = cache.getHits();
+            long total = hits + cache.getMisses();
+
+            printRow(pw, "Entries", entries.size() + " / "
+                + cache.getMaxSize());
+            printRow(pw, "Hits", String.valueOf(hits));
+            printRow(pw, "Misses", String.valueOf(cache.getMisses()));
+            printRow(pw, "Hit Rate", (total == 0)
+                    ? "-"
+                    : ((hits * 100) / total) + "%");
+            printRow(pw, "Invalidations",
+                String.valueOf(cache.getInvalidations()));
+
+            pw.println("<tr class='content'>");
+            pw.println("<th colspan='2' class='content container'>Cache Entries</th>");
+            pw.println("</tr>");
+
+            for (Map.Entry<String, String[]> entry : entries.entrySet()) {
+                pw.println("<tr class='content'>");
+                pw.print("<td class='content'>");
+                pw.print(escape(entry.getKey()));
+                pw.println("</td>");
+                pw.print("<td class='content'>");
+                String[] paths = entry.getValue();
+                if (paths.length == 0) {
+                    pw.print("-");
+                }
+                for (int i = 0; i < paths.length; i++) {
+                    if (i > 0) {
+                        pw.print("<br>");
+                    }
+                    pw.print(escape(paths[i]));
+                }
+                pw.println("</td>");
+                pw.println("</tr>");
+            }
+        }
+
+        pw.println("</table>");
+    }
+
+    private void printRow(PrintWriter pw, String label, String value) {
+        pw.println("<tr class='content'>");
+        pw.print("<td class='content'>");
+        pw.print(label);
+        pw.println("</td>");
+        pw.print("<td class='content'>");
+        pw.print(value);
+        pw.println("</td>");
+        pw.println("</tr>");
+    }
+
+    private String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">",
+            "&gt;");
+    }
+
+    public void activate(BundleContext context) {
+        super.activate(context);
+
+        Dictionary<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_DESCRIPTION,
+            "Web Console Plugin for the Servlet Resolution Cache");
+        props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
+        props.put(Constants.SERVICE_PID, getClass().getName());
+        props.put(WebConsoleConstants.PLUGIN_LABEL, LABEL);
+
+        serviceRegistration = context.registerService(
+            WebConsoleConstants.SERVICE_NAME, this, props);
+    }
+
+    public void deactivate() {
+        if (serviceRegistration != null) {
+            serviceRegistration.unregister();
+            serviceRegistration = null;
+        }
+
+        super.deactivate();
+    }
+
+}
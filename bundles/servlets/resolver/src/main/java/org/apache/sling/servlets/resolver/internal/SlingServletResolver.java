@@ -52,9 +52,11 @@ import org.apache.sling.api.scripting.SlingScript;
 import org.apache.sling.api.scripting.SlingScriptResolver;
 import org.apache.sling.api.servlets.OptingServlet;
 import org.apache.sling.api.servlets.ServletResolver;
+import org.apache.sling.commons.osgi.OsgiUtil;
 import org.apache.sling.engine.RequestUtil;
 import org.apache.sling.engine.servlets.AbstractServiceReferenceConfig;
 import org.apache.sling.engine.servlets.ErrorHandler;
+import org.apache.sling.jcr.api.SlingRepository;
 import org.apache.sling.jcr.resource.JcrResourceResolverFactory;
 import org.apache.sling.servlets.resolver.internal.defaults.DefaultErrorHandlerServlet;
 import org.apache.sling.servlets.resolver.internal.defaults.DefaultServlet;
@@ -96,6 +98,14 @@ public class SlingServletResolver implements ServletResolver,
     /** The default servlet root is the first search path (which is usally /apps) */
     public static final String DEFAULT_SERVLET_ROOT = "0";
 
+    /**
+     * @scr.property value="200" type="Integer"
+     */
+    public static final String PROP_CACHE_SIZE = "servletresolver.cacheSize";
+
+    /** The default number of cached servlet resolution results */
+    public static final int DEFAULT_CACHE_SIZE = 200;
+
     private static final String REF_SERVLET = "Servlet";
 
     /** @scr.reference */
@@ -104,6 +114,9 @@ public class SlingServletResolver implements ServletResolver,
     /** @scr.reference */
     private JcrResourceResolverFactory resourceResolverFactory;
 
+    /** @scr.reference cardinality="0..1" policy="dynamic" */
+    private SlingRepository repository;
+
     private Map<ServiceReference, ServiceRegistration> servletsByReference = new HashMap<ServiceReference, ServiceRegistration>();
 
     private List<ServiceReference> pendingServlets = new ArrayList<ServiceReference>();
@@ -120,6 +133,16 @@ public class SlingServletResolver implements ServletResolver,
     // a request. This field is set on demand by getDefaultErrorServlet()
     private Servlet defaultErrorServlet;
 
+    // the cache of servlet and script resolution results, null if disabled
+    // or if there is no repository
+    private volatile ServletResolutionCache cache;
+
+    // the configured maximum number of cached resolution results
+    private int cacheSize;
+
+    // the search path of the cache, set when activated
+    private String[] cacheSearchPath;
+
     // ---------- ServletResolver interface -----------------------------------
 
     public Servlet resolveServlet(SlingHttpServletRequest request) {
@@ -397,7 +420,7 @@ public class SlingServletResolver implements ServletResolver,
      */
     private Servlet getServlet(ResourceCollector locationUtil,
             SlingHttpServletRequest request, Resource resource) {
-        Collection<Resource> candidates = locationUtil.getServlets(resource);
+        Collection<Resource> candidates = getCandidates(locationUtil, resource);
 
     	if(log.isDebugEnabled()) {
     		if(candidates.isEmpty()) {
@@ -436,6 +459,52 @@ public class SlingServletResolver implements ServletResolver,
         return null;
     }
 
+    /**
+     * Returns the servlet and script resources found by the
+     * <code>locationUtil</code> for the <code>resource</code>. The paths of
+     * the resources are cached such that subsequent requests with the same
+     * cache key only have to access the candidate resources instead of
+     * walking the resource type hierarchy.
+     */
+    private Collection<Resource> getCandidates(ResourceCollector locationUtil,
+            Resource resource) {
+        final ServletResolutionCache cache = this.cache;
+        final String key = (cache != null)
+                ? locationUtil.getCacheKey(resource)
+                : null;
+
+        long generation = 0;
+        if (key != null) {
+            generation = cache.getGeneration();
+            String[] paths = cache.get(key);
+            if (paths != null) {
+                ResourceResolver resolver = resource.getResourceResolver();
+                List<Resource> candidates = new ArrayList<Resource>(
+                    paths.length);
+                for (String path : paths) {
+                    Resource candidate = resolver.getResource(path);
+                    if (candidate != null) {
+                        candidates.add(candidate);
+                    }
+                }
+                return candidates;
+            }
+        }
+
+        Collection<Resource> candidates = locationUtil.getServlets(resource);
+
+        if (key != null) {
+            String[] paths = new String[candidates.size()];
+            int i = 0;
+            for (Resource candidate : candidates) {
+                paths[i++] = candidate.getPath();
+            }
+            cache.put(key, generation, paths);
+        }
+
+        return candidates;
+    }
+
     /**
      * Returns the internal default servlet which is called in case no other
      * servlet applies for handling a request. This servlet should really only
@@ -516,14 +585,22 @@ public class SlingServletResolver implements ServletResolver,
             servletRoot = DEFAULT_SERVLET_ROOT;
         }
 
+        int cacheSize = OsgiUtil.toInteger(properties.get(PROP_CACHE_SIZE),
+            DEFAULT_CACHE_SIZE);
+
         Collection<ServiceReference> refs;
         synchronized (this) {
 
             refs = pendingServlets;
             pendingServlets = new ArrayList<ServiceReference>();
 
+            String[] searchPath = this.resourceResolverFactory.getResourceResolver(null).getSearchPath();
             servletResourceProviderFactory = new ServletResourceProviderFactory(
-                servletRoot, this.resourceResolverFactory.getResourceResolver(null).getSearchPath());
+                servletRoot, searchPath);
+
+            this.cacheSize = cacheSize;
+            this.cacheSearchPath = searchPath;
+            createCache();
 
             // register servlets immediately from now on
             this.context = context;
@@ -531,10 +608,23 @@ public class SlingServletResolver implements ServletResolver,
         }
 
         createAllServlets(refs);
+
+        try {
+            org.apache.sling.servlets.resolver.internal.ServletResolverWebConsolePlugin.initPlugin(
+                context.getBundleContext(), this);
+        } catch (Throwable t) {
+            // so what ?
+        }
     }
 
     protected void deactivate(ComponentContext context) {
 
+        try {
+            org.apache.sling.servlets.resolver.internal.ServletResolverWebConsolePlugin.destroyPlugin();
+        } catch (Throwable t) {
+            // so what ?
+        }
+
         // Copy the list of servlets first, to minimize the need for synchronization
         Collection<ServiceReference> refs;
         synchronized (this) {
@@ -545,6 +635,11 @@ public class SlingServletResolver implements ServletResolver,
         destroyAllServlets(refs);
         this.context = null;
         this.servletResourceProviderFactory = null;
+
+        synchronized (this) {
+            this.cacheSearchPath = null;
+            disposeCache();
+        }
     }
 
     protected synchronized void bindServlet(ServiceReference reference) {
@@ -552,12 +647,58 @@ public class SlingServletResolver implements ServletResolver,
             pendingServlets.add(reference);
         } else {
             createServlet(servletContext, reference);
+            clearCache();
         }
     }
 
     protected synchronized void unbindServlet(ServiceReference reference) {
         pendingServlets.remove(reference);
         destroyServlet(reference);
+        clearCache();
+    }
+
+    // ---------- Resolution Cache ---------------------------------------------
+
+    /**
+     * Returns the servlet resolution cache or <code>null</code> if caching
+     * is disabled.
+     */
+    ServletResolutionCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Creates the cache if caching is enabled, the component is activated
+     * and the repository is available. Called with the lock held when
+     * activating and when the repository is bound, which may happen again
+     * after the repository has been restarted.
+     */
+    private void createCache() {
+        if (cache == null && cacheSize > 0 && cacheSearchPath != null
+            && repository != null) {
+            try {
+                cache = new ServletResolutionCache(repository, cacheSearchPath,
+                    cacheSize);
+            } catch (Throwable t) {
+                log.error("createCache: Cannot create the servlet resolution cache",
+                    t);
+            }
+        }
+    }
+
+    private void clearCache() {
+        ServletResolutionCache cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    private void disposeCache() {
+        ServletResolutionCache cache = this.cache;
+        this.cache = null;
+        if (cache != null) {
+            cache.dispose();
+        }
     }
 
     // ---------- Servlet Management -------------------------------------------
@@ -665,6 +806,18 @@ public class SlingServletResolver implements ServletResolver,
         }
     }
 
+    protected synchronized void bindRepository(SlingRepository repository) {
+        this.repository = repository;
+        createCache();
+    }
+
+    protected synchronized void unbindRepository(SlingRepository repository) {
+        if (this.repository == repository) {
+            disposeCache();
+            this.repository = null;
+        }
+    }
+
     protected void bindResourceResolverFactory(JcrResourceResolverFactory factory) {
         this.resourceResolverFactory = factory;
     }
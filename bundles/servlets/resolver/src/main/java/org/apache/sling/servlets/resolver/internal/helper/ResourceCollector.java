@@ -24,6 +24,8 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import javax.jcr.Session;
+
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.request.RequestPathInfo;
 import org.apache.sling.api.resource.Resource;
@@ -162,6 +164,59 @@ public class ResourceCollector {
         return resources;
     }
 
+    /**
+     * Returns a key identifying the servlets and scripts returned by
+     * {@link #getServlets(Resource)} for the given <code>resource</code>. The
+     * key is built from the resource type and resource super type of the
+     * resource, the request method, selectors and extension, the search path
+     * and the user and workspace of the resource resolver's session.
+     * <p>
+     * <code>null</code> is returned if the result should not be cached, which
+     * is the case if the resource type or super type is an absolute path or
+     * if the resource resolver is not backed by a JCR session.
+     *
+     * @param resource The <code>Resource</code> for which to return the key.
+     * @return The cache key or <code>null</code>.
+     */
+    public String getCacheKey(Resource resource) {
+        String resourceType = resource.getResourceType();
+        String resourceSuperType = resource.getResourceSuperType();
+        if (resourceType == null || resourceType.startsWith("/")
+            || (resourceSuperType != null && resourceSuperType.startsWith("/"))) {
+            return null;
+        }
+
+        ResourceResolver resolver = resource.getResourceResolver();
+        Session session = resolver.adaptTo(Session.class);
+        if (session == null) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(session.getUserID());
+        key.append('|').append(session.getWorkspace().getName());
+        key.append('|').append(resourceType);
+        key.append('|').append(resourceSuperType);
+        key.append('|').append(baseResourceType);
+        key.append('|').append(methodName);
+        key.append('|').append(extension);
+        key.append('|');
+        for (int i = 0; i < numRequestSelectors; i++) {
+            if (i > 0) {
+                key.append('.');
+            }
+            key.append(requestSelectors[i]);
+        }
+        key.append('|');
+        String[] searchPath = resolver.getSearchPath();
+        if (searchPath != null) {
+            for (String path : searchPath) {
+                key.append(path).append(',');
+            }
+        }
+        return key.toString();
+    }
+
     protected void getWeightedResources(Set<Resource> resources,
             Resource location) {
 
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.servlets.resolver.internal.helper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+
+import org.apache.sling.commons.testing.sling.MockResource;
+import org.apache.sling.commons.testing.sling.MockResourceResolver;
+import org.apache.sling.commons.testing.sling.MockSlingHttpServletRequest;
+
+public class ResourceCollectorCacheKeyTest extends HelperTestBase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        resourceResolver = new SessionResourceResolver("user", "default");
+        resourceResolver.setSearchPath("/apps", "/libs");
+
+        resource = new MockResource(resourceResolver, resourcePath,
+            resourceType);
+        resourceResolver.addResource(resource);
+    }
+
+    public void testSameRequest() {
+        String key1 = getKey(makeRequest("GET", "print.a4", "html"));
+        String key2 = getKey(makeRequest("GET", "print.a4", "html"));
+        assertNotNull(key1);
+        assertEquals(key1, key2);
+    }
+
+    public void testDifferentRequest() {
+        String key = getKey(makeRequest("GET", "print.a4", "html"));
+        assertFalse(key.equals(getKey(makeRequest("GET", "print", "html"))));
+        assertFalse(key.equals(getKey(makeRequest("GET", "print.a4", "txt"))));
+        assertFalse(key.equals(getKey(makeRequest("POST", "print.a4", "html"))));
+    }
+
+    public void testDifferentUser() {
+        String key = getKey(makeRequest("GET", "print.a4", "html"));
+
+        resourceResolver = new SessionResourceResolver("other", "default");
+        resourceResolver.setSearchPath("/apps", "/libs");
+        resource = new MockResource(resourceResolver, resourcePath,
+            resourceType);
+
+        assertFalse(key.equals(getKey(makeRequest("GET", "print.a4", "html"))));
+    }
+
+    public void testDifferentWorkspace() {
+        String key = getKey(makeRequest("GET", "print.a4", "html"));
+
+        resourceResolver = new SessionResourceResolver("user", "other");
+        resourceResolver.setSearchPath("/apps", "/libs");
+        resource = new MockResource(resourceResolver, resourcePath,
+            resourceType);
+
+        assertFalse(key.equals(getKey(makeRequest("GET", "print.a4", "html"))));
+    }
+
+    public void testAbsoluteResourceType() {
+        resource = new MockResource(resourceResolver, resourcePath,
+            "/apps/foo/bar");
+        assertNull(getKey(makeRequest("GET", "print.a4", "html")));
+    }
+
+    public void testNoSession() {
+        resourceResolver = new MockResourceResolver();
+        resource = new MockResource(resourceResolver, resourcePath,
+            resourceType);
+        assertNull(getKey(makeRequest("GET", "print.a4", "html")));
+    }
+
+    private String getKey(MockSlingHttpServletRequest request) {
+        return ResourceCollector.create(request).getCacheKey(resource);
+    }
+
+    private static class SessionResourceResolver extends MockResourceResolver {
+
+        private final Session session;
+
+        SessionResourceResolver(final String userId, final String workspaceName) {
+            final Workspace workspace = (Workspace) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { Workspace.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if ("getName".equals(method.getName())) {
+                            return workspaceName;
+                        }
+                        throw new UnsupportedOperationException(
+                            method.getName());
+                    }
+                });
+            session = (Session) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { Session.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if ("getUserID".equals(method.getName())) {
+                            return userId;
+                        } else if ("getWorkspace".equals(method.getName())) {
+                            return workspace;
+                        }
+                        throw new UnsupportedOperationException(
+                            method.getName());
+                    }
+                });
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <AdapterType> AdapterType adaptTo(Class<AdapterType> type) {
+            if (type == Session.class) {
+                return (AdapterType) session;
+            }
+            return super.adaptTo(type);
+        }
+    }
+}